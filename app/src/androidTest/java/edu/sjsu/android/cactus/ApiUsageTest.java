@@ -0,0 +1,165 @@
+package edu.sjsu.android.cactus;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Usage records of API calls: storage, aggregates and the cache-friendly request prefix.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ApiUsageTest {
+
+    private static final String DATABASE_NAME = "ApiUsageTest.db";
+
+    private Context context;
+    private ChatDatabaseHelper dbHelper;
+    private long sessionId;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        dbHelper = new ChatDatabaseHelper(context, DATABASE_NAME);
+        sessionId = dbHelper.createSession("Usage");
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void recordsAreWrittenWithTheirMessage() {
+        Message reply = new Message("Hello", false);
+        reply.setSessionId(sessionId);
+        ApiCallRecord record = record(System.currentTimeMillis(), 1200, 1000, 50, 400);
+        record.setMessage(reply);
+
+        dbHelper.writeBatch(Collections.singletonList(reply), Collections.singletonList(record),
+                Collections.emptyMap(), Collections.emptySet());
+
+        assertTrue(reply.getId() > 0);
+        assertTrue(record.getId() > 0);
+        assertEquals(reply.getId(), record.getMessageId());
+
+        UsageSummary usage = dbHelper.getSessionUsage(sessionId);
+        assertEquals(1, usage.getCallCount());
+        assertEquals(1200, usage.getPromptTokens());
+        assertEquals(1000, usage.getCachedTokens());
+        assertEquals(50, usage.getCompletionTokens());
+        assertEquals(400, usage.getTotalMs());
+    }
+
+    @Test
+    public void usageIsSummedPerDay() {
+        long now = System.currentTimeMillis();
+        long dayAgo = now - 24L * 60 * 60 * 1000;
+        List<ApiCallRecord> records = Arrays.asList(
+                record(now, 100, 0, 10, 200),
+                record(now, 300, 100, 30, 400),
+                record(dayAgo, 500, 0, 50, 600));
+        dbHelper.writeBatch(Collections.emptyList(), records, Collections.emptyMap(), Collections.emptySet());
+
+        List<UsageSummary> days = dbHelper.getDailyUsage(dayAgo);
+        assertEquals(2, days.size());
+        // Oldest day first
+        assertEquals(1, days.get(0).getCallCount());
+        assertEquals(500, days.get(0).getPromptTokens());
+        assertEquals(2, days.get(1).getCallCount());
+        assertEquals(400, days.get(1).getPromptTokens());
+        assertEquals(0.25, days.get(1).getCachedFraction(), 1e-9);
+
+        assertEquals(1, dbHelper.getDailyUsage(now - 1000).size());
+    }
+
+    @Test
+    public void latencyPercentiles() {
+        long now = System.currentTimeMillis();
+        List<ApiCallRecord> records = new ArrayList<>();
+        for (int ms = 1; ms <= 100; ms++) {
+            records.add(record(now, 10, 0, 1, ms));
+        }
+        // Not measured, left out of the percentiles
+        records.add(record(now, 10, 0, 1, -1));
+        dbHelper.writeBatch(Collections.emptyList(), records, Collections.emptyMap(), Collections.emptySet());
+
+        LatencyPercentiles total = dbHelper.getLatencyPercentiles(
+                ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_TOTAL_MS, now - 1000);
+        assertEquals(100, total.getSampleCount());
+        assertEquals(50, total.getP50());
+        assertEquals(95, total.getP95());
+        assertEquals(99, total.getP99());
+
+        LatencyPercentiles none = dbHelper.getLatencyPercentiles(
+                ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_TOTAL_MS, now + 60_000);
+        assertEquals(0, none.getSampleCount());
+    }
+
+    @Test
+    public void recordsAreDeletedWithTheirSession() {
+        dbHelper.insertApiCall(record(System.currentTimeMillis(), 100, 0, 10, 200));
+        assertEquals(1, dbHelper.getSessionUsage(sessionId).getCallCount());
+
+        dbHelper.deleteSession(sessionId);
+
+        assertEquals(0, dbHelper.getSessionUsage(sessionId).getCallCount());
+    }
+
+    @Test
+    public void usageIsReadFromTheResponse() throws Exception {
+        ApiCallRecord record = new ApiCallRecord(sessionId, "gpt-4o-mini", "CHAT", 0);
+        record.setUsage(new JSONObject("{\"prompt_tokens\":2006,\"completion_tokens\":300," +
+                "\"prompt_tokens_details\":{\"cached_tokens\":1920}}"));
+        assertEquals(2006, record.getPromptTokens());
+        assertEquals(1920, record.getCachedTokens());
+        assertEquals(300, record.getCompletionTokens());
+
+        // Providers without prompt caching leave the details out
+        record.setUsage(new JSONObject("{\"prompt_tokens\":10,\"completion_tokens\":5}"));
+        assertEquals(-1, record.getCachedTokens());
+    }
+
+    @Test
+    public void requestPrefixIsByteStableAcrossTurns() throws Exception {
+        ConversationPayload payload = new ConversationPayload("You are a helpful assistant.");
+        Message first = new Message("What time is it?", true);
+        byte[] before = bytesOf(payload.update(sessionId, Collections.singletonList(first)));
+        byte[] after = bytesOf(payload.update(sessionId, Arrays.asList(first, new Message("Noon.", false),
+                new Message("Thanks", true))));
+
+        // The later request only appends to the earlier one
+        assertTrue(after.length > before.length);
+        assertArrayEquals(before, Arrays.copyOf(after, before.length));
+    }
+
+    private ApiCallRecord record(long timestamp, int promptTokens, int cachedTokens, int completionTokens,
+                                 long totalMs) {
+        ApiCallRecord record = new ApiCallRecord(sessionId, "gpt-4o-mini", "CHAT", timestamp);
+        record.setUsage(promptTokens, cachedTokens, completionTokens);
+        record.setTimings(5, totalMs < 0 ? -1 : totalMs / 2, -1, totalMs);
+        return record;
+    }
+
+    private static byte[] bytesOf(ConversationPayload.Snapshot snapshot) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshot.writeTo(out);
+        return out.toByteArray();
+    }
+}
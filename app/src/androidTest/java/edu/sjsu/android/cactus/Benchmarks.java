@@ -0,0 +1,25 @@
+package edu.sjsu.android.cactus;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Assume;
+
+/**
+ * Keeps the benchmarks out of the regular instrumented test run. They take minutes and their
+ * timings depend on the device, so they only run when asked for:
+ * ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.benchmark=true
+ */
+final class Benchmarks {
+
+    static final String ARGUMENT = "benchmark";
+
+    private Benchmarks() {}
+
+    /**
+     * Skip the calling test, or the whole class from a @BeforeClass, unless benchmarks were asked for
+     */
+    static void assumeEnabled() {
+        Assume.assumeTrue("Benchmarks run only with the " + ARGUMENT + "=true instrumentation argument",
+                Boolean.parseBoolean(InstrumentationRegistry.getArguments().getString(ARGUMENT)));
+    }
+}
@@ -0,0 +1,128 @@
+package edu.sjsu.android.cactus;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Moves a cold session to the archive database and back.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChatArchiveTest {
+
+    private static final String DATABASE_NAME = "ChatArchiveTest.db";
+
+    private Context context;
+    private ChatDatabaseHelper dbHelper;
+    private long coldSessionId;
+    private long hotSessionId;
+    private final List<Message> coldMessages = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        deleteDatabases();
+        dbHelper = new ChatDatabaseHelper(context, DATABASE_NAME);
+
+        coldSessionId = dbHelper.createSession("Cold");
+        StringBuilder longBody = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            longBody.append("A long archived answer about zeppelins, line ").append(i).append('\n');
+        }
+        for (int i = 0; i < 20; i++) {
+            Message message = new Message(i == 5 ? longBody.toString() : "Cold message " + i, i % 2 == 0, 1000 + i);
+            message.setSessionId(coldSessionId);
+            message.setId(dbHelper.insertMessage(message));
+            coldMessages.add(message);
+        }
+
+        hotSessionId = dbHelper.createSession("Hot");
+        Message message = new Message("Recent message", true);
+        message.setSessionId(hotSessionId);
+        dbHelper.insertMessage(message);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        deleteDatabases();
+    }
+
+    private void deleteDatabases() {
+        context.deleteDatabase(DATABASE_NAME);
+        context.deleteDatabase(ChatArchiveHelper.archiveNameFor(DATABASE_NAME));
+    }
+
+    @Test
+    public void archiveAndRehydrate() {
+        long untouchedSince = System.currentTimeMillis() - 60_000;
+
+        assertFalse(dbHelper.archiveColdSession(untouchedSince, -1));
+        assertTrue(dbHelper.archiveColdSession(untouchedSince, -1));
+
+        // Still listed with its aggregates, but its rows have left the hot tables
+        ChatSession cold = findSession(coldSessionId);
+        assertTrue(cold.isArchived());
+        assertEquals(20, cold.getMessageCount());
+        assertEquals("Cold message 19", cold.getLastMessagePreview());
+        assertFalse(findSession(hotSessionId).isArchived());
+        assertTrue(dbHelper.getMessagesForSession(coldSessionId).isEmpty());
+        assertTrue(dbHelper.search("zeppelins", 10, 0).isEmpty());
+
+        dbHelper.rehydrateSession(coldSessionId);
+
+        List<Message> restored = dbHelper.getMessagesForSession(coldSessionId);
+        assertEquals(coldMessages.size(), restored.size());
+        for (int i = 0; i < restored.size(); i++) {
+            assertEquals(coldMessages.get(i).getId(), restored.get(i).getId());
+            assertEquals(coldMessages.get(i).getContent(), restored.get(i).getContent());
+            assertEquals(coldMessages.get(i).isUser(), restored.get(i).isUser());
+        }
+        cold = findSession(coldSessionId);
+        assertFalse(cold.isArchived());
+        assertEquals(20, cold.getMessageCount());
+        assertEquals(1, dbHelper.search("zeppelins", 10, 0).size());
+
+        // Just rehydrated, so it is not cold any more
+        assertTrue(dbHelper.archiveColdSession(untouchedSince, -1));
+        assertFalse(findSession(coldSessionId).isArchived());
+    }
+
+    @Test
+    public void excludedSessionStaysHot() {
+        assertTrue(dbHelper.archiveColdSession(System.currentTimeMillis() - 60_000, coldSessionId));
+        assertFalse(findSession(coldSessionId).isArchived());
+    }
+
+    @Test
+    public void deletedArchivedSessionIsPruned() {
+        dbHelper.archiveColdSession(System.currentTimeMillis() - 60_000, -1);
+        dbHelper.deleteSession(coldSessionId);
+        dbHelper.pruneArchive();
+
+        ChatArchiveHelper archiveHelper = new ChatArchiveHelper(context, ChatArchiveHelper.archiveNameFor(DATABASE_NAME));
+        assertTrue(archiveHelper.getSessionIds().isEmpty());
+        archiveHelper.close();
+    }
+
+    private ChatSession findSession(long sessionId) {
+        for (ChatSession session : dbHelper.getAllSessions()) {
+            if (session.getId() == sessionId) {
+                return session;
+            }
+        }
+        fail("Session " + sessionId + " is not listed");
+        return null;
+    }
+}
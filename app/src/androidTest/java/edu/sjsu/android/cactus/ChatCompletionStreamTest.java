@@ -0,0 +1,91 @@
+package edu.sjsu.android.cactus;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Assembles canned server-sent event streams into chat completion responses.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChatCompletionStreamTest {
+
+    @Test
+    public void contentDeltasAreForwardedAndJoined() throws Exception {
+        List<String> deltas = new ArrayList<>();
+        ChatCompletionStream stream = new ChatCompletionStream(deltas::add);
+
+        JSONObject response = stream.read(events(
+                "{\"id\":\"c1\",\"model\":\"m\",\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"\"}}]}",
+                "{\"id\":\"c1\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"Hel\"}}]}",
+                ": keep-alive comment",
+                "{\"id\":\"c1\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"lo ✓\"}}]}",
+                "{\"id\":\"c1\",\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}]}",
+                "{\"id\":\"c1\",\"choices\":[],\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":3}}",
+                "[DONE]"));
+
+        assertEquals(2, deltas.size());
+        JSONObject choice = response.getJSONArray("choices").getJSONObject(0);
+        assertEquals("Hello ✓", choice.getJSONObject("message").getString("content"));
+        assertEquals("stop", choice.getString("finish_reason"));
+        assertEquals(12, response.getJSONObject("usage").getInt("prompt_tokens"));
+        assertTrue(stream.getFirstTokenNanos() > 0);
+    }
+
+    @Test
+    public void toolCallDeltasAreAssembledByIndex() throws Exception {
+        List<String> deltas = new ArrayList<>();
+        JSONObject response = new ChatCompletionStream(deltas::add).read(events(
+                "{\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"tool_calls\":[" +
+                        "{\"index\":0,\"id\":\"call_a\",\"type\":\"function\",\"function\":{\"name\":\"set_alarm\",\"arguments\":\"\"}}]}}]}",
+                "{\"choices\":[{\"index\":0,\"delta\":{\"tool_calls\":[{\"index\":0,\"function\":{\"arguments\":\"{\\\"hour\\\":\"}}]}}]}",
+                "{\"choices\":[{\"index\":0,\"delta\":{\"tool_calls\":[" +
+                        "{\"index\":1,\"id\":\"call_b\",\"type\":\"function\",\"function\":{\"name\":\"make_call\",\"arguments\":\"{\\\"phone_number\\\":\\\"555\\\"}\"}}]}}]}",
+                "{\"choices\":[{\"index\":0,\"delta\":{\"tool_calls\":[{\"index\":0,\"function\":{\"arguments\":\"7,\\\"minutes\\\":0}\"}}]}}]}",
+                "{\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"tool_calls\"}]}",
+                "[DONE]"));
+
+        assertTrue(deltas.isEmpty());
+        JSONObject message = response.getJSONArray("choices").getJSONObject(0).getJSONObject("message");
+        assertFalse(message.has("content"));
+
+        JSONArray toolCalls = message.getJSONArray("tool_calls");
+        assertEquals(2, toolCalls.length());
+        assertEquals("call_a", toolCalls.getJSONObject(0).getString("id"));
+        JSONObject alarm = toolCalls.getJSONObject(0).getJSONObject("function");
+        assertEquals("set_alarm", alarm.getString("name"));
+        JSONObject arguments = new JSONObject(alarm.getString("arguments"));
+        assertEquals(7, arguments.getInt("hour"));
+        assertEquals(0, arguments.getInt("minutes"));
+        assertEquals("make_call", toolCalls.getJSONObject(1).getJSONObject("function").getString("name"));
+    }
+
+    @Test
+    public void missingDoneMarkerEndsAtEndOfStream() throws Exception {
+        String body = "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"partial\"}}]}";
+        JSONObject response = new ChatCompletionStream(null)
+                .read(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("partial", response.getJSONArray("choices").getJSONObject(0)
+                .getJSONObject("message").getString("content"));
+    }
+
+    private static InputStream events(String... data) {
+        StringBuilder body = new StringBuilder();
+        for (String event : data) {
+            body.append(event.startsWith(":") ? event : "data: " + event).append("\n\n");
+        }
+        return new ByteArrayInputStream(body.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
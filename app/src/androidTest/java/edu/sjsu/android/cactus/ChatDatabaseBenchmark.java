@@ -0,0 +1,127 @@
+package edu.sjsu.android.cactus;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Inserts and reads 50k messages through the compiled-statement / hoisted-index paths
+ * and through the previous ContentValues / per-row getColumnIndexOrThrow paths.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChatDatabaseBenchmark {
+
+    private static final int MESSAGE_COUNT = 50_000;
+    private static final String DATABASE_NAME = "ChatDatabaseBenchmark.db";
+
+    private ChatDatabaseHelper dbHelper;
+
+    @BeforeClass
+    public static void assumeBenchmarksEnabled() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        dbHelper = new ChatDatabaseHelper(context, DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        InstrumentationRegistry.getInstrumentation().getTargetContext().deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void insertAndRead50kMessages() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long baselineSession = dbHelper.createSession("ContentValues");
+        long compiledSession = dbHelper.createSession("Compiled");
+
+        // Previous insert path: a fresh ContentValues and db.insert per message
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                ContentValues values = new ContentValues();
+                values.put(ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID, baselineSession);
+                values.put(ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT, "Message " + i);
+                values.put(ChatDatabaseContract.MessageEntry.COLUMN_NAME_IS_USER, i % 2);
+                values.put(ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP, (long) i);
+                db.insert(ChatDatabaseContract.MessageEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        double baselineInsertMs = (System.nanoTime() - start) / 1e6;
+
+        // Compiled statement path
+        start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                Message message = new Message("Message " + i, i % 2 == 0, i);
+                message.setSessionId(compiledSession);
+                dbHelper.insertMessage(message);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        double compiledInsertMs = (System.nanoTime() - start) / 1e6;
+
+        // Previous read path: getColumnIndexOrThrow five times per row
+        start = System.nanoTime();
+        List<Message> baselineMessages = new ArrayList<>();
+        Cursor cursor = db.query(ChatDatabaseContract.MessageEntry.TABLE_NAME, null,
+                ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + " = ?",
+                new String[]{String.valueOf(baselineSession)}, null, null,
+                ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " ASC");
+        while (cursor.moveToNext()) {
+            long id = cursor.getLong(cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry._ID));
+            long sessionId = cursor.getLong(cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID));
+            String content = cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT));
+            int isUser = cursor.getInt(cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry.COLUMN_NAME_IS_USER));
+            long timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP));
+            Message message = new Message(content, isUser == 1, timestamp);
+            message.setId(id);
+            message.setSessionId(sessionId);
+            baselineMessages.add(message);
+        }
+        cursor.close();
+        double baselineReadMs = (System.nanoTime() - start) / 1e6;
+
+        // Shared row mapper path
+        start = System.nanoTime();
+        List<Message> mappedMessages = dbHelper.getMessagesForSession(compiledSession);
+        double mappedReadMs = (System.nanoTime() - start) / 1e6;
+
+        Log.i("ChatDatabaseBenchmark", String.format(
+                "insert %d: ContentValues %.0f ms, compiled %.0f ms; read: per-row index %.0f ms, mapper %.0f ms",
+                MESSAGE_COUNT, baselineInsertMs, compiledInsertMs, baselineReadMs, mappedReadMs));
+
+        assertEquals(MESSAGE_COUNT, baselineMessages.size());
+        assertEquals(MESSAGE_COUNT, mappedMessages.size());
+        assertEquals("Message 0", mappedMessages.get(0).getContent());
+        assertTrue(compiledInsertMs < baselineInsertMs);
+    }
+}
@@ -0,0 +1,98 @@
+package edu.sjsu.android.cactus;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that session and history reads are not blocked by an open write transaction.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChatDatabaseConcurrencyTest {
+
+    private static final String DATABASE_NAME = "ChatConcurrencyTest.db";
+
+    private ChatDatabaseHelper dbHelper;
+    private long sessionId;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        dbHelper = new ChatDatabaseHelper(context, DATABASE_NAME);
+
+        sessionId = dbHelper.createSession("Committed");
+        Message message = new Message("Committed message", true);
+        message.setSessionId(sessionId);
+        dbHelper.insertMessage(message);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        InstrumentationRegistry.getInstrumentation().getTargetContext().deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void readsProceedWhileWriteTransactionIsOpen() throws Exception {
+        assertTrue(dbHelper.getWritableDatabase().isWriteAheadLoggingEnabled());
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch writeStarted = new CountDownLatch(1);
+        CountDownLatch readsDone = new CountDownLatch(1);
+
+        Future<?> writer = executor.submit(() -> {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < 10_000; i++) {
+                    Message message = new Message("Uncommitted message " + i, i % 2 == 0);
+                    message.setSessionId(sessionId);
+                    dbHelper.insertMessage(message);
+                }
+                writeStarted.countDown();
+                // Hold the transaction open until the reader is done
+                readsDone.await(10, TimeUnit.SECONDS);
+                db.setTransactionSuccessful();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                db.endTransaction();
+            }
+        });
+
+        assertTrue(writeStarted.await(30, TimeUnit.SECONDS));
+
+        Future<List<Message>> reader = executor.submit(() -> {
+            dbHelper.getAllSessions();
+            return dbHelper.getLatestMessages(sessionId, MessageAdapter.PAGE_SIZE);
+        });
+
+        // The reader sees the last committed state instead of waiting for the writer
+        List<Message> messages = reader.get(2, TimeUnit.SECONDS);
+        assertEquals(1, messages.size());
+        assertEquals("Committed message", messages.get(0).getContent());
+
+        readsDone.countDown();
+        writer.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertEquals(MessageAdapter.PAGE_SIZE, dbHelper.getLatestMessages(sessionId, MessageAdapter.PAGE_SIZE).size());
+    }
+}
@@ -0,0 +1,223 @@
+package edu.sjsu.android.cactus;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Request serialization and response parsing for histories of growing length:
+ * the org.json tree turned into a string and bytes, against ChatRequestWriter and
+ * ChatResponseReader working on the streams directly.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChatPayloadBenchmark {
+
+    private static final int[] HISTORY_LENGTHS = {50, 500, 2000};
+    private static final int ITERATIONS = 20;
+    private static final String MODEL = "gpt-4o-mini";
+
+    private static final String[] SENTENCES = {
+            "Sure! Here's a quick overview of what you asked about.",
+            "The alarm has been set for 7:00 AM with the label \"Morning run\".",
+            "1. Preheat the oven to 200°C.\n2. Toss the vegetables in olive oil.\n3. Roast for 25 minutes.",
+            "If the issue persists, try restarting the device and checking for updates.",
+            "Let me know if you'd like me to set a reminder or call someone for you."
+    };
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private final List<BaseTool> tools = Arrays.asList(new AlarmTool(context), new PhoneCallTool(context));
+
+    @Test
+    public void writtenRequestMatchesTree() throws Exception {
+        JSONArray messages = buildHistory(20);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChatRequestWriter.write(out, MODEL, messages, tools, true);
+
+        JSONObject written = new JSONObject(out.toString("UTF-8"));
+        assertEquals(buildRequestTree(messages, true).toString(), written.toString());
+    }
+
+    @Test
+    public void readerKeepsMessageToolCallsAndUsage() throws Exception {
+        JSONObject response = ChatResponseReader.read(utf8(buildResponse(true)));
+
+        JSONObject choice = response.getJSONArray("choices").getJSONObject(0);
+        assertEquals(1, response.getJSONArray("choices").length());
+        assertEquals("tool_calls", choice.getString("finish_reason"));
+        JSONObject message = choice.getJSONObject("message");
+        assertFalse(message.has("content"));
+        assertEquals("set_alarm", message.getJSONArray("tool_calls").getJSONObject(0)
+                .getJSONObject("function").getString("name"));
+        assertEquals(1234, response.getJSONObject("usage").getInt("prompt_tokens"));
+        assertFalse(response.has("system_fingerprint"));
+    }
+
+    @Test
+    public void serializationAndParsing() throws Exception {
+        Benchmarks.assumeEnabled();
+        for (int length : HISTORY_LENGTHS) {
+            JSONArray messages = buildHistory(length);
+            CountingOutputStream sink = new CountingOutputStream();
+
+            // Warm up both paths
+            writeTree(sink, messages);
+            long requestBytes = sink.count;
+            ChatRequestWriter.write(sink, MODEL, messages, tools, true);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                writeTree(sink, messages);
+            }
+            double treeMs = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                ChatRequestWriter.write(sink, MODEL, messages, tools, true);
+            }
+            double streamMs = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+            Log.i("ChatPayloadBenchmark", String.format(
+                    "%d messages (%d KB): request tree %.2f ms, streaming writer %.2f ms",
+                    length, requestBytes / 1024, treeMs, streamMs));
+        }
+
+        byte[] response = buildResponse(false).getBytes(StandardCharsets.UTF_8);
+        parseTree(response);
+        ChatResponseReader.read(new ByteArrayInputStream(response));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS * 10; i++) {
+            parseTree(response);
+        }
+        double treeMs = (System.nanoTime() - start) / 1e6 / (ITERATIONS * 10);
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS * 10; i++) {
+            ChatResponseReader.read(new ByteArrayInputStream(response));
+        }
+        double pullMs = (System.nanoTime() - start) / 1e6 / (ITERATIONS * 10);
+
+        Log.i("ChatPayloadBenchmark", String.format(
+                "response (%d KB): string and tree %.3f ms, pull parser %.3f ms", response.length / 1024, treeMs, pullMs));
+    }
+
+    /**
+     * What callChatCompletionsAPI did before: tree, string, bytes, then write
+     */
+    private void writeTree(OutputStream out, JSONArray messages) throws Exception {
+        out.write(buildRequestTree(messages, true).toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private JSONObject buildRequestTree(JSONArray messages, boolean stream) throws Exception {
+        JSONObject request = new JSONObject();
+        request.put("model", MODEL);
+        request.put("messages", messages);
+        JSONArray toolDefinitions = new JSONArray();
+        for (BaseTool tool : tools) {
+            toolDefinitions.put(tool.getFunctionDefinition());
+        }
+        request.put("tools", toolDefinitions);
+        request.put("tool_choice", "auto");
+        if (stream) {
+            request.put("stream", true);
+            request.put("stream_options", new JSONObject().put("include_usage", true));
+        }
+        return request;
+    }
+
+    private static JSONObject parseTree(byte[] response) throws Exception {
+        Reader reader = new InputStreamReader(new ByteArrayInputStream(response), StandardCharsets.UTF_8);
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            text.append(buffer, 0, read);
+        }
+        return new JSONObject(text.toString());
+    }
+
+    private static JSONArray buildHistory(int length) throws Exception {
+        Random random = new Random(7);
+        JSONArray messages = new JSONArray();
+        messages.put(new JSONObject().put("role", "system").put("content", "You are a helpful assistant."));
+        for (int i = 0; i < length; i++) {
+            StringBuilder content = new StringBuilder();
+            int sentences = i % 2 == 0 ? 1 : 2 + random.nextInt(12);
+            for (int j = 0; j < sentences; j++) {
+                content.append(SENTENCES[random.nextInt(SENTENCES.length)]).append(' ');
+            }
+            messages.put(new JSONObject().put("role", i % 2 == 0 ? "user" : "assistant").put("content", content.toString()));
+        }
+        return messages;
+    }
+
+    /**
+     * A non-streamed completion padded with the fields the app never reads
+     */
+    private static String buildResponse(boolean toolCall) throws Exception {
+        JSONArray logprobs = new JSONArray();
+        for (int i = 0; i < 2000; i++) {
+            logprobs.put(new JSONObject().put("token", "tok" + i).put("logprob", -0.25 * (i % 7)));
+        }
+        JSONObject message = new JSONObject().put("role", "assistant");
+        if (toolCall) {
+            message.put("content", JSONObject.NULL);
+            message.put("tool_calls", new JSONArray().put(new JSONObject()
+                    .put("id", "call_1").put("type", "function")
+                    .put("function", new JSONObject().put("name", "set_alarm")
+                            .put("arguments", "{\"hour\":7,\"minutes\":0}"))));
+        } else {
+            message.put("content", SENTENCES[0] + " " + SENTENCES[3]);
+        }
+        JSONObject choice = new JSONObject().put("index", 0).put("message", message)
+                .put("logprobs", new JSONObject().put("content", logprobs))
+                .put("finish_reason", toolCall ? "tool_calls" : "stop");
+        return new JSONObject()
+                .put("id", "chatcmpl-1")
+                .put("object", "chat.completion")
+                .put("model", MODEL)
+                .put("system_fingerprint", "fp_1")
+                .put("choices", new JSONArray().put(choice)
+                        .put(new JSONObject().put("index", 1).put("message", message)))
+                .put("usage", new JSONObject().put("prompt_tokens", 1234).put("completion_tokens", 56))
+                .toString();
+    }
+
+    private static InputStream utf8(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
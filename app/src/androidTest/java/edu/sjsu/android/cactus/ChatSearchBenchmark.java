@@ -0,0 +1,90 @@
+package edu.sjsu.android.cactus;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures full-text search latency over a history of 100k messages.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChatSearchBenchmark {
+
+    private static final int MESSAGE_COUNT = 100_000;
+    private static final int BATCH_SIZE = 1000;
+    private static final String DATABASE_NAME = "ChatSearchBenchmark.db";
+
+    private static final String[] WORDS = {
+            "alarm", "meeting", "weather", "call", "dinner", "flight", "reminder", "project",
+            "birthday", "doctor", "groceries", "traffic", "coffee", "report", "invoice", "gym"
+    };
+
+    private ChatDatabaseHelper dbHelper;
+
+    @BeforeClass
+    public static void assumeBenchmarksEnabled() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        dbHelper = new ChatDatabaseHelper(context, DATABASE_NAME);
+
+        long sessionId = dbHelper.createSession("Benchmark");
+        long timestamp = 0;
+        for (int batch = 0; batch < MESSAGE_COUNT / BATCH_SIZE; batch++) {
+            List<Message> messages = new ArrayList<>();
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                int n = batch * BATCH_SIZE + i;
+                String content = "Message " + n + " about " + WORDS[n % WORDS.length] + " and "
+                        + WORDS[(n / 7) % WORDS.length] + ", ticket zz" + n;
+                Message message = new Message(content, n % 2 == 0, timestamp++);
+                message.setSessionId(sessionId);
+                messages.add(message);
+            }
+            dbHelper.writeBatch(messages, Collections.emptyMap(), Collections.emptyList());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        InstrumentationRegistry.getInstrumentation().getTargetContext().deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void searchLatencyAt100kMessages() {
+        String[] queries = {"zz4242", "doctor", "flight invoice", "rem", "birthday coffee"};
+        for (String query : queries) {
+            long start = System.nanoTime();
+            List<SearchResult> results = dbHelper.search(query, 20, 0);
+            double elapsedMs = (System.nanoTime() - start) / 1e6;
+
+            Log.i("ChatSearchBenchmark", String.format("'%s': %d hits in %.1f ms", query, results.size(), elapsedMs));
+            assertFalse(results.isEmpty());
+        }
+
+        // Terms are prefix matched: zz4242 and zz42420..zz42429
+        List<SearchResult> prefixed = dbHelper.search("zz4242", 20, 0);
+        assertEquals(11, prefixed.size());
+        for (SearchResult result : prefixed) {
+            assertTrue(result.getSnippet().contains(ChatDatabaseHelper.SNIPPET_MATCH_START + "zz4242"));
+        }
+    }
+}
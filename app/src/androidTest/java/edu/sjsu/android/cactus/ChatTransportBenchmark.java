@@ -0,0 +1,114 @@
+package edu.sjsu.android.cactus;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+
+import static org.junit.Assert.*;
+
+/**
+ * Back-to-back turn latency over TLS against a local server: a new connection per turn,
+ * as with a fresh client each time, versus one shared, pooled ChatTransport.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChatTransportBenchmark {
+
+    private static final int TURNS = 30;
+    private static final byte[] BODY = ("{\"model\":\"gpt-4o-mini\",\"messages\":[{\"role\":\"user\",\"content\":\"" +
+            "Set an alarm for 7\"}]}").getBytes(StandardCharsets.UTF_8);
+    private static final String RESPONSE = "{\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\"," +
+            "\"content\":\"Done.\"},\"finish_reason\":\"stop\"}]}";
+
+    private MockWebServer server;
+    private HandshakeCertificates clientCertificates;
+
+    @BeforeClass
+    public static void assumeBenchmarksEnabled() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        String host = InetAddress.getByName("localhost").getCanonicalHostName();
+        HeldCertificate certificate = new HeldCertificate.Builder().addSubjectAlternativeName(host).build();
+        HandshakeCertificates serverCertificates = new HandshakeCertificates.Builder()
+                .heldCertificate(certificate)
+                .build();
+        clientCertificates = new HandshakeCertificates.Builder()
+                .addTrustedCertificate(certificate.certificate())
+                .build();
+
+        server = new MockWebServer();
+        server.useHttps(serverCertificates.sslSocketFactory(), false);
+        server.setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void backToBackTurns() throws IOException {
+        String url = server.url("/v1/chat/completions").toString();
+
+        // Warm up the code paths once
+        runTurn(newTransport(url));
+
+        long coldStart = System.nanoTime();
+        for (int i = 0; i < TURNS; i++) {
+            runTurn(newTransport(url));
+        }
+        double coldMs = (System.nanoTime() - coldStart) / 1e6 / TURNS;
+
+        ChatTransport pooled = newTransport(url);
+        runTurn(pooled);
+        long warmStart = System.nanoTime();
+        for (int i = 0; i < TURNS; i++) {
+            runTurn(pooled);
+        }
+        double warmMs = (System.nanoTime() - warmStart) / 1e6 / TURNS;
+
+        Log.i("ChatTransportBenchmark", String.format(
+                "Mean turn latency over %d turns: new connection %.2f ms, pooled %.2f ms", TURNS, coldMs, warmMs));
+        assertTrue(warmMs < coldMs);
+    }
+
+    private ChatTransport newTransport(String url) {
+        return new ChatTransport(url, new OkHttpClient.Builder()
+                .sslSocketFactory(clientCertificates.sslSocketFactory(), clientCertificates.trustManager()));
+    }
+
+    private void runTurn(ChatTransport transport) throws IOException {
+        server.enqueue(new MockResponse().setBody(RESPONSE));
+        try (ChatTransport.Exchange exchange = transport.post(ChatTransport.RequestClass.CHAT, "test-key",
+                out -> out.write(BODY))) {
+            assertEquals(200, exchange.getStatusCode());
+            InputStream body = exchange.getBody();
+            byte[] buffer = new byte[4096];
+            while (body.read(buffer) != -1) {
+                // Drain the response like a real turn does
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package edu.sjsu.android.cactus;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Okio;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hedged requests in ChatTransport against a mock server with slow responses.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChatTransportHedgeTest {
+
+    private MockWebServer server;
+    private ChatTransport transport;
+    private HedgePolicy hedgePolicy;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        transport = new ChatTransport(server.url("/v1/chat/completions").toString(), new OkHttpClient.Builder());
+        // Hedge after 200 ms until latencies are known
+        hedgePolicy = new HedgePolicy(0.95, 50, 1_000, 200);
+        transport.setHedgePolicy(hedgePolicy);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void slowRequestIsHedgedAndTheFasterResponseWins() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"slow\":true}").setHeadersDelay(3, TimeUnit.SECONDS));
+        server.enqueue(new MockResponse().setBody("{\"slow\":false}"));
+
+        long start = System.nanoTime();
+        try (ChatTransport.Exchange exchange = post(ChatTransport.RequestClass.CHAT)) {
+            assertEquals(200, exchange.getStatusCode());
+            assertTrue(exchange.isHedged());
+            assertTrue(exchange.isHedgeWon());
+            assertEquals("{\"slow\":false}", Okio.buffer(Okio.source(exchange.getBody())).readUtf8());
+        }
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 2_000);
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, hedgePolicy.getHedgeCount());
+        assertEquals(1, hedgePolicy.getHedgeWinCount());
+    }
+
+    @Test
+    public void fastRequestIsNotHedged() throws Exception {
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        try (ChatTransport.Exchange exchange = post(ChatTransport.RequestClass.CHAT)) {
+            assertEquals(200, exchange.getStatusCode());
+            assertFalse(exchange.isHedged());
+        }
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, hedgePolicy.getRequestCount());
+        assertEquals(0, hedgePolicy.getHedgeCount());
+    }
+
+    @Test
+    public void toolFollowUpsAreNeverHedged() throws Exception {
+        server.enqueue(new MockResponse().setBody("{}").setHeadersDelay(600, TimeUnit.MILLISECONDS));
+
+        try (ChatTransport.Exchange exchange = post(ChatTransport.RequestClass.TOOL_FOLLOW_UP)) {
+            assertEquals(200, exchange.getStatusCode());
+            assertFalse(exchange.isHedged());
+        }
+        assertEquals(1, server.getRequestCount());
+        assertEquals(0, hedgePolicy.getRequestCount());
+    }
+
+    @Test
+    public void noHedgeWithoutRoomInTheQuota() throws Exception {
+        // One request in the bucket, taken by the first request
+        transport.setRateLimiter(new RateLimiter(1, 1, 5_000));
+        server.enqueue(new MockResponse().setBody("{}").setHeadersDelay(600, TimeUnit.MILLISECONDS));
+
+        try (ChatTransport.Exchange exchange = post(ChatTransport.RequestClass.CHAT)) {
+            assertEquals(200, exchange.getStatusCode());
+            assertFalse(exchange.isHedged());
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void delayFollowsTheLatencyPercentile() {
+        assertEquals(200, hedgePolicy.getDelayMs());
+        for (int ms = 1; ms <= 100; ms++) {
+            hedgePolicy.recordLatency(ms);
+        }
+        assertEquals(95, hedgePolicy.getDelayMs());
+
+        // Clamped to the configured range
+        for (int i = 0; i < 100; i++) {
+            hedgePolicy.recordLatency(10);
+        }
+        assertEquals(50, hedgePolicy.getDelayMs());
+    }
+
+    private ChatTransport.Exchange post(ChatTransport.RequestClass requestClass) throws IOException {
+        return transport.post(requestClass, "test-key",
+                out -> out.write("{}".getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,175 @@
+package edu.sjsu.android.cactus;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Retry, circuit breaker and rate limiting in ChatTransport against scripted server responses.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChatTransportRetryTest {
+
+    private MockWebServer server;
+    private ChatTransport transport;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        transport = new ChatTransport(server.url("/v1/chat/completions").toString(), new OkHttpClient.Builder());
+        transport.setRetryPolicy(new RetryPolicy(3, 10, 50, 5_000));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void serverErrorsAreRetried() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(502));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        try (ChatTransport.Exchange exchange = post()) {
+            assertEquals(200, exchange.getStatusCode());
+            assertEquals(3, exchange.getAttempts());
+        }
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void exhaustedRetriesReturnTheLastResponse() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            server.enqueue(new MockResponse().setResponseCode(500));
+        }
+
+        try (ChatTransport.Exchange exchange = post()) {
+            assertEquals(500, exchange.getStatusCode());
+            assertEquals(3, exchange.getAttempts());
+        }
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void clientErrorsAreNotRetried() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(401));
+
+        try (ChatTransport.Exchange exchange = post()) {
+            assertEquals(401, exchange.getStatusCode());
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void retryAfterIsHonored() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429).addHeader("Retry-After", "1"));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        long start = System.nanoTime();
+        try (ChatTransport.Exchange exchange = post()) {
+            assertEquals(200, exchange.getStatusCode());
+        }
+        assertTrue((System.nanoTime() - start) / 1_000_000 >= 1_000);
+    }
+
+    @Test
+    public void longRetryAfterIsNotWaitedFor() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429).addHeader("Retry-After", "120"));
+
+        long start = System.nanoTime();
+        try (ChatTransport.Exchange exchange = post()) {
+            assertEquals(429, exchange.getStatusCode());
+            assertEquals(1, exchange.getAttempts());
+        }
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 1_000);
+    }
+
+    @Test
+    public void openCircuitFailsFastThenRecovers() throws Exception {
+        transport.setRetryPolicy(new RetryPolicy(1, 10, 50, 5_000));
+        transport.setCircuitBreaker(new CircuitBreaker(2, 300));
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse().setResponseCode(500));
+
+        post().close();
+        post().close();
+        try {
+            post().close();
+            fail("Expected the circuit to be open");
+        } catch (CircuitBreaker.OpenException expected) {
+            assertTrue(expected.getRetryInMs() <= 300);
+        }
+        assertEquals(2, server.getRequestCount());
+
+        // After the open period one trial call goes through and closes the circuit
+        Thread.sleep(350);
+        server.enqueue(new MockResponse().setBody("{}"));
+        server.enqueue(new MockResponse().setBody("{}"));
+        try (ChatTransport.Exchange exchange = post()) {
+            assertEquals(200, exchange.getStatusCode());
+        }
+        try (ChatTransport.Exchange exchange = post()) {
+            assertEquals(200, exchange.getStatusCode());
+        }
+        assertEquals(4, server.getRequestCount());
+    }
+
+    @Test
+    public void exhaustedServerQuotaDelaysTheNextCall() throws Exception {
+        transport.setRateLimiter(new RateLimiter(10, 600, 5_000));
+        server.enqueue(new MockResponse().setBody("{}")
+                .addHeader("x-ratelimit-remaining-requests", "0")
+                .addHeader("x-ratelimit-reset-requests", "500ms"));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        post().close();
+        long start = System.nanoTime();
+        post().close();
+        assertTrue((System.nanoTime() - start) / 1_000_000 >= 450);
+    }
+
+    @Test
+    public void emptyBucketFailsInsteadOfWaitingTooLong() throws Exception {
+        // Two requests at once, then one per second, and no call waits more than 100 ms
+        transport.setRateLimiter(new RateLimiter(2, 60, 100));
+        server.enqueue(new MockResponse().setBody("{}"));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        post().close();
+        post().close();
+        try {
+            post().close();
+            fail("Expected the rate limit to be reached");
+        } catch (IOException expected) {
+            // The third call would have to wait about a second
+        }
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void resetDurationsParse() {
+        assertEquals(20, RetryPolicy.parseDurationMs("20ms"));
+        assertEquals(1_500, RetryPolicy.parseDurationMs("1.5s"));
+        assertEquals(360_000, RetryPolicy.parseDurationMs("6m0s"));
+        assertEquals(-1, RetryPolicy.parseDurationMs("soon"));
+    }
+
+    private ChatTransport.Exchange post() throws IOException {
+        return transport.post(ChatTransport.RequestClass.CHAT, "test-key",
+                out -> out.write("{}".getBytes(StandardCharsets.UTF_8)));
+    }
+}
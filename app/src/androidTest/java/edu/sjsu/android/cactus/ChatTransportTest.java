@@ -0,0 +1,262 @@
+package edu.sjsu.android.cactus;
+
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.GzipSink;
+import okio.GzipSource;
+import okio.Okio;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exercises ChatTransport against a local mock server.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChatTransportTest {
+
+    private static final String BODY = "{\"model\":\"gpt-4o-mini\",\"messages\":[]}";
+
+    private MockWebServer server;
+    private ChatTransport transport;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        transport = new ChatTransport(server.url("/v1/chat/completions").toString(), new OkHttpClient.Builder());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void requestIsGzippedAndResponseDecoded() throws Exception {
+        server.enqueue(new MockResponse()
+                .addHeader("Content-Encoding", "gzip")
+                .setBody(gzip("{\"ok\":true}")));
+
+        try (ChatTransport.Exchange exchange = post()) {
+            assertEquals(200, exchange.getStatusCode());
+            assertEquals("{\"ok\":true}", read(exchange.getBody()));
+        }
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+        assertEquals("Bearer test-key", request.getHeader("Authorization"));
+        assertEquals(BODY, Okio.buffer(new GzipSource(request.getBody())).readUtf8());
+    }
+
+    @Test
+    public void refusedGzipFallsBackToPlainBodies() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(415));
+        server.enqueue(new MockResponse().setBody("{}"));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        try (ChatTransport.Exchange exchange = post()) {
+            assertEquals(200, exchange.getStatusCode());
+        }
+        try (ChatTransport.Exchange exchange = post()) {
+            assertEquals(200, exchange.getStatusCode());
+        }
+
+        assertEquals("gzip", server.takeRequest().getHeader("Content-Encoding"));
+        RecordedRequest retried = server.takeRequest();
+        assertNull(retried.getHeader("Content-Encoding"));
+        assertEquals(BODY, retried.getBody().readUtf8());
+        // Compression stays off for later requests
+        assertNull(server.takeRequest().getHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void badRequestNamingTheEncodingFallsBackToPlainBodies() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(400)
+                .setBody("{\"error\":{\"message\":\"Unsupported Content-Encoding: gzip\"}}"));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        try (ChatTransport.Exchange exchange = post()) {
+            assertEquals(200, exchange.getStatusCode());
+        }
+
+        assertEquals("gzip", server.takeRequest().getHeader("Content-Encoding"));
+        assertNull(server.takeRequest().getHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void unexplainedBadRequestToTheFirstGzippedBodyIsResentPlain() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(400)
+                .setBody("{\"error\":{\"message\":\"We could not parse the JSON body of your request.\"}}"));
+        server.enqueue(new MockResponse().setBody("{}"));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        try (ChatTransport.Exchange exchange = post()) {
+            assertEquals(200, exchange.getStatusCode());
+        }
+        post().close();
+
+        assertEquals("gzip", server.takeRequest().getHeader("Content-Encoding"));
+        assertNull(server.takeRequest().getHeader("Content-Encoding"));
+        // The plain body got through, so compression stays off
+        assertNull(server.takeRequest().getHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void firstBadRequestFailingPlainAsWellKeepsGzip() throws Exception {
+        String error = "{\"error\":{\"message\":\"This model's maximum context length is 128000 tokens\"}}";
+        server.enqueue(new MockResponse().setResponseCode(400).setBody(error));
+        server.enqueue(new MockResponse().setResponseCode(400).setBody(error));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        try (ChatTransport.Exchange exchange = post()) {
+            assertEquals(400, exchange.getStatusCode());
+            assertEquals(error, read(exchange.getBody()));
+        }
+        post().close();
+
+        assertEquals(3, server.getRequestCount());
+        assertEquals("gzip", server.takeRequest().getHeader("Content-Encoding"));
+        assertNull(server.takeRequest().getHeader("Content-Encoding"));
+        // A real client error, compression is still on for the next request
+        assertEquals("gzip", server.takeRequest().getHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void laterPlainBadRequestIsNotResentAndKeepsGzip() throws Exception {
+        String error = "{\"error\":{\"message\":\"This model's maximum context length is 128000 tokens\"}}";
+        server.enqueue(new MockResponse().setBody("{}"));
+        server.enqueue(new MockResponse().setResponseCode(400).setBody(error));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        // The server has taken a gzipped body, only a 400 naming the encoding is resent from now on
+        post().close();
+        try (ChatTransport.Exchange exchange = post()) {
+            assertEquals(400, exchange.getStatusCode());
+            // Looking at the error leaves it for the caller to read
+            assertEquals(error, read(exchange.getBody()));
+        }
+        try (ChatTransport.Exchange exchange = post()) {
+            assertEquals(200, exchange.getStatusCode());
+        }
+
+        assertEquals(3, server.getRequestCount());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("gzip", server.takeRequest().getHeader("Content-Encoding"));
+        }
+    }
+
+    @Test
+    public void backToBackCallsReuseOneConnection() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setBody("{}"));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            try (ChatTransport.Exchange exchange = post()) {
+                read(exchange.getBody());
+            }
+        }
+
+        // Sequence numbers count requests on the same connection
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+        assertEquals(1, server.takeRequest().getSequenceNumber());
+        assertEquals(2, server.takeRequest().getSequenceNumber());
+    }
+
+    @Test
+    public void readTimeoutIsPerRequestClass() throws Exception {
+        transport.setTimeouts(ChatTransport.RequestClass.CHAT, 1_000, 200);
+        server.enqueue(new MockResponse().setBody("{}").setHeadersDelay(1, TimeUnit.SECONDS));
+        server.enqueue(new MockResponse().setBody("{}").setHeadersDelay(1, TimeUnit.SECONDS));
+
+        try {
+            post().close();
+            fail("Expected the CHAT read timeout to expire");
+        } catch (SocketTimeoutException expected) {
+            // 200 ms read timeout
+        }
+
+        try (ChatTransport.Exchange exchange = transport.post(ChatTransport.RequestClass.TOOL_FOLLOW_UP, "test-key",
+                out -> out.write(BODY.getBytes(StandardCharsets.UTF_8)))) {
+            assertEquals(200, exchange.getStatusCode());
+        }
+    }
+
+    @Test
+    public void cancellingTheTurnAbortsABlockedCall() throws Exception {
+        server.enqueue(new MockResponse().setBody("{}").setHeadersDelay(10, TimeUnit.SECONDS));
+        ChatTurn turn = new ChatTurn(1);
+        new Thread(() -> {
+            SystemClock.sleep(100);
+            turn.cancel();
+        }).start();
+
+        long start = System.nanoTime();
+        try {
+            transport.post(ChatTransport.RequestClass.CHAT, "test-key",
+                    out -> out.write(BODY.getBytes(StandardCharsets.UTF_8)), turn).close();
+            fail("Expected the call to be cancelled");
+        } catch (InterruptedIOException expected) {
+            assertTrue(turn.isCancelled());
+        }
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 2_000);
+    }
+
+    @Test
+    public void cancelledTurnMakesNoCall() throws Exception {
+        ChatTurn turn = new ChatTurn(1);
+        turn.cancel();
+
+        try {
+            transport.post(ChatTransport.RequestClass.CHAT, "test-key",
+                    out -> out.write(BODY.getBytes(StandardCharsets.UTF_8)), turn).close();
+            fail("Expected the call to be refused");
+        } catch (InterruptedIOException expected) {
+            // Nothing was sent
+        }
+        assertEquals(0, server.getRequestCount());
+    }
+
+    private ChatTransport.Exchange post() throws IOException {
+        return transport.post(ChatTransport.RequestClass.CHAT, "test-key",
+                out -> out.write(BODY.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static Buffer gzip(String text) throws IOException {
+        Buffer compressed = new Buffer();
+        try (okio.BufferedSink sink = Okio.buffer(new GzipSink(compressed))) {
+            sink.writeUtf8(text);
+        }
+        return compressed;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,174 @@
+package edu.sjsu.android.cactus;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Token estimates and the history window chosen for each turn.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ContextWindowTest {
+
+    private static final String DATABASE_NAME = "ContextWindowTest.db";
+
+    @Test
+    public void estimatesFollowTheTokenizerSplit() {
+        // "Hello" "," " world" "!"
+        assertEquals(4, TokenEstimator.countTokens("Hello, world!"));
+        assertEquals(0, TokenEstimator.countTokens(""));
+        // Digits split in groups of three
+        assertEquals(3, TokenEstimator.countTokens("1234567"));
+        assertEquals(TokenEstimator.MESSAGE_OVERHEAD_TOKENS + 4, TokenEstimator.countMessageTokens("Hello, world!"));
+    }
+
+    @Test
+    public void newestMessagesAreKeptWithinBudget() {
+        List<Message> history = conversation(20);
+        int perMessage = history.get(0).getTokenCount();
+
+        ContextWindow contextWindow = new ContextWindow();
+        List<Message> window = contextWindow.select(1, history, perMessage * 5);
+
+        assertEquals(history.subList(15, 20), window);
+        assertTrue(contextWindow.getWindowTokens() <= perMessage * 5);
+    }
+
+    @Test
+    public void latestMessageIsKeptEvenIfOverBudget() {
+        List<Message> history = conversation(3);
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            longText.append("A very long question about the weather. ");
+        }
+        history.add(new Message(longText.toString(), true));
+
+        List<Message> window = new ContextWindow().select(1, history, 50);
+
+        assertEquals(1, window.size());
+        assertSame(history.get(3), window.get(0));
+    }
+
+    @Test
+    public void typingIndicatorsAndToolLinesAreLeftOut() {
+        List<Message> history = conversation(2);
+        history.add(new Message("Alarm set for 7:00", Message.TYPE_TOOL));
+        history.add(new Message("typing", false));
+        history.add(new Message("   ", true));
+
+        List<Message> window = new ContextWindow().select(1, history, 1_000);
+
+        assertEquals(history.subList(0, 2), window);
+    }
+
+    @Test
+    public void laterTurnsExtendTheWindow() {
+        List<Message> history = conversation(10);
+        int perMessage = history.get(0).getTokenCount();
+        ContextWindow contextWindow = new ContextWindow();
+        contextWindow.select(1, history, perMessage * 4);
+
+        // The typing indicator of the last turn is gone, two new messages arrived
+        history.add(new Message("Message number 10", true));
+        history.add(new Message("Message number 11", false));
+        List<Message> window = contextWindow.select(1, history, perMessage * 4);
+
+        assertEquals(history.subList(8, 12), window);
+        int tokens = 0;
+        for (Message message : window) {
+            tokens += message.getTokenCount();
+        }
+        assertEquals(tokens, contextWindow.getWindowTokens());
+    }
+
+    @Test
+    public void historyReadAgainFromTheDatabaseExtendsTheWindow() {
+        List<Message> history = saved(conversation(10));
+        ContextWindow contextWindow = new ContextWindow();
+        contextWindow.select(1, history, 1_000);
+
+        // The next turn reads the same rows again as new objects, plus the new question
+        List<Message> reread = saved(conversation(11));
+        List<Message> window = contextWindow.select(1, reread, 1_000);
+
+        assertEquals(11, window.size());
+        // Extended rather than rebuilt, the earlier messages are the ones already counted
+        assertSame(history.get(0), window.get(0));
+        assertSame(reread.get(10), window.get(10));
+    }
+
+    @Test
+    public void anotherSessionRebuildsTheWindow() {
+        ContextWindow contextWindow = new ContextWindow();
+        contextWindow.select(1, conversation(10), 1_000);
+
+        List<Message> other = conversation(3);
+        List<Message> window = contextWindow.select(2, other, 1_000);
+
+        assertEquals(other, window);
+    }
+
+    @Test
+    public void budgetKeepsAMarginAndFollowsTheServersCounts() {
+        ContextWindow contextWindow = new ContextWindow();
+        assertEquals((int) (8_000 * ContextWindow.SAFETY_MARGIN), contextWindow.estimateBudget(8_000));
+
+        // Code or non-Latin text: the server counts twice what was estimated
+        for (int i = 0; i < 20; i++) {
+            contextWindow.calibrate(1_000, 2_000);
+        }
+        assertEquals(2.0, contextWindow.getCalibration(), 0.01);
+        assertTrue(contextWindow.estimateBudget(8_000) <= 8_000 * ContextWindow.SAFETY_MARGIN / 1.99);
+
+        // Responses without usage leave it alone
+        contextWindow.calibrate(1_000, 0);
+        assertEquals(2.0, contextWindow.getCalibration(), 0.01);
+    }
+
+    @Test
+    public void tokenCountsArePersisted() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        ChatDatabaseHelper dbHelper = new ChatDatabaseHelper(context, DATABASE_NAME);
+        try {
+            long sessionId = dbHelper.createSession("Tokens");
+            Message message = new Message("How many tokens is this sentence?", true);
+            message.setSessionId(sessionId);
+            dbHelper.insertMessage(message);
+
+            Message loaded = dbHelper.getMessagesForSession(sessionId).get(0);
+            assertTrue(loaded.hasTokenCount());
+            assertEquals(message.getTokenCount(), loaded.getTokenCount());
+        } finally {
+            dbHelper.close();
+            context.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    private static List<Message> conversation(int count) {
+        List<Message> history = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            history.add(new Message("Message number " + i, i % 2 == 0));
+        }
+        return history;
+    }
+
+    /**
+     * Give the messages row IDs, as if they were read from the database
+     */
+    private static List<Message> saved(List<Message> messages) {
+        for (int i = 0; i < messages.size(); i++) {
+            messages.get(i).setId(i + 1);
+        }
+        return messages;
+    }
+}
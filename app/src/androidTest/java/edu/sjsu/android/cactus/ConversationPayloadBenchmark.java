@@ -0,0 +1,170 @@
+package edu.sjsu.android.cactus;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cost of assembling the next turn's request as a session grows: the history rebuilt and
+ * serialized from scratch, against the session's serialized history buffer that only
+ * encodes new messages and the tools serialized once.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConversationPayloadBenchmark {
+
+    private static final int[] SESSION_LENGTHS = {50, 500, 2000};
+    private static final int TURNS = 100;
+    private static final String MODEL = "gpt-4o-mini";
+    private static final String SYSTEM_PROMPT = "You are a helpful assistant.";
+
+    private static final String[] SENTENCES = {
+            "Sure! Here's a quick overview of what you asked about.",
+            "The alarm has been set for 7:00 AM with the label \"Morning run\".",
+            "1. Preheat the oven to 200°C.\n2. Toss the vegetables in olive oil.\n3. Roast for 25 minutes.",
+            "If the issue persists, try restarting the device and checking for updates.",
+            "Let me know if you'd like me to set a reminder or call someone for you."
+    };
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private final List<BaseTool> tools = Arrays.asList(new AlarmTool(context), new PhoneCallTool(context));
+    private final ToolsPayload toolsPayload = new ToolsPayload(tools);
+
+    @Test
+    public void writtenRequestMatchesTree() throws Exception {
+        List<Message> history = buildSession(20, new Random(7));
+        ConversationPayload payload = new ConversationPayload(SYSTEM_PROMPT);
+        JSONArray toolExchange = new JSONArray()
+                .put(new JSONObject().put("role", "tool").put("tool_call_id", "call_1").put("content", "Alarm set"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChatRequestWriter.write(out, MODEL, payload.update(1, history), toolExchange, toolsPayload, true);
+
+        JSONArray messages = toTree(history);
+        messages.put(toolExchange.get(0));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ChatRequestWriter.write(expected, MODEL, messages, tools, true);
+        assertEquals(new JSONObject(expected.toString("UTF-8")).toString(),
+                new JSONObject(out.toString("UTF-8")).toString());
+    }
+
+    @Test
+    public void snapshotsSurviveLaterTurns() throws Exception {
+        Random random = new Random(7);
+        List<Message> history = buildSession(10, random);
+        ConversationPayload payload = new ConversationPayload(SYSTEM_PROMPT);
+        ConversationPayload.Snapshot first = payload.update(1, new ArrayList<>(history));
+        String before = write(first);
+
+        // Grow the session well past the buffer's capacity and slide the window forward
+        for (int i = 0; i < 2000; i++) {
+            history.add(new Message(SENTENCES[random.nextInt(SENTENCES.length)], i % 2 == 0));
+            payload.update(1, new ArrayList<>(history.subList(history.size() - 50, history.size())));
+        }
+        assertEquals(before, write(first));
+
+        List<Message> window = new ArrayList<>(history.subList(history.size() - 50, history.size()));
+        ConversationPayload.Snapshot last = payload.update(1, window);
+        assertEquals(51, last.getMessageCount());
+        assertEquals(toTree(window).toString(), new JSONObject(write(last)).getJSONArray("messages").toString());
+    }
+
+    @Test
+    public void requestBuildCostAsSessionsGrow() throws Exception {
+        Benchmarks.assumeEnabled();
+        CountingOutputStream sink = new CountingOutputStream();
+        for (int length : SESSION_LENGTHS) {
+            Random random = new Random(7);
+            List<Message> history = buildSession(length, random);
+
+            // What callOpenAI did before: a new tree of every message, serialized with the tools
+            long start = System.nanoTime();
+            for (int turn = 0; turn < TURNS; turn++) {
+                ChatRequestWriter.write(sink, MODEL, toTree(history), tools, true);
+            }
+            double rebuildMs = (System.nanoTime() - start) / 1e6 / TURNS;
+
+            ContextWindow contextWindow = new ContextWindow();
+            ConversationPayload payload = new ConversationPayload(SYSTEM_PROMPT);
+            ChatRequestWriter.write(sink, MODEL,
+                    payload.update(1, contextWindow.select(1, history, Integer.MAX_VALUE)), null, toolsPayload, true);
+
+            // Every turn adds a question and an answer, then builds the next request
+            long elapsed = 0;
+            for (int turn = 0; turn < TURNS; turn++) {
+                history.add(new Message(SENTENCES[random.nextInt(SENTENCES.length)], true));
+                history.add(new Message(SENTENCES[random.nextInt(SENTENCES.length)], false));
+                start = System.nanoTime();
+                List<Message> window = contextWindow.select(1, history, Integer.MAX_VALUE);
+                ChatRequestWriter.write(sink, MODEL, payload.update(1, window), null, toolsPayload, true);
+                elapsed += System.nanoTime() - start;
+            }
+            double incrementalMs = elapsed / 1e6 / TURNS;
+
+            Log.i("ConversationPayloadBenchmark", String.format(
+                    "%d messages: rebuilt request %.3f ms, incremental request %.3f ms",
+                    length, rebuildMs, incrementalMs));
+            assertTrue(incrementalMs < rebuildMs);
+        }
+    }
+
+    private static String write(ConversationPayload.Snapshot snapshot) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("{\"messages\":[".getBytes("UTF-8"));
+        snapshot.writeTo(out);
+        out.write("]}".getBytes("UTF-8"));
+        return out.toString("UTF-8");
+    }
+
+    private static JSONArray toTree(List<Message> history) throws Exception {
+        JSONArray messages = new JSONArray();
+        messages.put(new JSONObject().put("role", "system").put("content", SYSTEM_PROMPT));
+        for (Message message : history) {
+            messages.put(new JSONObject().put("role", message.isUser() ? "user" : "assistant")
+                    .put("content", message.getContent()));
+        }
+        return messages;
+    }
+
+    private static List<Message> buildSession(int length, Random random) {
+        List<Message> history = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            StringBuilder content = new StringBuilder();
+            int sentences = i % 2 == 0 ? 1 : 2 + random.nextInt(12);
+            for (int j = 0; j < sentences; j++) {
+                content.append(SENTENCES[random.nextInt(SENTENCES.length)]).append(' ');
+            }
+            history.add(new Message(content.toString(), i % 2 == 0));
+        }
+        return history;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
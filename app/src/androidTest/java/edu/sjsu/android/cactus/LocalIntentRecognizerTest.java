@@ -0,0 +1,193 @@
+package edu.sjsu.android.cactus;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Calendar;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * The on-device fast path for alarm and call requests, measured on a corpus of messages: it must
+ * never act on a message it misreads (precision), and should catch most of the common ones (recall).
+ */
+@RunWith(AndroidJUnit4.class)
+public class LocalIntentRecognizerTest {
+
+    // Each message with what the fast path should do, null where it should ask the model
+    private static final String[][] CORPUS = {
+            // Alarms
+            {"Set an alarm for 6:30 am", "set_alarm 06:30"},
+            {"set alarm 7am", "set_alarm 07:00"},
+            {"Wake me up at 7 am", "set_alarm 07:00"},
+            {"Can you set an alarm for 6am?", "set_alarm 06:00"},
+            {"I need an alarm for 5:45 AM", "set_alarm 05:45"},
+            {"alarm at 6.15 pm", "set_alarm 18:15"},
+            {"Set an alarm for 18:45", "set_alarm 18:45"},
+            {"set an alarm for 06:15", "set_alarm 06:15"},
+            {"set an alarm at noon", "set_alarm 12:00"},
+            {"set an alarm for midnight", "set_alarm 00:00"},
+            {"set an alarm for 12 am", "set_alarm 00:00"},
+            {"set an alarm for half past 6 pm", "set_alarm 18:30"},
+            {"set an alarm for quarter to 7 am", "set_alarm 06:45"},
+            {"set an alarm for 7 o'clock in the morning", "set_alarm 07:00"},
+            {"set an alarm for 9:15 tonight", "set_alarm 21:15"},
+            {"set an alarm in 20 minutes", "set_alarm 09:20"},
+            {"wake me up in an hour", "set_alarm 10:00"},
+            {"set an alarm in half an hour", "set_alarm 09:30"},
+            {"set an alarm in 2 hours and 15 minutes", "set_alarm 11:15"},
+            {"set an alarm in an hour and a half", "set_alarm 10:30"},
+            {"set an alarm in 90 minutes", "set_alarm 10:30"},
+            // Alarms with a label
+            {"Set an alarm for 6 AM called Gym", "set_alarm 06:00 Gym"},
+            {"Please set an alarm for 5 p.m. labeled \"Pick up kids\"", "set_alarm 17:00 Pick up kids"},
+            {"Wake me up at 7 am to go running", "set_alarm 07:00 go running"},
+            {"set an alarm for 6:30am to take my pills", "set_alarm 06:30 take my pills"},
+            {"set an alarm for 8 pm for dinner", "set_alarm 20:00 dinner"},
+            // Alarms the fast path leaves to the model, counted against recall
+            {"wake me up at seven thirty in the morning", "set_alarm 07:30"},
+            {"set a gym alarm for 6 am", "set_alarm 06:00 gym"},
+            {"set an alarm for 7 30 am", "set_alarm 07:30"},
+            // Calls
+            {"Call 555-123-4567", "make_call 555-123-4567"},
+            {"call +1 (555) 123-4567 please", "make_call +1 (555) 123-4567"},
+            {"dial 5551234567", "make_call 5551234567"},
+            {"Can you call 555-123-4567?", "make_call 555-123-4567"},
+            {"ring 0207 946 0958", "make_call 0207 946 0958"},
+            {"phone the number 555 1234", "make_call 555 1234"},
+            // Calls the fast path leaves to the model, counted against recall
+            {"call five five five one two three four", "make_call 5551234"},
+            // For the model: ambiguous, other actions, recurring or dated, contacts, chat
+            {"set an alarm for 7", null},
+            {"set an alarm for 6:30", null},
+            {"set an alarm for 6 and 7 am", null},
+            {"cancel my 7am alarm", null},
+            {"snooze the alarm for 10 minutes", null},
+            {"set an alarm every weekday at 6 am", null},
+            {"wake me up tomorrow at 7 am", null},
+            {"set an alarm for monday at 8 am", null},
+            {"set a timer for 10 minutes", null},
+            {"remind me at 5 pm to call mom", null},
+            {"what time is my alarm set for", null},
+            {"Is 6 am too early for an alarm?", null},
+            {"set an alarm for 13 pm", null},
+            {"set an alarm in 25 hours", null},
+            {"set an alarm for 7 am and call 555-123-4567", null},
+            {"set an alarm for 7 am if it rains", null},
+            {"don't set an alarm for 6 am", null},
+            {"call mom", null},
+            {"call 911", null},
+            {"call me maybe", null},
+            {"should I call 555-123-4567?", null},
+            {"remind me to call 555-123-4567", null},
+            {"call 555-123-4567 and tell them I'm late", null},
+            {"what's 555-123-4567", null},
+            {"alarm", null},
+            {"hello", null},
+            {"How do alarms work on android?", null},
+    };
+
+    private final LocalIntentRecognizer recognizer = new LocalIntentRecognizer();
+    private final long now = nineAm();
+
+    @Test
+    public void corpusPrecisionAndRecall() throws Exception {
+        int expected = 0;
+        int matched = 0;
+        int correct = 0;
+        for (String[] entry : CORPUS) {
+            LocalIntentRecognizer.Match match = recognizer.recognize(entry[0], now);
+            String actual = match == null ? null : describe(match);
+            if (entry[1] != null) {
+                expected++;
+            }
+            if (actual != null) {
+                matched++;
+                if (actual.equals(entry[1])) {
+                    correct++;
+                } else {
+                    Log.w("LocalIntentRecognizerTest", "Misread '" + entry[0] + "' as " + actual);
+                }
+            } else if (entry[1] != null) {
+                Log.i("LocalIntentRecognizerTest", "Left to the model: '" + entry[0] + "'");
+            }
+        }
+        double precision = (double) correct / matched;
+        double recall = (double) correct / expected;
+        Log.i("LocalIntentRecognizerTest", String.format(Locale.US,
+                "%d messages: precision %.2f (%d/%d), recall %.2f (%d/%d)",
+                CORPUS.length, precision, correct, matched, recall, correct, expected));
+
+        // A wrong alarm is worse than a slower one
+        assertEquals(1.0, precision, 0.0);
+        assertTrue("recall " + recall, recall >= 0.85);
+    }
+
+    @Test
+    public void argumentsMatchTheToolSchemas() throws Exception {
+        JSONObject alarm = recognizer.recognize("Set an alarm for 6 AM called Gym", now).toArguments();
+        assertEquals(6, alarm.getInt("hour"));
+        assertEquals(0, alarm.getInt("minutes"));
+        assertEquals("Gym", alarm.getString("message"));
+        assertFalse(recognizer.recognize("set alarm 7am", now).toArguments().has("message"));
+
+        JSONObject call = recognizer.recognize("call 555-123-4567", now).toArguments();
+        assertEquals("555-123-4567", call.getString("phone_number"));
+    }
+
+    @Test
+    public void relativeTimesWrapPastMidnight() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 23);
+        calendar.set(Calendar.MINUTE, 50);
+
+        LocalIntentRecognizer.Match match =
+                recognizer.recognize("set an alarm in 20 minutes", calendar.getTimeInMillis());
+
+        assertEquals(0, match.getHour());
+        assertEquals(10, match.getMinutes());
+    }
+
+    @Test
+    public void recognitionTakesMicroseconds() {
+        for (int i = 0; i < 1_000; i++) {
+            for (String[] entry : CORPUS) {
+                recognizer.recognize(entry[0], now);
+            }
+        }
+
+        int iterations = 1_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (String[] entry : CORPUS) {
+                recognizer.recognize(entry[0], now);
+            }
+        }
+        double micros = (System.nanoTime() - start) / 1000.0 / iterations / CORPUS.length;
+        // Against the two API calls of the model path, each hundreds of milliseconds
+        Log.i("LocalIntentRecognizerTest", String.format(Locale.US, "Recognized a message in %.1f µs", micros));
+        assertTrue(micros < 1_000);
+    }
+
+    private static String describe(LocalIntentRecognizer.Match match) {
+        if (match.getPhoneNumber() != null) {
+            return match.getToolName() + " " + match.getPhoneNumber();
+        }
+        return String.format(Locale.US, "%s %02d:%02d", match.getToolName(), match.getHour(), match.getMinutes())
+                + (match.getLabel() != null ? " " + match.getLabel() : "");
+    }
+
+    private static long nineAm() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2026, Calendar.OCTOBER, 18, 9, 0, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,132 @@
+package edu.sjsu.android.cactus;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stores the same corpus of chat turns with and without body compression and
+ * reports the database size and the cost of reading every body back.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageCompressionBenchmark {
+
+    private static final int TURN_COUNT = 2000;
+    private static final String PLAIN_DATABASE = "ChatCompressionPlain.db";
+    private static final String COMPRESSED_DATABASE = "ChatCompressionDeflate.db";
+
+    private static final String[] SENTENCES = {
+            "Sure! Here's a quick overview of what you asked about.",
+            "The alarm has been set for 7:00 AM with the label 'Morning run'.",
+            "1. Preheat the oven to 200°C.\n2. Toss the vegetables in olive oil and salt.\n3. Roast for 25 minutes.",
+            "If the issue persists, try restarting the device and checking for system updates.",
+            "Here is the tool output: {\"status\":\"ok\",\"hour\":7,\"minutes\":0,\"message\":\"Morning run\"}",
+            "In summary, the main trade-off is between battery life and how often the app syncs in the background.",
+            "Let me know if you'd like me to set a reminder or call someone for you.",
+            "**Note:** prices and opening hours may have changed since my training data was collected."
+    };
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @BeforeClass
+    public static void assumeBenchmarksEnabled() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(PLAIN_DATABASE);
+        context.deleteDatabase(COMPRESSED_DATABASE);
+    }
+
+    @Test
+    public void compressionSizeAndReadLatency() {
+        List<String> corpus = buildCorpus();
+
+        long plainSize = populate(PLAIN_DATABASE, corpus, 0);
+        long compressedSize = populate(COMPRESSED_DATABASE, corpus, MessageCodec.DEFAULT_THRESHOLD_BYTES);
+
+        double plainReadMs = readAll(PLAIN_DATABASE, corpus);
+        double compressedReadMs = readAll(COMPRESSED_DATABASE, corpus);
+
+        Log.i("MessageCompressionBenchmark", String.format(
+                "size: plain %d KB, compressed %d KB (%.0f%% smaller); read all bodies: plain %.1f ms, compressed %.1f ms",
+                plainSize / 1024, compressedSize / 1024, 100.0 * (plainSize - compressedSize) / plainSize,
+                plainReadMs, compressedReadMs));
+
+        assertTrue(compressedSize < plainSize);
+    }
+
+    /**
+     * Alternating short user prompts and agent answers of a few hundred bytes to several KB
+     */
+    private List<String> buildCorpus() {
+        Random random = new Random(42);
+        List<String> corpus = new ArrayList<>();
+        for (int i = 0; i < TURN_COUNT; i++) {
+            if (i % 2 == 0) {
+                corpus.add("Question " + i + ": can you help me with " + SENTENCES[random.nextInt(SENTENCES.length)].toLowerCase());
+            } else {
+                StringBuilder answer = new StringBuilder();
+                int sentences = 2 + random.nextInt(40);
+                for (int j = 0; j < sentences; j++) {
+                    answer.append(SENTENCES[random.nextInt(SENTENCES.length)]).append(j % 4 == 3 ? "\n\n" : " ");
+                }
+                corpus.add(answer.toString());
+            }
+        }
+        return corpus;
+    }
+
+    private long populate(String databaseName, List<String> corpus, int compressionThreshold) {
+        context.deleteDatabase(databaseName);
+        ChatDatabaseHelper dbHelper = new ChatDatabaseHelper(context, databaseName);
+        dbHelper.setCompressionThreshold(compressionThreshold);
+
+        long sessionId = dbHelper.createSession("Benchmark");
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < corpus.size(); i++) {
+            Message message = new Message(corpus.get(i), i % 2 == 0, i);
+            message.setSessionId(sessionId);
+            messages.add(message);
+        }
+        dbHelper.writeBatch(messages, Collections.emptyMap(), Collections.emptyList());
+        dbHelper.checkpoint();
+        dbHelper.close();
+
+        return context.getDatabasePath(databaseName).length();
+    }
+
+    private double readAll(String databaseName, List<String> corpus) {
+        ChatDatabaseHelper dbHelper = new ChatDatabaseHelper(context, databaseName);
+        long sessionId = dbHelper.getAllSessions().get(0).getId();
+
+        long start = System.nanoTime();
+        List<Message> messages = dbHelper.getMessagesForSession(sessionId);
+        for (Message message : messages) {
+            message.getContent();
+        }
+        double elapsedMs = (System.nanoTime() - start) / 1e6;
+
+        assertEquals(corpus.size(), messages.size());
+        for (int i = 0; i < corpus.size(); i++) {
+            assertEquals(corpus.get(i), messages.get(i).getContent());
+        }
+        dbHelper.close();
+        return elapsedMs;
+    }
+}
@@ -0,0 +1,76 @@
+package edu.sjsu.android.cactus;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares message inserts per second through the old autocommit path
+ * against the batched write-behind queue.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageWriteQueueBenchmark {
+
+    private static final int MESSAGE_COUNT = 2000;
+    private static final String DATABASE_NAME = "ChatHistoryBenchmark.db";
+
+    private ChatDatabaseHelper dbHelper;
+    private long sessionId;
+
+    @BeforeClass
+    public static void assumeBenchmarksEnabled() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        dbHelper = new ChatDatabaseHelper(context, DATABASE_NAME);
+        sessionId = dbHelper.createSession("Benchmark");
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        InstrumentationRegistry.getInstrumentation().getTargetContext().deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void batchedAndAutocommitInserts() {
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            Message message = new Message("Autocommit message " + i, i % 2 == 0);
+            message.setSessionId(sessionId);
+            message.setId(dbHelper.insertMessage(message));
+        }
+        double autocommitPerSecond = MESSAGE_COUNT / ((System.nanoTime() - start) / 1e9);
+
+        MessageWriteQueue writeQueue = new MessageWriteQueue(dbHelper);
+        Message last = null;
+        start = System.nanoTime();
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            last = new Message("Batched message " + i, i % 2 == 0);
+            last.setSessionId(sessionId);
+            writeQueue.enqueueMessage(last);
+        }
+        writeQueue.shutdown();
+        double batchedPerSecond = MESSAGE_COUNT / ((System.nanoTime() - start) / 1e9);
+
+        Log.i("MessageWriteQueueBenchmark", String.format("autocommit: %.0f inserts/s, batched: %.0f inserts/s",
+                autocommitPerSecond, batchedPerSecond));
+
+        assertNotEquals(-1, last.getId());
+        assertEquals(2 * MESSAGE_COUNT, dbHelper.getMessagesForSession(sessionId).size());
+    }
+}
@@ -0,0 +1,171 @@
+package edu.sjsu.android.cactus;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Batched writes through MessageWriteQueue: IDs, order, dropped writes and failed batches.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageWriteQueueTest {
+
+    private static final String DATABASE_NAME = "MessageWriteQueueTest.db";
+    private static final String POISON = "This row always fails";
+
+    private Context context;
+    private FlakyDatabaseHelper dbHelper;
+    private MessageWriteQueue writeQueue;
+    private long sessionId;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        dbHelper = new FlakyDatabaseHelper(context);
+        writeQueue = new MessageWriteQueue(dbHelper);
+        sessionId = dbHelper.createSession("Queue");
+    }
+
+    @After
+    public void tearDown() {
+        writeQueue.shutdown();
+        dbHelper.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void idsAreWrittenBackInQueueOrder() {
+        // More than one batch, so some are flushed asynchronously as the queue fills
+        List<Message> queued = enqueue(100, null);
+        writeQueue.flush();
+
+        List<Message> saved = dbHelper.getMessagesForSession(sessionId);
+        assertEquals(queued.size(), saved.size());
+        long previousId = -1;
+        for (int i = 0; i < queued.size(); i++) {
+            assertTrue(queued.get(i).getId() > previousId);
+            assertEquals(queued.get(i).getId(), saved.get(i).getId());
+            assertEquals(queued.get(i).getContent(), saved.get(i).getContent());
+            previousId = queued.get(i).getId();
+        }
+    }
+
+    @Test
+    public void writesForADeletedSessionAreDropped() {
+        long otherSessionId = dbHelper.createSession("Other");
+        List<Message> queued = enqueue(3, null);
+        writeQueue.enqueueTitleUpdate(sessionId, "Renamed");
+        Message other = new Message("Kept", true);
+        other.setSessionId(otherSessionId);
+        writeQueue.enqueueMessage(other);
+
+        writeQueue.enqueueSessionDeletes(Collections.singleton(sessionId));
+        writeQueue.flush();
+
+        for (Message message : queued) {
+            assertEquals(-1, message.getId());
+        }
+        assertTrue(dbHelper.getMessagesForSession(sessionId).isEmpty());
+        for (ChatSession session : dbHelper.getAllSessions()) {
+            assertNotEquals(sessionId, session.getId());
+        }
+        assertNotEquals(-1, other.getId());
+        assertEquals(1, dbHelper.getMessagesForSession(otherSessionId).size());
+    }
+
+    @Test
+    public void failedBatchIsRetriedWithoutAnotherFlush() throws InterruptedException {
+        CountDownLatch committed = new CountDownLatch(1);
+        writeQueue.setFlushListener((messages, titles, deletes) -> committed.countDown());
+        dbHelper.failuresLeft = 2;
+
+        List<Message> queued = enqueue(3, null);
+
+        // Scheduled flush, then two retries after growing delays
+        assertTrue(committed.await(10, TimeUnit.SECONDS));
+        assertEquals(0, dbHelper.failuresLeft);
+        assertEquals(3, dbHelper.getMessagesForSession(sessionId).size());
+        for (Message message : queued) {
+            assertNotEquals(-1, message.getId());
+        }
+    }
+
+    @Test
+    public void rowThatKeepsFailingIsDroppedAndTheRestWritten() {
+        List<Message> queued = enqueue(5, 2);
+
+        // Each flush fails until the batch is written row by row
+        for (int i = 0; i < 10 && !writeQueue.getPendingMessages(sessionId).isEmpty(); i++) {
+            writeQueue.flush();
+        }
+
+        assertTrue(writeQueue.getPendingMessages(sessionId).isEmpty());
+        assertEquals(-1, queued.get(2).getId());
+        List<Message> saved = dbHelper.getMessagesForSession(sessionId);
+        assertEquals(4, saved.size());
+        int savedIndex = 0;
+        for (int i = 0; i < queued.size(); i++) {
+            if (i != 2) {
+                assertEquals(queued.get(i).getContent(), saved.get(savedIndex++).getContent());
+            }
+        }
+    }
+
+    /**
+     * @param poisonIndex Index of a message whose insert always fails, or null
+     */
+    private List<Message> enqueue(int count, Integer poisonIndex) {
+        List<Message> queued = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String content = poisonIndex != null && i == poisonIndex ? POISON : "Queued message " + i;
+            Message message = new Message(content, i % 2 == 0, 1000 + i);
+            message.setSessionId(sessionId);
+            writeQueue.enqueueMessage(message);
+            queued.add(message);
+        }
+        return queued;
+    }
+
+    /**
+     * Fails the next failuresLeft batches, and any batch holding the poison message
+     */
+    private static class FlakyDatabaseHelper extends ChatDatabaseHelper {
+        volatile int failuresLeft;
+
+        FlakyDatabaseHelper(Context context) {
+            super(context, DATABASE_NAME);
+        }
+
+        @Override
+        public void writeBatch(List<Message> messages, List<ApiCallRecord> apiCalls,
+                               Map<Long, String> sessionTitles, Collection<Long> deletedSessionIds) {
+            if (failuresLeft > 0) {
+                failuresLeft--;
+                throw new IllegalStateException("Simulated I/O error");
+            }
+            for (Message message : messages) {
+                if (POISON.equals(message.getContent())) {
+                    throw new IllegalStateException("Simulated constraint failure");
+                }
+            }
+            super.writeBatch(messages, apiCalls, sessionTitles, deletedSessionIds);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package edu.sjsu.android.cactus;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Keying, expiry, eviction and replay rules of the disk response cache.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ResponseCacheTest {
+
+    private static final String MODEL = "gpt-4o-mini";
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private final List<BaseTool> tools = Arrays.asList(new AlarmTool(context), new PhoneCallTool(context));
+    private File directory;
+
+    @Before
+    public void setUp() {
+        directory = new File(context.getCacheDir(), "response-cache-test");
+        deleteDirectory();
+    }
+
+    @After
+    public void tearDown() {
+        deleteDirectory();
+    }
+
+    @Test
+    public void keyIgnoresWhitespaceButNotWording() throws Exception {
+        String key = ResponseCache.keyFor(MODEL, conversation("What time is it in Tokyo?"), tools);
+
+        assertEquals(key, ResponseCache.keyFor(MODEL, conversation("  What time  is it\nin Tokyo? "), tools));
+        assertNotEquals(key, ResponseCache.keyFor(MODEL, conversation("What time is it in Paris?"), tools));
+        assertNotEquals(key, ResponseCache.keyFor("gpt-4o", conversation("What time is it in Tokyo?"), tools));
+        assertNotEquals(key, ResponseCache.keyFor(MODEL, conversation("What time is it in Tokyo?"),
+                tools.subList(0, 1)));
+    }
+
+    @Test
+    public void storedResponsesSurviveANewInstance() throws Exception {
+        ResponseCache cache = new ResponseCache(directory, 64 * 1024, 60_000);
+        String key = ResponseCache.keyFor(MODEL, conversation("Hello"), tools);
+
+        assertNull(cache.get(key));
+        assertTrue(cache.put(key, reply("Hi there!")));
+
+        ResponseCache reopened = new ResponseCache(directory, 64 * 1024, 60_000);
+        JSONObject cached = reopened.get(key);
+        assertEquals("Hi there!", content(cached));
+        assertEquals(1, reopened.getHitCount());
+        assertEquals(0, reopened.getMissCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void toolCallsAndCutOffAnswersAreNotCachedByDefault() throws Exception {
+        ResponseCache cache = new ResponseCache(directory, 64 * 1024, 60_000);
+        JSONObject toolCall = new JSONObject(
+                "{\"choices\":[{\"index\":0,\"finish_reason\":\"tool_calls\",\"message\":{\"role\":\"assistant\"," +
+                "\"tool_calls\":[{\"id\":\"call_1\",\"type\":\"function\",\"function\":{\"name\":\"set_alarm\"," +
+                "\"arguments\":\"{\\\"hour\\\":7,\\\"minutes\\\":0}\"}}]}}]}");
+        JSONObject cutOff = reply("Once upon a");
+        cutOff.getJSONArray("choices").getJSONObject(0).put("finish_reason", "length");
+
+        assertFalse(cache.put("alarm", toolCall));
+        assertFalse(cache.put("story", cutOff));
+
+        cache.setCacheToolCalls(true);
+        assertTrue(cache.put("alarm", toolCall));
+        assertEquals(1, cache.getEntryCount());
+    }
+
+    @Test
+    public void entriesExpire() throws Exception {
+        ResponseCache cache = new ResponseCache(directory, 64 * 1024, 100);
+        cache.put("key", reply("Soon stale"));
+        assertNotNull(cache.get("key"));
+
+        SystemClock.sleep(150);
+        assertNull(cache.get("key"));
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() throws Exception {
+        int entrySize = reply("answer 0").toString().length();
+        ResponseCache cache = new ResponseCache(directory, entrySize * 3 + 2, 60_000);
+        cache.put("k0", reply("answer 0"));
+        cache.put("k1", reply("answer 1"));
+        cache.put("k2", reply("answer 2"));
+
+        // Touch k0 so k1 is the least recently used
+        assertNotNull(cache.get("k0"));
+        cache.put("k3", reply("answer 3"));
+
+        assertNull(cache.get("k1"));
+        assertNotNull(cache.get("k0"));
+        assertNotNull(cache.get("k2"));
+        assertNotNull(cache.get("k3"));
+        assertEquals(3, directory.list().length);
+    }
+
+    @Test
+    public void missLookupCostsUnderAMillisecond() throws Exception {
+        ResponseCache cache = new ResponseCache(directory, 4 * 1024 * 1024, 60_000);
+        for (int i = 0; i < 200; i++) {
+            cache.put(ResponseCache.keyFor(MODEL, conversation("prompt " + i), tools), reply("answer " + i));
+        }
+        JSONArray messages = conversation("Something never asked before");
+        ResponseCache.keyFor(MODEL, messages, tools);
+
+        int lookups = 1000;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            assertNull(cache.get(ResponseCache.keyFor(MODEL, messages, tools)));
+        }
+        double perMissMs = (System.nanoTime() - start) / 1e6 / lookups;
+
+        Log.i("ResponseCacheTest", String.format("Key and lookup per miss: %.3f ms", perMissMs));
+        assertTrue(perMissMs < 1);
+    }
+
+    private static JSONArray conversation(String prompt) throws Exception {
+        return new JSONArray()
+                .put(new JSONObject().put("role", "system").put("content", "You are a helpful assistant."))
+                .put(new JSONObject().put("role", "user").put("content", prompt));
+    }
+
+    private static JSONObject reply(String content) throws Exception {
+        JSONObject message = new JSONObject().put("role", "assistant").put("content", content);
+        return new JSONObject().put("choices", new JSONArray().put(
+                new JSONObject().put("index", 0).put("message", message).put("finish_reason", "stop")));
+    }
+
+    private static String content(JSONObject response) throws Exception {
+        return response.getJSONArray("choices").getJSONObject(0).getJSONObject("message").getString("content");
+    }
+
+    private void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
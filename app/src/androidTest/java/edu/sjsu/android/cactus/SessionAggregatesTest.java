@@ -0,0 +1,219 @@
+package edu.sjsu.android.cactus;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Message count, last message time and preview kept on the session row by the messages triggers,
+ * and backfilled when a version 3 database is upgraded.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SessionAggregatesTest {
+
+    private static final String DATABASE_NAME = "SessionAggregatesTest.db";
+
+    private Context context;
+    private ChatDatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        deleteDatabases();
+    }
+
+    @After
+    public void tearDown() {
+        if (dbHelper != null) {
+            dbHelper.close();
+        }
+        deleteDatabases();
+    }
+
+    private void deleteDatabases() {
+        context.deleteDatabase(DATABASE_NAME);
+        context.deleteDatabase(ChatArchiveHelper.archiveNameFor(DATABASE_NAME));
+    }
+
+    @Test
+    public void insertsUpdateTheAggregates() {
+        dbHelper = new ChatDatabaseHelper(context, DATABASE_NAME);
+        long sessionId = dbHelper.createSession("Inserts");
+        insert(sessionId, "First question", 1000);
+        insert(sessionId, "First answer", 2000);
+
+        ChatSession session = findSession(sessionId);
+        assertEquals(2, session.getMessageCount());
+        assertEquals(2000, session.getLastMessageAt());
+        assertEquals("First answer", session.getLastMessagePreview());
+
+        // The preview is cut to its first 80 characters
+        String longAnswer = repeat("A fairly long answer. ", 10);
+        insert(sessionId, longAnswer, 3000);
+        session = findSession(sessionId);
+        assertEquals(3, session.getMessageCount());
+        assertEquals(3000, session.getLastMessageAt());
+        assertEquals(longAnswer.substring(0, 80), session.getLastMessagePreview());
+    }
+
+    @Test
+    public void deletesFallBackToThePreviousMessage() {
+        dbHelper = new ChatDatabaseHelper(context, DATABASE_NAME);
+        long sessionId = dbHelper.createSession("Deletes");
+        insert(sessionId, "Older", 1000);
+        // Same timestamp, the later row is the last message
+        long middle = insert(sessionId, "Middle", 2000);
+        long newest = insert(sessionId, "Newest", 2000);
+
+        dbHelper.deleteMessage(newest);
+        ChatSession session = findSession(sessionId);
+        assertEquals(2, session.getMessageCount());
+        assertEquals(2000, session.getLastMessageAt());
+        assertEquals("Middle", session.getLastMessagePreview());
+
+        dbHelper.deleteMessage(middle);
+        session = findSession(sessionId);
+        assertEquals(1, session.getMessageCount());
+        assertEquals(1000, session.getLastMessageAt());
+        assertEquals("Older", session.getLastMessagePreview());
+    }
+
+    @Test
+    public void compressedInsertsKeepATextPreview() {
+        dbHelper = new ChatDatabaseHelper(context, DATABASE_NAME);
+        dbHelper.setCompressionThreshold(256);
+        long sessionId = dbHelper.createSession("Compressed");
+        insert(sessionId, "Short question", 1000);
+        String longAnswer = repeat("A long answer that compresses well. ", 50);
+        insert(sessionId, longAnswer, 2000);
+
+        ChatSession session = findSession(sessionId);
+        assertEquals(2, session.getMessageCount());
+        assertEquals(2000, session.getLastMessageAt());
+        assertEquals(longAnswer.substring(0, 80), session.getLastMessagePreview());
+        assertEquals(longAnswer, dbHelper.getMessagesForSession(sessionId).get(1).getContent());
+    }
+
+    @Test
+    public void archivedSessionsKeepTheirAggregates() {
+        dbHelper = new ChatDatabaseHelper(context, DATABASE_NAME);
+        long sessionId = dbHelper.createSession("Archived");
+        for (int i = 0; i < 5; i++) {
+            insert(sessionId, "Archived message " + i, 1000 + i);
+        }
+
+        // Moving the rows out deletes them from messages, the triggers must leave the session alone
+        assertFalse(dbHelper.archiveColdSession(System.currentTimeMillis() - 60_000, -1));
+        ChatSession session = findSession(sessionId);
+        assertTrue(session.isArchived());
+        assertEquals(5, session.getMessageCount());
+        assertEquals(1004, session.getLastMessageAt());
+        assertEquals("Archived message 4", session.getLastMessagePreview());
+
+        // Moving them back must not count them twice
+        dbHelper.rehydrateSession(sessionId);
+        session = findSession(sessionId);
+        assertFalse(session.isArchived());
+        assertEquals(5, session.getMessageCount());
+        assertEquals(1004, session.getLastMessageAt());
+        assertEquals("Archived message 4", session.getLastMessagePreview());
+    }
+
+    @Test
+    public void upgradeFromVersion3BackfillsTheAggregates() {
+        // Sessions and messages as they were in version 3
+        File path = context.getDatabasePath(DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        db.execSQL("CREATE TABLE sessions (_id INTEGER PRIMARY KEY AUTOINCREMENT, title TEXT, timestamp INTEGER)");
+        db.execSQL("CREATE TABLE messages (_id INTEGER PRIMARY KEY AUTOINCREMENT, session_id INTEGER, " +
+                "content TEXT, is_user INTEGER, timestamp INTEGER)");
+        db.execSQL("CREATE INDEX idx_messages_session_timestamp ON messages (session_id, timestamp, _id)");
+        long busy = insertV3Session(db, "Busy");
+        long tied = insertV3Session(db, "Tied");
+        long empty = insertV3Session(db, "Empty");
+        String longAnswer = repeat("A fairly long answer. ", 10);
+        insertV3Message(db, busy, "Question", 1000);
+        insertV3Message(db, busy, longAnswer, 3000);
+        insertV3Message(db, busy, "Earlier answer", 2000);
+        insertV3Message(db, tied, "Written first", 5000);
+        insertV3Message(db, tied, "Written second", 5000);
+        db.setVersion(3);
+        db.close();
+
+        dbHelper = new ChatDatabaseHelper(context, DATABASE_NAME);
+
+        ChatSession session = findSession(busy);
+        assertEquals(3, session.getMessageCount());
+        assertEquals(3000, session.getLastMessageAt());
+        assertEquals(longAnswer.substring(0, 80), session.getLastMessagePreview());
+
+        session = findSession(tied);
+        assertEquals(2, session.getMessageCount());
+        assertEquals(5000, session.getLastMessageAt());
+        assertEquals("Written second", session.getLastMessagePreview());
+
+        // Sessions without messages are not listed
+        for (ChatSession listed : dbHelper.getAllSessions()) {
+            assertNotEquals(empty, listed.getId());
+        }
+
+        // The triggers take over from the backfill
+        insert(busy, "After the upgrade", 4000);
+        session = findSession(busy);
+        assertEquals(4, session.getMessageCount());
+        assertEquals("After the upgrade", session.getLastMessagePreview());
+    }
+
+    private long insert(long sessionId, String content, long timestamp) {
+        Message message = new Message(content, true, timestamp);
+        message.setSessionId(sessionId);
+        return dbHelper.insertMessage(message);
+    }
+
+    private static long insertV3Session(SQLiteDatabase db, String title) {
+        ContentValues values = new ContentValues();
+        values.put("title", title);
+        values.put("timestamp", 1000);
+        return db.insert("sessions", null, values);
+    }
+
+    private static void insertV3Message(SQLiteDatabase db, long sessionId, String content, long timestamp) {
+        ContentValues values = new ContentValues();
+        values.put("session_id", sessionId);
+        values.put("content", content);
+        values.put("is_user", 1);
+        values.put("timestamp", timestamp);
+        db.insert("messages", null, values);
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+
+    private ChatSession findSession(long sessionId) {
+        for (ChatSession session : dbHelper.getAllSessions()) {
+            if (session.getId() == sessionId) {
+                return session;
+            }
+        }
+        fail("Session " + sessionId + " is not listed");
+        return null;
+    }
+}
@@ -0,0 +1,135 @@
+package edu.sjsu.android.cactus;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Session deletes cascading to messages and their search index, on new databases and on
+ * databases upgraded from before the foreign key, and the space they leave behind.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SessionCascadeTest {
+
+    private static final String DATABASE_NAME = "SessionCascadeTest.db";
+    private static final long ORPHANED_SESSION_ID = 99;
+
+    private Context context;
+    private ChatDatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        deleteDatabases();
+    }
+
+    @After
+    public void tearDown() {
+        if (dbHelper != null) {
+            dbHelper.close();
+        }
+        deleteDatabases();
+    }
+
+    private void deleteDatabases() {
+        context.deleteDatabase(DATABASE_NAME);
+        context.deleteDatabase(ChatArchiveHelper.archiveNameFor(DATABASE_NAME));
+    }
+
+    @Test
+    public void newDatabasesUseIncrementalVacuum() {
+        dbHelper = new ChatDatabaseHelper(context, DATABASE_NAME);
+        assertEquals(2, longForQuery("PRAGMA auto_vacuum"));
+
+        long sessionId = dbHelper.createSession("Large");
+        for (int i = 0; i < 500; i++) {
+            Message message = new Message("A message that takes up some room, number " + i, i % 2 == 0, 1000 + i);
+            message.setSessionId(sessionId);
+            dbHelper.insertMessage(message);
+        }
+        dbHelper.deleteSession(sessionId);
+
+        // Freed pages are handed back in steps, without a full VACUUM
+        assertTrue(longForQuery("PRAGMA freelist_count") > 0);
+        boolean done = false;
+        for (int i = 0; i < 1000 && !done; i++) {
+            done = dbHelper.reclaimFreeSpace(16);
+        }
+        assertTrue(done);
+        assertEquals(0, longForQuery("PRAGMA freelist_count"));
+    }
+
+    @Test
+    public void upgradeFromVersion5DropsOrphansAndCascades() {
+        // Sessions, messages and the search index as they were in version 5, before the foreign key
+        File path = context.getDatabasePath(DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        db.execSQL("CREATE TABLE sessions (_id INTEGER PRIMARY KEY AUTOINCREMENT, title TEXT, timestamp INTEGER, " +
+                "message_count INTEGER NOT NULL DEFAULT 0, last_message_at INTEGER, last_message_preview TEXT)");
+        db.execSQL("CREATE TABLE messages (_id INTEGER PRIMARY KEY AUTOINCREMENT, session_id INTEGER, " +
+                "content TEXT, is_user INTEGER, timestamp INTEGER)");
+        db.execSQL("CREATE INDEX idx_messages_session_timestamp ON messages (session_id, timestamp, _id)");
+        db.execSQL("CREATE VIRTUAL TABLE messages_fts USING fts4(content, prefix=\"2,3\")");
+        db.execSQL("CREATE TABLE fts_backfill (next_id INTEGER, max_id INTEGER)");
+        ContentValues session = new ContentValues();
+        session.put("title", "Kept");
+        session.put("timestamp", 1000);
+        session.put("message_count", 2);
+        long sessionId = db.insert("sessions", null, session);
+        insertV5Message(db, sessionId, "Kept question about lighthouses", 1000);
+        insertV5Message(db, sessionId, "Kept answer about lighthouses", 2000);
+        // Left behind by a session delete that did not reach the messages
+        insertV5Message(db, ORPHANED_SESSION_ID, "Orphaned question about zeppelins", 1000);
+        insertV5Message(db, ORPHANED_SESSION_ID, "Orphaned answer about zeppelins", 2000);
+        db.setVersion(5);
+        db.close();
+
+        dbHelper = new ChatDatabaseHelper(context, DATABASE_NAME);
+
+        // The orphans did not survive the rebuild, nor did their index rows
+        assertTrue(dbHelper.getMessagesForSession(ORPHANED_SESSION_ID).isEmpty());
+        assertTrue(dbHelper.search("zeppelins", 10, 0).isEmpty());
+        assertEquals(2, dbHelper.getMessagesForSession(sessionId).size());
+        assertEquals(2, dbHelper.search("lighthouses", 10, 0).size());
+        assertEquals(2, longForQuery("SELECT COUNT(*) FROM " + ChatDatabaseContract.MessageSearchEntry.TABLE_NAME));
+
+        // Deleting the session now takes its messages and their index rows with it
+        dbHelper.deleteSession(sessionId);
+        assertEquals(0, longForQuery("SELECT COUNT(*) FROM " + ChatDatabaseContract.MessageEntry.TABLE_NAME));
+        assertEquals(0, longForQuery("SELECT COUNT(*) FROM " + ChatDatabaseContract.MessageSearchEntry.TABLE_NAME));
+        assertTrue(dbHelper.search("lighthouses", 10, 0).isEmpty());
+    }
+
+    private static void insertV5Message(SQLiteDatabase db, long sessionId, String content, long timestamp) {
+        ContentValues values = new ContentValues();
+        values.put("session_id", sessionId);
+        values.put("content", content);
+        values.put("is_user", 1);
+        values.put("timestamp", timestamp);
+        long id = db.insert("messages", null, values);
+
+        // Version 5 kept the index in step through triggers
+        ContentValues indexed = new ContentValues();
+        indexed.put("docid", id);
+        indexed.put("content", content);
+        db.insert("messages_fts", null, indexed);
+    }
+
+    private long longForQuery(String query) {
+        return DatabaseUtils.longForQuery(dbHelper.getReadableDatabase(), query, null);
+    }
+}
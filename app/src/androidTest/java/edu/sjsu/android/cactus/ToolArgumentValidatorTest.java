@@ -0,0 +1,96 @@
+package edu.sjsu.android.cactus;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Validation and local repair of tool call arguments against the tools' compiled schemas.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ToolArgumentValidatorTest {
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private final ToolRegistry registry = new ToolRegistry(Arrays.asList(new AlarmTool(context), new PhoneCallTool(context)));
+    private final ToolArgumentValidator alarm = registry.getValidator("set_alarm");
+    private final ToolArgumentValidator call = registry.getValidator("make_call");
+
+    @Test
+    public void validArgumentsPass() throws Exception {
+        JSONObject arguments = new JSONObject("{\"hour\":6,\"minutes\":30,\"message\":\"Gym\"}");
+
+        ToolArgumentValidator.Result result = alarm.validate(arguments);
+
+        assertTrue(result.isValid());
+        assertFalse(result.isRepaired());
+        assertSame(arguments, result.getArguments());
+        assertTrue(call.validate(new JSONObject("{\"phone_number\":\"+1-555-123-4567\"}")).isValid());
+    }
+
+    @Test
+    public void invalidArgumentsAreReported() throws Exception {
+        assertErrors(alarm, "{\"hour\":25,\"minutes\":30}", "Parameter hour must be at most 23");
+        assertErrors(alarm, "{\"hour\":7}", "Missing required parameter minutes");
+        assertErrors(alarm, "{\"hour\":\"seven\",\"minutes\":-1}",
+                "Parameter hour must be an integer", "Parameter minutes must be at least 0");
+        assertErrors(alarm, "{\"hour\":7.5,\"minutes\":0}", "Parameter hour must be an integer");
+        assertErrors(call, "{\"phone_number\":\"\"}", "Parameter phone_number must not be empty");
+        assertErrors(call, "{\"phone_number\":\"   \"}", "Parameter phone_number must not be empty");
+        assertErrors(call, "{}", "Missing required parameter phone_number");
+    }
+
+    @Test
+    public void simpleSlipsAreRepaired() throws Exception {
+        JSONObject arguments = new JSONObject("{\"hour\":\"7\",\"minutes\":30.0,\"message\":\" Wake up \"}");
+
+        ToolArgumentValidator.Result result = alarm.validate(arguments);
+
+        assertTrue(result.isValid());
+        assertTrue(result.isRepaired());
+        assertEquals(7L, ((Number) result.getArguments().get("hour")).longValue());
+        assertEquals(30L, ((Number) result.getArguments().get("minutes")).longValue());
+        assertEquals("Wake up", result.getArguments().getString("message"));
+        // The arguments given are left alone
+        assertEquals("7", arguments.get("hour"));
+
+        ToolArgumentValidator.Result number = call.validate(new JSONObject("{\"phone_number\":5551234567}"));
+        assertTrue(number.isValid());
+        assertEquals("5551234567", number.getArguments().get("phone_number"));
+    }
+
+    @Test
+    public void validationTakesMicroseconds() throws Exception {
+        JSONObject arguments = new JSONObject("{\"hour\":6,\"minutes\":30,\"message\":\"Gym\"}");
+        for (int i = 0; i < 10_000; i++) {
+            alarm.validate(arguments);
+        }
+
+        int iterations = 100_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            alarm.validate(arguments);
+        }
+        double micros = (System.nanoTime() - start) / 1000.0 / iterations;
+        Log.i("ToolArgumentValidatorTest", String.format("set_alarm arguments validated in %.2f µs", micros));
+        assertTrue(micros < 100);
+    }
+
+    private static void assertErrors(ToolArgumentValidator validator, String arguments, String... errors)
+            throws Exception {
+        ToolArgumentValidator.Result result = validator.validate(new JSONObject(arguments));
+        assertFalse(result.isValid());
+        List<String> expected = Arrays.asList(errors);
+        assertEquals(expected, result.getErrors());
+    }
+}
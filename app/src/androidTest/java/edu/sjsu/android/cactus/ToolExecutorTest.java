@@ -0,0 +1,257 @@
+package edu.sjsu.android.cactus;
+
+import android.os.CancellationSignal;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Concurrent execution of a batch of tool calls, with stub tools that take a set time.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ToolExecutorTest {
+
+    private static final long TOOL_MS = 300;
+
+    // Three parallel calls as the model returns them, the slowest first
+    private static final String TOOL_CALLS = "[" +
+            "{\"id\":\"call_a\",\"type\":\"function\",\"function\":{\"name\":\"slow\",\"arguments\":\"{\\\"ms\\\":" + 2 * TOOL_MS + "}\"}}," +
+            "{\"id\":\"call_b\",\"type\":\"function\",\"function\":{\"name\":\"slow\",\"arguments\":\"{\\\"ms\\\":" + TOOL_MS + "}\"}}," +
+            "{\"id\":\"call_c\",\"type\":\"function\",\"function\":{\"name\":\"slow\",\"arguments\":\"{\\\"ms\\\":0}\"}}]";
+
+    private ToolExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = new ToolExecutor(new ToolRegistry(Arrays.asList(new SleepTool(), new PollingTool(), new FailingTool())), 4, 5_000);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void resultsKeepTheOrderOfTheCalls() throws Exception {
+        List<ToolCall> calls = ToolCall.fromJSONArray(new JSONArray(TOOL_CALLS));
+
+        List<ToolResult> results = executor.executeAll(calls, new ChatTurn(1));
+
+        assertEquals(3, results.size());
+        assertEquals("call_a", results.get(0).getToolCallId());
+        assertEquals("call_b", results.get(1).getToolCallId());
+        assertEquals("call_c", results.get(2).getToolCallId());
+        assertEquals("slept " + 2 * TOOL_MS, results.get(0).getResult());
+        assertEquals("slept 0", results.get(2).getResult());
+    }
+
+    @Test
+    public void callsRunConcurrently() throws Exception {
+        List<ToolCall> calls = ToolCall.fromJSONArray(new JSONArray(TOOL_CALLS));
+
+        long start = System.nanoTime();
+        executor.executeAll(calls, new ChatTurn(1));
+        long concurrentMs = (System.nanoTime() - start) / 1_000_000;
+
+        // One after another they take 3 * TOOL_MS, together as long as the slowest
+        assertTrue("took " + concurrentMs + " ms", concurrentMs < 3 * TOOL_MS);
+    }
+
+    @Test
+    public void slowCallTimesOutWithoutHoldingUpTheOthers() throws Exception {
+        executor.setTimeout("slow", TOOL_MS + 100);
+        List<ToolCall> calls = ToolCall.fromJSONArray(new JSONArray(TOOL_CALLS));
+
+        long start = System.nanoTime();
+        List<ToolResult> results = executor.executeAll(calls, new ChatTurn(1));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertFalse(results.get(0).isSuccess());
+        assertEquals("call_a", results.get(0).getToolCallId());
+        assertEquals(ToolResult.ERROR_TIMEOUT, results.get(0).getErrorType());
+        assertTrue(results.get(1).isSuccess());
+        assertTrue(results.get(2).isSuccess());
+        assertTrue("took " + elapsedMs + " ms", elapsedMs < 2 * TOOL_MS);
+    }
+
+    @Test
+    public void declaredBudgetIsEnforcedAndTheToolAskedToStop() throws Exception {
+        List<ToolCall> calls = Arrays.asList(new ToolCall("call_p", "poll", new JSONObject()));
+
+        long start = System.nanoTime();
+        List<ToolResult> results = executor.executeAll(calls, new ChatTurn(1));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        // The tool's own 100 ms budget applies, not the 5 s default
+        assertTrue("took " + elapsedMs + " ms", elapsedMs < 1_000);
+        assertEquals(ToolResult.ERROR_TIMEOUT, results.get(0).getErrorType());
+        assertTrue(PollingTool.stopped.await(1, TimeUnit.SECONDS));
+
+        // The model gets the kind of failure, not only a message
+        JSONObject error = new JSONObject(results.get(0).toToolMessageContent()).getJSONObject("error");
+        assertEquals("timeout", error.getString("type"));
+        assertEquals("poll did not finish within 100 ms", error.getString("message"));
+    }
+
+    @Test
+    public void unknownToolIsReportedAsFailed() throws Exception {
+        List<ToolCall> calls = Arrays.asList(new ToolCall("call_x", "missing", new JSONObject()));
+
+        List<ToolResult> results = executor.executeAll(calls, new ChatTurn(1));
+
+        assertFalse(results.get(0).isSuccess());
+        assertEquals("call_x", results.get(0).getToolCallId());
+    }
+
+    @Test
+    public void failureWithoutAMessageIsStillDescribed() throws Exception {
+        List<ToolCall> calls = Arrays.asList(new ToolCall("call_f", "fail", new JSONObject()));
+
+        List<ToolResult> results = executor.executeAll(calls, new ChatTurn(1));
+
+        assertFalse(results.get(0).isSuccess());
+        assertEquals("Failed to run fail: NullPointerException", results.get(0).getError());
+    }
+
+    @Test
+    public void cancellingTheTurnStopsWaiting() throws Exception {
+        List<ToolCall> calls = Arrays.asList(new ToolCall("call_a", "slow", new JSONObject().put("ms", 5_000)));
+        ChatTurn turn = new ChatTurn(1);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                executor.executeAll(calls, turn);
+            } catch (Exception e) {
+                failure.set(e);
+            }
+            done.countDown();
+        });
+        waiter.start();
+        Thread.sleep(100);
+
+        // Cancelling a turn interrupts the thread running it
+        turn.cancel();
+        waiter.interrupt();
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertTrue(failure.get() instanceof InterruptedIOException);
+    }
+
+    /**
+     * Sleeps for the given number of milliseconds
+     */
+    private static class SleepTool extends BaseTool {
+        @Override
+        public String getName() {
+            return "slow";
+        }
+
+        @Override
+        public String getDescription() {
+            return "Sleep";
+        }
+
+        @Override
+        public JSONObject getParametersSchema() {
+            return new JSONObject();
+        }
+
+        @Override
+        public ToolResult execute(JSONObject arguments) {
+            long ms = arguments.optLong("ms");
+            try {
+                Thread.sleep(ms);
+            } catch (InterruptedException e) {
+                return new ToolResult("", "interrupted");
+            }
+            return new ToolResult("", "slept " + ms, true);
+        }
+    }
+
+    /**
+     * Throws an exception that has no message
+     */
+    private static class FailingTool extends BaseTool {
+        @Override
+        public String getName() {
+            return "fail";
+        }
+
+        @Override
+        public String getDescription() {
+            return "Fail";
+        }
+
+        @Override
+        public JSONObject getParametersSchema() {
+            return new JSONObject();
+        }
+
+        @Override
+        public ToolResult execute(JSONObject arguments) {
+            throw new NullPointerException();
+        }
+    }
+
+    /**
+     * Works until it is cancelled, with a budget of 100 ms
+     */
+    private static class PollingTool extends BaseTool {
+        static final CountDownLatch stopped = new CountDownLatch(1);
+
+        @Override
+        public String getName() {
+            return "poll";
+        }
+
+        @Override
+        public String getDescription() {
+            return "Poll";
+        }
+
+        @Override
+        public JSONObject getParametersSchema() {
+            return new JSONObject();
+        }
+
+        @Override
+        public long getTimeoutMs() {
+            return 100;
+        }
+
+        @Override
+        public ToolResult execute(JSONObject arguments) {
+            return new ToolResult("", "done", true);
+        }
+
+        @Override
+        public CompletableFuture<ToolResult> executeAsync(JSONObject arguments, CancellationSignal signal,
+                                                          Executor executor) {
+            return CompletableFuture.supplyAsync(() -> {
+                while (!signal.isCanceled()) {
+                    Thread.yield();
+                }
+                stopped.countDown();
+                return ToolResult.cancelled("");
+            }, executor);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package edu.sjsu.android.cactus;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tool lookup, the schemas generated from @ToolParam fields and binding of the model's arguments.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ToolRegistryTest {
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private final List<BaseTool> tools = Arrays.asList(new AlarmTool(context), new PhoneCallTool(context));
+
+    @Test
+    public void toolsAreLookedUpByName() {
+        ToolRegistry registry = new ToolRegistry(tools);
+
+        assertEquals(2, registry.size());
+        assertSame(tools.get(0), registry.get("set_alarm"));
+        assertSame(tools.get(1), registry.get("make_call"));
+        assertNull(registry.get("send_email"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateNamesAreRejected() {
+        new ToolRegistry(Arrays.asList(new AlarmTool(context), new AlarmTool(context)));
+    }
+
+    @Test
+    public void payloadIsTheSameForEveryRegistry() {
+        // Byte-identical across runs, so the provider's prompt cache keeps hitting
+        assertEquals(new ToolRegistry(tools).getPayload().toString(),
+                new ToolRegistry(Arrays.asList(new AlarmTool(context), new PhoneCallTool(context))).getPayload().toString());
+    }
+
+    @Test
+    public void schemaIsGeneratedFromTheFields() throws Exception {
+        JSONObject schema = new AlarmTool(context).getParametersSchema();
+
+        assertEquals("object", schema.getString("type"));
+        JSONObject hour = schema.getJSONObject("properties").getJSONObject("hour");
+        assertEquals("integer", hour.getString("type"));
+        assertEquals(0, hour.getInt("minimum"));
+        assertEquals(23, hour.getInt("maximum"));
+        JSONObject message = schema.getJSONObject("properties").getJSONObject("message");
+        assertEquals("string", message.getString("type"));
+        assertFalse(message.has("minimum"));
+
+        JSONArray required = schema.getJSONArray("required");
+        assertEquals(2, required.length());
+        assertEquals("hour", required.getString(0));
+        assertEquals("minutes", required.getString(1));
+
+        JSONObject phoneSchema = new PhoneCallTool(context).getParametersSchema();
+        assertEquals("string", phoneSchema.getJSONObject("properties").getJSONObject("phone_number").getString("type"));
+    }
+
+    @Test
+    public void argumentsAreBound() throws Exception {
+        ToolArgumentBinder<AlarmTool.Arguments> binder = ToolArgumentBinder.of(AlarmTool.Arguments.class);
+
+        AlarmTool.Arguments arguments = binder.bind(new JSONObject("{\"hour\":6,\"minutes\":30,\"message\":\"Gym\"}"));
+        assertEquals(6, arguments.hour);
+        assertEquals(30, arguments.minutes);
+        assertEquals("Gym", arguments.message);
+
+        // Optional parameters keep their default
+        assertEquals("Alarm", binder.bind(new JSONObject("{\"hour\":6,\"minutes\":30}")).message);
+    }
+
+    @Test
+    public void invalidArgumentsAreRejected() throws Exception {
+        ToolArgumentBinder<AlarmTool.Arguments> binder = ToolArgumentBinder.of(AlarmTool.Arguments.class);
+
+        assertBindFails(binder, "{\"minutes\":30}", "Missing required parameter hour");
+        assertBindFails(binder, "{\"hour\":25,\"minutes\":30}", "Parameter hour must be at most 23");
+        assertBindFails(binder, "{\"hour\":\"soon\",\"minutes\":30}", "Parameter hour must be of type integer");
+
+        // The tool reports binding errors as a failed result
+        ToolResult result = new AlarmTool(context).execute(new JSONObject("{\"hour\":25,\"minutes\":0}"));
+        assertFalse(result.isSuccess());
+        assertEquals("Parameter hour must be at most 23", result.getError());
+    }
+
+    private static void assertBindFails(ToolArgumentBinder<?> binder, String arguments, String error) throws Exception {
+        try {
+            binder.bind(new JSONObject(arguments));
+            fail("Bound " + arguments);
+        } catch (IllegalArgumentException e) {
+            assertEquals(error, e.getMessage());
+        }
+    }
+}
@@ -2,19 +2,38 @@ package edu.sjsu.android.cactus;
 
 import android.content.Context;
 import android.content.Intent;
+import android.os.CancellationSignal;
 import android.provider.AlarmClock;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Tool for setting alarms using the device's alarm app
  */
-public class AlarmTool extends BaseTool {
+public class AlarmTool extends TypedTool<AlarmTool.Arguments> {
+
+    /**
+     * Parameters of set_alarm
+     */
+    static class Arguments {
+        @ToolParam(description = "The hour for the alarm (0-23, 24-hour format)", minimum = 0, maximum = 23)
+        int hour;
+
+        @ToolParam(description = "The minutes for the alarm (0-59)", minimum = 0, maximum = 59)
+        int minutes;
+
+        @ToolParam(description = "Optional message/label for the alarm (e.g., 'Wake up', 'Meeting reminder')",
+                required = false)
+        String message = "Alarm";
+    }
+
+    private static final long TIMEOUT_MS = 5_000;
 
     private final Context context;
 
     public AlarmTool(Context context) {
+        super(Arguments.class);
         this.context = context;
     }
 
@@ -29,68 +48,24 @@ public class AlarmTool extends BaseTool {
     }
 
     @Override
-    public JSONObject getParametersSchema() {
-        try {
-            JSONObject schema = new JSONObject();
-            schema.put("type", "object");
-
-            JSONObject properties = new JSONObject();
-
-            // hour parameter
-            JSONObject hour = new JSONObject();
-            hour.put("type", "integer");
-            hour.put("description", "The hour for the alarm (0-23, 24-hour format)");
-            hour.put("minimum", 0);
-            hour.put("maximum", 23);
-            properties.put("hour", hour);
-
-            // minutes parameter
-            JSONObject minutes = new JSONObject();
-            minutes.put("type", "integer");
-            minutes.put("description", "The minutes for the alarm (0-59)");
-            minutes.put("minimum", 0);
-            minutes.put("maximum", 59);
-            properties.put("minutes", minutes);
-
-            // message parameter (optional)
-            JSONObject message = new JSONObject();
-            message.put("type", "string");
-            message.put("description", "Optional message/label for the alarm (e.g., 'Wake up', 'Meeting reminder')");
-            properties.put("message", message);
-
-            schema.put("properties", properties);
-
-            JSONArray required = new JSONArray();
-            required.put("hour");
-            required.put("minutes");
-            schema.put("required", required);
-
-            return schema;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return new JSONObject();
-        }
+    public long getTimeoutMs() {
+        // Only hands an intent to the alarm app, which answers right away
+        return TIMEOUT_MS;
+    }
+
+    @Override
+    protected CompletableFuture<ToolResult> runAsync(Arguments arguments, CancellationSignal signal,
+                                                     Executor executor) {
+        // Activities are started from the main thread
+        return runOnMainThread(arguments, signal);
     }
 
     @Override
-    public ToolResult execute(JSONObject arguments) {
+    protected ToolResult run(Arguments arguments) {
         try {
-            // Get parameters
-            if (!arguments.has("hour") || !arguments.has("minutes")) {
-                return new ToolResult("", "Both hour and minutes parameters are required");
-            }
-
-            int hour = arguments.getInt("hour");
-            int minutes = arguments.getInt("minutes");
-            String message = arguments.optString("message", "Alarm");
-
-            // Validate hour and minutes
-            if (hour < 0 || hour > 23) {
-                return new ToolResult("", "Hour must be between 0 and 23");
-            }
-            if (minutes < 0 || minutes > 59) {
-                return new ToolResult("", "Minutes must be between 0 and 59");
-            }
+            int hour = arguments.hour;
+            int minutes = arguments.minutes;
+            String message = arguments.message;
 
             // Create intent to set alarm
             Intent intent = new Intent(AlarmClock.ACTION_SET_ALARM);
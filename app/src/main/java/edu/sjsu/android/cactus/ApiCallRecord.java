@@ -0,0 +1,153 @@
+package edu.sjsu.android.cactus;
+
+import org.json.JSONObject;
+
+/**
+ * Token usage and timings of one chat completions call, as stored in the api_calls table.
+ * Counts and times not reported or not measured are -1.
+ */
+public class ApiCallRecord {
+    private long id = -1;
+    private long sessionId;
+    private Message message; // The message the call answered with, its ID is known once saved
+    private long messageId = -1;
+    private long timestamp;
+    private String model;
+    private String requestClass;
+    private int promptTokens = -1;
+    private int cachedTokens = -1;
+    private int completionTokens = -1;
+    private long connectMs = -1;
+    private long ttfbMs = -1;
+    private long firstTokenMs = -1;
+    private long totalMs = -1;
+    private int attempts = 1;
+    private boolean hedged;
+
+    public ApiCallRecord(long sessionId, String model, String requestClass, long timestamp) {
+        this.sessionId = sessionId;
+        this.model = model;
+        this.requestClass = requestClass;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Take the counts from a response's usage block, if it has one
+     */
+    public void setUsage(JSONObject usage) {
+        if (usage == null) {
+            return;
+        }
+        promptTokens = usage.optInt("prompt_tokens", -1);
+        completionTokens = usage.optInt("completion_tokens", -1);
+        // Prompt tokens served from the provider's prompt cache
+        JSONObject details = usage.optJSONObject("prompt_tokens_details");
+        cachedTokens = details == null ? -1 : details.optInt("cached_tokens", -1);
+    }
+
+    public void setUsage(int promptTokens, int cachedTokens, int completionTokens) {
+        this.promptTokens = promptTokens;
+        this.cachedTokens = cachedTokens;
+        this.completionTokens = completionTokens;
+    }
+
+    /**
+     * @param connectMs Until a connection was acquired, near 0 when a pooled one is reused
+     * @param ttfbMs Until the response headers arrived
+     * @param firstTokenMs Until the first streamed text arrived, -1 if not streamed
+     * @param totalMs Until the response was read completely
+     */
+    public void setTimings(long connectMs, long ttfbMs, long firstTokenMs, long totalMs) {
+        this.connectMs = connectMs;
+        this.ttfbMs = ttfbMs;
+        this.firstTokenMs = firstTokenMs;
+        this.totalMs = totalMs;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public void setMessage(Message message) {
+        this.message = message;
+    }
+
+    /**
+     * ID of the message the call answered with, or -1 if there is none or it is not saved yet
+     */
+    public long getMessageId() {
+        return message != null ? message.getId() : messageId;
+    }
+
+    public void setMessageId(long messageId) {
+        this.messageId = messageId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public String getRequestClass() {
+        return requestClass;
+    }
+
+    public int getPromptTokens() {
+        return promptTokens;
+    }
+
+    public int getCachedTokens() {
+        return cachedTokens;
+    }
+
+    public int getCompletionTokens() {
+        return completionTokens;
+    }
+
+    public long getConnectMs() {
+        return connectMs;
+    }
+
+    public long getTtfbMs() {
+        return ttfbMs;
+    }
+
+    public long getFirstTokenMs() {
+        return firstTokenMs;
+    }
+
+    public long getTotalMs() {
+        return totalMs;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public boolean isHedged() {
+        return hedged;
+    }
+
+    public void setHedged(boolean hedged) {
+        this.hedged = hedged;
+    }
+}
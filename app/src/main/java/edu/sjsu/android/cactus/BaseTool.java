@@ -1,7 +1,12 @@
 package edu.sjsu.android.cactus;
 
+import android.os.CancellationSignal;
+
 import org.json.JSONObject;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 /**
  * Abstract base class for all tools
  */
@@ -29,6 +34,27 @@ public abstract class BaseTool {
      */
     public abstract ToolResult execute(JSONObject arguments);
 
+    /**
+     * Start the tool without blocking the caller. The default runs execute() on the executor;
+     * tools that finish on another thread or in a callback complete the future from there.
+     * @param signal Cancelled when the call runs out of time or its turn is cancelled. A tool
+     *               that takes a while should check it and stop early; its result is dropped.
+     * @param executor Background threads the tool may use
+     */
+    public CompletableFuture<ToolResult> executeAsync(JSONObject arguments, CancellationSignal signal,
+                                                      Executor executor) {
+        return CompletableFuture.supplyAsync(() -> signal.isCanceled()
+                ? ToolResult.cancelled("") : execute(arguments), executor);
+    }
+
+    /**
+     * Longest a call to this tool should take, in milliseconds, or 0 to use the executor's default.
+     * A call that takes longer is reported to the model as timed out.
+     */
+    public long getTimeoutMs() {
+        return 0;
+    }
+
     /**
      * Get the complete function definition for OpenAI API
      */
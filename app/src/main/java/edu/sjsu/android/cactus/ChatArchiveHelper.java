@@ -0,0 +1,200 @@
+package edu.sjsu.android.cactus;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Archive tier for sessions nobody has opened in a while.
+ * Each archived session is one immutable row holding all of its messages as a single
+ * deflated segment, so the archive file stays small and is only read when a session
+ * is rehydrated. ChatDatabaseHelper owns the instance and moves sessions in and out.
+ */
+public class ChatArchiveHelper extends SQLiteOpenHelper {
+    public static final int DATABASE_VERSION = 1;
+
+    // Layout version written at the start of every segment
+    private static final int SEGMENT_FORMAT = 1;
+
+    private static final String SQL_CREATE_ARCHIVED_SESSIONS =
+            "CREATE TABLE " + ChatDatabaseContract.ArchivedSessionEntry.TABLE_NAME + " (" +
+                    ChatDatabaseContract.ArchivedSessionEntry.COLUMN_NAME_SESSION_ID + " INTEGER PRIMARY KEY," +
+                    ChatDatabaseContract.ArchivedSessionEntry.COLUMN_NAME_MESSAGE_COUNT + " INTEGER," +
+                    ChatDatabaseContract.ArchivedSessionEntry.COLUMN_NAME_ARCHIVED_AT + " INTEGER," +
+                    ChatDatabaseContract.ArchivedSessionEntry.COLUMN_NAME_SEGMENT + " BLOB)";
+
+    public ChatArchiveHelper(Context context, String databaseName) {
+        super(context, databaseName, null, DATABASE_VERSION);
+    }
+
+    /**
+     * Archive file name that goes with a chat database file name
+     */
+    public static String archiveNameFor(String databaseName) {
+        return databaseName.endsWith(".db")
+                ? databaseName.substring(0, databaseName.length() - 3) + "-archive.db"
+                : databaseName + "-archive";
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_ARCHIVED_SESSIONS);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Only one version so far
+    }
+
+    /**
+     * Store a session's messages, replacing any segment left behind by an interrupted earlier attempt
+     */
+    public void putSegment(long sessionId, List<Message> messages) {
+        ContentValues values = new ContentValues();
+        values.put(ChatDatabaseContract.ArchivedSessionEntry.COLUMN_NAME_SESSION_ID, sessionId);
+        values.put(ChatDatabaseContract.ArchivedSessionEntry.COLUMN_NAME_MESSAGE_COUNT, messages.size());
+        values.put(ChatDatabaseContract.ArchivedSessionEntry.COLUMN_NAME_ARCHIVED_AT, System.currentTimeMillis());
+        values.put(ChatDatabaseContract.ArchivedSessionEntry.COLUMN_NAME_SEGMENT, pack(messages));
+
+        this.getWritableDatabase().insertWithOnConflict(ChatDatabaseContract.ArchivedSessionEntry.TABLE_NAME,
+                null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Read back the messages of an archived session, oldest first
+     * @return The messages, or null if the session has no segment
+     */
+    public List<Message> getSegment(long sessionId) {
+        Cursor cursor = this.getReadableDatabase().query(ChatDatabaseContract.ArchivedSessionEntry.TABLE_NAME,
+                new String[]{ChatDatabaseContract.ArchivedSessionEntry.COLUMN_NAME_SEGMENT},
+                ChatDatabaseContract.ArchivedSessionEntry.COLUMN_NAME_SESSION_ID + " = ?",
+                new String[]{String.valueOf(sessionId)}, null, null, null);
+        byte[] segment = cursor.moveToFirst() ? cursor.getBlob(0) : null;
+        cursor.close();
+
+        return segment == null ? null : unpack(segment, sessionId);
+    }
+
+    /**
+     * IDs of every session that has a segment
+     */
+    public Set<Long> getSessionIds() {
+        Set<Long> sessionIds = new HashSet<>();
+        Cursor cursor = this.getReadableDatabase().query(ChatDatabaseContract.ArchivedSessionEntry.TABLE_NAME,
+                new String[]{ChatDatabaseContract.ArchivedSessionEntry.COLUMN_NAME_SESSION_ID},
+                null, null, null, null, null);
+        while (cursor.moveToNext()) {
+            sessionIds.add(cursor.getLong(0));
+        }
+        cursor.close();
+        return sessionIds;
+    }
+
+    public void deleteSegments(Collection<Long> sessionIds) {
+        if (sessionIds.isEmpty()) {
+            return;
+        }
+
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (long sessionId : sessionIds) {
+                db.delete(ChatDatabaseContract.ArchivedSessionEntry.TABLE_NAME,
+                        ChatDatabaseContract.ArchivedSessionEntry.COLUMN_NAME_SESSION_ID + " = ?",
+                        new String[]{String.valueOf(sessionId)});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void deleteAllSegments() {
+        this.getWritableDatabase().delete(ChatDatabaseContract.ArchivedSessionEntry.TABLE_NAME, null, null);
+    }
+
+    /**
+     * Serialize messages as (id, timestamp, isUser, UTF-8 body or -1 for null) records and deflate them as one stream.
+     * Compressing the whole session at once does much better than per-message compression.
+     */
+    static byte[] pack(List<Message> messages) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+            out.writeInt(SEGMENT_FORMAT);
+            out.writeInt(messages.size());
+            for (Message message : messages) {
+                String content = message.getContent();
+                out.writeLong(message.getId());
+                out.writeLong(message.getTimestamp());
+                out.writeBoolean(message.isUser());
+                if (content == null) {
+                    out.writeInt(-1);
+                } else {
+                    byte[] utf8 = content.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(utf8.length);
+                    out.write(utf8);
+                }
+            }
+        } catch (IOException e) {
+            // Only thrown by the underlying stream, which is in memory
+            throw new IllegalStateException(e);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    static List<Message> unpack(byte[] segment, long sessionId) {
+        Inflater inflater = new Inflater();
+        try (DataInputStream in = new DataInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(segment), inflater))) {
+            int format = in.readInt();
+            if (format != SEGMENT_FORMAT) {
+                throw new IllegalStateException("Unknown archive segment format " + format);
+            }
+            int count = in.readInt();
+            List<Message> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                long timestamp = in.readLong();
+                boolean isUser = in.readBoolean();
+                int length = in.readInt();
+                String content = null;
+                if (length >= 0) {
+                    byte[] utf8 = new byte[length];
+                    in.readFully(utf8);
+                    content = new String(utf8, StandardCharsets.UTF_8);
+                }
+
+                Message message = new Message(content, isUser, timestamp);
+                message.setId(id);
+                message.setSessionId(sessionId);
+                messages.add(message);
+            }
+            return messages;
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt archive segment for session " + sessionId, e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
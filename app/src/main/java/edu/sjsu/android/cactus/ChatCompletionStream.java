@@ -0,0 +1,216 @@
+package edu.sjsu.android.cactus;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a streamed chat completion (server-sent events with "stream": true) and assembles
+ * the same response object a non-streaming call returns, so callers can handle both alike.
+ * Content deltas are passed to the listener as they arrive; tool call deltas are only
+ * assembled, since their arguments are not usable until complete.
+ */
+public class ChatCompletionStream {
+
+    public interface Listener {
+        /**
+         * Called on the reading thread for every piece of assistant text
+         */
+        void onContentDelta(String delta);
+    }
+
+    private static final String DONE = "[DONE]";
+
+    private final Listener listener;
+
+    private String id;
+    private String model;
+    private String role = "assistant";
+    private final StringBuilder content = new StringBuilder();
+    // Tool calls by their index in the stream, arguments arrive in fragments
+    private final List<JSONObject> toolCalls = new ArrayList<>();
+    private final List<StringBuilder> toolArguments = new ArrayList<>();
+    private String finishReason;
+    private JSONObject usage;
+
+    private long firstTokenNanos = -1;
+
+    public ChatCompletionStream(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Read events until the [DONE] marker or the end of the stream
+     * @return {"id", "model", "choices": [{"index", "message", "finish_reason"}], "usage"}
+     */
+    public JSONObject read(InputStream in) throws IOException, JSONException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        StringBuilder data = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                // A blank line ends the event
+                if (data.length() > 0) {
+                    boolean more = dispatch(data.toString());
+                    data.setLength(0);
+                    if (!more) {
+                        break;
+                    }
+                }
+            } else if (line.startsWith("data:")) {
+                String value = line.substring(5);
+                if (value.startsWith(" ")) {
+                    value = value.substring(1);
+                }
+                if (data.length() > 0) {
+                    data.append('\n');
+                }
+                data.append(value);
+            }
+            // Comments (":") and the event, id and retry fields are not used by the API
+        }
+        if (data.length() > 0) {
+            dispatch(data.toString());
+        }
+        return buildResponse();
+    }
+
+    /**
+     * System.nanoTime() of the first content or tool call delta, or -1 if none arrived
+     */
+    public long getFirstTokenNanos() {
+        return firstTokenNanos;
+    }
+
+    /**
+     * Apply one event's data
+     * @return false once the stream is done
+     */
+    private boolean dispatch(String data) throws IOException, JSONException {
+        if (DONE.equals(data)) {
+            return false;
+        }
+
+        JSONObject chunk = new JSONObject(data);
+        if (chunk.has("error")) {
+            throw new IOException("Stream error: " + chunk.getJSONObject("error").optString("message"));
+        }
+        if (id == null) {
+            id = chunk.optString("id", null);
+            model = chunk.optString("model", null);
+        }
+        if (chunk.has("usage") && !chunk.isNull("usage")) {
+            usage = chunk.getJSONObject("usage");
+        }
+
+        JSONArray choices = chunk.optJSONArray("choices");
+        if (choices == null || choices.length() == 0) {
+            // The usage chunk at the end has no choices
+            return true;
+        }
+        JSONObject choice = choices.getJSONObject(0);
+        if (choice.has("finish_reason") && !choice.isNull("finish_reason")) {
+            finishReason = choice.getString("finish_reason");
+        }
+
+        JSONObject delta = choice.optJSONObject("delta");
+        if (delta == null) {
+            return true;
+        }
+        if (delta.has("role") && !delta.isNull("role")) {
+            role = delta.getString("role");
+        }
+        if (delta.has("content") && !delta.isNull("content")) {
+            String text = delta.getString("content");
+            if (!text.isEmpty()) {
+                markFirstToken();
+                content.append(text);
+                if (listener != null) {
+                    listener.onContentDelta(text);
+                }
+            }
+        }
+        JSONArray toolCallDeltas = delta.optJSONArray("tool_calls");
+        if (toolCallDeltas != null) {
+            markFirstToken();
+            for (int i = 0; i < toolCallDeltas.length(); i++) {
+                applyToolCallDelta(toolCallDeltas.getJSONObject(i));
+            }
+        }
+        return true;
+    }
+
+    private void applyToolCallDelta(JSONObject delta) throws JSONException {
+        int index = delta.optInt("index", toolCalls.size());
+        while (toolCalls.size() <= index) {
+            JSONObject toolCall = new JSONObject();
+            toolCall.put("type", "function");
+            toolCall.put("function", new JSONObject());
+            toolCalls.add(toolCall);
+            toolArguments.add(new StringBuilder());
+        }
+
+        JSONObject toolCall = toolCalls.get(index);
+        if (delta.has("id") && !delta.isNull("id")) {
+            toolCall.put("id", delta.getString("id"));
+        }
+        if (delta.has("type") && !delta.isNull("type")) {
+            toolCall.put("type", delta.getString("type"));
+        }
+        JSONObject function = delta.optJSONObject("function");
+        if (function != null) {
+            JSONObject assembled = toolCall.getJSONObject("function");
+            if (function.has("name") && !function.isNull("name")) {
+                assembled.put("name", assembled.optString("name") + function.getString("name"));
+            }
+            if (function.has("arguments") && !function.isNull("arguments")) {
+                toolArguments.get(index).append(function.getString("arguments"));
+            }
+        }
+    }
+
+    private void markFirstToken() {
+        if (firstTokenNanos < 0) {
+            firstTokenNanos = System.nanoTime();
+        }
+    }
+
+    private JSONObject buildResponse() throws JSONException {
+        JSONObject message = new JSONObject();
+        message.put("role", role);
+        if (content.length() > 0) {
+            message.put("content", content.toString());
+        }
+        if (!toolCalls.isEmpty()) {
+            JSONArray calls = new JSONArray();
+            for (int i = 0; i < toolCalls.size(); i++) {
+                JSONObject toolCall = toolCalls.get(i);
+                toolCall.getJSONObject("function").put("arguments", toolArguments.get(i).toString());
+                calls.put(toolCall);
+            }
+            message.put("tool_calls", calls);
+        }
+
+        JSONObject choice = new JSONObject();
+        choice.put("index", 0);
+        choice.put("message", message);
+        choice.put("finish_reason", finishReason);
+
+        JSONObject response = new JSONObject();
+        response.put("id", id);
+        response.put("model", model);
+        response.put("choices", new JSONArray().put(choice));
+        if (usage != null) {
+            response.put("usage", usage);
+        }
+        return response;
+    }
+}
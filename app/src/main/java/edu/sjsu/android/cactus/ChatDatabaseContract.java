@@ -11,6 +11,13 @@ public final class ChatDatabaseContract {
         public static final String TABLE_NAME = "sessions";
         public static final String COLUMN_NAME_TITLE = "title";
         public static final String COLUMN_NAME_TIMESTAMP = "timestamp";
+        // Aggregates maintained by triggers on the messages table
+        public static final String COLUMN_NAME_MESSAGE_COUNT = "message_count";
+        public static final String COLUMN_NAME_LAST_MESSAGE_AT = "last_message_at";
+        public static final String COLUMN_NAME_LAST_MESSAGE_PREVIEW = "last_message_preview";
+        // 1 while the session's messages live in the archive database instead of messages
+        public static final String COLUMN_NAME_ARCHIVED = "archived";
+        public static final String COLUMN_NAME_REHYDRATED_AT = "rehydrated_at";
     }
 
     /* Inner class that defines the messages table */
@@ -20,5 +27,58 @@ public final class ChatDatabaseContract {
         public static final String COLUMN_NAME_CONTENT = "content";
         public static final String COLUMN_NAME_IS_USER = "is_user";
         public static final String COLUMN_NAME_TIMESTAMP = "timestamp";
+        // MessageCodec.CODEC_* value describing how content is stored
+        public static final String COLUMN_NAME_CODEC = "codec";
+        // TokenEstimator.countMessageTokens of the content, NULL if not counted yet
+        public static final String COLUMN_NAME_TOKEN_COUNT = "token_count";
+    }
+
+    /* Inner class that defines the table of chat completion calls, one row per call */
+    public static class ApiCallEntry implements BaseColumns {
+        public static final String TABLE_NAME = "api_calls";
+        public static final String COLUMN_NAME_SESSION_ID = "session_id";
+        // The message the call answered with, NULL if none was saved
+        public static final String COLUMN_NAME_MESSAGE_ID = "message_id";
+        public static final String COLUMN_NAME_TIMESTAMP = "timestamp";
+        public static final String COLUMN_NAME_MODEL = "model";
+        // ChatTransport.RequestClass name
+        public static final String COLUMN_NAME_REQUEST_CLASS = "request_class";
+        // Token usage reported by the API, NULL if it reported none
+        public static final String COLUMN_NAME_PROMPT_TOKENS = "prompt_tokens";
+        public static final String COLUMN_NAME_CACHED_TOKENS = "cached_tokens";
+        public static final String COLUMN_NAME_COMPLETION_TOKENS = "completion_tokens";
+        // Milliseconds from sending the request, NULL if not measured
+        public static final String COLUMN_NAME_CONNECT_MS = "connect_ms";
+        public static final String COLUMN_NAME_TTFB_MS = "ttfb_ms";
+        public static final String COLUMN_NAME_FIRST_TOKEN_MS = "first_token_ms";
+        public static final String COLUMN_NAME_TOTAL_MS = "total_ms";
+        public static final String COLUMN_NAME_ATTEMPTS = "attempts";
+        // 1 if a hedge request was sent for the call
+        public static final String COLUMN_NAME_HEDGED = "hedged";
+    }
+
+    /* Inner class that defines the full-text index over message content */
+    public static class MessageSearchEntry {
+        public static final String TABLE_NAME = "messages_fts";
+        // The FTS rowid (docid) is the _ID of the indexed message
+        public static final String COLUMN_NAME_DOCID = "docid";
+        public static final String COLUMN_NAME_CONTENT = "content";
+    }
+
+    /* Inner class that tracks how far the search index backfill has progressed */
+    public static class SearchBackfillEntry {
+        public static final String TABLE_NAME = "fts_backfill";
+        public static final String COLUMN_NAME_NEXT_ID = "next_id";
+        public static final String COLUMN_NAME_MAX_ID = "max_id";
+    }
+
+    /* Inner class that defines the table of packed sessions in the archive database */
+    public static class ArchivedSessionEntry {
+        public static final String TABLE_NAME = "archived_sessions";
+        public static final String COLUMN_NAME_SESSION_ID = "session_id";
+        public static final String COLUMN_NAME_MESSAGE_COUNT = "message_count";
+        public static final String COLUMN_NAME_ARCHIVED_AT = "archived_at";
+        // All of the session's messages in one deflated segment, see ChatArchiveHelper
+        public static final String COLUMN_NAME_SEGMENT = "segment";
     }
 }
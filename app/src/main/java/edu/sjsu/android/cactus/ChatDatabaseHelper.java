@@ -3,22 +3,76 @@ package edu.sjsu.android.cactus;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class ChatDatabaseHelper extends SQLiteOpenHelper {
     // Database version. If you change the database schema, you must increment the database version.
-    public static final int DATABASE_VERSION = 2;
+    public static final int DATABASE_VERSION = 10;
     public static final String DATABASE_NAME = "ChatHistory.db";
 
     private static final String SQL_CREATE_SESSIONS =
             "CREATE TABLE " + ChatDatabaseContract.SessionEntry.TABLE_NAME + " (" +
                     ChatDatabaseContract.SessionEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
                     ChatDatabaseContract.SessionEntry.COLUMN_NAME_TITLE + " TEXT," +
-                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_TIMESTAMP + " INTEGER)";
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_TIMESTAMP + " INTEGER," +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_MESSAGE_COUNT + " INTEGER NOT NULL DEFAULT 0," +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_AT + " INTEGER," +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_PREVIEW + " TEXT," +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_ARCHIVED + " INTEGER NOT NULL DEFAULT 0," +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_REHYDRATED_AT + " INTEGER)";
+
+    // Connection tuning for the chat workload, see onConfigure
+    private static final int CACHE_SIZE_KIB = 4096;
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    // Number of characters of the last message kept on the session row
+    private static final int PREVIEW_LENGTH = 80;
+
+    // Keep the session aggregates in step with inserts into messages.
+    // Archived sessions keep the aggregates they had when their messages were moved out.
+    private static final String SQL_CREATE_MESSAGE_INSERT_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS messages_after_insert AFTER INSERT ON " +
+                    ChatDatabaseContract.MessageEntry.TABLE_NAME + " BEGIN " +
+                    "UPDATE " + ChatDatabaseContract.SessionEntry.TABLE_NAME + " SET " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_MESSAGE_COUNT + " = " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_MESSAGE_COUNT + " + 1, " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_AT + " = NEW." +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + ", " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_PREVIEW + " = " +
+                    previewExpression("NEW.") + " " +
+                    "WHERE " + ChatDatabaseContract.SessionEntry._ID + " = NEW." +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + " AND " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_ARCHIVED + " = 0; END";
+
+    // Keep the session aggregates in step with deletes from messages.
+    // The new last message is found through the (session_id, timestamp, _id) index.
+    private static final String SQL_CREATE_MESSAGE_DELETE_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS messages_after_delete AFTER DELETE ON " +
+                    ChatDatabaseContract.MessageEntry.TABLE_NAME + " BEGIN " +
+                    "UPDATE " + ChatDatabaseContract.SessionEntry.TABLE_NAME + " SET " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_MESSAGE_COUNT + " = " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_MESSAGE_COUNT + " - 1, " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_AT + " = (" +
+                    lastMessageSubquery(ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP) + "), " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_PREVIEW + " = (" +
+                    lastMessageSubquery(previewExpression("")) + ") " +
+                    "WHERE " + ChatDatabaseContract.SessionEntry._ID + " = OLD." +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + " AND " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_ARCHIVED + " = 0; END";
 
     private static final String SQL_CREATE_MESSAGES =
             "CREATE TABLE " + ChatDatabaseContract.MessageEntry.TABLE_NAME + " (" +
@@ -27,8 +81,99 @@ public class ChatDatabaseHelper extends SQLiteOpenHelper {
                     ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT + " TEXT," +
                     ChatDatabaseContract.MessageEntry.COLUMN_NAME_IS_USER + " INTEGER," +
                     ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " INTEGER," +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_CODEC + " INTEGER NOT NULL DEFAULT " + MessageCodec.CODEC_PLAIN + "," +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_TOKEN_COUNT + " INTEGER," +
                     "FOREIGN KEY(" + ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + ") REFERENCES " +
-                    ChatDatabaseContract.SessionEntry.TABLE_NAME + "(" + ChatDatabaseContract.SessionEntry._ID + "))";
+                    ChatDatabaseContract.SessionEntry.TABLE_NAME + "(" + ChatDatabaseContract.SessionEntry._ID + ")" +
+                    " ON DELETE CASCADE)";
+
+    // Composite index backing the keyset-paginated history queries
+    private static final String SQL_CREATE_MESSAGES_SESSION_INDEX =
+            "CREATE INDEX IF NOT EXISTS idx_messages_session_timestamp ON " +
+                    ChatDatabaseContract.MessageEntry.TABLE_NAME + " (" +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + ", " +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + ", " +
+                    ChatDatabaseContract.MessageEntry._ID + ")";
+
+    private static final String SQL_CREATE_MESSAGES_FTS =
+            "CREATE VIRTUAL TABLE IF NOT EXISTS " + ChatDatabaseContract.MessageSearchEntry.TABLE_NAME +
+                    " USING fts4(" + ChatDatabaseContract.MessageSearchEntry.COLUMN_NAME_CONTENT +
+                    ", prefix=\"2,3\")";
+
+    // Keep the full-text index in step with the messages table
+    private static final String SQL_CREATE_FTS_INSERT_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS messages_fts_after_insert AFTER INSERT ON " +
+                    ChatDatabaseContract.MessageEntry.TABLE_NAME + " WHEN NEW." +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_CODEC + " = " + MessageCodec.CODEC_PLAIN + " BEGIN " +
+                    "INSERT INTO " + ChatDatabaseContract.MessageSearchEntry.TABLE_NAME + " (" +
+                    ChatDatabaseContract.MessageSearchEntry.COLUMN_NAME_DOCID + ", " +
+                    ChatDatabaseContract.MessageSearchEntry.COLUMN_NAME_CONTENT + ") VALUES (NEW." +
+                    ChatDatabaseContract.MessageEntry._ID + ", NEW." +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT + "); END";
+
+    private static final String SQL_CREATE_FTS_DELETE_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS messages_fts_after_delete AFTER DELETE ON " +
+                    ChatDatabaseContract.MessageEntry.TABLE_NAME + " BEGIN " +
+                    "DELETE FROM " + ChatDatabaseContract.MessageSearchEntry.TABLE_NAME + " WHERE " +
+                    ChatDatabaseContract.MessageSearchEntry.COLUMN_NAME_DOCID + " = OLD." +
+                    ChatDatabaseContract.MessageEntry._ID + "; END";
+
+    private static final String SQL_CREATE_FTS_UPDATE_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS messages_fts_after_update AFTER UPDATE OF " +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT + " ON " +
+                    ChatDatabaseContract.MessageEntry.TABLE_NAME + " WHEN NEW." +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_CODEC + " = " + MessageCodec.CODEC_PLAIN + " BEGIN " +
+                    "UPDATE " + ChatDatabaseContract.MessageSearchEntry.TABLE_NAME + " SET " +
+                    ChatDatabaseContract.MessageSearchEntry.COLUMN_NAME_CONTENT + " = NEW." +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT + " WHERE " +
+                    ChatDatabaseContract.MessageSearchEntry.COLUMN_NAME_DOCID + " = NEW." +
+                    ChatDatabaseContract.MessageEntry._ID + "; END";
+
+    private static final String SQL_CREATE_API_CALLS =
+            "CREATE TABLE IF NOT EXISTS " + ChatDatabaseContract.ApiCallEntry.TABLE_NAME + " (" +
+                    ChatDatabaseContract.ApiCallEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_SESSION_ID + " INTEGER," +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_MESSAGE_ID + " INTEGER," +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_TIMESTAMP + " INTEGER," +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_MODEL + " TEXT," +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_REQUEST_CLASS + " TEXT," +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_PROMPT_TOKENS + " INTEGER," +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_CACHED_TOKENS + " INTEGER," +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_COMPLETION_TOKENS + " INTEGER," +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_CONNECT_MS + " INTEGER," +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_TTFB_MS + " INTEGER," +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_FIRST_TOKEN_MS + " INTEGER," +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_TOTAL_MS + " INTEGER," +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_ATTEMPTS + " INTEGER NOT NULL DEFAULT 1," +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_HEDGED + " INTEGER NOT NULL DEFAULT 0," +
+                    // Message rows move to the archive and back, only the session is a foreign key
+                    "FOREIGN KEY(" + ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_SESSION_ID + ") REFERENCES " +
+                    ChatDatabaseContract.SessionEntry.TABLE_NAME + "(" + ChatDatabaseContract.SessionEntry._ID + ")" +
+                    " ON DELETE CASCADE)";
+
+    // Per-session aggregates, and the cascade from sessions
+    private static final String SQL_CREATE_API_CALLS_SESSION_INDEX =
+            "CREATE INDEX IF NOT EXISTS idx_api_calls_session ON " +
+                    ChatDatabaseContract.ApiCallEntry.TABLE_NAME + " (" +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_SESSION_ID + ")";
+
+    // Per-day aggregates and percentiles over a time range
+    private static final String SQL_CREATE_API_CALLS_TIMESTAMP_INDEX =
+            "CREATE INDEX IF NOT EXISTS idx_api_calls_timestamp ON " +
+                    ChatDatabaseContract.ApiCallEntry.TABLE_NAME + " (" +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_TIMESTAMP + ")";
+
+    private static final String SQL_CREATE_FTS_BACKFILL =
+            "CREATE TABLE IF NOT EXISTS " + ChatDatabaseContract.SearchBackfillEntry.TABLE_NAME + " (" +
+                    ChatDatabaseContract.SearchBackfillEntry.COLUMN_NAME_NEXT_ID + " INTEGER," +
+                    ChatDatabaseContract.SearchBackfillEntry.COLUMN_NAME_MAX_ID + " INTEGER)";
+
+    // Upper bound on the number of hits scored per search, newest messages first
+    private static final int MAX_SEARCH_CANDIDATES = 5000;
+
+    // Markers placed around matched terms in search snippets
+    public static final char SNIPPET_MATCH_START = '\u0002';
+    public static final char SNIPPET_MATCH_END = '\u0003';
 
     private static final String SQL_DELETE_SESSIONS =
             "DROP TABLE IF EXISTS " + ChatDatabaseContract.SessionEntry.TABLE_NAME;
@@ -36,22 +181,186 @@ public class ChatDatabaseHelper extends SQLiteOpenHelper {
     private static final String SQL_DELETE_MESSAGES =
             "DROP TABLE IF EXISTS " + ChatDatabaseContract.MessageEntry.TABLE_NAME;
 
+    private static final String[] MESSAGE_PROJECTION = {
+            ChatDatabaseContract.MessageEntry._ID,
+            ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID,
+            ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT,
+            ChatDatabaseContract.MessageEntry.COLUMN_NAME_IS_USER,
+            ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP,
+            ChatDatabaseContract.MessageEntry.COLUMN_NAME_CODEC,
+            ChatDatabaseContract.MessageEntry.COLUMN_NAME_TOKEN_COUNT
+    };
+
+    // Compiled statements for the hot write paths, indexed by the STATEMENT_* constants
+    private static final int STATEMENT_INSERT_MESSAGE = 0;
+    private static final int STATEMENT_UPDATE_SESSION_TITLE = 1;
+    private static final int STATEMENT_DELETE_MESSAGE = 2;
+    private static final int STATEMENT_DELETE_SESSION = 3;
+    private static final int STATEMENT_INDEX_MESSAGE = 4;
+    private static final int STATEMENT_UPDATE_SESSION_PREVIEW = 5;
+    private static final int STATEMENT_INSERT_API_CALL = 6;
+
+    private static final String[] STATEMENT_SQL = {
+            "INSERT INTO " + ChatDatabaseContract.MessageEntry.TABLE_NAME + " (" +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + ", " +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT + ", " +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_IS_USER + ", " +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + ", " +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_CODEC + ", " +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_TOKEN_COUNT + ") VALUES (?, ?, ?, ?, ?, ?)",
+            "UPDATE " + ChatDatabaseContract.SessionEntry.TABLE_NAME + " SET " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_TITLE + " = ? WHERE " +
+                    ChatDatabaseContract.SessionEntry._ID + " = ?",
+            "DELETE FROM " + ChatDatabaseContract.MessageEntry.TABLE_NAME + " WHERE " +
+                    ChatDatabaseContract.MessageEntry._ID + " = ?",
+            "DELETE FROM " + ChatDatabaseContract.SessionEntry.TABLE_NAME + " WHERE " +
+                    ChatDatabaseContract.SessionEntry._ID + " = ?",
+            "INSERT INTO " + ChatDatabaseContract.MessageSearchEntry.TABLE_NAME + " (" +
+                    ChatDatabaseContract.MessageSearchEntry.COLUMN_NAME_DOCID + ", " +
+                    ChatDatabaseContract.MessageSearchEntry.COLUMN_NAME_CONTENT + ") VALUES (?, ?)",
+            "UPDATE " + ChatDatabaseContract.SessionEntry.TABLE_NAME + " SET " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_PREVIEW + " = ? WHERE " +
+                    ChatDatabaseContract.SessionEntry._ID + " = ?",
+            "INSERT INTO " + ChatDatabaseContract.ApiCallEntry.TABLE_NAME + " (" +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_SESSION_ID + ", " +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_MESSAGE_ID + ", " +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_TIMESTAMP + ", " +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_MODEL + ", " +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_REQUEST_CLASS + ", " +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_PROMPT_TOKENS + ", " +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_CACHED_TOKENS + ", " +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_COMPLETION_TOKENS + ", " +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_CONNECT_MS + ", " +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_TTFB_MS + ", " +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_FIRST_TOKEN_MS + ", " +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_TOTAL_MS + ", " +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_ATTEMPTS + ", " +
+                    ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_HEDGED + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"
+    };
+
+    // Bodies at least this large are compressed, see MessageCodec; 0 disables compression
+    private volatile int compressionThresholdBytes = MessageCodec.DEFAULT_THRESHOLD_BYTES;
+
+    private final SQLiteStatement[] statements = new SQLiteStatement[STATEMENT_SQL.length];
+    private SQLiteDatabase statementDatabase;
+
+    // Cold sessions are moved here, see archiveColdSession
+    private final ChatArchiveHelper archiveHelper;
+
+    // Value reported by PRAGMA auto_vacuum once incremental vacuum is in effect
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // Compressed bodies have no text preview, the write path fills it in instead
+    private static String previewExpression(String rowPrefix) {
+        return "CASE WHEN " + rowPrefix + ChatDatabaseContract.MessageEntry.COLUMN_NAME_CODEC + " = " +
+                MessageCodec.CODEC_PLAIN + " THEN substr(" + rowPrefix +
+                ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT + ", 1, " + PREVIEW_LENGTH + ") END";
+    }
+
+    private static String lastMessageSubquery(String column) {
+        return "SELECT " + column + " FROM " + ChatDatabaseContract.MessageEntry.TABLE_NAME +
+                " WHERE " + ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + " = OLD." +
+                ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID +
+                " ORDER BY " + ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " DESC, " +
+                ChatDatabaseContract.MessageEntry._ID + " DESC LIMIT 1";
+    }
+
     public ChatDatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Open a database under a different file name, used by tests and benchmarks
+     */
+    public ChatDatabaseHelper(Context context, String databaseName) {
+        super(context, databaseName, null, DATABASE_VERSION);
+        // A separate connection rather than ATTACH: Android turns WAL off on databases with attachments
+        archiveHelper = new ChatArchiveHelper(context, ChatArchiveHelper.archiveNameFor(databaseName));
+        // Readers use their own pooled connections and see the last committed state
+        // instead of waiting for an open write transaction
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Deleting a session cascades to its messages
+        db.setForeignKeyConstraintsEnabled(true);
+        // NORMAL is durable across app crashes in WAL mode and only syncs on checkpoint
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        // ~4MB page cache per connection (negative values are in KiB)
+        db.execSQL("PRAGMA cache_size = -" + CACHE_SIZE_KIB);
+        // Checkpoint automatically once the log reaches this many pages
+        executePragma(db, "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+        // New databases start out with incremental vacuum, older ones are converted by reclaimFreeSpace
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        if (db.getVersion() == 0 && queryPragmaLong(db, "PRAGMA auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            // Switching to WAL already wrote the header of the empty file, rebuilding it is free
+            db.execSQL("VACUUM");
+        }
+    }
+
+    /**
+     * Copy committed WAL frames back into the database file without blocking readers or writers
+     */
+    public void checkpoint() {
+        executePragma(this.getWritableDatabase(), "PRAGMA wal_checkpoint(PASSIVE)");
+    }
+
+    // Pragmas that report a result row have to be read through a cursor
+    private static void executePragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        cursor.moveToFirst();
+        cursor.close();
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(SQL_CREATE_SESSIONS);
         db.execSQL(SQL_CREATE_MESSAGES);
+        db.execSQL(SQL_CREATE_MESSAGES_FTS);
+        createMessageIndexAndTriggers(db);
+        createApiCallsTable(db);
+    }
+
+    private static void createApiCallsTable(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_API_CALLS);
+        db.execSQL(SQL_CREATE_API_CALLS_SESSION_INDEX);
+        db.execSQL(SQL_CREATE_API_CALLS_TIMESTAMP_INDEX);
+    }
+
+    /**
+     * Create the index and triggers that hang off the messages table.
+     * They are dropped together with the table whenever a migration rebuilds it.
+     */
+    private static void dropMessageTriggers(SQLiteDatabase db) {
+        for (String trigger : new String[]{"messages_after_insert", "messages_after_delete",
+                "messages_fts_after_insert", "messages_fts_after_delete", "messages_fts_after_update"}) {
+            db.execSQL("DROP TRIGGER IF EXISTS " + trigger);
+        }
+    }
+
+    private static void createMessageIndexAndTriggers(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_MESSAGES_SESSION_INDEX);
+        db.execSQL(SQL_CREATE_MESSAGE_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_MESSAGE_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_FTS_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_FTS_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_FTS_UPDATE_TRIGGER);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The messages triggers are recreated once the schema is final, see the end of this method
+        dropMessageTriggers(db);
+
         // Handle upgrade from version 1 to version 2
         if (oldVersion < 2) {
-            // Create sessions table
-            db.execSQL(SQL_CREATE_SESSIONS);
+            // Create sessions table as it was in version 2, later columns are added below
+            db.execSQL("CREATE TABLE " + ChatDatabaseContract.SessionEntry.TABLE_NAME + " (" +
+                    ChatDatabaseContract.SessionEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_TITLE + " TEXT," +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_TIMESTAMP + " INTEGER)");
             
             // Create a default session for existing messages
             ContentValues sessionValues = new ContentValues();
@@ -85,6 +394,115 @@ public class ChatDatabaseHelper extends SQLiteOpenHelper {
             db.execSQL("DROP TABLE " + ChatDatabaseContract.MessageEntry.TABLE_NAME);
             db.execSQL("ALTER TABLE messages_new RENAME TO " + ChatDatabaseContract.MessageEntry.TABLE_NAME);
         }
+
+        // Handle upgrade from version 2 to version 3
+        if (oldVersion < 3) {
+            db.execSQL(SQL_CREATE_MESSAGES_SESSION_INDEX);
+        }
+
+        // Handle upgrade from version 3 to version 4
+        if (oldVersion < 4) {
+            // Add the denormalized aggregate columns to sessions
+            db.execSQL("ALTER TABLE " + ChatDatabaseContract.SessionEntry.TABLE_NAME + " ADD COLUMN " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_MESSAGE_COUNT + " INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE " + ChatDatabaseContract.SessionEntry.TABLE_NAME + " ADD COLUMN " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_AT + " INTEGER");
+            db.execSQL("ALTER TABLE " + ChatDatabaseContract.SessionEntry.TABLE_NAME + " ADD COLUMN " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_PREVIEW + " TEXT");
+
+            // Backfill them from the existing messages
+            String sessionMessages = " FROM " + ChatDatabaseContract.MessageEntry.TABLE_NAME + " m WHERE m." +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + " = " +
+                    ChatDatabaseContract.SessionEntry.TABLE_NAME + "." + ChatDatabaseContract.SessionEntry._ID;
+            String newestFirst = " ORDER BY m." + ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP +
+                    " DESC, m." + ChatDatabaseContract.MessageEntry._ID + " DESC LIMIT 1";
+            db.execSQL("UPDATE " + ChatDatabaseContract.SessionEntry.TABLE_NAME + " SET " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_MESSAGE_COUNT + " = (SELECT COUNT(*)" + sessionMessages + "), " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_AT + " = (SELECT m." +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + sessionMessages + newestFirst + "), " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_PREVIEW + " = (SELECT substr(m." +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT + ", 1, " + PREVIEW_LENGTH + ")" +
+                    sessionMessages + newestFirst + ")");
+
+        }
+
+        // Handle upgrade from version 4 to version 5
+        if (oldVersion < 5) {
+            // New messages are indexed by the triggers from now on
+            db.execSQL(SQL_CREATE_MESSAGES_FTS);
+
+            // Existing messages are indexed in chunks by backfillSearchIndex()
+            db.execSQL(SQL_CREATE_FTS_BACKFILL);
+            db.execSQL("INSERT INTO " + ChatDatabaseContract.SearchBackfillEntry.TABLE_NAME + " (" +
+                    ChatDatabaseContract.SearchBackfillEntry.COLUMN_NAME_NEXT_ID + ", " +
+                    ChatDatabaseContract.SearchBackfillEntry.COLUMN_NAME_MAX_ID + ") " +
+                    "SELECT 0, MAX(" + ChatDatabaseContract.MessageEntry._ID + ") FROM " +
+                    ChatDatabaseContract.MessageEntry.TABLE_NAME +
+                    " HAVING MAX(" + ChatDatabaseContract.MessageEntry._ID + ") IS NOT NULL");
+        }
+
+        // Handle upgrade from version 5 to version 6
+        if (oldVersion < 6) {
+            // SQLite cannot alter a foreign key, rebuild messages with ON DELETE CASCADE
+            db.execSQL("CREATE TABLE messages_new (" +
+                    ChatDatabaseContract.MessageEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + " INTEGER," +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT + " TEXT," +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_IS_USER + " INTEGER," +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " INTEGER," +
+                    "FOREIGN KEY(" + ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + ") REFERENCES " +
+                    ChatDatabaseContract.SessionEntry.TABLE_NAME + "(" + ChatDatabaseContract.SessionEntry._ID + ")" +
+                    " ON DELETE CASCADE)");
+
+            // Orphaned messages would violate the now enforced foreign key, leave them behind
+            String columns = ChatDatabaseContract.MessageEntry._ID + ", " +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + ", " +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT + ", " +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_IS_USER + ", " +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP;
+            db.execSQL("INSERT INTO messages_new (" + columns + ") SELECT " + columns +
+                    " FROM " + ChatDatabaseContract.MessageEntry.TABLE_NAME + " WHERE " +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + " IN (SELECT " +
+                    ChatDatabaseContract.SessionEntry._ID + " FROM " + ChatDatabaseContract.SessionEntry.TABLE_NAME + ")");
+            db.execSQL("DELETE FROM " + ChatDatabaseContract.MessageSearchEntry.TABLE_NAME + " WHERE " +
+                    ChatDatabaseContract.MessageSearchEntry.COLUMN_NAME_DOCID + " NOT IN (SELECT " +
+                    ChatDatabaseContract.MessageEntry._ID + " FROM messages_new)");
+
+            // Drop old table and rename new one
+            db.execSQL("DROP TABLE " + ChatDatabaseContract.MessageEntry.TABLE_NAME);
+            db.execSQL("ALTER TABLE messages_new RENAME TO " + ChatDatabaseContract.MessageEntry.TABLE_NAME);
+        }
+
+        // Handle upgrade from version 6 to version 7
+        if (oldVersion < 7) {
+            // Existing bodies stay plain text, only new large ones are compressed
+            db.execSQL("ALTER TABLE " + ChatDatabaseContract.MessageEntry.TABLE_NAME + " ADD COLUMN " +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_CODEC + " INTEGER NOT NULL DEFAULT " + MessageCodec.CODEC_PLAIN);
+        }
+
+        // Handle upgrade from version 7 to version 8
+        if (oldVersion < 8) {
+            // Every existing session starts out hot
+            db.execSQL("ALTER TABLE " + ChatDatabaseContract.SessionEntry.TABLE_NAME + " ADD COLUMN " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_ARCHIVED + " INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE " + ChatDatabaseContract.SessionEntry.TABLE_NAME + " ADD COLUMN " +
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_REHYDRATED_AT + " INTEGER");
+        }
+
+        // Handle upgrade from version 8 to version 9
+        if (oldVersion < 9) {
+            // Existing messages are counted when they are first sent
+            db.execSQL("ALTER TABLE " + ChatDatabaseContract.MessageEntry.TABLE_NAME + " ADD COLUMN " +
+                    ChatDatabaseContract.MessageEntry.COLUMN_NAME_TOKEN_COUNT + " INTEGER");
+        }
+
+        // Handle upgrade from version 9 to version 10
+        if (oldVersion < 10) {
+            // Calls made before this version were not recorded
+            createApiCallsTable(db);
+        }
+
+        createMessageIndexAndTriggers(db);
     }
 
     @Override
@@ -106,31 +524,48 @@ public class ChatDatabaseHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * Get all chat sessions ordered by timestamp (newest first)
+     * Get all non-empty chat sessions ordered by timestamp (newest first), archived ones included.
+     * Reads only the sessions table; message counts are kept up to date by triggers.
      */
     public List<ChatSession> getAllSessions() {
         List<ChatSession> sessions = new ArrayList<>();
         SQLiteDatabase db = this.getReadableDatabase();
 
-        String query = "SELECT s." + ChatDatabaseContract.SessionEntry._ID + ", " +
-                "s." + ChatDatabaseContract.SessionEntry.COLUMN_NAME_TITLE + ", " +
-                "s." + ChatDatabaseContract.SessionEntry.COLUMN_NAME_TIMESTAMP + ", " +
-                "COUNT(m." + ChatDatabaseContract.MessageEntry._ID + ") as message_count " +
-                "FROM " + ChatDatabaseContract.SessionEntry.TABLE_NAME + " s " +
-                "LEFT JOIN " + ChatDatabaseContract.MessageEntry.TABLE_NAME + " m " +
-                "ON s." + ChatDatabaseContract.SessionEntry._ID + " = m." + ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + " " +
-                "GROUP BY s." + ChatDatabaseContract.SessionEntry._ID + " " +
-                "ORDER BY s." + ChatDatabaseContract.SessionEntry.COLUMN_NAME_TIMESTAMP + " DESC";
+        String[] projection = {
+                ChatDatabaseContract.SessionEntry._ID,
+                ChatDatabaseContract.SessionEntry.COLUMN_NAME_TITLE,
+                ChatDatabaseContract.SessionEntry.COLUMN_NAME_TIMESTAMP,
+                ChatDatabaseContract.SessionEntry.COLUMN_NAME_MESSAGE_COUNT,
+                ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_AT,
+                ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_PREVIEW,
+                ChatDatabaseContract.SessionEntry.COLUMN_NAME_ARCHIVED
+        };
+
+        // Sessions without messages are never listed, deleteEmptySessions() removes them later
+        String selection = ChatDatabaseContract.SessionEntry.COLUMN_NAME_MESSAGE_COUNT + " > 0";
+        String sortOrder = ChatDatabaseContract.SessionEntry.COLUMN_NAME_TIMESTAMP + " DESC";
 
-        Cursor cursor = db.rawQuery(query, null);
+        Cursor cursor = db.query(
+                ChatDatabaseContract.SessionEntry.TABLE_NAME,
+                projection,
+                selection,
+                null,
+                null,
+                null,
+                sortOrder
+        );
 
         while (cursor.moveToNext()) {
             long id = cursor.getLong(0);
             String title = cursor.getString(1);
             long timestamp = cursor.getLong(2);
             int messageCount = cursor.getInt(3);
+            long lastMessageAt = cursor.isNull(4) ? timestamp : cursor.getLong(4);
+            String lastMessagePreview = cursor.getString(5);
 
-            sessions.add(new ChatSession(id, title, timestamp, messageCount));
+            ChatSession session = new ChatSession(id, title, timestamp, messageCount, lastMessageAt, lastMessagePreview);
+            session.setArchived(cursor.getInt(6) == 1);
+            sessions.add(session);
         }
         cursor.close();
 
@@ -138,92 +573,344 @@ public class ChatDatabaseHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * Update session title
+     * Delete every session that has no messages in a single statement
      */
-    public void updateSessionTitle(long sessionId, String newTitle) {
+    public int deleteEmptySessions() {
         SQLiteDatabase db = this.getWritableDatabase();
+        return db.delete(ChatDatabaseContract.SessionEntry.TABLE_NAME,
+                ChatDatabaseContract.SessionEntry.COLUMN_NAME_MESSAGE_COUNT + " = 0", null);
+    }
 
-        ContentValues values = new ContentValues();
-        values.put(ChatDatabaseContract.SessionEntry.COLUMN_NAME_TITLE, newTitle);
-
-        db.update(ChatDatabaseContract.SessionEntry.TABLE_NAME, values,
-                ChatDatabaseContract.SessionEntry._ID + " = ?",
-                new String[]{String.valueOf(sessionId)});
+    /**
+     * Update session title
+     */
+    public void updateSessionTitle(long sessionId, String newTitle) {
+        SQLiteStatement statement = getStatement(STATEMENT_UPDATE_SESSION_TITLE);
+        synchronized (statement) {
+            bindStringOrNull(statement, 1, newTitle);
+            statement.bindLong(2, sessionId);
+            statement.executeUpdateDelete();
+        }
     }
 
     /**
-     * Delete a session and all its messages
+     * Delete a session; its messages are removed by the ON DELETE CASCADE foreign key
      */
     public void deleteSession(long sessionId) {
-        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement statement = getStatement(STATEMENT_DELETE_SESSION);
+        synchronized (statement) {
+            statement.bindLong(1, sessionId);
+            statement.executeUpdateDelete();
+        }
+    }
 
-        // Delete all messages in this session
-        db.delete(ChatDatabaseContract.MessageEntry.TABLE_NAME,
-                ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + " = ?",
-                new String[]{String.valueOf(sessionId)});
+    /**
+     * Delete several sessions and all their messages in a single transaction
+     */
+    public void deleteSessions(Collection<Long> sessionIds) {
+        if (sessionIds.isEmpty()) {
+            return;
+        }
 
-        // Delete the session
-        db.delete(ChatDatabaseContract.SessionEntry.TABLE_NAME,
-                ChatDatabaseContract.SessionEntry._ID + " = ?",
-                new String[]{String.valueOf(sessionId)});
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (long sessionId : sessionIds) {
+                deleteSession(sessionId);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
     }
 
     /**
      * Insert a message into the database
      */
     public long insertMessage(Message message) {
+        String content = message.getContent();
+        byte[] compressed = compressionThresholdBytes > 0
+                ? MessageCodec.encode(content, compressionThresholdBytes)
+                : null;
+
+        if (compressed == null) {
+            return insertMessageRow(message, content, null);
+        }
+
+        // Triggers skip compressed rows, index the text and set the preview here instead
         SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            long id = insertMessageRow(message, null, compressed);
 
-        ContentValues values = new ContentValues();
-        values.put(ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID, message.getSessionId());
-        values.put(ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT, message.getContent());
-        values.put(ChatDatabaseContract.MessageEntry.COLUMN_NAME_IS_USER, message.isUser() ? 1 : 0);
-        values.put(ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP, message.getTimestamp());
+            SQLiteStatement index = getStatement(STATEMENT_INDEX_MESSAGE);
+            synchronized (index) {
+                index.bindLong(1, id);
+                index.bindString(2, content);
+                index.executeInsert();
+            }
+
+            SQLiteStatement preview = getStatement(STATEMENT_UPDATE_SESSION_PREVIEW);
+            synchronized (preview) {
+                preview.bindString(1, content.substring(0, Math.min(content.length(), PREVIEW_LENGTH)));
+                preview.bindLong(2, message.getSessionId());
+                preview.executeUpdateDelete();
+            }
+
+            db.setTransactionSuccessful();
+            return id;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private long insertMessageRow(Message message, String content, byte[] compressed) {
+        SQLiteStatement statement = getStatement(STATEMENT_INSERT_MESSAGE);
+        synchronized (statement) {
+            statement.bindLong(1, message.getSessionId());
+            if (compressed != null) {
+                statement.bindBlob(2, compressed);
+            } else {
+                bindStringOrNull(statement, 2, content);
+            }
+            statement.bindLong(3, message.isUser() ? 1 : 0);
+            statement.bindLong(4, message.getTimestamp());
+            statement.bindLong(5, compressed != null ? MessageCodec.CODEC_DEFLATE : MessageCodec.CODEC_PLAIN);
+            // Counted here, off the UI thread, so building a request later only adds up stored counts
+            statement.bindLong(6, message.getTokenCount());
+            return statement.executeInsert();
+        }
+    }
 
-        long newRowId = db.insert(ChatDatabaseContract.MessageEntry.TABLE_NAME, null, values);
-        return newRowId;
+    /**
+     * Set the size above which new message bodies are stored compressed
+     * @param thresholdBytes Size in UTF-8 bytes, or 0 to store everything as plain text
+     */
+    public void setCompressionThreshold(int thresholdBytes) {
+        this.compressionThresholdBytes = thresholdBytes;
     }
 
     /**
      * Get all messages for a specific session ordered by timestamp
      */
     public List<Message> getMessagesForSession(long sessionId) {
-        List<Message> messages = new ArrayList<>();
         SQLiteDatabase db = this.getReadableDatabase();
 
-        String[] projection = {
-                ChatDatabaseContract.MessageEntry._ID,
-                ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID,
-                ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT,
-                ChatDatabaseContract.MessageEntry.COLUMN_NAME_IS_USER,
-                ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP
-        };
-
         String selection = ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + " = ?";
         String[] selectionArgs = {String.valueOf(sessionId)};
         String sortOrder = ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " ASC";
 
+        return queryMessagePage(db, selection, selectionArgs, sortOrder, -1);
+    }
+
+    /**
+     * Insert a batch of messages, apply title updates and delete sessions in a single transaction.
+     * The assigned row IDs are written back to the Message objects.
+     */
+    public void writeBatch(List<Message> messages, Map<Long, String> sessionTitles, Collection<Long> deletedSessionIds) {
+        writeBatch(messages, Collections.emptyList(), sessionTitles, deletedSessionIds);
+    }
+
+    /**
+     * Like writeBatch(List, Map, Collection), also inserting API call records. They are inserted
+     * after the messages, so records of a message in the same batch get its new ID.
+     */
+    public void writeBatch(List<Message> messages, List<ApiCallRecord> apiCalls,
+                           Map<Long, String> sessionTitles, Collection<Long> deletedSessionIds) {
+        SQLiteDatabase db = this.getWritableDatabase();
+
+        db.beginTransaction();
+        try {
+            for (Message message : messages) {
+                message.setId(insertMessage(message));
+            }
+            for (ApiCallRecord apiCall : apiCalls) {
+                apiCall.setId(insertApiCall(apiCall));
+            }
+            for (Map.Entry<Long, String> entry : sessionTitles.entrySet()) {
+                updateSessionTitle(entry.getKey(), entry.getValue());
+            }
+            for (long sessionId : deletedSessionIds) {
+                deleteSession(sessionId);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Record one API call
+     */
+    public long insertApiCall(ApiCallRecord apiCall) {
+        SQLiteStatement statement = getStatement(STATEMENT_INSERT_API_CALL);
+        synchronized (statement) {
+            statement.bindLong(1, apiCall.getSessionId());
+            bindLongOrNull(statement, 2, apiCall.getMessageId());
+            statement.bindLong(3, apiCall.getTimestamp());
+            bindStringOrNull(statement, 4, apiCall.getModel());
+            bindStringOrNull(statement, 5, apiCall.getRequestClass());
+            bindLongOrNull(statement, 6, apiCall.getPromptTokens());
+            bindLongOrNull(statement, 7, apiCall.getCachedTokens());
+            bindLongOrNull(statement, 8, apiCall.getCompletionTokens());
+            bindLongOrNull(statement, 9, apiCall.getConnectMs());
+            bindLongOrNull(statement, 10, apiCall.getTtfbMs());
+            bindLongOrNull(statement, 11, apiCall.getFirstTokenMs());
+            bindLongOrNull(statement, 12, apiCall.getTotalMs());
+            statement.bindLong(13, apiCall.getAttempts());
+            statement.bindLong(14, apiCall.isHedged() ? 1 : 0);
+            return statement.executeInsert();
+        }
+    }
+
+    /**
+     * Tokens and time spent on API calls in one session
+     */
+    public UsageSummary getSessionUsage(long sessionId) {
+        List<UsageSummary> usage = queryUsage(
+                "CAST(" + ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_SESSION_ID + " AS TEXT)",
+                ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_SESSION_ID + " = ?",
+                new String[]{String.valueOf(sessionId)});
+        return usage.isEmpty() ? new UsageSummary(String.valueOf(sessionId), 0, 0, 0, 0, 0) : usage.get(0);
+    }
+
+    /**
+     * Tokens and time spent on API calls per local calendar day, oldest day first
+     * @param sinceMillis Only calls made at or after this time
+     */
+    public List<UsageSummary> getDailyUsage(long sinceMillis) {
+        return queryUsage(
+                "date(" + ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_TIMESTAMP + " / 1000, 'unixepoch', 'localtime')",
+                ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_TIMESTAMP + " >= ?",
+                new String[]{String.valueOf(sinceMillis)});
+    }
+
+    private List<UsageSummary> queryUsage(String groupExpression, String selection, String[] selectionArgs) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT " + groupExpression + " AS label, COUNT(*), " +
+                "TOTAL(" + ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_PROMPT_TOKENS + "), " +
+                "TOTAL(" + ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_CACHED_TOKENS + "), " +
+                "TOTAL(" + ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_COMPLETION_TOKENS + "), " +
+                "TOTAL(" + ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_TOTAL_MS + ") " +
+                "FROM " + ChatDatabaseContract.ApiCallEntry.TABLE_NAME + " WHERE " + selection +
+                " GROUP BY label ORDER BY label", selectionArgs);
+
+        List<UsageSummary> usage = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                usage.add(new UsageSummary(cursor.getString(0), cursor.getInt(1), cursor.getLong(2),
+                        cursor.getLong(3), cursor.getLong(4), cursor.getLong(5)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return usage;
+    }
+
+    /**
+     * p50, p95 and p99 of a timing column, using the nearest-rank method
+     * @param column ApiCallEntry.COLUMN_NAME_TTFB_MS, COLUMN_NAME_TOTAL_MS or another timing column
+     * @param sinceMillis Only calls made at or after this time
+     */
+    public LatencyPercentiles getLatencyPercentiles(String column, long sinceMillis) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        String from = " FROM " + ChatDatabaseContract.ApiCallEntry.TABLE_NAME + " WHERE " +
+                ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_TIMESTAMP + " >= ? AND " + column + " IS NOT NULL";
+        String[] args = {String.valueOf(sinceMillis)};
+
+        int count = (int) DatabaseUtils.longForQuery(db, "SELECT COUNT(*)" + from, args);
+        if (count == 0) {
+            return new LatencyPercentiles(0, -1, -1, -1);
+        }
+        long[] values = new long[3];
+        double[] percentiles = {0.50, 0.95, 0.99};
+        for (int i = 0; i < percentiles.length; i++) {
+            int offset = Math.max(0, (int) Math.ceil(percentiles[i] * count) - 1);
+            values[i] = DatabaseUtils.longForQuery(db,
+                    "SELECT " + column + from + " ORDER BY " + column + " LIMIT 1 OFFSET " + offset, args);
+        }
+        return new LatencyPercentiles(count, values[0], values[1], values[2]);
+    }
+
+    /**
+     * Get the newest page of messages for a session, ordered by timestamp (oldest first)
+     */
+    public List<Message> getLatestMessages(long sessionId, int limit) {
+        return getMessagesBefore(sessionId, Long.MAX_VALUE, Long.MAX_VALUE, limit);
+    }
+
+    /**
+     * Get the page of messages immediately older than the (timestamp, id) cursor.
+     * Uses the (session_id, timestamp, _id) index so the cost does not depend on
+     * how deep into the history the cursor is.
+     */
+    public List<Message> getMessagesBefore(long sessionId, long timestamp, long id, int limit) {
+        SQLiteDatabase db = this.getReadableDatabase();
+
+        String selection = ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + " = ? AND (" +
+                ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " < ? OR (" +
+                ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " = ? AND " +
+                ChatDatabaseContract.MessageEntry._ID + " < ?))";
+        String[] selectionArgs = {
+                String.valueOf(sessionId),
+                String.valueOf(timestamp),
+                String.valueOf(timestamp),
+                String.valueOf(id)
+        };
+        String sortOrder = ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " DESC, " +
+                ChatDatabaseContract.MessageEntry._ID + " DESC";
+
+        List<Message> messages = queryMessagePage(db, selection, selectionArgs, sortOrder, limit);
+
+        // The page was read newest first, flip it back to display order
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * Get the page of messages immediately newer than the (timestamp, id) cursor,
+     * ordered by timestamp (oldest first)
+     */
+    public List<Message> getMessagesAfter(long sessionId, long timestamp, long id, int limit) {
+        SQLiteDatabase db = this.getReadableDatabase();
+
+        String selection = ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + " = ? AND (" +
+                ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " > ? OR (" +
+                ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " = ? AND " +
+                ChatDatabaseContract.MessageEntry._ID + " > ?))";
+        String[] selectionArgs = {
+                String.valueOf(sessionId),
+                String.valueOf(timestamp),
+                String.valueOf(timestamp),
+                String.valueOf(id)
+        };
+        String sortOrder = ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " ASC, " +
+                ChatDatabaseContract.MessageEntry._ID + " ASC";
+
+        return queryMessagePage(db, selection, selectionArgs, sortOrder, limit);
+    }
+
+    /**
+     * Query messages and map every row through one MessageRowMapper
+     * @param limit Maximum number of rows, or -1 for no limit
+     */
+    private List<Message> queryMessagePage(SQLiteDatabase db, String selection, String[] selectionArgs,
+                                           String sortOrder, int limit) {
         Cursor cursor = db.query(
                 ChatDatabaseContract.MessageEntry.TABLE_NAME,
-                projection,
+                MESSAGE_PROJECTION,
                 selection,
                 selectionArgs,
                 null,
                 null,
-                sortOrder
+                sortOrder,
+                limit < 0 ? null : String.valueOf(limit)
         );
 
+        List<Message> messages = new ArrayList<>(cursor.getCount());
+        MessageRowMapper mapper = new MessageRowMapper(cursor);
         while (cursor.moveToNext()) {
-            long id = cursor.getLong(cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry._ID));
-            long sessId = cursor.getLong(cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID));
-            String content = cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT));
-            int isUserInt = cursor.getInt(cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry.COLUMN_NAME_IS_USER));
-            long timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP));
-
-            Message message = new Message(content, isUserInt == 1, timestamp);
-            message.setId(id);
-            message.setSessionId(sessId);
-            messages.add(message);
+            messages.add(mapper.map(cursor));
         }
         cursor.close();
 
@@ -231,47 +918,198 @@ public class ChatDatabaseHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * Get all messages from all sessions (for backward compatibility)
+     * Index one chunk of the messages that existed before the full-text index was created.
+     * Each chunk is its own transaction so other writes can interleave with the backfill.
+     * @return true once there is nothing left to backfill
      */
-    public List<Message> getAllMessages() {
-        List<Message> messages = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
+    public boolean backfillSearchIndex(int chunkSize) {
+        SQLiteDatabase db = this.getWritableDatabase();
 
-        String[] projection = {
-                ChatDatabaseContract.MessageEntry._ID,
-                ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID,
-                ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT,
-                ChatDatabaseContract.MessageEntry.COLUMN_NAME_IS_USER,
-                ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP
-        };
+        if (!tableExists(db, ChatDatabaseContract.SearchBackfillEntry.TABLE_NAME)) {
+            return true;
+        }
 
-        String sortOrder = ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " ASC";
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.query(ChatDatabaseContract.SearchBackfillEntry.TABLE_NAME,
+                    new String[]{
+                            ChatDatabaseContract.SearchBackfillEntry.COLUMN_NAME_NEXT_ID,
+                            ChatDatabaseContract.SearchBackfillEntry.COLUMN_NAME_MAX_ID
+                    }, null, null, null, null, null);
+            long nextId = -1;
+            long maxId = -1;
+            if (cursor.moveToFirst()) {
+                nextId = cursor.getLong(0);
+                maxId = cursor.getLong(1);
+            }
+            cursor.close();
 
-        Cursor cursor = db.query(
-                ChatDatabaseContract.MessageEntry.TABLE_NAME,
-                projection,
-                null,
-                null,
-                null,
-                null,
-                sortOrder
-        );
+            boolean done;
+            if (nextId < 0 || nextId > maxId) {
+                db.execSQL("DROP TABLE " + ChatDatabaseContract.SearchBackfillEntry.TABLE_NAME);
+                done = true;
+            } else {
+                long chunkEnd = Math.min(maxId, nextId + chunkSize - 1);
+                db.execSQL("INSERT INTO " + ChatDatabaseContract.MessageSearchEntry.TABLE_NAME + " (" +
+                                ChatDatabaseContract.MessageSearchEntry.COLUMN_NAME_DOCID + ", " +
+                                ChatDatabaseContract.MessageSearchEntry.COLUMN_NAME_CONTENT + ") " +
+                                "SELECT " + ChatDatabaseContract.MessageEntry._ID + ", " +
+                                ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT + " FROM " +
+                                ChatDatabaseContract.MessageEntry.TABLE_NAME + " WHERE " +
+                                ChatDatabaseContract.MessageEntry._ID + " BETWEEN ? AND ?",
+                        new Object[]{nextId, chunkEnd});
+
+                ContentValues values = new ContentValues();
+                values.put(ChatDatabaseContract.SearchBackfillEntry.COLUMN_NAME_NEXT_ID, chunkEnd + 1);
+                db.update(ChatDatabaseContract.SearchBackfillEntry.TABLE_NAME, values, null, null);
+                done = false;
+            }
+
+            db.setTransactionSuccessful();
+            return done;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static boolean tableExists(SQLiteDatabase db, String tableName) {
+        Cursor cursor = db.rawQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{tableName});
+        boolean exists = cursor.moveToFirst();
+        cursor.close();
+        return exists;
+    }
+
+    /**
+     * Full-text search over all messages.
+     * Hits are ranked by a tf-idf score computed from FTS4 matchinfo, and snippets
+     * are only built for the requested page.
+     * @param query Free text typed by the user
+     * @return Ranked hits, best first
+     */
+    public List<SearchResult> search(String query, int limit, int offset) {
+        List<SearchResult> results = new ArrayList<>();
+        String matchExpression = toMatchExpression(query);
+        if (matchExpression.isEmpty() || limit <= 0) {
+            return results;
+        }
 
+        SQLiteDatabase db = this.getReadableDatabase();
+
+        // Score candidate hits from their matchinfo ('p' phrases, 'n' rows, 'x' per phrase hit counts)
+        List<long[]> ranked = new ArrayList<>();
+        List<Double> scores = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT " + ChatDatabaseContract.MessageSearchEntry.COLUMN_NAME_DOCID +
+                        ", matchinfo(" + ChatDatabaseContract.MessageSearchEntry.TABLE_NAME + ", 'pnx') FROM " +
+                        ChatDatabaseContract.MessageSearchEntry.TABLE_NAME + " WHERE " +
+                        ChatDatabaseContract.MessageSearchEntry.TABLE_NAME + " MATCH ? ORDER BY " +
+                        ChatDatabaseContract.MessageSearchEntry.COLUMN_NAME_DOCID + " DESC LIMIT " + MAX_SEARCH_CANDIDATES,
+                new String[]{matchExpression});
         while (cursor.moveToNext()) {
-            long id = cursor.getLong(cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry._ID));
-            long sessionId = cursor.getLong(cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID));
-            String content = cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT));
-            int isUserInt = cursor.getInt(cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry.COLUMN_NAME_IS_USER));
-            long timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP));
+            ranked.add(new long[]{cursor.getLong(0), ranked.size()});
+            scores.add(scoreMatchInfo(cursor.getBlob(1)));
+        }
+        cursor.close();
+
+        // Best score first, newer messages win ties
+        Collections.sort(ranked, (a, b) -> {
+            int byScore = Double.compare(scores.get((int) b[1]), scores.get((int) a[1]));
+            return byScore != 0 ? byScore : Long.compare(b[0], a[0]);
+        });
+        if (offset >= ranked.size()) {
+            return results;
+        }
+        List<long[]> page = ranked.subList(offset, Math.min(ranked.size(), offset + limit));
 
-            Message message = new Message(content, isUserInt == 1, timestamp);
-            message.setId(id);
-            message.setSessionId(sessionId);
-            messages.add(message);
+        // Fetch the session, timestamp and snippet for the requested page only
+        StringBuilder docIds = new StringBuilder();
+        for (long[] hit : page) {
+            if (docIds.length() > 0) {
+                docIds.append(',');
+            }
+            docIds.append(hit[0]);
+        }
+        Map<Long, SearchResult> byId = new HashMap<>();
+        cursor = db.rawQuery("SELECT f." + ChatDatabaseContract.MessageSearchEntry.COLUMN_NAME_DOCID +
+                        ", m." + ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID +
+                        ", m." + ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP +
+                        ", m." + ChatDatabaseContract.MessageEntry.COLUMN_NAME_IS_USER +
+                        ", snippet(" + ChatDatabaseContract.MessageSearchEntry.TABLE_NAME + ", '" +
+                        SNIPPET_MATCH_START + "', '" + SNIPPET_MATCH_END + "', '…', -1, 12)" +
+                        " FROM " + ChatDatabaseContract.MessageSearchEntry.TABLE_NAME + " f JOIN " +
+                        ChatDatabaseContract.MessageEntry.TABLE_NAME + " m ON m." +
+                        ChatDatabaseContract.MessageEntry._ID + " = f." +
+                        ChatDatabaseContract.MessageSearchEntry.COLUMN_NAME_DOCID +
+                        " WHERE " + ChatDatabaseContract.MessageSearchEntry.TABLE_NAME + " MATCH ? AND f." +
+                        ChatDatabaseContract.MessageSearchEntry.COLUMN_NAME_DOCID + " IN (" + docIds + ")",
+                new String[]{matchExpression});
+        while (cursor.moveToNext()) {
+            long messageId = cursor.getLong(0);
+            byId.put(messageId, new SearchResult(messageId, cursor.getLong(1), cursor.getLong(2),
+                    cursor.getInt(3) == 1, cursor.getString(4), 0));
         }
         cursor.close();
 
-        return messages;
+        for (long[] hit : page) {
+            SearchResult result = byId.get(hit[0]);
+            if (result != null) {
+                result.setScore(scores.get((int) hit[1]));
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Turn free text into an FTS4 MATCH expression: every word becomes a quoted prefix term
+     * so operators typed by the user are not interpreted.
+     */
+    static String toMatchExpression(String query) {
+        StringBuilder expression = new StringBuilder();
+        if (query == null) {
+            return "";
+        }
+        for (String term : query.split("[^\\p{L}\\p{N}]+")) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            if (expression.length() > 0) {
+                expression.append(' ');
+            }
+            expression.append('"').append(term).append("*\"");
+        }
+        return expression.toString();
+    }
+
+    /**
+     * tf-idf score from a matchinfo 'pnx' blob of 32-bit native-order integers
+     */
+    private static double scoreMatchInfo(byte[] blob) {
+        IntBuffer info = ByteBuffer.wrap(blob).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phraseCount = info.get(0);
+        int rowCount = info.get(1);
+        double score = 0;
+        for (int phrase = 0; phrase < phraseCount; phrase++) {
+            // Single indexed column: hits in this row, hits in all rows, rows with a hit
+            int base = 2 + phrase * 3;
+            int hitsInRow = info.get(base);
+            int rowsWithHit = info.get(base + 2);
+            if (hitsInRow > 0 && rowsWithHit > 0) {
+                score += hitsInRow * Math.log(1.0 + (double) rowCount / rowsWithHit);
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Get all messages from all sessions (for backward compatibility)
+     */
+    public List<Message> getAllMessages() {
+        SQLiteDatabase db = this.getReadableDatabase();
+
+        String sortOrder = ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " ASC";
+
+        return queryMessagePage(db, null, null, sortOrder, -1);
     }
 
     /**
@@ -279,7 +1117,25 @@ public class ChatDatabaseHelper extends SQLiteOpenHelper {
      */
     public void deleteAllMessages() {
         SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(ChatDatabaseContract.MessageEntry.TABLE_NAME, null, null);
+        db.beginTransaction();
+        try {
+            // Clearing the index in one statement is far cheaper than the per-row trigger deletes
+            db.delete(ChatDatabaseContract.MessageSearchEntry.TABLE_NAME, null, null);
+            db.delete(ChatDatabaseContract.MessageEntry.TABLE_NAME, null, null);
+
+            // The triggers leave archived sessions alone, empty them here
+            ContentValues values = new ContentValues();
+            values.put(ChatDatabaseContract.SessionEntry.COLUMN_NAME_ARCHIVED, 0);
+            values.put(ChatDatabaseContract.SessionEntry.COLUMN_NAME_MESSAGE_COUNT, 0);
+            values.putNull(ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_AT);
+            values.putNull(ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_PREVIEW);
+            db.update(ChatDatabaseContract.SessionEntry.TABLE_NAME, values,
+                    ChatDatabaseContract.SessionEntry.COLUMN_NAME_ARCHIVED + " = 1", null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        archiveHelper.deleteAllSegments();
     }
 
     /**
@@ -287,17 +1143,340 @@ public class ChatDatabaseHelper extends SQLiteOpenHelper {
      */
     public void deleteAllSessions() {
         SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(ChatDatabaseContract.MessageEntry.TABLE_NAME, null, null);
-        db.delete(ChatDatabaseContract.SessionEntry.TABLE_NAME, null, null);
+        db.beginTransaction();
+        try {
+            db.delete(ChatDatabaseContract.MessageSearchEntry.TABLE_NAME, null, null);
+            // Messages are removed by the ON DELETE CASCADE foreign key
+            db.delete(ChatDatabaseContract.SessionEntry.TABLE_NAME, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        archiveHelper.deleteAllSegments();
+    }
+
+    /**
+     * Move the least recently used cold session into the archive database.
+     * The segment is written to the archive first and the hot rows are only deleted once it is
+     * committed there, so an interrupted move leaves a stale segment behind but never loses messages.
+     * Archived sessions keep their row and aggregates, they stay in the drawer and drop out of search.
+     * @param untouchedSince Sessions with no message and no rehydration after this time are cold
+     * @param excludedSessionId Session that must stay hot, e.g. the one on screen
+     * @return true once there is no cold session left
+     */
+    public boolean archiveColdSession(long untouchedSince, long excludedSessionId) {
+        SQLiteDatabase db = this.getWritableDatabase();
+
+        Cursor cursor = db.query(ChatDatabaseContract.SessionEntry.TABLE_NAME,
+                new String[]{
+                        ChatDatabaseContract.SessionEntry._ID,
+                        ChatDatabaseContract.SessionEntry.COLUMN_NAME_MESSAGE_COUNT,
+                        ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_AT
+                },
+                ChatDatabaseContract.SessionEntry.COLUMN_NAME_ARCHIVED + " = 0 AND " +
+                        ChatDatabaseContract.SessionEntry.COLUMN_NAME_MESSAGE_COUNT + " > 0 AND " +
+                        ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_AT + " < ? AND (" +
+                        ChatDatabaseContract.SessionEntry.COLUMN_NAME_REHYDRATED_AT + " IS NULL OR " +
+                        ChatDatabaseContract.SessionEntry.COLUMN_NAME_REHYDRATED_AT + " < ?) AND " +
+                        ChatDatabaseContract.SessionEntry._ID + " != ?",
+                new String[]{String.valueOf(untouchedSince), String.valueOf(untouchedSince),
+                        String.valueOf(excludedSessionId)},
+                null, null,
+                ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_AT + " ASC", "1");
+        if (!cursor.moveToFirst()) {
+            cursor.close();
+            return true;
+        }
+        long sessionId = cursor.getLong(0);
+        int messageCount = cursor.getInt(1);
+        long lastMessageAt = cursor.getLong(2);
+        cursor.close();
+
+        List<Message> messages = queryMessagePage(db,
+                ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + " = ?",
+                new String[]{String.valueOf(sessionId)},
+                ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP + " ASC, " +
+                        ChatDatabaseContract.MessageEntry._ID + " ASC", -1);
+        archiveHelper.putSegment(sessionId, messages);
+
+        boolean moved = false;
+        db.beginTransaction();
+        try {
+            // Only flip the session if nothing was written to it since it was read
+            ContentValues values = new ContentValues();
+            values.put(ChatDatabaseContract.SessionEntry.COLUMN_NAME_ARCHIVED, 1);
+            int updated = db.update(ChatDatabaseContract.SessionEntry.TABLE_NAME, values,
+                    ChatDatabaseContract.SessionEntry._ID + " = ? AND " +
+                            ChatDatabaseContract.SessionEntry.COLUMN_NAME_ARCHIVED + " = 0 AND " +
+                            ChatDatabaseContract.SessionEntry.COLUMN_NAME_MESSAGE_COUNT + " = ? AND " +
+                            ChatDatabaseContract.SessionEntry.COLUMN_NAME_LAST_MESSAGE_AT + " = ?",
+                    new String[]{String.valueOf(sessionId), String.valueOf(messages.size()),
+                            String.valueOf(lastMessageAt)});
+            if (updated == 1 && messages.size() == messageCount) {
+                // The search index entries go with the rows through the FTS delete trigger
+                db.delete(ChatDatabaseContract.MessageEntry.TABLE_NAME,
+                        ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID + " = ?",
+                        new String[]{String.valueOf(sessionId)});
+                db.setTransactionSuccessful();
+                moved = true;
+            }
+        } finally {
+            db.endTransaction();
+        }
+
+        if (!moved) {
+            // Written to in the meantime, try again on a later pass
+            archiveHelper.deleteSegments(Collections.singletonList(sessionId));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Move an archived session's messages back into the messages table under their original IDs.
+     * Does nothing if the session is not archived.
+     */
+    public void rehydrateSession(long sessionId) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        if (!isArchived(db, sessionId)) {
+            return;
+        }
+        List<Message> messages = archiveHelper.getSegment(sessionId);
+        if (messages == null) {
+            return;
+        }
+
+        boolean restored = false;
+        db.beginTransaction();
+        try {
+            if (isArchived(db, sessionId)) {
+                // Rows go back while the session is still marked archived,
+                // so the insert trigger leaves the preserved aggregates alone
+                for (Message message : messages) {
+                    restoreMessageRow(db, message);
+                }
+
+                ContentValues values = new ContentValues();
+                values.put(ChatDatabaseContract.SessionEntry.COLUMN_NAME_ARCHIVED, 0);
+                values.put(ChatDatabaseContract.SessionEntry.COLUMN_NAME_REHYDRATED_AT, System.currentTimeMillis());
+                db.update(ChatDatabaseContract.SessionEntry.TABLE_NAME, values,
+                        ChatDatabaseContract.SessionEntry._ID + " = ?", new String[]{String.valueOf(sessionId)});
+                db.setTransactionSuccessful();
+                restored = true;
+            }
+        } finally {
+            db.endTransaction();
+        }
+
+        if (restored) {
+            archiveHelper.deleteSegments(Collections.singletonList(sessionId));
+        }
+    }
+
+    private static boolean isArchived(SQLiteDatabase db, long sessionId) {
+        Cursor cursor = db.query(ChatDatabaseContract.SessionEntry.TABLE_NAME,
+                new String[]{ChatDatabaseContract.SessionEntry.COLUMN_NAME_ARCHIVED},
+                ChatDatabaseContract.SessionEntry._ID + " = ?", new String[]{String.valueOf(sessionId)},
+                null, null, null);
+        boolean archived = cursor.moveToFirst() && cursor.getInt(0) == 1;
+        cursor.close();
+        return archived;
+    }
+
+    /**
+     * Insert an archived message under its original ID, compressing and indexing it like insertMessage
+     */
+    private void restoreMessageRow(SQLiteDatabase db, Message message) {
+        String content = message.getContent();
+        byte[] compressed = compressionThresholdBytes > 0
+                ? MessageCodec.encode(content, compressionThresholdBytes)
+                : null;
+
+        ContentValues values = new ContentValues();
+        values.put(ChatDatabaseContract.MessageEntry._ID, message.getId());
+        values.put(ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID, message.getSessionId());
+        if (compressed != null) {
+            values.put(ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT, compressed);
+        } else {
+            values.put(ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT, content);
+        }
+        values.put(ChatDatabaseContract.MessageEntry.COLUMN_NAME_IS_USER, message.isUser() ? 1 : 0);
+        values.put(ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP, message.getTimestamp());
+        values.put(ChatDatabaseContract.MessageEntry.COLUMN_NAME_CODEC,
+                compressed != null ? MessageCodec.CODEC_DEFLATE : MessageCodec.CODEC_PLAIN);
+        values.put(ChatDatabaseContract.MessageEntry.COLUMN_NAME_TOKEN_COUNT, message.getTokenCount());
+
+        long id = db.insertWithOnConflict(ChatDatabaseContract.MessageEntry.TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE);
+        if (id != -1 && compressed != null) {
+            // Plain rows are indexed by the trigger
+            SQLiteStatement index = getStatement(STATEMENT_INDEX_MESSAGE);
+            synchronized (index) {
+                index.bindLong(1, id);
+                index.bindString(2, content);
+                index.executeInsert();
+            }
+        }
+    }
+
+    /**
+     * Drop archive segments that no archived session refers to any more: sessions deleted while
+     * archived, or moves that were interrupted before or after the hot database commit
+     */
+    public void pruneArchive() {
+        Set<Long> segmentIds = archiveHelper.getSessionIds();
+        if (segmentIds.isEmpty()) {
+            return;
+        }
+
+        Cursor cursor = this.getReadableDatabase().query(ChatDatabaseContract.SessionEntry.TABLE_NAME,
+                new String[]{ChatDatabaseContract.SessionEntry._ID},
+                ChatDatabaseContract.SessionEntry.COLUMN_NAME_ARCHIVED + " = 1", null, null, null, null);
+        while (cursor.moveToNext()) {
+            segmentIds.remove(cursor.getLong(0));
+        }
+        cursor.close();
+
+        archiveHelper.deleteSegments(segmentIds);
+    }
+
+    /**
+     * Give free pages back to the file system, a few at a time so it can run while the app is idle.
+     * New databases are created with incremental auto-vacuum, see onConfigure. The first call on one
+     * created before that converts it with a full VACUUM.
+     * @return true once there is nothing left to reclaim
+     */
+    public boolean reclaimFreeSpace(int maxPages) {
+        SQLiteDatabase db = this.getWritableDatabase();
+
+        if (queryPragmaLong(db, "PRAGMA auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            // auto_vacuum can only be switched on an existing database by rebuilding it
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+            return true;
+        }
+
+        if (queryPragmaLong(db, "PRAGMA freelist_count") == 0) {
+            return true;
+        }
+
+        // incremental_vacuum frees one page per step, so the cursor has to be drained
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + maxPages + ")", null);
+        while (cursor.moveToNext()) {
+            // Nothing to read
+        }
+        cursor.close();
+
+        return queryPragmaLong(db, "PRAGMA freelist_count") == 0;
+    }
+
+    private static long queryPragmaLong(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        long value = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        cursor.close();
+        return value;
     }
 
     /**
      * Delete a specific message by ID
      */
     public void deleteMessage(long id) {
+        SQLiteStatement statement = getStatement(STATEMENT_DELETE_MESSAGE);
+        synchronized (statement) {
+            statement.bindLong(1, id);
+            statement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Get the compiled statement for one of the hot write paths, compiling it on first use
+     */
+    private synchronized SQLiteStatement getStatement(int which) {
         SQLiteDatabase db = this.getWritableDatabase();
-        String selection = ChatDatabaseContract.MessageEntry._ID + " = ?";
-        String[] selectionArgs = {String.valueOf(id)};
-        db.delete(ChatDatabaseContract.MessageEntry.TABLE_NAME, selection, selectionArgs);
+        if (statementDatabase != db) {
+            // The database was reopened, statements compiled against the old one are invalid
+            closeStatements();
+            statementDatabase = db;
+        }
+        if (statements[which] == null) {
+            statements[which] = db.compileStatement(STATEMENT_SQL[which]);
+        }
+        return statements[which];
+    }
+
+    private void closeStatements() {
+        for (int i = 0; i < statements.length; i++) {
+            if (statements[i] != null) {
+                statements[i].close();
+                statements[i] = null;
+            }
+        }
+    }
+
+    // Negative values mean unknown and are stored as NULL
+    private static void bindLongOrNull(SQLiteStatement statement, int index, long value) {
+        if (value < 0) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, value);
+        }
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closeStatements();
+        statementDatabase = null;
+        archiveHelper.close();
+        super.close();
+    }
+
+    /**
+     * Maps message rows to Message objects. Column indices are resolved once per cursor
+     * instead of once per row.
+     */
+    private static final class MessageRowMapper {
+        private final int idIndex;
+        private final int sessionIdIndex;
+        private final int contentIndex;
+        private final int isUserIndex;
+        private final int timestampIndex;
+        private final int codecIndex;
+        private final int tokenCountIndex;
+
+        MessageRowMapper(Cursor cursor) {
+            idIndex = cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry._ID);
+            sessionIdIndex = cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry.COLUMN_NAME_SESSION_ID);
+            contentIndex = cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry.COLUMN_NAME_CONTENT);
+            isUserIndex = cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry.COLUMN_NAME_IS_USER);
+            timestampIndex = cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry.COLUMN_NAME_TIMESTAMP);
+            codecIndex = cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry.COLUMN_NAME_CODEC);
+            tokenCountIndex = cursor.getColumnIndexOrThrow(ChatDatabaseContract.MessageEntry.COLUMN_NAME_TOKEN_COUNT);
+        }
+
+        Message map(Cursor cursor) {
+            Message message;
+            if (cursor.getInt(codecIndex) == MessageCodec.CODEC_DEFLATE) {
+                // Decompressed by Message.getContent() only if the row is actually displayed or sent
+                message = Message.fromCompressed(cursor.getBlob(contentIndex),
+                        cursor.getInt(isUserIndex) == 1, cursor.getLong(timestampIndex));
+            } else {
+                message = new Message(cursor.getString(contentIndex),
+                        cursor.getInt(isUserIndex) == 1, cursor.getLong(timestampIndex));
+            }
+            message.setId(cursor.getLong(idIndex));
+            message.setSessionId(cursor.getLong(sessionIdIndex));
+            if (!cursor.isNull(tokenCountIndex)) {
+                message.setTokenCount(cursor.getInt(tokenCountIndex));
+            }
+            return message;
+        }
     }
 }
@@ -0,0 +1,128 @@
+package edu.sjsu.android.cactus;
+
+import android.util.JsonWriter;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Serializes a chat completions request straight to an output stream, e.g. the connection.
+ * The request is never held as one JSON tree, string and byte array at the same time,
+ * which for a long history means three full copies per turn.
+ */
+public final class ChatRequestWriter {
+
+    private static final int BUFFER_CHARS = 8192;
+
+    // Private constructor to prevent accidental instantiation
+    private ChatRequestWriter() {}
+
+    /**
+     * Write {"model", "messages", "tools", "tool_choice"} and, when streaming, the stream options
+     */
+    public static void write(OutputStream out, String model, JSONArray messages, List<BaseTool> tools,
+                             boolean stream) throws IOException {
+        JsonWriter writer = new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_CHARS));
+        writer.beginObject();
+        writer.name("model").value(model);
+
+        writer.name("messages");
+        writeValue(writer, messages);
+
+        writer.name("tools").beginArray();
+        for (BaseTool tool : tools) {
+            writeValue(writer, tool.getFunctionDefinition());
+        }
+        writer.endArray();
+        writer.name("tool_choice").value("auto");
+
+        if (stream) {
+            writer.name("stream").value(true);
+            // The usage block is sent as one last chunk after the choices
+            writer.name("stream_options").beginObject().name("include_usage").value(true).endObject();
+        }
+        writer.endObject();
+
+        // Closing would close the connection's stream as well
+        writer.flush();
+    }
+
+    /**
+     * Write a request from parts serialized ahead of time: the session's buffered history and
+     * the tools array are copied as they are, only the tool exchange of this turn, if any,
+     * is serialized here
+     * @param toolExchange Messages sent after the history, e.g. an assistant message with
+     *                     tool calls and their results. May be null.
+     */
+    public static void write(OutputStream out, String model, ConversationPayload.Snapshot history,
+                             JSONArray toolExchange, ToolsPayload tools, boolean stream) throws IOException {
+        writeText(out, "{\"model\":" + JSONObject.quote(model) + ",\"messages\":[");
+        history.writeTo(out);
+        if (toolExchange != null) {
+            for (int i = 0; i < toolExchange.length(); i++) {
+                out.write(',');
+                // One top-level value per JsonWriter
+                JsonWriter writer = new JsonWriter(new BufferedWriter(
+                        new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_CHARS));
+                writeValue(writer, toolExchange.opt(i));
+                writer.flush();
+            }
+        }
+        writeText(out, "],\"tools\":");
+        tools.writeTo(out);
+        writeText(out, ",\"tool_choice\":\"auto\"");
+        if (stream) {
+            // The usage block is sent as one last chunk after the choices
+            writeText(out, ",\"stream\":true,\"stream_options\":{\"include_usage\":true}");
+        }
+        out.write('}');
+        out.flush();
+    }
+
+    private static void writeText(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write an org.json value without going through its toString()
+     */
+    static void writeValue(JsonWriter writer, Object value) throws IOException {
+        if (value == null || value == JSONObject.NULL) {
+            writer.nullValue();
+        } else if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            writer.beginObject();
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                writer.name(key);
+                writeValue(writer, object.opt(key));
+            }
+            writer.endObject();
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            writer.beginArray();
+            for (int i = 0; i < array.length(); i++) {
+                writeValue(writer, array.opt(i));
+            }
+            writer.endArray();
+        } else if (value instanceof String) {
+            writer.value((String) value);
+        } else if (value instanceof Boolean) {
+            writer.value((Boolean) value);
+        } else if (value instanceof Number) {
+            writer.value((Number) value);
+        } else {
+            writer.value(value.toString());
+        }
+    }
+}
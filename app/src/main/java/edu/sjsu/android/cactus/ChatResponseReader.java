@@ -0,0 +1,190 @@
+package edu.sjsu.android.cactus;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pull parser for a non-streamed chat completion. Only choices[0].message with its tool
+ * calls, finish_reason and usage are materialized; everything else (further choices,
+ * logprobs, system_fingerprint, ...) is skipped as it is read, and the body is never
+ * held as a string.
+ */
+public final class ChatResponseReader {
+
+    // Private constructor to prevent accidental instantiation
+    private ChatResponseReader() {}
+
+    /**
+     * @return {"id", "model", "choices": [{"index", "message", "finish_reason"}], "usage"},
+     *         the same shape ChatCompletionStream assembles
+     */
+    public static JSONObject read(InputStream in) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        JSONObject response = new JSONObject();
+        JSONArray choices = new JSONArray();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    response.put("id", nextStringOrNull(reader));
+                    break;
+                case "model":
+                    response.put("model", nextStringOrNull(reader));
+                    break;
+                case "choices":
+                    reader.beginArray();
+                    if (reader.hasNext()) {
+                        choices.put(readChoice(reader));
+                    }
+                    while (reader.hasNext()) {
+                        // Only one choice is ever requested
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                    break;
+                case "usage":
+                    Object usage = readValue(reader);
+                    if (usage instanceof JSONObject) {
+                        response.put("usage", usage);
+                    }
+                    break;
+                case "error":
+                    throw new IOException("Response error: " + readErrorMessage(reader));
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        response.put("choices", choices);
+        return response;
+    }
+
+    private static JSONObject readChoice(JsonReader reader) throws IOException, JSONException {
+        JSONObject choice = new JSONObject();
+        choice.put("index", 0);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "message":
+                    choice.put("message", readMessage(reader));
+                    break;
+                case "finish_reason":
+                    choice.put("finish_reason", nextStringOrNull(reader));
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return choice;
+    }
+
+    private static JSONObject readMessage(JsonReader reader) throws IOException, JSONException {
+        JSONObject message = new JSONObject();
+        message.put("role", "assistant");
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "role":
+                    message.put("role", nextStringOrNull(reader));
+                    break;
+                case "content":
+                    // null when the reply is only tool calls
+                    String content = nextStringOrNull(reader);
+                    if (content != null) {
+                        message.put("content", content);
+                    }
+                    break;
+                case "tool_calls":
+                    Object toolCalls = readValue(reader);
+                    if (toolCalls instanceof JSONArray && ((JSONArray) toolCalls).length() > 0) {
+                        message.put("tool_calls", toolCalls);
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return message;
+    }
+
+    private static String readErrorMessage(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            return nextStringOrNull(reader);
+        }
+        String message = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("message")) {
+                message = nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return message;
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * Read any value into its org.json form, for the small parts that are kept whole
+     */
+    private static Object readValue(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                JSONObject object = new JSONObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    object.put(reader.nextName(), readValue(reader));
+                }
+                reader.endObject();
+                return object;
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(readValue(reader));
+                }
+                reader.endArray();
+                return array;
+            case NUMBER:
+                String number = reader.nextString();
+                try {
+                    return Long.parseLong(number);
+                } catch (NumberFormatException e) {
+                    return Double.parseDouble(number);
+                }
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                return reader.nextString();
+        }
+    }
+}
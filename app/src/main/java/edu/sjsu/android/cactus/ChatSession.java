@@ -5,12 +5,22 @@ public class ChatSession {
     private String title;
     private long timestamp;
     private int messageCount;
+    private long lastMessageAt;
+    private String lastMessagePreview;
+    private boolean archived; // Messages live in the archive database until the session is opened
 
     public ChatSession(long id, String title, long timestamp, int messageCount) {
+        this(id, title, timestamp, messageCount, timestamp, null);
+    }
+
+    public ChatSession(long id, String title, long timestamp, int messageCount,
+                       long lastMessageAt, String lastMessagePreview) {
         this.id = id;
         this.title = title;
         this.timestamp = timestamp;
         this.messageCount = messageCount;
+        this.lastMessageAt = lastMessageAt;
+        this.lastMessagePreview = lastMessagePreview;
     }
 
     public long getId() {
@@ -44,4 +54,28 @@ public class ChatSession {
     public void setMessageCount(int messageCount) {
         this.messageCount = messageCount;
     }
+
+    public long getLastMessageAt() {
+        return lastMessageAt;
+    }
+
+    public void setLastMessageAt(long lastMessageAt) {
+        this.lastMessageAt = lastMessageAt;
+    }
+
+    public String getLastMessagePreview() {
+        return lastMessagePreview;
+    }
+
+    public void setLastMessagePreview(String lastMessagePreview) {
+        this.lastMessagePreview = lastMessagePreview;
+    }
+
+    public boolean isArchived() {
+        return archived;
+    }
+
+    public void setArchived(boolean archived) {
+        this.archived = archived;
+    }
 }
@@ -0,0 +1,641 @@
+package edu.sjsu.android.cactus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * HTTP transport for the chat completions endpoint.
+ * One client, and with it one pool of keep-alive connections (HTTP/2 where the server
+ * offers it), is shared by every call, so back-to-back turns and tool follow-ups reuse
+ * an established TLS connection. Responses are gzip-encoded on the wire and decoded
+ * transparently; request bodies are gzipped as well unless the server refuses them.
+ */
+public class ChatTransport {
+
+    /**
+     * Kinds of requests with their own timeouts, see setTimeouts
+     */
+    public enum RequestClass {
+        // A user turn; the read timeout is the longest silence allowed between streamed chunks.
+        // Safe to hedge: nothing happens until the app acts on the one response it keeps.
+        CHAT(10_000, 30_000, true),
+        // The follow-up call carrying tool results. Never hedged, it follows tools that had side effects.
+        TOOL_FOLLOW_UP(10_000, 45_000, false),
+        // Connection warm-up, nobody waits for it
+        WARM_UP(5_000, 5_000, false);
+
+        final int defaultConnectTimeoutMs;
+        final int defaultReadTimeoutMs;
+        final boolean hedgeable;
+
+        RequestClass(int defaultConnectTimeoutMs, int defaultReadTimeoutMs, boolean hedgeable) {
+            this.defaultConnectTimeoutMs = defaultConnectTimeoutMs;
+            this.defaultReadTimeoutMs = defaultReadTimeoutMs;
+            this.hedgeable = hedgeable;
+        }
+    }
+
+    /**
+     * Writes a request body straight to the connection. May be called more than once
+     * if the request has to be sent again.
+     */
+    public interface BodyWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    // Idle connections kept open, and for how long
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    // Answers to a gzipped body from a server that does not decode them: 415, or a 400 whose
+    // error names the encoding. Only this much of a 400's body is looked at. Some servers fail
+    // to parse the compressed JSON and say nothing about the encoding, so a 400 to the first
+    // gzipped request is resent plain once as well.
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_UNSUPPORTED_MEDIA_TYPE = 415;
+    private static final long ENCODING_ERROR_PEEK_BYTES = 4096;
+    private static final Pattern ENCODING_ERROR = Pattern.compile(
+            "content.?encoding|gzip|compress", Pattern.CASE_INSENSITIVE);
+    private static final int HTTP_SERVER_ERROR = 500;
+
+    private final String url;
+    private final OkHttpClient client;
+    private final Map<RequestClass, OkHttpClient> clients = new EnumMap<>(RequestClass.class);
+    private volatile boolean gzipRequests = true;
+    // Set once a gzipped request has been answered, after that only a 400 naming the encoding is resent
+    private volatile boolean gzipAnswered;
+    private volatile RetryPolicy retryPolicy = new RetryPolicy();
+    private volatile CircuitBreaker circuitBreaker = new CircuitBreaker();
+    private volatile RateLimiter rateLimiter;
+    private volatile HedgePolicy hedgePolicy;
+
+    public ChatTransport(String url) {
+        this(url, new OkHttpClient.Builder());
+    }
+
+    /**
+     * Build on a preconfigured client, e.g. one that trusts a test server's certificate
+     */
+    ChatTransport(String url, OkHttpClient.Builder baseClient) {
+        this.url = url;
+        this.client = baseClient
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .retryOnConnectionFailure(true)
+                // Requests made by post() carry their own timings listener
+                .eventListenerFactory(call -> {
+                    CallTimings timings = call.request().tag(CallTimings.class);
+                    return timings != null ? timings : EventListener.NONE;
+                })
+                .build();
+        for (RequestClass requestClass : RequestClass.values()) {
+            setTimeouts(requestClass, requestClass.defaultConnectTimeoutMs, requestClass.defaultReadTimeoutMs);
+        }
+    }
+
+    /**
+     * Change the timeouts of one request class. Clients derived this way share the
+     * connection pool and dispatcher, so this costs nothing per call.
+     */
+    public synchronized void setTimeouts(RequestClass requestClass, int connectTimeoutMs, int readTimeoutMs) {
+        clients.put(requestClass, client.newBuilder()
+                .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                .build());
+    }
+
+    /**
+     * Send or stop sending gzip-compressed request bodies
+     */
+    public void setGzipRequests(boolean gzipRequests) {
+        this.gzipRequests = gzipRequests;
+    }
+
+    /**
+     * Open a connection to the endpoint ahead of the first real request, so its TCP and TLS
+     * handshakes are off the critical path. The response is ignored.
+     */
+    public void warmUp() {
+        Request request = new Request.Builder().url(url).head().build();
+        clientFor(RequestClass.WARM_UP).newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                // Nothing to warm up, the next real request connects as usual
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+            }
+        });
+    }
+
+    /**
+     * Set how failed calls are retried
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Limit the request rate, or pass null for no client-side limit
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Send a second, identical request when the first is slow to answer, for request classes
+     * that allow it. Pass null to turn hedging off, the default.
+     */
+    public void setHedgePolicy(HedgePolicy hedgePolicy) {
+        this.hedgePolicy = hedgePolicy;
+    }
+
+    /**
+     * POST a JSON body and wait for the response headers. The caller must close the exchange.
+     * Retryable statuses and connection failures are retried as the retry policy allows; if
+     * it gives up on a retryable status, that last response is returned.
+     * @throws CircuitBreaker.OpenException If the endpoint has been failing and is not called
+     */
+    public Exchange post(RequestClass requestClass, String apiKey, BodyWriter body) throws IOException {
+        return post(requestClass, apiKey, body, null);
+    }
+
+    /**
+     * POST as part of a turn, see post(RequestClass, String, BodyWriter)
+     * @param turn Cancelling it aborts the call, including any wait before a retry; may be null
+     * @throws java.io.InterruptedIOException If the turn is or gets cancelled
+     */
+    public Exchange post(RequestClass requestClass, String apiKey, BodyWriter body, ChatTurn turn)
+            throws IOException {
+        RetryPolicy retryPolicy = this.retryPolicy;
+        CircuitBreaker circuitBreaker = this.circuitBreaker;
+        RateLimiter rateLimiter = this.rateLimiter;
+
+        for (int attempt = 1; ; attempt++) {
+            if (turn != null) {
+                turn.throwIfCancelled();
+            }
+            circuitBreaker.acquire();
+            if (rateLimiter != null) {
+                rateLimiter.acquire();
+            }
+
+            Exchange exchange;
+            try {
+                exchange = sendAllowingPlainFallback(requestClass, apiKey, body, turn);
+            } catch (IOException e) {
+                if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+                    // Cancelled or interrupted by the caller, says nothing about the endpoint
+                    throw e;
+                }
+                circuitBreaker.onFailure();
+                long delayMs = retryPolicy.delayAfterFailure(attempt, e);
+                if (delayMs < 0) {
+                    throw e;
+                }
+                android.util.Log.d("CACTUS_API", "Attempt " + attempt + " failed (" + e + "), retrying in " + delayMs + " ms");
+                sleep(delayMs);
+                continue;
+            }
+            exchange.attempts = attempt;
+
+            int status = exchange.getStatusCode();
+            if (rateLimiter != null) {
+                rateLimiter.onResponse(exchange);
+            }
+            if (status >= HTTP_SERVER_ERROR) {
+                circuitBreaker.onFailure();
+            } else {
+                circuitBreaker.onSuccess();
+            }
+
+            if (!retryPolicy.isRetryable(status)) {
+                return exchange;
+            }
+            long delayMs = retryPolicy.delayAfterResponse(attempt, exchange);
+            if (delayMs < 0) {
+                return exchange;
+            }
+            android.util.Log.d("CACTUS_API", "Attempt " + attempt + " got HTTP " + status + ", retrying in " + delayMs + " ms");
+            exchange.close();
+            sleep(delayMs);
+        }
+    }
+
+    private Exchange sendAllowingPlainFallback(RequestClass requestClass, String apiKey, BodyWriter body,
+                                               ChatTurn turn) throws IOException {
+        boolean gzip = gzipRequests;
+        Exchange exchange = send(requestClass, apiKey, body, gzip, turn);
+        if (!gzip) {
+            return exchange;
+        }
+        boolean firstAnswer = !gzipAnswered;
+        gzipAnswered = true;
+
+        int status = exchange.getStatusCode();
+        boolean refused = status == HTTP_UNSUPPORTED_MEDIA_TYPE
+                || (status == HTTP_BAD_REQUEST && isEncodingError(exchange));
+        if (refused || (status == HTTP_BAD_REQUEST && firstAnswer)) {
+            // A server that may not take compressed bodies, resend plain.
+            // Any other 400 is a real client error and is returned as is.
+            exchange.close();
+            exchange = send(requestClass, apiKey, body, false, turn);
+            // Stop compressing if the server said so, or the plain body got past the 400
+            if (refused || exchange.getStatusCode() != HTTP_BAD_REQUEST) {
+                gzipRequests = false;
+            }
+        }
+        return exchange;
+    }
+
+    private static boolean isEncodingError(Exchange exchange) throws IOException {
+        return ENCODING_ERROR.matcher(exchange.peekBody(ENCODING_ERROR_PEEK_BYTES)).find();
+    }
+
+    private static void sleep(long delayMs) throws IOException {
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    private Exchange send(RequestClass requestClass, String apiKey, BodyWriter body, boolean gzip, ChatTurn turn)
+            throws IOException {
+        HedgePolicy hedgePolicy = this.hedgePolicy;
+        if (hedgePolicy != null && requestClass.hedgeable) {
+            return sendHedged(requestClass, apiKey, body, gzip, turn, hedgePolicy);
+        }
+
+        Call call = newCall(requestClass, apiKey, body, gzip);
+        if (turn != null) {
+            turn.attach(call);
+        }
+        try {
+            return new Exchange(call, call.execute());
+        } catch (IOException e) {
+            if (call.isCanceled()) {
+                InterruptedIOException canceled = new InterruptedIOException("Canceled");
+                canceled.initCause(e);
+                throw canceled;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Send the request and, if its headers have not arrived after the hedge delay, the same
+     * request again. The first response wins and the other call is cancelled.
+     */
+    private Exchange sendHedged(RequestClass requestClass, String apiKey, BodyWriter body, boolean gzip,
+                                ChatTurn turn, HedgePolicy hedgePolicy) throws IOException {
+        hedgePolicy.onRequest();
+        long delayMs = hedgePolicy.getDelayMs();
+        HedgeRace race = new HedgeRace();
+
+        Call primary = newCall(requestClass, apiKey, body, gzip);
+        if (turn != null) {
+            turn.attach(primary);
+        }
+        long startNanos = System.nanoTime();
+        race.start(primary);
+
+        Call hedge = null;
+        try {
+            if (!race.await(delayMs)) {
+                // A hedge is an extra request, it only goes out if the quota has room right now
+                RateLimiter rateLimiter = this.rateLimiter;
+                if (rateLimiter == null || rateLimiter.tryAcquire()) {
+                    hedge = newCall(requestClass, apiKey, body, gzip);
+                    if (turn != null) {
+                        turn.attach(hedge);
+                    }
+                    hedgePolicy.onHedge();
+                    android.util.Log.d("CACTUS_API", "No headers after " + delayMs + " ms, hedging");
+                    race.start(hedge);
+                }
+                race.await(0);
+            }
+        } catch (InterruptedException e) {
+            primary.cancel();
+            if (hedge != null) {
+                hedge.cancel();
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Canceled");
+        }
+
+        Response response = race.finish();
+        if (response == null) {
+            if (primary.isCanceled()) {
+                InterruptedIOException canceled = new InterruptedIOException("Canceled");
+                canceled.initCause(race.getFailure());
+                throw canceled;
+            }
+            throw race.getFailure();
+        }
+
+        // The primary's time to headers, or at least how long it was waited for
+        hedgePolicy.recordLatency((System.nanoTime() - startNanos) / 1_000_000);
+        Call winner = race.getWinner();
+        if (winner == primary && hedge != null) {
+            hedge.cancel();
+        } else if (winner == hedge) {
+            primary.cancel();
+            hedgePolicy.onHedgeWon();
+        }
+        Exchange exchange = new Exchange(winner, response);
+        exchange.hedged = hedge != null;
+        exchange.hedgeWon = winner == hedge;
+        return exchange;
+    }
+
+    private Call newCall(RequestClass requestClass, String apiKey, BodyWriter body, boolean gzip) {
+        Request.Builder request = new Request.Builder()
+                .url(url)
+                .header("Authorization", "Bearer " + apiKey)
+                .post(gzip ? new GzipRequestBody(body) : new StreamingRequestBody(body))
+                .tag(CallTimings.class, new CallTimings());
+        if (gzip) {
+            request.header("Content-Encoding", "gzip");
+        }
+        return clientFor(requestClass).newCall(request.build());
+    }
+
+    private synchronized OkHttpClient clientFor(RequestClass requestClass) {
+        return clients.get(requestClass);
+    }
+
+    /**
+     * Drop idle connections, e.g. when the app goes to the background
+     */
+    public void evictIdleConnections() {
+        client.connectionPool().evictAll();
+    }
+
+    /**
+     * An HTTP exchange whose headers have arrived; the body is read from getBody()
+     */
+    public static final class Exchange implements Closeable {
+        private final Call call;
+        private final Response response;
+        private int attempts = 1;
+        private boolean hedged;
+        private boolean hedgeWon;
+
+        Exchange(Call call, Response response) {
+            this.call = call;
+            this.response = response;
+        }
+
+        public int getStatusCode() {
+            return response.code();
+        }
+
+        public String getHeader(String name) {
+            return response.header(name);
+        }
+
+        /**
+         * Up to maxBytes of the body, leaving the body itself unread
+         */
+        String peekBody(long maxBytes) throws IOException {
+            return response.peekBody(maxBytes).string();
+        }
+
+        /**
+         * A header holding an HTTP date, or null if missing or not a date
+         */
+        public Date getDateHeader(String name) {
+            return response.headers().getDate(name);
+        }
+
+        /**
+         * Attempts it took to get this response, 1 if it was not retried
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * Time this call took to get a connection, from a new handshake or the pool, or -1 if unknown
+         */
+        public long getConnectMs() {
+            CallTimings timings = call.request().tag(CallTimings.class);
+            return timings == null ? -1 : timings.connectMs();
+        }
+
+        /**
+         * Whether a hedge request was sent for the attempt that produced this response
+         */
+        public boolean isHedged() {
+            return hedged;
+        }
+
+        /**
+         * Whether this response came from the hedge rather than the first request
+         */
+        public boolean isHedgeWon() {
+            return hedgeWon;
+        }
+
+        /**
+         * HTTP/2 or HTTP/1.1, as negotiated for this exchange
+         */
+        public String getProtocol() {
+            return response.protocol().toString();
+        }
+
+        /**
+         * The decoded response body, readable as it streams in
+         */
+        public InputStream getBody() {
+            return response.body().byteStream();
+        }
+
+        /**
+         * Abort the exchange from any thread; a blocked read fails with an IOException
+         */
+        public void cancel() {
+            call.cancel();
+        }
+
+        @Override
+        public void close() {
+            response.close();
+        }
+    }
+
+    /**
+     * Connection timing of one call, recorded from OkHttp's call events
+     */
+    private static final class CallTimings extends EventListener {
+        private volatile long callStartNanos;
+        private volatile long connectionAcquiredNanos;
+
+        @Override
+        public void callStart(Call call) {
+            callStartNanos = System.nanoTime();
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            // The last connection wins if OkHttp had to retry on another route
+            connectionAcquiredNanos = System.nanoTime();
+        }
+
+        long connectMs() {
+            if (callStartNanos == 0 || connectionAcquiredNanos == 0) {
+                return -1;
+            }
+            return (connectionAcquiredNanos - callStartNanos) / 1_000_000;
+        }
+    }
+
+    /**
+     * The calls of one hedged request, racing for the first response headers
+     */
+    private static final class HedgeRace implements Callback {
+        // Guarded by this
+        private int pending;
+        private Call winner;
+        private Response response;
+        private IOException failure;
+        private boolean finished;
+
+        void start(Call call) {
+            synchronized (this) {
+                pending++;
+            }
+            call.enqueue(this);
+        }
+
+        @Override
+        public synchronized void onResponse(Call call, Response response) {
+            pending--;
+            if (this.response != null || finished) {
+                // Lost the race
+                response.close();
+            } else {
+                this.response = response;
+                winner = call;
+            }
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onFailure(Call call, IOException e) {
+            pending--;
+            if (failure == null) {
+                failure = e;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Wait until a call has a response or every call has failed
+         * @param timeoutMs Longest wait, or 0 to wait as long as it takes
+         * @return Whether the race is decided
+         */
+        synchronized boolean await(long timeoutMs) throws InterruptedException {
+            long deadlineNanos = System.nanoTime() + timeoutMs * 1_000_000;
+            while (response == null && pending > 0) {
+                if (timeoutMs <= 0) {
+                    wait();
+                    continue;
+                }
+                long remainingMs = (deadlineNanos - System.nanoTime()) / 1_000_000;
+                if (remainingMs <= 0) {
+                    return false;
+                }
+                wait(remainingMs);
+            }
+            return true;
+        }
+
+        /**
+         * @return The winning response, or null if every call failed. Later responses are closed.
+         */
+        synchronized Response finish() {
+            finished = true;
+            return response;
+        }
+
+        synchronized Call getWinner() {
+            return winner;
+        }
+
+        synchronized IOException getFailure() {
+            return failure;
+        }
+    }
+
+    private static class StreamingRequestBody extends RequestBody {
+        private final BodyWriter body;
+
+        StreamingRequestBody(BodyWriter body) {
+            this.body = body;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return JSON;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            // Flushes into the sink without closing it
+            OutputStream out = sink.outputStream();
+            body.writeTo(out);
+            out.flush();
+        }
+    }
+
+    private static final class GzipRequestBody extends StreamingRequestBody {
+        GzipRequestBody(BodyWriter body) {
+            super(body);
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
+            super.writeTo(gzipSink);
+            // Writes the gzip trailer; closing the outer sink is left to OkHttp
+            gzipSink.close();
+        }
+    }
+}
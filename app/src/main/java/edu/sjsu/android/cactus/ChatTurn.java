@@ -0,0 +1,119 @@
+package edu.sjsu.android.cactus;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import okhttp3.Call;
+
+/**
+ * Handle to one turn: the API calls that answer a message or a tool confirmation in one
+ * session. Cancelling it aborts the sockets of the calls in flight and marks the turn so its
+ * result, if one still arrives, is dropped instead of being shown or saved.
+ */
+public class ChatTurn {
+
+    private final long sessionId;
+    private volatile boolean cancelled;
+
+    // Guarded by this. Calls made so far; more than one in flight when a request is hedged.
+    private final List<Call> calls = new ArrayList<>();
+    private Future<?> task;
+    // API calls made for the turn so far, saved with the message that ends it
+    private final List<ApiCallRecord> apiCalls = new ArrayList<>();
+
+    public ChatTurn(long sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    /**
+     * The session the turn was started in and its result belongs to
+     */
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Cancel the turn from any thread. A blocked connect or read fails right away with an
+     * IOException, a wait before a retry is interrupted.
+     */
+    public void cancel() {
+        List<Call> calls;
+        Future<?> task;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            calls = new ArrayList<>(this.calls);
+            task = this.task;
+        }
+        for (Call call : calls) {
+            call.cancel();
+        }
+        if (task != null) {
+            task.cancel(true);
+        }
+    }
+
+    /**
+     * Set the background task running the turn
+     */
+    public void setTask(Future<?> task) {
+        boolean cancelNow;
+        synchronized (this) {
+            this.task = task;
+            cancelNow = cancelled;
+        }
+        if (cancelNow) {
+            task.cancel(true);
+        }
+    }
+
+    public synchronized void addApiCalls(List<ApiCallRecord> records) {
+        apiCalls.addAll(records);
+    }
+
+    public synchronized void addApiCall(ApiCallRecord record) {
+        apiCalls.add(record);
+    }
+
+    /**
+     * Hand over the API calls recorded so far, e.g. to save them or to pass them on to the
+     * turn that continues this one
+     */
+    public synchronized List<ApiCallRecord> takeApiCalls() {
+        List<ApiCallRecord> records = new ArrayList<>(apiCalls);
+        apiCalls.clear();
+        return records;
+    }
+
+    /**
+     * Track the call about to be made, so cancel() can abort it
+     * @throws InterruptedIOException If the turn is already cancelled; the call is not made
+     */
+    void attach(Call call) throws InterruptedIOException {
+        synchronized (this) {
+            if (!cancelled) {
+                calls.add(call);
+                return;
+            }
+        }
+        call.cancel();
+        throw new InterruptedIOException("Canceled");
+    }
+
+    /**
+     * @throws InterruptedIOException If the turn has been cancelled
+     */
+    public void throwIfCancelled() throws InterruptedIOException {
+        if (cancelled) {
+            throw new InterruptedIOException("Canceled");
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package edu.sjsu.android.cactus;
+
+import java.io.IOException;
+
+/**
+ * Fails API calls fast while the endpoint looks unhealthy.
+ * After failureThreshold consecutive failures (server errors or no response at all) the
+ * circuit opens and calls fail immediately for openMs. Then a single trial call is let
+ * through: if it succeeds the circuit closes, otherwise it opens again.
+ */
+public class CircuitBreaker {
+
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_OPEN_MS = 30_000;
+
+    /**
+     * Thrown instead of making a call while the circuit is open
+     */
+    public static class OpenException extends IOException {
+        private final long retryInMs;
+
+        OpenException(long retryInMs) {
+            super("Service unavailable, try again in " + Math.max(1, (retryInMs + 999) / 1000) + " s");
+            this.retryInMs = retryInMs;
+        }
+
+        public long getRetryInMs() {
+            return retryInMs;
+        }
+    }
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    // When the circuit opened or the last trial call started
+    private long openedAtNanos;
+
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MS);
+    }
+
+    public CircuitBreaker(int failureThreshold, long openMs) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openMs * 1_000_000;
+    }
+
+    /**
+     * Call before every attempt
+     * @throws OpenException If the call must not be made
+     */
+    public synchronized void acquire() throws OpenException {
+        if (state == State.CLOSED) {
+            return;
+        }
+        long now = System.nanoTime();
+        long waitedNanos = now - openedAtNanos;
+        if (waitedNanos >= openNanos) {
+            // Let one trial call through. Should it never report back, e.g. because it was
+            // cancelled, another one is let through after the same time.
+            state = State.HALF_OPEN;
+            openedAtNanos = now;
+            return;
+        }
+        // Open, or half open with the trial call still running
+        throw new OpenException((openNanos - waitedNanos) / 1_000_000);
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAtNanos = System.nanoTime();
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+}
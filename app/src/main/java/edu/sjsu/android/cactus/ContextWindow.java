@@ -0,0 +1,165 @@
+package edu.sjsu.android.cactus;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Chooses which history messages are sent with a turn so the request stays within a token
+ * budget. The newest messages are kept and the oldest dropped once the budget is reached;
+ * the latest message is always kept, whatever its size.
+ * The window is maintained incrementally: between turns of the same session only the
+ * messages added since the previous turn are counted, using each message's cached token
+ * count, and the oldest are dropped from the front. Messages are matched by row ID, so
+ * history read from the database again continues the window.
+ *
+ * Token counts are TokenEstimator's, a heuristic rather than the model's BPE, and can be well
+ * off for code or non-Latin text. estimateBudget() turns a budget in the model's tokens into
+ * one in estimated tokens: scaled by how the estimates compared with the prompt_tokens the
+ * server reported (see calibrate), and with a margin left for the error that remains.
+ */
+public class ContextWindow {
+
+    // Share of a budget filled with estimated tokens, the rest is headroom for underestimates
+    public static final double SAFETY_MARGIN = 0.85;
+    // Weight of the newest measurement in the calibration's moving average, and its bounds
+    private static final double CALIBRATION_WEIGHT = 0.3;
+    private static final double MIN_CALIBRATION = 0.5;
+    private static final double MAX_CALIBRATION = 4.0;
+
+    private final ArrayDeque<Message> window = new ArrayDeque<>();
+    private int windowTokens;
+    private long sessionId = -1;
+    // Newest message in the window, where the scan for new messages stops
+    private Message newest;
+    // Tokens the server counts per estimated token
+    private double calibration = 1.0;
+
+    /**
+     * Whether a history item is part of the conversation sent to the model
+     */
+    public static boolean isSendable(Message message) {
+        if (message.getMessageType() == Message.TYPE_TOOL
+                || message.getMessageType() == Message.TYPE_TOOL_CONFIRMATION) {
+            return false;
+        }
+        String content = message.getContent();
+        // Skip typing indicators and messages with null or empty content
+        return content != null && !content.equals("typing") && !content.trim().isEmpty();
+    }
+
+    /**
+     * @param history The session's messages, oldest first
+     * @param budgetTokens Tokens available for history messages, framing included
+     * @return The messages to send, oldest first
+     */
+    public synchronized List<Message> select(long sessionId, List<Message> history, int budgetTokens) {
+        int newCount = countNewMessages(sessionId, history);
+        if (newCount < 0) {
+            // Another session, or history that does not continue the last window
+            rebuild(sessionId, history, budgetTokens);
+        } else {
+            for (int i = history.size() - newCount; i < history.size(); i++) {
+                Message message = history.get(i);
+                if (isSendable(message)) {
+                    window.addLast(message);
+                    windowTokens += message.getTokenCount();
+                }
+            }
+            trim(budgetTokens);
+        }
+        // Typing indicators and tool lines come and go, the newest sent message stays
+        newest = window.peekLast();
+        return new ArrayList<>(window);
+    }
+
+    /**
+     * Budget in estimated tokens to pass to select for a budget in the model's tokens
+     */
+    public synchronized int estimateBudget(int modelTokens) {
+        return (int) (modelTokens * SAFETY_MARGIN / calibration);
+    }
+
+    /**
+     * Compare a request's estimated prompt size with the server's count of it. Later budgets
+     * shrink when the estimates have been low, e.g. in a conversation about code.
+     * @param estimatedTokens Estimate of everything in the prompt, tool definitions included
+     * @param promptTokens usage.prompt_tokens of the response
+     */
+    public synchronized void calibrate(int estimatedTokens, int promptTokens) {
+        if (estimatedTokens <= 0 || promptTokens <= 0) {
+            return;
+        }
+        double ratio = (double) promptTokens / estimatedTokens;
+        calibration += CALIBRATION_WEIGHT * (ratio - calibration);
+        calibration = Math.max(MIN_CALIBRATION, Math.min(MAX_CALIBRATION, calibration));
+    }
+
+    /**
+     * Tokens the server counts per estimated token, 1 until calibrate is called
+     */
+    public synchronized double getCalibration() {
+        return calibration;
+    }
+
+    /**
+     * Estimated tokens of the last selected window
+     */
+    public synchronized int getWindowTokens() {
+        return windowTokens;
+    }
+
+    /**
+     * Forget the window, e.g. after its messages were deleted
+     */
+    public synchronized void reset() {
+        window.clear();
+        windowTokens = 0;
+        sessionId = -1;
+        newest = null;
+    }
+
+    /**
+     * @return How many messages at the end of history were added since the last call,
+     *         or -1 if the window cannot be extended
+     */
+    private int countNewMessages(long sessionId, List<Message> history) {
+        if (sessionId != this.sessionId || newest == null) {
+            return -1;
+        }
+        for (int i = history.size() - 1; i >= 0; i--) {
+            if (newest.isSameMessage(history.get(i))) {
+                return history.size() - 1 - i;
+            }
+        }
+        return -1;
+    }
+
+    private void rebuild(long sessionId, List<Message> history, int budgetTokens) {
+        window.clear();
+        windowTokens = 0;
+        this.sessionId = sessionId;
+        // Newest first, stopping at the first message that does not fit
+        for (int i = history.size() - 1; i >= 0; i--) {
+            Message message = history.get(i);
+            if (!isSendable(message)) {
+                continue;
+            }
+            int tokens = message.getTokenCount();
+            if (!window.isEmpty() && windowTokens + tokens > budgetTokens) {
+                break;
+            }
+            window.addFirst(message);
+            windowTokens += tokens;
+        }
+    }
+
+    private void trim(int budgetTokens) {
+        Iterator<Message> oldest = window.iterator();
+        while (windowTokens > budgetTokens && window.size() > 1) {
+            windowTokens -= oldest.next().getTokenCount();
+            oldest.remove();
+        }
+    }
+}
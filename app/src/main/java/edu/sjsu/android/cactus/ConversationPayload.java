@@ -0,0 +1,211 @@
+package edu.sjsu.android.cactus;
+
+import android.util.JsonWriter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The "messages" of a session's requests kept serialized between turns. Each history
+ * message is encoded once, when it first enters the context window, and appended to a
+ * byte buffer; messages leaving the window only move the buffer's start. Building the
+ * next request therefore costs time proportional to the messages added since the last one.
+ * Bytes already handed out in a snapshot are never overwritten: the buffer is copied to
+ * a new array when it has to grow or compact, so a snapshot stays valid while its request
+ * is being written or resent.
+ */
+public class ConversationPayload {
+
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+
+    private final String systemPrompt;
+    private final byte[] systemMessage;
+
+    private long sessionId = -1;
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int start;
+    private int end;
+    // Messages in the buffer, oldest first, with where each one's bytes end
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+
+    public ConversationPayload(String systemPrompt) {
+        this.systemPrompt = systemPrompt;
+        this.systemMessage = encode("system", systemPrompt, false);
+    }
+
+    /**
+     * Bring the buffer in line with the messages selected for the next turn
+     * @param window The history to send, oldest first, as chosen by ContextWindow. Kept by
+     *               the snapshot, so not changed afterwards.
+     * @return The serialized system prompt and history
+     */
+    public synchronized Snapshot update(long sessionId, List<Message> window) {
+        if (sessionId != this.sessionId || !dropUntil(window)) {
+            clear();
+            this.sessionId = sessionId;
+        }
+        // Entries now hold a prefix of the window, append the rest
+        for (int i = entries.size(); i < window.size(); i++) {
+            Message message = window.get(i);
+            append(message, encode(message.isUser() ? "user" : "assistant", message.getContent(), true));
+        }
+        return new Snapshot(buffer, start, end, window);
+    }
+
+    /**
+     * Forget the buffered history
+     */
+    public synchronized void reset() {
+        clear();
+        sessionId = -1;
+    }
+
+    /**
+     * Drop the oldest entries until the buffer starts with the window's first message
+     * @return Whether what is left is a prefix of the window
+     */
+    private boolean dropUntil(List<Message> window) {
+        if (window.isEmpty()) {
+            return false;
+        }
+        while (!entries.isEmpty() && !entries.peekFirst().message.isSameMessage(window.get(0))) {
+            start = entries.pollFirst().end;
+        }
+        if (entries.isEmpty() || entries.size() > window.size()) {
+            return false;
+        }
+        int i = 0;
+        for (Entry entry : entries) {
+            if (!entry.message.isSameMessage(window.get(i++))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void append(Message message, byte[] encoded) {
+        if (end + encoded.length > buffer.length) {
+            // Never write into an array a snapshot may still be reading, start a new one
+            int live = end - start;
+            byte[] grown = new byte[Math.max(INITIAL_CAPACITY, 2 * (live + encoded.length))];
+            System.arraycopy(buffer, start, grown, 0, live);
+            int shift = start;
+            for (Entry entry : entries) {
+                entry.end -= shift;
+            }
+            buffer = grown;
+            start = 0;
+            end = live;
+        }
+        System.arraycopy(encoded, 0, buffer, end, encoded.length);
+        end += encoded.length;
+        entries.addLast(new Entry(message, end));
+    }
+
+    private void clear() {
+        entries.clear();
+        // Snapshots may still hold the old array
+        buffer = new byte[INITIAL_CAPACITY];
+        start = 0;
+        end = 0;
+    }
+
+    /**
+     * One message object, preceded by a comma when it follows another
+     */
+    private static byte[] encode(String role, String content, boolean separated) {
+        StringWriter text = new StringWriter();
+        if (separated) {
+            text.write(',');
+        }
+        try {
+            JsonWriter writer = new JsonWriter(text);
+            writer.beginObject();
+            writer.name("role").value(role);
+            writer.name("content").value(content);
+            writer.endObject();
+            writer.close();
+        } catch (IOException e) {
+            // A StringWriter does not throw
+            throw new IllegalStateException(e);
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class Entry {
+        final Message message;
+        int end;
+
+        Entry(Message message, int end) {
+            this.message = message;
+            this.end = end;
+        }
+    }
+
+    /**
+     * The serialized messages of one request. Immutable, so a request can be written again
+     * when it is retried.
+     */
+    public final class Snapshot {
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+        private final List<Message> messages;
+
+        Snapshot(byte[] bytes, int start, int end, List<Message> messages) {
+            this.bytes = bytes;
+            this.offset = start;
+            this.length = end - start;
+            this.messages = Collections.unmodifiableList(messages);
+        }
+
+        /**
+         * Write the system message and history, comma separated, without the enclosing brackets
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(systemMessage);
+            out.write(bytes, offset, length);
+        }
+
+        /**
+         * Messages written, the system message included
+         */
+        public int getMessageCount() {
+            return messages.size() + 1;
+        }
+
+        public int getByteCount() {
+            return systemMessage.length + length;
+        }
+
+        /**
+         * The history messages, oldest first, without the system message
+         */
+        public List<Message> getMessages() {
+            return messages;
+        }
+
+        /**
+         * The same messages as an org.json array, e.g. to compute a cache key
+         */
+        public JSONArray toJSONArray() throws JSONException {
+            JSONArray array = new JSONArray();
+            array.put(new JSONObject().put("role", "system").put("content", systemPrompt));
+            for (Message message : messages) {
+                array.put(new JSONObject()
+                        .put("role", message.isUser() ? "user" : "assistant")
+                        .put("content", message.getContent()));
+            }
+            return array;
+        }
+    }
+}
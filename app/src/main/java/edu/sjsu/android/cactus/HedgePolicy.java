@@ -0,0 +1,108 @@
+package edu.sjsu.android.cactus;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * When to send a second, identical request while the first one is slow. The delay is a
+ * percentile of recently observed times to response headers, so only the slowest few
+ * requests are hedged and the extra load stays small. Until enough samples are in, a
+ * fixed delay is used.
+ * Also counts hedges sent and won, for the metrics.
+ */
+public class HedgePolicy {
+
+    private static final int SAMPLE_WINDOW = 100;
+    private static final int MIN_SAMPLES = 20;
+
+    private final double percentile;
+    private final long minDelayMs;
+    private final long maxDelayMs;
+    private final long initialDelayMs;
+
+    // Ring buffer of recent times to headers
+    private final long[] samplesMs = new long[SAMPLE_WINDOW];
+    private int sampleCount;
+    private int nextSample;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    /**
+     * Hedge after the 95th percentile, between 250 ms and 5 s, 2 s until it is known
+     */
+    public HedgePolicy() {
+        this(0.95, 250, 5_000, 2_000);
+    }
+
+    /**
+     * @param percentile Fraction of requests expected to answer before a hedge is sent
+     * @param initialDelayMs Delay used until enough samples are recorded
+     */
+    public HedgePolicy(double percentile, long minDelayMs, long maxDelayMs, long initialDelayMs) {
+        this.percentile = percentile;
+        this.minDelayMs = minDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.initialDelayMs = initialDelayMs;
+    }
+
+    /**
+     * How long to wait for the first request's headers before hedging
+     */
+    public long getDelayMs() {
+        long[] sorted;
+        synchronized (this) {
+            if (sampleCount < MIN_SAMPLES) {
+                return initialDelayMs;
+            }
+            sorted = Arrays.copyOf(samplesMs, sampleCount);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        long delayMs = sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        return Math.max(minDelayMs, Math.min(maxDelayMs, delayMs));
+    }
+
+    /**
+     * Record how long a request took to get its response headers
+     */
+    public synchronized void recordLatency(long headersMs) {
+        samplesMs[nextSample] = headersMs;
+        nextSample = (nextSample + 1) % SAMPLE_WINDOW;
+        sampleCount = Math.min(sampleCount + 1, SAMPLE_WINDOW);
+    }
+
+    void onRequest() {
+        requests.incrementAndGet();
+    }
+
+    void onHedge() {
+        hedges.incrementAndGet();
+    }
+
+    void onHedgeWon() {
+        hedgeWins.incrementAndGet();
+    }
+
+    /**
+     * Requests that could have been hedged
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Second requests sent
+     */
+    public long getHedgeCount() {
+        return hedges.get();
+    }
+
+    /**
+     * Second requests that answered first
+     */
+    public long getHedgeWinCount() {
+        return hedgeWins.get();
+    }
+}
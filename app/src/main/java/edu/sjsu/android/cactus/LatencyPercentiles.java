@@ -0,0 +1,39 @@
+package edu.sjsu.android.cactus;
+
+/**
+ * Percentiles of one timing column of the api_calls table, in milliseconds
+ */
+public class LatencyPercentiles {
+    private int sampleCount;
+    private long p50;
+    private long p95;
+    private long p99;
+
+    public LatencyPercentiles(int sampleCount, long p50, long p95, long p99) {
+        this.sampleCount = sampleCount;
+        this.p50 = p50;
+        this.p95 = p95;
+        this.p99 = p99;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP95() {
+        return p95;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    @Override
+    public String toString() {
+        return "p50 " + p50 + " ms, p95 " + p95 + " ms, p99 " + p99 + " ms (" + sampleCount + " calls)";
+    }
+}
@@ -0,0 +1,419 @@
+package edu.sjsu.android.cactus;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rule-based recognizer for the most common tool requests, "set an alarm for 6:30 am" and
+ * "call 555-123-4567", so they can go straight to the confirmation card without a model
+ * round trip. It only answers when the whole message is accounted for: a single unambiguous
+ * time (or phone number), an optional label and filler words. Anything else, such as a time
+ * without am/pm, a weekday or a contact name, is left to the model.
+ */
+public final class LocalIntentRecognizer {
+
+    /**
+     * A recognized request, ready to be shown as a tool call
+     */
+    public static final class Match {
+        private final String toolName;
+        private final int hour;
+        private final int minutes;
+        private final String label;
+        private final String phoneNumber;
+
+        private Match(String toolName, int hour, int minutes, String label, String phoneNumber) {
+            this.toolName = toolName;
+            this.hour = hour;
+            this.minutes = minutes;
+            this.label = label;
+            this.phoneNumber = phoneNumber;
+        }
+
+        static Match alarm(int hour, int minutes, String label) {
+            return new Match("set_alarm", hour, minutes, label, null);
+        }
+
+        static Match call(String phoneNumber) {
+            return new Match("make_call", -1, -1, null, phoneNumber);
+        }
+
+        public String getToolName() {
+            return toolName;
+        }
+
+        /**
+         * 0-23, -1 for a call
+         */
+        public int getHour() {
+            return hour;
+        }
+
+        public int getMinutes() {
+            return minutes;
+        }
+
+        /**
+         * The alarm's label, or null if none was given
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        public String getPhoneNumber() {
+            return phoneNumber;
+        }
+
+        /**
+         * The arguments the model would have sent for the same request
+         */
+        public JSONObject toArguments() throws JSONException {
+            JSONObject arguments = new JSONObject();
+            if (phoneNumber != null) {
+                arguments.put("phone_number", phoneNumber);
+            } else {
+                arguments.put("hour", hour);
+                arguments.put("minutes", minutes);
+                if (label != null) {
+                    arguments.put("message", label);
+                }
+            }
+            return arguments;
+        }
+
+        @Override
+        public String toString() {
+            return phoneNumber != null ? toolName + "(" + phoneNumber + ")"
+                    : String.format(Locale.US, "%s(%02d:%02d%s)", toolName, hour, minutes,
+                    label != null ? ", '" + label + "'" : "");
+        }
+    }
+
+    // "call 555-123-4567", "could you dial +1 (555) 123-4567 please"
+    private static final Pattern CALL = compile(
+            "^(?:(?:please|can you|could you|would you)\\s+)?(?:call|dial|phone|ring)\\s+(?:up\\s+)?" +
+            "(?:the\\s+)?(?:number\\s+)?(\\+?[\\d(][\\d\\s().-]*\\d)(?:\\s+(?:please|now|for me))*$");
+
+    // Requests the fast path must not answer: other actions, recurring or dated alarms, questions
+    private static final Pattern DECLINE = compile(
+            "\\b(?:cancel|delete|remove|turn off|disable|stop|snooze|dismiss|change|move|every|daily|" +
+            "weekdays?|weekends?|mondays?|tuesdays?|wednesdays?|thursdays?|fridays?|saturdays?|sundays?|" +
+            "tomorrow|timer|remind|reminder|what|when|how|why|which|don't|do not|not)\\b");
+
+    // A request phrased as a question: "can you set an alarm for 6 am?"
+    private static final Pattern POLITE_QUESTION = compile(
+            "^(?:can|could|would|will) you\\b[^?]*\\?$");
+
+    private static final Pattern ALARM_TRIGGER = compile("\\balarm\\b|\\bwake me\\b");
+
+    // Explicit labels: "called gym", "labeled 'take pills'", "with the label standup"
+    private static final Pattern EXPLICIT_LABEL = compile(
+            "\\s+(?:called|labell?ed|named|titled|with (?:the )?(?:label|message|name))\\s+[\"']?([^\"']+?)[\"']?$");
+    // A label after the time: "for the gym", "to go running"
+    private static final Pattern TRAILING_LABEL = compile("^\\s+(?:for|to)\\s+(?!\\d)(.+)$");
+
+    private static final String AT = "(?:at\\s+|for\\s+)?";
+    private static final String MERIDIEM = "\\s*([ap])\\.?\\s?m\\b\\.?";
+
+    // 6:30 am, 6 pm, 630am
+    private static final Pattern MERIDIEM_TIME = compile(
+            "\\b" + AT + "(\\d{1,2})(?:[:.]?(\\d{2}))?" + MERIDIEM);
+    // 18:45, 06:30, or 6:30 with a part of the day
+    private static final Pattern CLOCK_TIME = compile("\\b" + AT + "(\\d{1,2}):(\\d{2})\\b");
+    // 7 o'clock
+    private static final Pattern OCLOCK_TIME = compile("\\b" + AT + "(\\d{1,2})\\s*o'?\\s?clock\\b");
+    // half past 6, quarter to 7, 10 past 8
+    private static final Pattern PAST_TO_TIME = compile(
+            "\\b" + AT + "(half|quarter|\\d{1,2})\\s+(past|to)\\s+(\\d{1,2})\\b(?:" + MERIDIEM + ")?");
+    private static final Pattern NAMED_TIME = compile("\\b" + AT + "(noon|midday|midnight)\\b");
+    // in 20 minutes, in an hour, in 2 hours 30 minutes, in half an hour
+    private static final Pattern RELATIVE_TIME = compile(
+            "\\bin\\s+(?:(half an hour)|(an|a|one|two|three|four|five|six|seven|eight|nine|ten|eleven|twelve|" +
+            "fifteen|twenty|thirty|forty|forty five|forty-five|\\d{1,4})\\s*(hours?|hrs?|minutes?|mins?)" +
+            "(?:\\s+(?:and\\s+)?(?:(a half)|(\\d{1,2})\\s*(?:minutes?|mins?)))?)\\b");
+
+    // In the order they are tried, see findTime
+    private static final Pattern[] TIME_PATTERNS = {
+            RELATIVE_TIME, PAST_TO_TIME, MERIDIEM_TIME, CLOCK_TIME, OCLOCK_TIME, NAMED_TIME};
+
+    private static final Pattern MORNING = compile("\\s*\\bin the morning\\b");
+    private static final Pattern EVENING = compile(
+            "\\s*\\b(?:in the afternoon|in the evening|this afternoon|this evening|tonight|at night)\\b");
+
+    // Words that may be left over once the time and label are taken out
+    private static final Set<String> FILLER = new HashSet<>();
+    private static final Map<String, Integer> NUMBER_WORDS = new HashMap<>();
+
+    static {
+        for (String word : ("please can could would you i need want set setup create make add start put " +
+                "a an new alarm for at me up wake the my an get hey ok okay now to").split(" ")) {
+            FILLER.add(word);
+        }
+        String[] words = {"one", "two", "three", "four", "five", "six", "seven", "eight", "nine", "ten",
+                "eleven", "twelve"};
+        for (int i = 0; i < words.length; i++) {
+            NUMBER_WORDS.put(words[i], i + 1);
+        }
+        NUMBER_WORDS.put("a", 1);
+        NUMBER_WORDS.put("an", 1);
+        NUMBER_WORDS.put("fifteen", 15);
+        NUMBER_WORDS.put("twenty", 20);
+        NUMBER_WORDS.put("thirty", 30);
+        NUMBER_WORDS.put("forty", 40);
+        NUMBER_WORDS.put("forty five", 45);
+        NUMBER_WORDS.put("forty-five", 45);
+    }
+
+    /**
+     * @param nowMillis The current time, for relative times such as "in 20 minutes"
+     * @return The request, or null if the message should go to the model
+     */
+    public Match recognize(String text, long nowMillis) {
+        // Case is kept for the label, the patterns ignore it
+        String normalized = text.replace('\u2019', '\'')
+                .replaceAll("\\s+", " ").trim().replaceAll("[.!,]+$", "").trim();
+        if (normalized.isEmpty()) {
+            return null;
+        }
+        if (POLITE_QUESTION.matcher(normalized).matches()) {
+            normalized = normalized.substring(0, normalized.length() - 1).trim();
+        } else if (normalized.indexOf('?') >= 0) {
+            return null;
+        }
+
+        Matcher call = CALL.matcher(normalized);
+        if (call.matches()) {
+            return recognizeCall(call.group(1));
+        }
+        if (DECLINE.matcher(normalized).find() || !ALARM_TRIGGER.matcher(normalized).find()) {
+            return null;
+        }
+        return recognizeAlarm(normalized, nowMillis);
+    }
+
+    private static Match recognizeCall(String number) {
+        String digits = number.replaceAll("[^0-9]", "");
+        if (digits.length() < 7 || digits.length() > 15) {
+            return null;
+        }
+        return Match.call(number.trim());
+    }
+
+    private static Match recognizeAlarm(String text, long nowMillis) {
+        // An explicit label can hold any words, take it out first
+        String label = null;
+        Matcher explicit = EXPLICIT_LABEL.matcher(text);
+        if (explicit.find()) {
+            label = explicit.group(1).trim();
+            text = text.substring(0, explicit.start());
+        }
+
+        // Part of the day, for times without am/pm
+        Boolean pm = null;
+        Matcher morning = MORNING.matcher(text);
+        Matcher evening = EVENING.matcher(text);
+        if (morning.find()) {
+            pm = false;
+            text = text.substring(0, morning.start()) + text.substring(morning.end());
+        } else if (evening.find()) {
+            pm = true;
+            text = text.substring(0, evening.start()) + text.substring(evening.end());
+        }
+
+        TimeMatch time = findTime(text, pm, nowMillis);
+        if (time == null) {
+            return null;
+        }
+
+        String before = text.substring(0, time.start);
+        String after = text.substring(time.end);
+        if (label == null) {
+            Matcher trailing = TRAILING_LABEL.matcher(after);
+            if (trailing.matches()) {
+                label = trailing.group(1).trim();
+                after = "";
+            }
+        }
+        // Everything else must be filler, or the message says more than the fast path understands
+        if (!isFiller(before) || !isFiller(after) || (label != null && label.isEmpty())) {
+            return null;
+        }
+        return Match.alarm(time.hour, time.minutes, label);
+    }
+
+    /**
+     * Find the single time in the text
+     * @return null if there is none, more than one, or it is ambiguous
+     */
+    private static TimeMatch findTime(String text, Boolean pm, long nowMillis) {
+        TimeMatch found = null;
+        int count = 0;
+        // The longer forms are tried first, so "half past 6 pm" is not also read as "6 pm"
+        boolean[] taken = new boolean[text.length()];
+        for (int i = 0; i < TIME_PATTERNS.length; i++) {
+            Matcher m = TIME_PATTERNS[i].matcher(text);
+            while (m.find()) {
+                if (isTaken(taken, m.start(), m.end())) {
+                    continue;
+                }
+                Arrays.fill(taken, m.start(), m.end(), true);
+                count++;
+                found = toTime(i, m, pm, nowMillis);
+            }
+        }
+        return count == 1 ? found : null;
+    }
+
+    private static TimeMatch toTime(int pattern, Matcher m, Boolean pm, long nowMillis) {
+        switch (pattern) {
+            case 0:
+                return relativeTime(m, nowMillis);
+            case 1:
+                return pastToTime(m, pm);
+            case 2:
+                return meridiemTime(m.start(), m.end(), parse(m.group(1)),
+                        m.group(2) == null ? 0 : parse(m.group(2)), m.group(3).equalsIgnoreCase("p"));
+            case 3:
+                return clockTime(m.start(), m.end(), m.group(1), parse(m.group(2)), pm);
+            case 4:
+                return clockTime(m.start(), m.end(), m.group(1), 0, pm);
+            default:
+                return new TimeMatch(m.start(), m.end(), m.group(1).equalsIgnoreCase("midnight") ? 0 : 12, 0);
+        }
+    }
+
+    private static boolean isTaken(boolean[] taken, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (taken[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static TimeMatch meridiemTime(int start, int end, int hour, int minutes, boolean pm) {
+        if (hour < 1 || hour > 12 || minutes > 59) {
+            return null;
+        }
+        return new TimeMatch(start, end, hour % 12 + (pm ? 12 : 0), minutes);
+    }
+
+    /**
+     * A time without am/pm: 24-hour if it says so (13-23, 0, or a leading zero), else only
+     * with a part of the day
+     */
+    private static TimeMatch clockTime(int start, int end, String hourText, int minutes, Boolean pm) {
+        int hour = parse(hourText);
+        if (hour > 23 || minutes > 59) {
+            return null;
+        }
+        if (hour == 0 || hour > 12 || hourText.startsWith("0")) {
+            return pm == null ? new TimeMatch(start, end, hour, minutes) : null;
+        }
+        if (pm == null) {
+            return null;
+        }
+        return meridiemTime(start, end, hour, minutes, pm);
+    }
+
+    private static TimeMatch pastToTime(Matcher m, Boolean pm) {
+        String amount = m.group(1).toLowerCase(Locale.US);
+        int minutes = amount.equals("half") ? 30 : amount.equals("quarter") ? 15 : parse(amount);
+        boolean to = m.group(2).equalsIgnoreCase("to");
+        if (minutes < 1 || minutes > 30 || (to && amount.equals("half"))) {
+            return null;
+        }
+        int hour = parse(m.group(3));
+        if (m.group(4) != null) {
+            pm = m.group(4).equalsIgnoreCase("p");
+        }
+        if (hour < 1 || hour > 12 || pm == null) {
+            return null;
+        }
+        hour = hour % 12 + (pm ? 12 : 0);
+        if (to) {
+            hour = (hour + 23) % 24;
+            minutes = 60 - minutes;
+        }
+        return new TimeMatch(m.start(), m.end(), hour, minutes);
+    }
+
+    private static TimeMatch relativeTime(Matcher m, long nowMillis) {
+        int total;
+        if (m.group(1) != null) {
+            total = 30;
+        } else {
+            Integer amount = NUMBER_WORDS.get(m.group(2).toLowerCase(Locale.US));
+            int value = amount != null ? amount : parse(m.group(2));
+            boolean hours = m.group(3).toLowerCase(Locale.US).startsWith("h");
+            total = hours ? value * 60 : value;
+            if (m.group(4) != null) {
+                if (!hours) {
+                    return null;
+                }
+                total += 30;
+            } else if (m.group(5) != null) {
+                if (!hours) {
+                    return null;
+                }
+                total += parse(m.group(5));
+            }
+        }
+        // The alarm app takes a time of day, so it must fall within the next day
+        if (total < 1 || total >= 24 * 60) {
+            return null;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(nowMillis);
+        calendar.add(Calendar.MINUTE, total);
+        return new TimeMatch(m.start(), m.end(), calendar.get(Calendar.HOUR_OF_DAY), calendar.get(Calendar.MINUTE));
+    }
+
+    private static Pattern compile(String regex) {
+        return Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+    }
+
+    private static boolean isFiller(String text) {
+        for (String word : text.split("[\\s,]+")) {
+            if (!word.isEmpty() && !FILLER.contains(word.toLowerCase(Locale.US))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int parse(String digits) {
+        try {
+            return Integer.parseInt(digits);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A time of day and where it was found
+     */
+    private static final class TimeMatch {
+        final int start;
+        final int end;
+        final int hour;
+        final int minutes;
+
+        TimeMatch(int start, int end, int hour, int minutes) {
+            this.start = start;
+            this.end = end;
+            this.hour = hour;
+            this.minutes = minutes;
+        }
+    }
+}
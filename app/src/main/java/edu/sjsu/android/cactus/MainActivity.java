@@ -4,9 +4,14 @@ import android.Manifest;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.speech.RecognitionListener;
 import android.speech.RecognizerIntent;
 import android.speech.SpeechRecognizer;
+import android.text.Editable;
+import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.View;
@@ -15,6 +20,7 @@ import android.view.WindowManager;
 import android.view.inputmethod.EditorInfo;
 import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.appcompat.app.ActionBarDrawerToggle;
@@ -38,17 +44,27 @@ import com.google.android.material.navigation.NavigationView;
 import com.google.android.material.textfield.TextInputEditText;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -57,17 +73,82 @@ public class MainActivity extends AppCompatActivity {
     // OpenAI API configuration
     private static final String OPENAI_API_URL = "https://api.openai.com/v1/chat/completions";
 
+    // Render replies token by token from a streamed completion instead of waiting for the whole body
+    private static final boolean STREAM_RESPONSES = true;
+
+    // Answer repeated prompts from a disk cache instead of the API. Opt-in: cached answers
+    // to time-sensitive questions can be stale until they expire.
+    private static final boolean CACHE_RESPONSES = false;
+    private static final long RESPONSE_CACHE_BYTES = 2 * 1024 * 1024;
+    private static final long RESPONSE_CACHE_TTL_MS = 60L * 60 * 1000;
+
+    // Send a second request when the first has not answered within the usual time (a percentile
+    // of recent latencies), and keep whichever answers first. Opt-in: hedges cost extra requests.
+    private static final boolean HEDGE_REQUESTS = false;
+
+    // Client-side request quota: burst size, sustained rate and the longest a turn waits for it
+    private static final int API_REQUEST_BURST = 5;
+    private static final int API_REQUESTS_PER_MINUTE = 60;
+    private static final long API_MAX_QUEUE_MS = 10_000;
+
+    // Model used for every turn
+    private static final String MODEL = "gpt-4o-mini";
+
+    // Sent first in every request. Keep it free of per-turn text such as the date: the provider's
+    // prompt cache only hits on a byte-identical prefix, and the tools payload after it is fixed too.
+    private static final String SYSTEM_PROMPT = "You are a helpful assistant. Always respond in a friendly and helpful tone. Keep your answers concise and to the point. You have access to tools for setting alarms and making phone calls on the device. After successfully using a tool, provide a brief confirmation of what action was completed.";
+
+    // Estimated prompt tokens per turn for the system prompt and history. Older messages
+    // are left out once the budget is reached.
+    private static final int CONTEXT_BUDGET_TOKENS = 8_000;
+
+    // Approved tool calls of one reply run concurrently on this many threads. Each gets the time
+    // budget its tool declares, or this one; a call over budget is reported to the model as timed out.
+    private static final int TOOL_POOL_SIZE = 4;
+    private static final long TOOL_TIMEOUT_MS = 10_000;
+
+    // Times a reply whose tool arguments fail validation is sent back to the model with the
+    // errors before the confirmation card is shown anyway
+    private static final int MAX_ARGUMENT_REPROMPTS = 1;
+
+    // Common alarm and call requests ("set an alarm for 6:30 am", "call 555-123-4567") are
+    // recognized on the device and go straight to the confirmation card, and their result is
+    // shown without a follow-up call. Anything the recognizer is unsure of goes to the model.
+    private static final boolean LOCAL_INTENTS = true;
+
     // API Key Manager for secure storage
     private ApiKeyManager apiKeyManager;
-
-    // Tools
-    private final List<BaseTool> availableTools = new ArrayList<>();
+    // Shared by every API call so turns reuse warm connections
+    private final ChatTransport chatTransport = new ChatTransport(OPENAI_API_URL);
+
+    // Null unless CACHE_RESPONSES is set
+    private ResponseCache responseCache;
+    // Null unless HEDGE_REQUESTS is set
+    private HedgePolicy hedgePolicy;
+    // History messages sent with the last turn, extended as the session grows
+    private final ContextWindow contextWindow = new ContextWindow();
+    // The same messages serialized, so a turn only encodes what is new
+    private final ConversationPayload conversationPayload = new ConversationPayload(SYSTEM_PROMPT);
+    // Held while both are moved on to a turn's history, turns run on the network executor's threads
+    private final Object historyLock = new Object();
+
+    // Tools, looked up by name, with their definitions serialized once
+    private ToolRegistry toolRegistry;
+    private ToolExecutor toolExecutor;
+    // Estimated tokens of the tool definitions sent with every request
+    private int toolDefinitionTokens;
+    private final LocalIntentRecognizer localIntentRecognizer = new LocalIntentRecognizer();
+    // Numbers the ids of tool calls made on the device
+    private int localToolCallCount;
 
     private DrawerLayout drawerLayout;
     private MaterialButton settingsButton;
     private ActionBarDrawerToggle drawerToggle;
     private RecyclerView messagesRecyclerView;
     private RecyclerView sessionsRecyclerView;
+    private RecyclerView searchResultsRecyclerView;
+    private EditText searchInput;
+    private TextView sessionsHeader;
     private EditText messageInput;
     private ImageButton micButton;
     private ImageButton sendButton;
@@ -76,22 +157,58 @@ public class MainActivity extends AppCompatActivity {
 
     private MessageAdapter messageAdapter;
     private SessionAdapter sessionAdapter;
+    private SearchResultAdapter searchResultAdapter;
     private LinearLayoutManager layoutManager;
     private LinearLayoutManager sessionsLayoutManager;
     private ChatDatabaseHelper dbHelper;
+    private MessageWriteQueue writeQueue;
+    private final SessionMessageCache sessionCache = new SessionMessageCache(SESSION_CACHE_BYTES);
 
     private SpeechRecognizer speechRecognizer;
     private Intent speechRecognizerIntent;
     private ExecutorService executorService;
+    // Session list, history and search reads; never queued behind network calls or writes
+    private ExecutorService readExecutor;
+    // API calls and tool execution, so a stalled call never holds up database work
+    private ExecutorService networkExecutor;
+    // The turn in flight, UI thread only
+    private ChatTurn currentTurn;
 
     private boolean isListening = false;
     private long currentSessionId = -1;
+    private boolean isLoadingPage = false;
+    private volatile boolean isInBackground = false;
+
+    // How long onDestroy waits for background database work before closing the database
+    private static final long SHUTDOWN_TIMEOUT_MS = 2_000;
+
+    // Free pages returned to the file system per maintenance step
+    private static final int VACUUM_CHUNK_PAGES = 256;
+
+    // Sessions with no activity for this long are moved to the archive database
+    private static final long ARCHIVE_AFTER_MS = 30L * 24 * 60 * 60 * 1000;
+
+    // Days of API usage summarized in the log at startup
+    private static final int USAGE_LOG_DAYS = 7;
+
+    // Memory budget for the newest pages of recently opened sessions
+    private static final int SESSION_CACHE_BYTES = 4 * 1024 * 1024;
+
+    // Start fetching the next history page when this close to either end of the list
+    private static final int PAGE_PREFETCH_DISTANCE = 10;
+
+    // Chat history search
+    private static final long SEARCH_DEBOUNCE_MS = 250;
+    private static final int SEARCH_RESULT_LIMIT = 50;
+    private static final int SEARCH_BACKFILL_CHUNK_SIZE = 1000;
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private Runnable pendingSearch;
 
     // Pending tool calls storage
-    private JSONArray pendingMessages;
+    private ConversationPayload.Snapshot pendingHistory;
     private JSONObject pendingAssistantMessage;
     private JSONArray pendingToolCalls;
-    private StringBuilder toolResults;
+    private List<ApiCallRecord> pendingApiCalls;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -161,16 +278,37 @@ public class MainActivity extends AppCompatActivity {
 
         // Initialize executor service for background tasks
         executorService = Executors.newSingleThreadExecutor();
+        readExecutor = Executors.newSingleThreadExecutor();
+        networkExecutor = Executors.newCachedThreadPool();
 
         // Initialize API key manager
         apiKeyManager = new ApiKeyManager(this);
 
         // Initialize database
         dbHelper = new ChatDatabaseHelper(this);
+        writeQueue = new MessageWriteQueue(dbHelper);
+        writeQueue.setFlushListener((messages, sessionTitles, deletedSessionIds) -> {
+            // Title updates and deletes change the drawer, refresh it once they are committed
+            if (!sessionTitles.isEmpty() || !deletedSessionIds.isEmpty()) {
+                runOnUiThread(this::loadSessions);
+            }
+        });
 
         // Initialize tools
         initializeTools();
 
+        // Stay within the account's request quota rather than run into 429s
+        chatTransport.setRateLimiter(new RateLimiter(API_REQUEST_BURST, API_REQUESTS_PER_MINUTE, API_MAX_QUEUE_MS));
+        if (HEDGE_REQUESTS) {
+            hedgePolicy = new HedgePolicy();
+            chatTransport.setHedgePolicy(hedgePolicy);
+        }
+        if (CACHE_RESPONSES) {
+            responseCache = new ResponseCache(new File(getCacheDir(), "responses"),
+                    RESPONSE_CACHE_BYTES, RESPONSE_CACHE_TTL_MS);
+            networkExecutor.execute(responseCache::load);
+        }
+
         // Set up back press handling
         getOnBackPressedDispatcher().addCallback(this, new androidx.activity.OnBackPressedCallback(true) {
             @Override
@@ -199,6 +337,20 @@ public class MainActivity extends AppCompatActivity {
         messagesRecyclerView.setLayoutManager(layoutManager);
         messagesRecyclerView.setAdapter(messageAdapter);
 
+        // Load older / newer history pages as the user scrolls
+        messagesRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (dy < 0 && messageAdapter.hasOlderPages()
+                        && layoutManager.findFirstVisibleItemPosition() <= PAGE_PREFETCH_DISTANCE) {
+                    loadOlderPage();
+                } else if (dy > 0 && messageAdapter.hasNewerPages()
+                        && layoutManager.findLastVisibleItemPosition() >= messageAdapter.getItemCount() - 1 - PAGE_PREFETCH_DISTANCE) {
+                    loadNewerPage();
+                }
+            }
+        });
+
         // Set up tool confirmation listener
         messageAdapter.setToolConfirmationListener(new MessageAdapter.ToolConfirmationListener() {
             @Override
@@ -214,11 +366,40 @@ public class MainActivity extends AppCompatActivity {
 
         // Set up RecyclerView for sessions
         sessionAdapter = new SessionAdapter(this::onSessionClick);
+        sessionAdapter.setOnSessionLongClickListener(this::confirmDeleteSession);
         sessionsLayoutManager = new LinearLayoutManager(this);
         sessionsRecyclerView.setLayoutManager(sessionsLayoutManager);
         sessionsRecyclerView.setAdapter(sessionAdapter);
 
-        // Load sessions and create a new session if none exist
+        // Set up chat history search
+        searchInput = findViewById(R.id.searchInput);
+        sessionsHeader = findViewById(R.id.sessionsHeader);
+        searchResultsRecyclerView = findViewById(R.id.searchResultsRecyclerView);
+        searchResultAdapter = new SearchResultAdapter(result -> openSession(result.getSessionId()));
+        searchResultsRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        searchResultsRecyclerView.setAdapter(searchResultAdapter);
+        searchInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                scheduleSearch(s.toString().trim());
+            }
+        });
+
+        // Index messages from before the search index existed
+        backfillSearchIndex();
+
+        readExecutor.execute(this::logUsage);
+
+        // Remove sessions that never got a message, then load the rest
+        executorService.execute(() -> dbHelper.deleteEmptySessions());
         loadSessions();
 
         // Update empty state visibility
@@ -273,29 +454,128 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
-        executorService.execute(() -> {
-            List<Message> messages = dbHelper.getMessagesForSession(currentSessionId);
+        loadChatHistory(null);
+    }
+
+    /**
+     * Load the newest page of the current session, then run onLoaded on the UI thread
+     */
+    private void loadChatHistory(Runnable onLoaded) {
+        final long sessionId = currentSessionId;
+        final long cacheVersion = sessionCache.getVersion();
+        isLoadingPage = true;
+        readExecutor.execute(() -> {
+            // Snapshot before reading, anything committed in between will be in the page
+            List<Message> pending = writeQueue.getPendingMessages(sessionId);
+            List<Message> messages = dbHelper.getLatestMessages(sessionId, MessageAdapter.PAGE_SIZE);
+            mergePendingMessages(messages, pending);
             runOnUiThread(() -> {
+                isLoadingPage = false;
+                // Discard the page if the user switched sessions in the meantime
+                if (sessionId != currentSessionId) {
+                    return;
+                }
                 if (!messages.isEmpty()) {
                     messageAdapter.loadMessages(messages);
                     messagesRecyclerView.scrollToPosition(messageAdapter.getItemCount() - 1);
+                    sessionCache.putIfUnchanged(sessionId, messages, cacheVersion);
                 }
                 updateEmptyState();
+                if (onLoaded != null) {
+                    onLoaded.run();
+                }
             });
         });
     }
 
-    private void loadSessions() {
-        executorService.execute(() -> {
-            // Clean up empty sessions before loading
-            List<ChatSession> allSessions = dbHelper.getAllSessions();
-            for (ChatSession session : allSessions) {
-                if (session.getMessageCount() == 0) {
-                    dbHelper.deleteSession(session.getId());
+    private void loadOlderPage() {
+        Message oldest = messageAdapter.getOldestMessage();
+        if (isLoadingPage || oldest == null || currentSessionId == -1) {
+            return;
+        }
+
+        final long sessionId = currentSessionId;
+        isLoadingPage = true;
+        readExecutor.execute(() -> {
+            List<Message> page = dbHelper.getMessagesBefore(sessionId,
+                    oldest.getTimestamp(), oldest.getId(), MessageAdapter.PAGE_SIZE);
+            runOnUiThread(() -> {
+                isLoadingPage = false;
+                if (sessionId == currentSessionId && oldest == messageAdapter.getOldestMessage()) {
+                    messageAdapter.prependPage(page);
+                }
+            });
+        });
+    }
+
+    private void loadNewerPage() {
+        Message newest = messageAdapter.getNewestMessage();
+        if (isLoadingPage || newest == null || currentSessionId == -1) {
+            return;
+        }
+
+        final long sessionId = currentSessionId;
+        isLoadingPage = true;
+        readExecutor.execute(() -> {
+            List<Message> page = dbHelper.getMessagesAfter(sessionId,
+                    newest.getTimestamp(), newest.getId(), MessageAdapter.PAGE_SIZE);
+            runOnUiThread(() -> {
+                isLoadingPage = false;
+                if (sessionId == currentSessionId && newest == messageAdapter.getNewestMessage()) {
+                    messageAdapter.appendPage(page);
                 }
+            });
+        });
+    }
+
+    /**
+     * Append queued messages that were not yet committed when the page was read
+     */
+    private void mergePendingMessages(List<Message> messages, List<Message> pending) {
+        Set<Long> loadedIds = new HashSet<>();
+        for (Message message : messages) {
+            loadedIds.add(message.getId());
+        }
+        for (Message message : pending) {
+            if (message.getId() == -1 || !loadedIds.contains(message.getId())) {
+                messages.add(message);
             }
-            
-            // Reload sessions after cleanup
+        }
+    }
+
+    /**
+     * The newest messages of a session, oldest first, paged back from the database until they
+     * fill budgetTokens. The adapter is not used, it only holds the pages around the scroll position.
+     */
+    private List<Message> readHistory(long sessionId, int budgetTokens) {
+        // Snapshot before reading, anything committed in between will be in the page
+        List<Message> pending = writeQueue.getPendingMessages(sessionId);
+        List<Message> page = dbHelper.getLatestMessages(sessionId, MessageAdapter.PAGE_SIZE);
+        List<Message> history = new ArrayList<>(page);
+        mergePendingMessages(history, pending);
+
+        // Token counts are stored with each row, paging back does not decode any bodies
+        int tokens = countTokens(history);
+        while (tokens < budgetTokens && page.size() == MessageAdapter.PAGE_SIZE) {
+            Message oldest = history.get(0);
+            page = dbHelper.getMessagesBefore(sessionId, oldest.getTimestamp(), oldest.getId(),
+                    MessageAdapter.PAGE_SIZE);
+            history.addAll(0, page);
+            tokens += countTokens(page);
+        }
+        return history;
+    }
+
+    private static int countTokens(List<Message> messages) {
+        int tokens = 0;
+        for (Message message : messages) {
+            tokens += message.getTokenCount();
+        }
+        return tokens;
+    }
+
+    private void loadSessions() {
+        readExecutor.execute(() -> {
             List<ChatSession> sessions = dbHelper.getAllSessions();
             runOnUiThread(() -> {
                 sessionAdapter.setSessions(sessions);
@@ -306,6 +586,9 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void createNewSession() {
+        cacheCurrentSession();
+        cancelCurrentTurn();
+
         // Clear current messages without creating a session yet
         currentSessionId = -1;
         messageAdapter.clearAll();
@@ -315,46 +598,272 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void onSessionClick(ChatSession session) {
-        currentSessionId = session.getId();
+        openSession(session.getId(), session.isArchived());
+        session.setArchived(false);
+    }
+
+    private void openSession(long sessionId) {
+        openSession(sessionId, false);
+    }
+
+    private void openSession(long sessionId, boolean archived) {
+        cacheCurrentSession();
+        cancelCurrentTurn();
+
+        currentSessionId = sessionId;
         sessionAdapter.setSelectedSessionId(currentSessionId);
-        
-        // Clear current messages
-        messageAdapter.clearAll();
-        
-        // Load messages for selected session
-        loadChatHistory();
+
+        // Archived sessions always go through rehydration, the cache may predate the archiving
+        List<Message> cached = archived ? null : sessionCache.get(sessionId);
+        if (cached != null) {
+            // Render in this frame, no database round trip
+            isLoadingPage = false;
+            messageAdapter.loadMessages(cached);
+            messagesRecyclerView.scrollToPosition(messageAdapter.getItemCount() - 1);
+            updateEmptyState();
+        } else {
+            // Clear current messages
+            messageAdapter.clearAll();
+
+            if (archived) {
+                // A write, so it goes through the write queue, and the history is read once it has landed
+                isLoadingPage = true;
+                writeQueue.submitWrite(() -> dbHelper.rehydrateSession(sessionId))
+                        .whenComplete((ignored, error) -> {
+                            if (error != null) {
+                                android.util.Log.e("CACTUS_API", "Failed to rehydrate session " + sessionId, error);
+                            }
+                            runOnUiThread(() -> {
+                                if (sessionId == currentSessionId) {
+                                    loadChatHistory();
+                                }
+                            });
+                        });
+            } else {
+                // Load messages for selected session
+                loadChatHistory();
+            }
+        }
         
         // Close drawer
         drawerLayout.closeDrawer(GravityCompat.START);
     }
 
-    private void updateSessionTitle() {
-        if (currentSessionId == -1 || messageAdapter.getItemCount() == 0) {
+    /**
+     * Keep the newest page of the session being left, so switching back to it is instant.
+     * Skipped while a turn is in flight, its result will change the page anyway.
+     */
+    private void cacheCurrentSession() {
+        // A turn is in flight until its answer is shown, or waiting on the user to confirm its tool calls
+        if (currentSessionId == -1 || messageAdapter.hasNewerPages() || currentTurn != null
+                || pendingToolCalls != null) {
+            return;
+        }
+
+        List<Message> page = new ArrayList<>();
+        for (Message message : messageAdapter.getMessages()) {
+            // Tool progress lines are never persisted, the cached page matches what a reload shows
+            if (message.getMessageType() != Message.TYPE_TOOL) {
+                page.add(message);
+            }
+        }
+        if (!page.isEmpty()) {
+            sessionCache.put(currentSessionId, page.subList(Math.max(0, page.size() - MessageAdapter.PAGE_SIZE), page.size()));
+        }
+    }
+
+    /**
+     * Start a turn in the current session
+     */
+    private ChatTurn startTurn() {
+        currentTurn = new ChatTurn(currentSessionId);
+        return currentTurn;
+    }
+
+    /**
+     * A turn's result has been shown, the user can send again
+     */
+    private void endTurn(ChatTurn turn) {
+        if (currentTurn == turn) {
+            currentTurn = null;
+        }
+        sendButton.setEnabled(true);
+    }
+
+    /**
+     * Abort the turn in flight and any tool confirmation waiting for the user.
+     * Whatever the turn still delivers is dropped rather than shown in another session.
+     */
+    private void cancelCurrentTurn() {
+        if (currentTurn != null) {
+            android.util.Log.d("CACTUS_API", "Cancelling turn in session " + currentTurn.getSessionId());
+            currentTurn.cancel();
+            // The calls it made so far still cost tokens
+            saveApiCalls(currentTurn.takeApiCalls(), null);
+            currentTurn = null;
+        }
+        if (pendingApiCalls != null) {
+            saveApiCalls(pendingApiCalls, null);
+        }
+        pendingHistory = null;
+        pendingAssistantMessage = null;
+        pendingToolCalls = null;
+        pendingApiCalls = null;
+        sendButton.setEnabled(true);
+    }
+
+    /**
+     * Save a message through the write queue and drop the now stale cached page of its session
+     */
+    private void saveMessage(Message message) {
+        sessionCache.invalidate(message.getSessionId());
+        writeQueue.enqueueMessage(message);
+    }
+
+    /**
+     * Save the usage records of a turn's API calls through the write queue
+     * @param message The message the calls ended in, or null if none was saved
+     */
+    private void saveApiCalls(List<ApiCallRecord> apiCalls, Message message) {
+        for (ApiCallRecord apiCall : apiCalls) {
+            apiCall.setMessage(message);
+        }
+        writeQueue.enqueueApiCalls(apiCalls);
+    }
+
+    /**
+     * Log the API usage of the last days and the latency percentiles
+     */
+    private void logUsage() {
+        long since = System.currentTimeMillis() - USAGE_LOG_DAYS * 24L * 60 * 60 * 1000;
+        for (UsageSummary day : dbHelper.getDailyUsage(since)) {
+            android.util.Log.d("CACTUS_API", "Usage " + day);
+        }
+        android.util.Log.d("CACTUS_API", "Time to headers: " + dbHelper.getLatencyPercentiles(
+                ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_TTFB_MS, since));
+        android.util.Log.d("CACTUS_API", "Total call time: " + dbHelper.getLatencyPercentiles(
+                ChatDatabaseContract.ApiCallEntry.COLUMN_NAME_TOTAL_MS, since));
+    }
+
+    /**
+     * Run a history search once the user stops typing
+     */
+    private void scheduleSearch(String query) {
+        if (pendingSearch != null) {
+            searchHandler.removeCallbacks(pendingSearch);
+        }
+
+        if (query.isEmpty()) {
+            showSearchResults(false);
             return;
         }
 
+        pendingSearch = () -> readExecutor.execute(() -> {
+            List<SearchResult> results = dbHelper.search(query, SEARCH_RESULT_LIMIT, 0);
+            runOnUiThread(() -> {
+                // Drop results for a query the user has already changed
+                if (!query.equals(searchInput.getText().toString().trim())) {
+                    return;
+                }
+                searchResultAdapter.setResults(results);
+                showSearchResults(true);
+            });
+        });
+        searchHandler.postDelayed(pendingSearch, SEARCH_DEBOUNCE_MS);
+    }
+
+    private void showSearchResults(boolean show) {
+        searchResultsRecyclerView.setVisibility(show ? View.VISIBLE : View.GONE);
+        sessionsRecyclerView.setVisibility(show ? View.GONE : View.VISIBLE);
+        sessionsHeader.setText(show ? R.string.search_results : R.string.chat_history);
+    }
+
+    /**
+     * Index pre-existing messages one chunk per executor task so other work can run in between
+     */
+    private void backfillSearchIndex() {
         executorService.execute(() -> {
-            List<Message> messages = messageAdapter.getMessages();
-            
-            // Find the first user message to use as title
-            String title = "New Chat";
-            for (Message msg : messages) {
-                if (msg.isUser() && !msg.getContent().isEmpty()) {
-                    title = msg.getContent();
-                    if (title.length() > 30) {
-                        title = title.substring(0, 30) + "...";
+            if (!dbHelper.backfillSearchIndex(SEARCH_BACKFILL_CHUNK_SIZE) && !executorService.isShutdown()) {
+                backfillSearchIndex();
+            }
+        });
+    }
+
+    private void confirmDeleteSession(ChatSession session) {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.delete_session_title)
+                .setMessage(getString(R.string.delete_session_message, session.getTitle()))
+                .setPositiveButton(R.string.delete, (dialog, which) -> {
+                    if (session.getId() == currentSessionId) {
+                        createNewSession();
                     }
-                    break;
-                }
+                    // Runs on the write queue's thread, the cascade never holds up the executor
+                    sessionCache.invalidate(session.getId());
+                    writeQueue.enqueueSessionDeletes(Collections.singletonList(session.getId()));
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Archive cold sessions one per executor task while the app is in the background,
+     * then reclaim the space they leave behind in the chat database
+     */
+    private void archiveColdSessions(long untouchedSince, long excludedSessionId, boolean archivedAny) {
+        executorService.execute(() -> {
+            if (!isInBackground || executorService.isShutdown()) {
+                return;
+            }
+            if (!dbHelper.archiveColdSession(untouchedSince, excludedSessionId)) {
+                archiveColdSessions(untouchedSince, excludedSessionId, true);
+                return;
+            }
+            if (archivedAny) {
+                // The drawer has to know which sessions need rehydrating when opened,
+                // and cached pages must not let an archived session be opened without it
+                runOnUiThread(() -> {
+                    sessionCache.clear();
+                    loadSessions();
+                });
             }
-            
-            final String finalTitle = title;
-            dbHelper.updateSessionTitle(currentSessionId, finalTitle);
-            
-            runOnUiThread(() -> loadSessions());
+            reclaimDatabaseSpace();
         });
     }
 
+    /**
+     * Reclaim free database pages a chunk at a time while the app is in the background
+     */
+    private void reclaimDatabaseSpace() {
+        executorService.execute(() -> {
+            if (isInBackground && !dbHelper.reclaimFreeSpace(VACUUM_CHUNK_PAGES) && !executorService.isShutdown()) {
+                reclaimDatabaseSpace();
+            }
+        });
+    }
+
+    private void updateSessionTitle() {
+        if (currentSessionId == -1 || messageAdapter.getItemCount() == 0) {
+            return;
+        }
+
+        List<Message> messages = messageAdapter.getMessages();
+
+        // Find the first user message to use as title
+        String title = "New Chat";
+        for (Message msg : messages) {
+            if (msg.isUser() && !msg.getContent().isEmpty()) {
+                title = msg.getContent();
+                if (title.length() > 30) {
+                    title = title.substring(0, 30) + "...";
+                }
+                break;
+            }
+        }
+
+        // The drawer is refreshed by the flush listener once this is committed
+        writeQueue.enqueueTitleUpdate(currentSessionId, title);
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
@@ -496,6 +1005,9 @@ public class MainActivity extends AppCompatActivity {
                     loadSessions(); // Refresh the sessions list
                 });
             });
+        } else if (messageAdapter.hasNewerPages()) {
+            // The newest messages were evicted while scrolling back, reload them before appending
+            loadChatHistory(() -> sendMessage(messageText));
         } else {
             sendMessage(messageText);
         }
@@ -511,32 +1023,39 @@ public class MainActivity extends AppCompatActivity {
 
         // Save user message to database
         final boolean isFirstMessage = messageAdapter.getItemCount() == 1;
-        executorService.execute(() -> {
-            long id = dbHelper.insertMessage(userMessage);
-            userMessage.setId(id);
-            
-            // Update session title with first user message
-            if (isFirstMessage) {
-                runOnUiThread(() -> updateSessionTitle());
-            }
-        });
+        saveMessage(userMessage);
+
+        // Update session title with first user message
+        if (isFirstMessage) {
+            updateSessionTitle();
+        }
 
         // Clear input and disable send button
         messageInput.setText("");
         sendButton.setEnabled(false);
 
+        if (LOCAL_INTENTS && confirmLocally(messageText)) {
+            return;
+        }
+
         // Add "typing" indicator
         Message typingMessage = new Message("typing", false);
         messageAdapter.addMessage(typingMessage);
         messagesRecyclerView.scrollToPosition(messageAdapter.getItemCount() - 1);
 
         final String userMessageText = messageText;
+        final ChatTurn turn = startTurn();
+        final LiveReply liveReply = new LiveReply(turn, true);
 
-        executorService.execute(() -> {
+        turn.setTask(networkExecutor.submit(() -> {
             try {
-                String response = callOpenAI(userMessageText);
+                String response = callOpenAI(userMessageText, liveReply, turn);
 
                 runOnUiThread(() -> {
+                    if (turn.isCancelled()) {
+                        // The user moved on, the reply belongs to nothing on screen
+                        return;
+                    }
                     android.util.Log.d("CACTUS_API", "sendMessage callback - response: '" + response + "'");
                     // If response is empty, tool confirmation is already showing
                     // The typing indicator was already removed in handleToolCalls
@@ -547,100 +1066,239 @@ public class MainActivity extends AppCompatActivity {
                     }
 
                     android.util.Log.d("CACTUS_API", "Response has content, adding agent message");
-                    // Remove typing indicator
-                    messageAdapter.removeLastMessage();
+                    // Replace the typing indicator, or complete the streamed message, with the full text
+                    Message agentMessage = liveReply.finish(response);
 
-                    // Add agent response
-                    Message agentMessage = new Message(response, false);
-                    agentMessage.setSessionId(currentSessionId);
-                    messageAdapter.addMessage(agentMessage);
-                    messagesRecyclerView.scrollToPosition(messageAdapter.getItemCount() - 1);
-
-                    // Save agent message to database
-                    executorService.execute(() -> {
-                        long id = dbHelper.insertMessage(agentMessage);
-                        agentMessage.setId(id);
-                    });
+                    // Save agent message to database, once the reply is complete
+                    saveMessage(agentMessage);
+                    saveApiCalls(turn.takeApiCalls(), agentMessage);
 
-                    sendButton.setEnabled(true);
+                    endTurn(turn);
                 });
 
             } catch (Exception e) {
                 runOnUiThread(() -> {
-                    // Remove typing indicator
-                    messageAdapter.removeLastMessage();
+                    if (turn.isCancelled()) {
+                        // Most likely the abort itself
+                        return;
+                    }
+
+                    // Remove typing indicator or the partly streamed reply
+                    liveReply.discard();
 
                     // Add error message
                     Message errorMessage = new Message(getString(R.string.error_api_call, e.getMessage()), false);
-                    errorMessage.setSessionId(currentSessionId);
+                    errorMessage.setSessionId(turn.getSessionId());
                     messageAdapter.addMessage(errorMessage);
                     messagesRecyclerView.scrollToPosition(messageAdapter.getItemCount() - 1);
 
                     // Save error message to database
-                    executorService.execute(() -> {
-                        long id = dbHelper.insertMessage(errorMessage);
-                        errorMessage.setId(id);
-                    });
+                    saveMessage(errorMessage);
+                    saveApiCalls(turn.takeApiCalls(), errorMessage);
 
-                    sendButton.setEnabled(true);
+                    endTurn(turn);
                 });
             }
-        });
+        }));
+    }
+
+    /**
+     * Recognize a common alarm or call request on the device and show its confirmation card
+     * right away. Its result is answered locally too, see handleToolConfirmation.
+     * @return false if the message should go to the model
+     */
+    private boolean confirmLocally(String messageText) {
+        long startNanos = System.nanoTime();
+        LocalIntentRecognizer.Match match = localIntentRecognizer.recognize(messageText, System.currentTimeMillis());
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        if (match == null) {
+            android.util.Log.d("CACTUS_API", "No local intent (" + micros + " µs), asking the model");
+            return false;
+        }
+
+        JSONArray toolCalls;
+        List<ToolCall> calls;
+        try {
+            // Shaped like the model's tool calls, so confirmation and execution are shared
+            JSONObject function = new JSONObject();
+            function.put("name", match.getToolName());
+            function.put("arguments", match.toArguments().toString());
+            JSONObject toolCall = new JSONObject();
+            toolCall.put("id", "local_" + (++localToolCallCount));
+            toolCall.put("type", "function");
+            toolCall.put("function", function);
+            toolCalls = new JSONArray().put(toolCall);
+            // The tool would reject it, let the model handle the request instead
+            if (validateToolCalls(null, toolCalls) != null) {
+                return false;
+            }
+            calls = ToolCall.fromJSONArray(toolCalls);
+        } catch (Exception e) {
+            android.util.Log.e("CACTUS_API", "Local tool call could not be built", e);
+            return false;
+        }
+        android.util.Log.d("CACTUS_API", "Recognized " + match + " on the device in " + micros +
+                " µs, no API call");
+
+        // No history or assistant message: the result is answered without the model
+        pendingHistory = null;
+        pendingAssistantMessage = null;
+        pendingToolCalls = toolCalls;
+        pendingApiCalls = new ArrayList<>();
+        showToolConfirmation(currentSessionId, toolCalls, calls);
+        return true;
     }
 
     /**
      * Initialize available tools
      */
     private void initializeTools() {
-        availableTools.add(new AlarmTool(this));
-        availableTools.add(new PhoneCallTool(this));
-        android.util.Log.d("CACTUS_API", "Initialized " + availableTools.size() + " tools");
+        toolRegistry = new ToolRegistry(Arrays.asList(new AlarmTool(this), new PhoneCallTool(this)));
+        toolExecutor = new ToolExecutor(toolRegistry, TOOL_POOL_SIZE, TOOL_TIMEOUT_MS);
+        toolDefinitionTokens = TokenEstimator.countTokens(toolRegistry.getPayload().toString());
+        android.util.Log.d("CACTUS_API", "Initialized " + toolRegistry.size() + " tools");
     }
 
     /**
-     * Build conversation history for the API
+     * Build conversation history for the API: the system prompt and the newest messages
+     * of a session that fit in the token budget, serialized. Only messages added since the
+     * previous turn are encoded.
+     * @param sessionId The turn's session, taken on the UI thread when it started
      */
-    private JSONArray buildConversationHistory() throws Exception {
-        JSONArray messages = new JSONArray();
-
-        // Add system message
-        JSONObject systemMessage = new JSONObject();
-        systemMessage.put("role", "system");
-        systemMessage.put("content", "You are a helpful assistant. Always respond in a friendly and helpful tone. Keep your answers concise and to the point. You have access to tools for setting alarms and making phone calls on the device. After successfully using a tool, provide a brief confirmation of what action was completed.");
-        messages.put(systemMessage);
-
-        // Add conversation history from the current session
-        List<Message> history = messageAdapter.getMessages();
-        for (Message msg : history) {
-            // Skip typing indicators and tool messages
-            if (msg.getContent().equals("typing") || msg.getMessageType() == Message.TYPE_TOOL) {
-                continue;
+    private ConversationPayload.Snapshot buildConversationHistory(long sessionId) {
+        int budget = CONTEXT_BUDGET_TOKENS - TokenEstimator.countMessageTokens(SYSTEM_PROMPT)
+                - TokenEstimator.REPLY_PRIMING_TOKENS;
+        // With a margin for estimates that run low, see ContextWindow
+        int estimatedBudget = contextWindow.estimateBudget(budget);
+        List<Message> history = readHistory(sessionId, estimatedBudget);
+
+        // A turn still finishing in another session must not interleave with this one
+        synchronized (historyLock) {
+            List<Message> window = contextWindow.select(sessionId, history, estimatedBudget);
+            ConversationPayload.Snapshot snapshot = conversationPayload.update(sessionId, window);
+
+            android.util.Log.d("CACTUS_API", "Context: " + window.size() + " messages, ~"
+                    + contextWindow.getWindowTokens() + " history tokens of " + estimatedBudget + " (calibration "
+                    + String.format("%.2f", contextWindow.getCalibration()) + ")");
+            return snapshot;
+        }
+    }
+
+    /**
+     * Shows an agent reply as it streams in. The first delta replaces the typing indicator,
+     * later ones update the same item's text only. Updates are coalesced to one pending
+     * UI post at a time, however fast deltas arrive.
+     */
+    private final class LiveReply implements ChatCompletionStream.Listener {
+        private final ChatTurn turn;
+        private final long sessionId;
+        private final boolean replacesTypingIndicator;
+
+        private final StringBuilder text = new StringBuilder();
+        private final AtomicBoolean renderPosted = new AtomicBoolean();
+
+        // UI thread only
+        private Message message;
+        private boolean finished;
+
+        LiveReply(ChatTurn turn, boolean replacesTypingIndicator) {
+            this.turn = turn;
+            this.sessionId = turn.getSessionId();
+            this.replacesTypingIndicator = replacesTypingIndicator;
+        }
+
+        @Override
+        public void onContentDelta(String delta) {
+            synchronized (text) {
+                text.append(delta);
+            }
+            if (renderPosted.compareAndSet(false, true)) {
+                runOnUiThread(this::render);
             }
+        }
 
-            // Skip messages with null or empty content
-            String content = msg.getContent();
-            if (content == null || content.trim().isEmpty()) {
-                continue;
+        private void render() {
+            renderPosted.set(false);
+            // The user may have moved to another session while the reply was streaming
+            if (finished || turn.isCancelled() || sessionId != currentSessionId) {
+                return;
+            }
+            String snapshot;
+            synchronized (text) {
+                snapshot = text.toString();
+            }
+            if (message == null) {
+                show(snapshot);
+            } else {
+                message.setContent(snapshot);
+                messageAdapter.notifyContentChanged(message);
             }
+            messagesRecyclerView.scrollToPosition(messageAdapter.getItemCount() - 1);
+        }
 
-            JSONObject messageObj = new JSONObject();
-            messageObj.put("role", msg.isUser() ? "user" : "assistant");
-            messageObj.put("content", content);
-            messages.put(messageObj);
+        private void show(String content) {
+            if (replacesTypingIndicator) {
+                messageAdapter.removeLastMessage();
+            }
+            message = new Message(content, false);
+            message.setSessionId(sessionId);
+            messageAdapter.addMessage(message);
         }
 
-        return messages;
+        /**
+         * Show the complete reply text
+         * @return The message to persist
+         */
+        Message finish(String content) {
+            finished = true;
+            if (message == null) {
+                if (sessionId == currentSessionId) {
+                    show(content);
+                    messagesRecyclerView.scrollToPosition(messageAdapter.getItemCount() - 1);
+                } else {
+                    message = new Message(content, false);
+                    message.setSessionId(sessionId);
+                }
+            } else {
+                message.setContent(content);
+                messageAdapter.notifyContentChanged(message);
+            }
+            return message;
+        }
+
+        /**
+         * Remove the typing indicator or the partly streamed reply after a failure
+         */
+        void discard() {
+            finished = true;
+            if (turn.isCancelled() || sessionId != currentSessionId) {
+                return;
+            }
+            if (message != null || replacesTypingIndicator) {
+                messageAdapter.removeLastMessage();
+            }
+        }
     }
 
     /**
      * Call OpenAI Chat Completions API with function calling
+     * @param liveReply Receives the reply text as it streams in
+     * @param turn Cancelling it aborts the call
      */
-    private String callOpenAI(String userMessage) throws Exception {
-        JSONArray messages = buildConversationHistory();
+    private String callOpenAI(String userMessage, LiveReply liveReply, ChatTurn turn) throws Exception {
+        ConversationPayload.Snapshot history = buildConversationHistory(turn.getSessionId());
 
         // Make initial API call
-        JSONObject response = callChatCompletionsAPI(messages);
+        JSONObject response = callChatCompletionsAPI(history, null, ChatTransport.RequestClass.CHAT, liveReply, turn);
+        return handleResponse(history, response, liveReply, turn, 0);
+    }
 
+    /**
+     * Return the text of a response, or show the confirmation card for its tool calls
+     * @param reprompts Times the arguments of this turn's tool calls were sent back as invalid
+     */
+    private String handleResponse(ConversationPayload.Snapshot history, JSONObject response, LiveReply liveReply,
+                                  ChatTurn turn, int reprompts) throws Exception {
         // Check if response contains tool calls
         JSONArray choices = response.getJSONArray("choices");
         if (choices.length() == 0) {
@@ -654,7 +1312,16 @@ public class MainActivity extends AppCompatActivity {
         if (message.has("tool_calls")) {
             JSONArray toolCalls = message.getJSONArray("tool_calls");
             android.util.Log.d("CACTUS_API", "Tool calls detected: " + toolCalls.toString());
-            return handleToolCalls(messages, message, toolCalls);
+
+            // Catch bad arguments before the user confirms them, not after a round trip
+            JSONArray toolExchange = validateToolCalls(message, toolCalls);
+            if (toolExchange != null && reprompts < MAX_ARGUMENT_REPROMPTS) {
+                android.util.Log.d("CACTUS_API", "Invalid tool arguments, asking the model again");
+                JSONObject retried = callChatCompletionsAPI(history, toolExchange,
+                        ChatTransport.RequestClass.TOOL_FOLLOW_UP, liveReply, turn);
+                return handleResponse(history, retried, liveReply, turn, reprompts + 1);
+            }
+            return handleToolCalls(history, message, toolCalls, turn);
         }
 
         // No tool calls, return the response directly
@@ -664,40 +1331,90 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Handle tool calls and get final response
+     * Check each tool call's arguments with its tool's validator. Repaired arguments replace the
+     * originals in the assistant message, so the history matches what is run.
+     * @return null if every call is valid, else the assistant message followed by a structured
+     *         error for each call, to send back to the model
      */
-    private String handleToolCalls(JSONArray messages, JSONObject assistantMessage, JSONArray toolCalls) throws Exception {
-        android.util.Log.d("CACTUS_API", "handleToolCalls called with " + toolCalls.length() + " tool calls");
-
-        // Store pending tool calls for confirmation
-        pendingMessages = messages;
-        pendingAssistantMessage = assistantMessage;
-        pendingToolCalls = toolCalls;
+    private JSONArray validateToolCalls(JSONObject assistantMessage, JSONArray toolCalls) throws Exception {
+        long startNanos = System.nanoTime();
+        String[] errors = new String[toolCalls.length()];
+        boolean valid = true;
+        for (int i = 0; i < toolCalls.length(); i++) {
+            JSONObject function = toolCalls.getJSONObject(i).getJSONObject("function");
+            String name = function.optString("name");
+            ToolArgumentValidator validator = toolRegistry.getValidator(name);
+            JSONObject arguments;
+            try {
+                arguments = new JSONObject(function.optString("arguments"));
+            } catch (JSONException e) {
+                arguments = null;
+            }
 
-        // Show confirmation UI for the first tool call
-        JSONObject toolCallObj = toolCalls.getJSONObject(0);
-        JSONObject function = toolCallObj.getJSONObject("function");
-        String functionName = function.getString("name");
-        JSONObject arguments = new JSONObject(function.getString("arguments"));
+            if (validator == null) {
+                errors[i] = "Unknown tool: " + name;
+            } else if (arguments == null) {
+                errors[i] = "Arguments are not a JSON object";
+            } else {
+                ToolArgumentValidator.Result result = validator.validate(arguments);
+                if (!result.isValid()) {
+                    errors[i] = TextUtils.join("; ", result.getErrors());
+                } else if (result.isRepaired()) {
+                    android.util.Log.d("CACTUS_API", "Repaired arguments of " + name + ": " + result.getArguments());
+                    function.put("arguments", result.getArguments().toString());
+                }
+            }
+            valid &= errors[i] == null;
+        }
+        android.util.Log.d("CACTUS_API", "Validated " + toolCalls.length() + " tool calls in " +
+                (System.nanoTime() - startNanos) / 1000 + " µs");
+        if (valid) {
+            return null;
+        }
 
-        android.util.Log.d("CACTUS_API", "Tool call: " + functionName + " with args: " + arguments.toString());
+        // Every call needs an answer, the valid ones were not run either
+        JSONArray toolExchange = new JSONArray();
+        toolExchange.put(assistantMessage);
+        for (int i = 0; i < toolCalls.length(); i++) {
+            String toolCallId = toolCalls.getJSONObject(i).getString("id");
+            ToolResult result = errors[i] != null
+                    ? new ToolResult(toolCallId, ToolResult.ERROR_INVALID_ARGUMENTS, errors[i])
+                    : new ToolResult(toolCallId, ToolResult.ERROR_CANCELLED,
+                            "Not run because another call in this reply has invalid arguments");
+            android.util.Log.d("CACTUS_API", "Tool call " + toolCallId + ": " + result.getError());
+            JSONObject toolResultMessage = new JSONObject();
+            toolResultMessage.put("role", "tool");
+            toolResultMessage.put("tool_call_id", toolCallId);
+            toolResultMessage.put("content", result.toToolMessageContent());
+            toolExchange.put(toolResultMessage);
+        }
+        return toolExchange;
+    }
 
-        // Format the confirmation message
-        final String confirmationText = formatToolConfirmation(functionName, arguments);
-        android.util.Log.d("CACTUS_API", "Confirmation text: " + confirmationText);
+    /**
+     * Handle tool calls and get final response
+     */
+    private String handleToolCalls(ConversationPayload.Snapshot history, JSONObject assistantMessage,
+                                   JSONArray toolCalls, ChatTurn turn) throws Exception {
+        android.util.Log.d("CACTUS_API", "handleToolCalls called with " + toolCalls.length() + " tool calls");
+        List<ToolCall> calls = ToolCall.fromJSONArray(toolCalls);
 
         runOnUiThread(() -> {
+            if (turn.isCancelled()) {
+                return;
+            }
+
+            // Store pending tool calls for confirmation
+            pendingHistory = history;
+            pendingAssistantMessage = assistantMessage;
+            pendingToolCalls = toolCalls;
+            pendingApiCalls = turn.takeApiCalls();
+
             android.util.Log.d("CACTUS_API", "Removing typing indicator and showing confirmation UI");
             // Remove typing indicator first
             messageAdapter.removeLastMessage();
 
-            // Add tool confirmation message
-            Message confirmMessage = new Message(confirmationText, Message.TYPE_TOOL_CONFIRMATION);
-            confirmMessage.setSessionId(currentSessionId);
-            confirmMessage.setToolCallData(toolCallObj);
-            messageAdapter.addMessage(confirmMessage);
-            messagesRecyclerView.scrollToPosition(messageAdapter.getItemCount() - 1);
-            android.util.Log.d("CACTUS_API", "Tool confirmation UI added to adapter");
+            showToolConfirmation(turn.getSessionId(), toolCalls, calls);
         });
 
         // Return empty string to indicate we're waiting for confirmation
@@ -706,6 +1423,32 @@ public class MainActivity extends AppCompatActivity {
         return "";
     }
 
+    /**
+     * Add one confirmation card for the whole batch, listing every call
+     */
+    private void showToolConfirmation(long sessionId, JSONArray toolCalls, List<ToolCall> calls) {
+        StringBuilder confirmation = new StringBuilder();
+        for (int i = 0; i < calls.size(); i++) {
+            ToolCall call = calls.get(i);
+            android.util.Log.d("CACTUS_API", "Tool call: " + call.getName() + " with args: " + call.getArguments());
+            if (i > 0) {
+                confirmation.append('\n');
+            }
+            if (calls.size() > 1) {
+                confirmation.append(i + 1).append(". ");
+            }
+            confirmation.append(formatToolConfirmation(call.getName(), call.getArguments()));
+        }
+        android.util.Log.d("CACTUS_API", "Confirmation text: " + confirmation);
+
+        Message confirmMessage = new Message(confirmation.toString(), Message.TYPE_TOOL_CONFIRMATION);
+        confirmMessage.setSessionId(sessionId);
+        confirmMessage.setToolCallData(toolCalls);
+        messageAdapter.addMessage(confirmMessage);
+        messagesRecyclerView.scrollToPosition(messageAdapter.getItemCount() - 1);
+        android.util.Log.d("CACTUS_API", "Tool confirmation UI added to adapter");
+    }
+
     /**
      * Format tool call information for confirmation message
      */
@@ -760,46 +1503,71 @@ public class MainActivity extends AppCompatActivity {
             messagesRecyclerView.scrollToPosition(messageAdapter.getItemCount() - 1);
 
             // Save rejection message to database
-            executorService.execute(() -> {
-                long id = dbHelper.insertMessage(rejectionMessage);
-                rejectionMessage.setId(id);
-            });
+            saveMessage(rejectionMessage);
+            saveApiCalls(pendingApiCalls, rejectionMessage);
 
+            pendingHistory = null;
+            pendingAssistantMessage = null;
+            pendingToolCalls = null;
+            pendingApiCalls = null;
             sendButton.setEnabled(true);
             return;
         }
 
         android.util.Log.d("CACTUS_API", "User confirmed tool call - starting execution");
 
+        // Hand the pending calls over to the turn, cancelling it clears the fields
+        final ConversationPayload.Snapshot history = pendingHistory;
+        final JSONObject assistantMessage = pendingAssistantMessage;
+        final JSONArray toolCalls = pendingToolCalls;
+        final List<ApiCallRecord> apiCalls = pendingApiCalls;
+        // Recognized on the device, see confirmLocally
+        final boolean local = history == null;
+        pendingHistory = null;
+        pendingAssistantMessage = null;
+        pendingToolCalls = null;
+        pendingApiCalls = null;
+
         // User confirmed - execute the tool calls
-        executorService.execute(() -> {
+        final ChatTurn turn = startTurn();
+        // The call that asked for the tools is accounted with the reply that follows them
+        turn.addApiCalls(apiCalls);
+        final LiveReply liveReply = new LiveReply(turn, false);
+        turn.setTask(networkExecutor.submit(() -> {
             try {
                 // Initialize tool results storage
-                toolResults = new StringBuilder();
-
-                // Add assistant message with tool calls to history
-                pendingMessages.put(pendingAssistantMessage);
+                StringBuilder toolResults = new StringBuilder();
 
-                // Execute each tool call
-                for (int i = 0; i < pendingToolCalls.length(); i++) {
-                    JSONObject toolCallObj = pendingToolCalls.getJSONObject(i);
-                    String toolCallId = toolCallObj.getString("id");
-                    JSONObject function = toolCallObj.getJSONObject("function");
-                    String functionName = function.getString("name");
-                    JSONObject arguments = new JSONObject(function.getString("arguments"));
+                // The assistant message with tool calls and their results follow the history
+                JSONArray toolExchange = new JSONArray();
+                if (!local) {
+                    toolExchange.put(assistantMessage);
+                }
 
-                    // Show tool execution in UI
-                    final String toolName = functionName;
-                    runOnUiThread(() -> {
-                        Message toolMessage = new Message("🔧 Using " + toolName + "...", Message.TYPE_TOOL);
-                        toolMessage.setSessionId(currentSessionId);
-                        messageAdapter.addMessage(toolMessage);
-                        messagesRecyclerView.scrollToPosition(messageAdapter.getItemCount() - 1);
-                    });
+                // Show the tools in use once for the whole batch
+                List<ToolCall> calls = ToolCall.fromJSONArray(toolCalls);
+                Set<String> toolNames = new LinkedHashSet<>();
+                for (ToolCall call : calls) {
+                    toolNames.add(call.getName());
+                }
+                runOnUiThread(() -> {
+                    if (turn.isCancelled()) {
+                        return;
+                    }
+                    Message toolMessage = new Message("🔧 Using " + TextUtils.join(", ", toolNames) + "...",
+                            Message.TYPE_TOOL);
+                    toolMessage.setSessionId(turn.getSessionId());
+                    messageAdapter.addMessage(toolMessage);
+                    messagesRecyclerView.scrollToPosition(messageAdapter.getItemCount() - 1);
+                });
 
-                    // Execute the tool
-                    ToolResult toolResult = executeTool(functionName, arguments);
+                // Run the approved calls concurrently, results come back in the order of the calls
+                long toolStartNanos = System.nanoTime();
+                List<ToolResult> results = toolExecutor.executeAll(calls, turn);
+                android.util.Log.d("CACTUS_API", "Ran " + calls.size() + " tool calls in " +
+                        (System.nanoTime() - toolStartNanos) / 1_000_000 + " ms");
 
+                for (ToolResult toolResult : results) {
                     // Get the content (result or error message)
                     String toolContent = toolResult.isSuccess()
                         ? toolResult.getResult()
@@ -816,29 +1584,39 @@ public class MainActivity extends AppCompatActivity {
                     }
                     toolResults.append(toolContent);
 
-                    // Add tool result to messages
+                    // Add tool result to messages, failures as a structured error with their kind
                     JSONObject toolResultMessage = new JSONObject();
                     toolResultMessage.put("role", "tool");
-                    toolResultMessage.put("tool_call_id", toolCallId);
-                    toolResultMessage.put("content", toolContent);
-                    pendingMessages.put(toolResultMessage);
+                    toolResultMessage.put("tool_call_id", toolResult.getToolCallId());
+                    toolResultMessage.put("content", toolResult.isSuccess() ? toolContent
+                            : toolResult.toToolMessageContent());
+                    toolExchange.put(toolResultMessage);
+                }
 
-                    // Remove tool execution message from UI
-                    runOnUiThread(() -> {
+                // Remove tool execution message from UI
+                runOnUiThread(() -> {
+                    if (!turn.isCancelled()) {
                         messageAdapter.removeLastMessage();
-                    });
-                }
+                    }
+                });
 
-                // Make another API call with tool results
-                JSONObject finalResponse = callChatCompletionsAPI(pendingMessages);
-                JSONArray choices = finalResponse.getJSONArray("choices");
-                if (choices.length() == 0) {
-                    throw new Exception("No choices in final response");
-                }
+                String responseText;
+                if (local) {
+                    // The tool's own result is the reply, there is no model to phrase it
+                    responseText = toolResults.toString();
+                } else {
+                    // Make another API call with tool results
+                    JSONObject finalResponse = callChatCompletionsAPI(history, toolExchange,
+                            ChatTransport.RequestClass.TOOL_FOLLOW_UP, liveReply, turn);
+                    JSONArray choices = finalResponse.getJSONArray("choices");
+                    if (choices.length() == 0) {
+                        throw new Exception("No choices in final response");
+                    }
 
-                JSONObject choice = choices.getJSONObject(0);
-                JSONObject responseMessage = choice.getJSONObject("message");
-                String responseText = responseMessage.optString("content", "");
+                    JSONObject choice = choices.getJSONObject(0);
+                    JSONObject responseMessage = choice.getJSONObject("message");
+                    responseText = responseMessage.optString("content", "");
+                }
 
                 // If OpenAI returns empty, use the tool results directly
                 if (responseText == null || responseText.trim().isEmpty()) {
@@ -847,124 +1625,210 @@ public class MainActivity extends AppCompatActivity {
 
                 String finalResponseText = responseText;
                 runOnUiThread(() -> {
-                    // Add agent response
-                    Message agentMessage = new Message(finalResponseText, false);
-                    agentMessage.setSessionId(currentSessionId);
-                    messageAdapter.addMessage(agentMessage);
-                    messagesRecyclerView.scrollToPosition(messageAdapter.getItemCount() - 1);
+                    if (turn.isCancelled()) {
+                        return;
+                    }
+
+                    // Add agent response, or complete the streamed one
+                    Message agentMessage = liveReply.finish(finalResponseText);
 
                     // Save agent message to database
-                    executorService.execute(() -> {
-                        long id = dbHelper.insertMessage(agentMessage);
-                        agentMessage.setId(id);
-                    });
+                    saveMessage(agentMessage);
+                    saveApiCalls(turn.takeApiCalls(), agentMessage);
 
-                    sendButton.setEnabled(true);
+                    endTurn(turn);
                 });
 
             } catch (Exception e) {
                 runOnUiThread(() -> {
+                    if (turn.isCancelled()) {
+                        return;
+                    }
+
+                    liveReply.discard();
+
                     // Add error message
                     Message errorMessage = new Message(getString(R.string.error_api_call, e.getMessage()), false);
-                    errorMessage.setSessionId(currentSessionId);
+                    errorMessage.setSessionId(turn.getSessionId());
                     messageAdapter.addMessage(errorMessage);
                     messagesRecyclerView.scrollToPosition(messageAdapter.getItemCount() - 1);
 
                     // Save error message to database
-                    executorService.execute(() -> {
-                        long id = dbHelper.insertMessage(errorMessage);
-                        errorMessage.setId(id);
-                    });
+                    saveMessage(errorMessage);
+                    saveApiCalls(turn.takeApiCalls(), errorMessage);
 
-                    sendButton.setEnabled(true);
+                    endTurn(turn);
                 });
             }
-        });
-    }
-
-    /**
-     * Execute a tool by name
-     */
-    private ToolResult executeTool(String toolName, JSONObject arguments) {
-        for (BaseTool tool : availableTools) {
-            if (tool.getName().equals(toolName)) {
-                return tool.execute(arguments);
-            }
-        }
-        return new ToolResult("", "Unknown tool: " + toolName);
+        }));
     }
 
     /**
      * Call OpenAI Chat Completions API
+     * @param history The system prompt and conversation, serialized
+     * @param toolExchange Messages after the history, e.g. tool calls and their results. May be null.
+     * @param requestClass Selects the connect and read timeouts, see ChatTransport
+     * @param streamListener If set and streaming is enabled, the response is streamed and its
+     *                       text passed to the listener as it arrives. The return value has the
+     *                       same shape either way.
+     * @param turn Cancelling it aborts the call
      */
-    private JSONObject callChatCompletionsAPI(JSONArray messages) throws Exception {
+    private JSONObject callChatCompletionsAPI(ConversationPayload.Snapshot history, JSONArray toolExchange,
+                                              ChatTransport.RequestClass requestClass,
+                                              ChatCompletionStream.Listener streamListener, ChatTurn turn)
+            throws Exception {
         String apiKey = apiKeyManager.getApiKey();
         if (apiKey == null || apiKey.isEmpty()) {
             throw new Exception("API key not configured. Please set your OpenAI API key in settings.");
         }
 
-        URL url = new URL(OPENAI_API_URL);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/json");
-        conn.setRequestProperty("Authorization", "Bearer " + apiKey);
-        conn.setDoOutput(true);
-        conn.setConnectTimeout(30000);
-        conn.setReadTimeout(30000);
-
-        // Create JSON request body for Chat Completions API
-        JSONObject requestBody = new JSONObject();
-        requestBody.put("model", "gpt-4o-mini");
-        requestBody.put("messages", messages);
-
-        // Add function definitions
-        JSONArray tools = new JSONArray();
-        for (BaseTool tool : availableTools) {
-            tools.put(tool.getFunctionDefinition());
+        String cacheKey = null;
+        if (responseCache != null) {
+            JSONArray messages = history.toJSONArray();
+            for (int i = 0; toolExchange != null && i < toolExchange.length(); i++) {
+                messages.put(toolExchange.get(i));
+            }
+            cacheKey = ResponseCache.keyFor(MODEL, messages, toolRegistry.getPayload());
+            JSONObject cached = responseCache.get(cacheKey);
+            if (cached != null) {
+                android.util.Log.d("CACTUS_API", "Response cache hit (" + responseCache.getHitCount() + " hits, " +
+                        responseCache.getMissCount() + " misses)");
+                logResponse(cached);
+                return cached;
+            }
         }
-        requestBody.put("tools", tools);
-        requestBody.put("tool_choice", "auto");
-
-        // Log request for debugging
-        android.util.Log.d("CACTUS_API", "Request: " + requestBody.toString());
 
-        // Send request
-        try (OutputStream os = conn.getOutputStream()) {
-            byte[] input = requestBody.toString().getBytes("utf-8");
-            os.write(input, 0, input.length);
+        // The body is written straight to the connection from the serialized history and
+        // tools, and again if it has to be resent
+        boolean stream = STREAM_RESPONSES && streamListener != null;
+        ChatTransport.BodyWriter requestBody = out ->
+                ChatRequestWriter.write(out, MODEL, history, toolExchange, toolRegistry.getPayload(), stream);
+        android.util.Log.d("CACTUS_API", "Request: " +
+                (history.getMessageCount() + (toolExchange == null ? 0 : toolExchange.length())) + " messages (" +
+                history.getByteCount() / 1024 + " KB history), " + toolRegistry.size() + " tools" +
+                (stream ? ", streamed" : ""));
+
+        // Send request over a pooled connection
+        long startNanos = System.nanoTime();
+        try (ChatTransport.Exchange exchange = chatTransport.post(requestClass, apiKey, requestBody, turn)) {
+            int responseCode = exchange.getStatusCode();
+            long headersNanos = System.nanoTime();
+
+            if (responseCode == HttpURLConnection.HTTP_OK && stream) {
+                ChatCompletionStream completionStream = new ChatCompletionStream(streamListener);
+                JSONObject response = completionStream.read(exchange.getBody());
+                long endNanos = System.nanoTime();
+
+                long firstTokenNanos = completionStream.getFirstTokenNanos();
+                android.util.Log.d("CACTUS_API", "Latency (" + describe(exchange) + "): headers " +
+                        (headersNanos - startNanos) / 1_000_000 + " ms, first token " +
+                        (firstTokenNanos < 0 ? "-" : String.valueOf((firstTokenNanos - startNanos) / 1_000_000)) +
+                        " ms, total " + (endNanos - startNanos) / 1_000_000 + " ms");
+                logResponse(response);
+                recordApiCall(turn, requestClass, exchange, response, (headersNanos - startNanos) / 1_000_000,
+                        firstTokenNanos < 0 ? -1 : (firstTokenNanos - startNanos) / 1_000_000,
+                        (endNanos - startNanos) / 1_000_000);
+                calibrateTokenEstimate(history, toolExchange, response);
+
+                if (cacheKey != null) {
+                    responseCache.put(cacheKey, response);
+                }
+                return response;
+            } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                // Pull only the parts that are used out of the body as it arrives
+                JSONObject response = ChatResponseReader.read(exchange.getBody());
+                long endNanos = System.nanoTime();
+                android.util.Log.d("CACTUS_API", "Latency (" + describe(exchange) + "): headers " +
+                        (headersNanos - startNanos) / 1_000_000 + " ms, total " +
+                        (endNanos - startNanos) / 1_000_000 + " ms");
+                logResponse(response);
+                recordApiCall(turn, requestClass, exchange, response, (headersNanos - startNanos) / 1_000_000,
+                        -1, (endNanos - startNanos) / 1_000_000);
+                calibrateTokenEstimate(history, toolExchange, response);
+
+                if (cacheKey != null) {
+                    responseCache.put(cacheKey, response);
+                }
+                return response;
+            } else {
+                // Read error response
+                String errorMessage = "HTTP " + responseCode + ": " + readFully(exchange.getBody());
+                System.out.println(errorMessage);
+                throw new Exception(errorMessage);
+            }
         }
+    }
 
-        // Read response
-        int responseCode = conn.getResponseCode();
-        if (responseCode == HttpURLConnection.HTTP_OK) {
-            BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-            String inputLine;
-            StringBuilder response = new StringBuilder();
-
-            while ((inputLine = in.readLine()) != null) {
-                response.append(inputLine);
-            }
-            in.close();
+    /**
+     * Protocol, attempts and hedging of an exchange, for the latency log
+     */
+    private String describe(ChatTransport.Exchange exchange) {
+        String description = exchange.getProtocol() + ", attempts " + exchange.getAttempts();
+        if (hedgePolicy != null) {
+            description += exchange.isHedged() ? (exchange.isHedgeWon() ? ", hedge won" : ", hedged") : "";
+            description += ", " + hedgePolicy.getHedgeCount() + " hedges (" + hedgePolicy.getHedgeWinCount() +
+                    " won) in " + hedgePolicy.getRequestCount() + " requests";
+        }
+        return description;
+    }
 
-            // Log response for debugging
-            android.util.Log.d("CACTUS_API", "Response: " + response.toString());
+    /**
+     * Keep the usage and timings of a completed call with its turn, to be saved with the message it ends in
+     */
+    private void recordApiCall(ChatTurn turn, ChatTransport.RequestClass requestClass, ChatTransport.Exchange exchange,
+                               JSONObject response, long ttfbMs, long firstTokenMs, long totalMs) {
+        ApiCallRecord record = new ApiCallRecord(turn.getSessionId(), MODEL, requestClass.name(),
+                System.currentTimeMillis());
+        record.setUsage(response.optJSONObject("usage"));
+        record.setTimings(exchange.getConnectMs(), ttfbMs, firstTokenMs, totalMs);
+        record.setAttempts(exchange.getAttempts());
+        record.setHedged(exchange.isHedged());
+        turn.addApiCall(record);
+        android.util.Log.d("CACTUS_API", "Usage: " + record.getPromptTokens() + " prompt tokens (" +
+                record.getCachedTokens() + " cached), " + record.getCompletionTokens() + " completion tokens");
+    }
 
-            return new JSONObject(response.toString());
-        } else {
-            // Read error response
-            BufferedReader errorReader = new BufferedReader(new InputStreamReader(conn.getErrorStream()));
-            StringBuilder errorResponse = new StringBuilder();
-            String errorLine;
+    /**
+     * Compare the estimated size of a request's prompt with the server's count, so the next
+     * turn's history budget corrects for how far off the estimates run
+     */
+    private void calibrateTokenEstimate(ConversationPayload.Snapshot history, JSONArray toolExchange,
+                                        JSONObject response) {
+        JSONObject usage = response.optJSONObject("usage");
+        // Tool calls and results in the request are not estimated, only plain turns are compared
+        if (usage == null || toolExchange != null) {
+            return;
+        }
+        int estimated = TokenEstimator.countMessageTokens(SYSTEM_PROMPT) + TokenEstimator.REPLY_PRIMING_TOKENS
+                + toolDefinitionTokens;
+        for (Message message : history.getMessages()) {
+            estimated += message.getTokenCount();
+        }
+        contextWindow.calibrate(estimated, usage.optInt("prompt_tokens"));
+    }
 
-            while ((errorLine = errorReader.readLine()) != null) {
-                errorResponse.append(errorLine);
-            }
-            errorReader.close();
+    /**
+     * Log the outcome of a call without its full text
+     */
+    private static void logResponse(JSONObject response) {
+        JSONObject choice = response.optJSONArray("choices") == null ? null
+                : response.optJSONArray("choices").optJSONObject(0);
+        JSONObject message = choice == null ? null : choice.optJSONObject("message");
+        JSONArray toolCalls = message == null ? null : message.optJSONArray("tool_calls");
+        android.util.Log.d("CACTUS_API", "Response: finish_reason " + (choice == null ? "-" : choice.optString("finish_reason")) +
+                ", " + (message == null ? 0 : message.optString("content", "").length()) + " chars, " +
+                (toolCalls == null ? 0 : toolCalls.length()) + " tool calls, usage " + response.optJSONObject("usage"));
+    }
 
-            String errorMessage = "HTTP " + responseCode + ": " + errorResponse.toString();
-            System.out.println(errorMessage);
-            throw new Exception(errorMessage);
+    private static String readFully(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            text.append(buffer, 0, read);
         }
+        return text.toString();
     }
 
     /**
@@ -1011,19 +1875,87 @@ public class MainActivity extends AppCompatActivity {
         dialog.show();
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        isInBackground = false;
+
+        // Have a connection to the API ready before the user sends anything
+        String apiKey = apiKeyManager.getApiKey();
+        if (apiKey != null && !apiKey.isEmpty()) {
+            chatTransport.warmUp();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+
+        // The app is idle, move cold sessions to the archive and give the space
+        // freed by them and by deletes back to the file system
+        isInBackground = true;
+        executorService.execute(dbHelper::pruneArchive);
+        archiveColdSessions(System.currentTimeMillis() - ARCHIVE_AFTER_MS, currentSessionId, false);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // Cached pages can always be read back from the database
+        sessionCache.trimMemory(level);
+
+        // Idle keep-alive connections are cheap to re-establish, closing them may write to the socket
+        networkExecutor.execute(chatTransport::evictIdleConnections);
+
+        // The process may be killed soon, commit queued writes and fold the WAL back in
+        writeQueue.flushAndCheckpointAsync();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
 
+        searchHandler.removeCallbacksAndMessages(null);
+
         if (speechRecognizer != null) {
             speechRecognizer.destroy();
         }
 
+        if (currentTurn != null) {
+            currentTurn.cancel();
+        }
+        networkExecutor.shutdownNow();
+        toolExecutor.shutdown();
+        executorService.shutdown();
+        readExecutor.shutdown();
+        // Let background reads and maintenance finish, they may still queue writes
+        awaitTermination(SHUTDOWN_TIMEOUT_MS, executorService, readExecutor, networkExecutor);
+
+        // Commit queued writes before the database is closed
+        writeQueue.shutdown();
+
         if (dbHelper != null) {
             dbHelper.close();
         }
+    }
 
-        executorService.shutdown();
+    /**
+     * Wait for shut down executors to finish their tasks, interrupting any still running at the deadline
+     */
+    private static void awaitTermination(long timeoutMs, ExecutorService... executors) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (ExecutorService executor : executors) {
+            try {
+                if (!executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    android.util.Log.e("CACTUS_API", "Background work still running at shutdown, interrupting it");
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
 }
\ No newline at end of file
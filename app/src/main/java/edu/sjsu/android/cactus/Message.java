@@ -6,13 +6,18 @@ public class Message {
     public static final int TYPE_TOOL = 2;
     public static final int TYPE_TOOL_CONFIRMATION = 3;
 
+    // Approximate size of a Message and its String header, see getApproximateSize()
+    private static final int OBJECT_OVERHEAD_BYTES = 96;
+
     private long id;
     private long sessionId;
     private String content;
+    private byte[] compressedContent; // Set instead of content for bodies stored compressed
     private boolean isUser;
     private long timestamp;
     private int messageType; // Not persisted to DB, used for UI display only
     private Object toolCallData; // Store tool call data for confirmation messages
+    private int tokenCount = -1; // Estimated tokens as sent to the API, -1 until counted
 
     public Message(String content, boolean isUser) {
         this.content = content;
@@ -41,6 +46,15 @@ public class Message {
         this.messageType = messageType;
     }
 
+    /**
+     * Create a message whose body is decompressed on first access
+     */
+    public static Message fromCompressed(byte[] compressedContent, boolean isUser, long timestamp) {
+        Message message = new Message(null, isUser, timestamp);
+        message.compressedContent = compressedContent;
+        return message;
+    }
+
     public long getId() {
         return id;
     }
@@ -49,6 +63,13 @@ public class Message {
         this.id = id;
     }
 
+    /**
+     * Whether other is this message, or the same row read from the database again
+     */
+    public boolean isSameMessage(Message other) {
+        return this == other || (other != null && id != -1 && id == other.id);
+    }
+
     public long getSessionId() {
         return sessionId;
     }
@@ -57,10 +78,62 @@ public class Message {
         this.sessionId = sessionId;
     }
 
-    public String getContent() {
+    /**
+     * Decompresses the body on first access. Synchronized since lists of messages are read
+     * from the UI thread and from background threads building requests.
+     */
+    public synchronized String getContent() {
+        if (compressedContent != null) {
+            content = MessageCodec.decode(compressedContent);
+            compressedContent = null;
+        }
         return content;
     }
 
+    /**
+     * Rough heap footprint in bytes, used to bound caches of messages
+     */
+    public synchronized int getApproximateSize() {
+        int body;
+        if (compressedContent != null) {
+            // Counted as if decompressed, which happens as soon as it is displayed
+            body = MessageCodec.decodedLength(compressedContent) * 2;
+        } else {
+            body = content == null ? 0 : content.length() * 2;
+        }
+        return OBJECT_OVERHEAD_BYTES + body;
+    }
+
+    public synchronized void setContent(String content) {
+        this.content = content;
+        this.compressedContent = null;
+        this.tokenCount = -1;
+    }
+
+    /**
+     * Estimated tokens of this message in a request, framing included; counted once and cached
+     */
+    public int getTokenCount() {
+        if (tokenCount < 0) {
+            tokenCount = TokenEstimator.countMessageTokens(getContent());
+        }
+        return tokenCount;
+    }
+
+    /**
+     * Whether the token count is already known, so getTokenCount() will not decompress or count
+     */
+    public boolean hasTokenCount() {
+        return tokenCount >= 0;
+    }
+
+    /**
+     * Set a token count stored alongside the message
+     */
+    public void setTokenCount(int tokenCount) {
+        this.tokenCount = tokenCount;
+    }
+
     public boolean isUser() {
         return isUser;
     }
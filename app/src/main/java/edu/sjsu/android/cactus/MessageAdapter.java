@@ -9,6 +9,7 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -19,19 +20,121 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
     private static final int VIEW_TYPE_TYPING = 3;
     private static final int VIEW_TYPE_TOOL_CONFIRMATION = 4;
 
+    // Change payload for a rebind that only touches the message text
+    private static final Object PAYLOAD_CONTENT = new Object();
+
+    // Number of messages fetched per history page
+    public static final int PAGE_SIZE = 50;
+    // Maximum number of history pages kept in memory at once
+    public static final int MAX_RESIDENT_PAGES = 4;
+
     private List<Message> messages;
     private ToolConfirmationListener confirmationListener;
 
+    // Sizes of the resident pages, from the oldest (top) to the newest (bottom)
+    private final ArrayDeque<Integer> pageSizes = new ArrayDeque<>();
+    private boolean hasOlderPages = false;
+    private boolean hasNewerPages = false;
+
     public MessageAdapter() {
         this.messages = new ArrayList<>();
     }
 
+    /**
+     * Replace the contents with the newest page of a session
+     */
     public void loadMessages(List<Message> messages) {
         this.messages.clear();
         this.messages.addAll(messages);
+        pageSizes.clear();
+        if (!messages.isEmpty()) {
+            pageSizes.addLast(messages.size());
+        }
+        hasOlderPages = messages.size() >= PAGE_SIZE;
+        hasNewerPages = false;
         notifyDataSetChanged();
     }
 
+    /**
+     * Insert an older page above the resident messages. If this pushes the adapter over
+     * MAX_RESIDENT_PAGES, the newest page is evicted and must be fetched again on scroll down.
+     */
+    public void prependPage(List<Message> page) {
+        hasOlderPages = page.size() >= PAGE_SIZE;
+        if (page.isEmpty()) {
+            return;
+        }
+
+        messages.addAll(0, page);
+        pageSizes.addFirst(page.size());
+        notifyItemRangeInserted(0, page.size());
+
+        if (pageSizes.size() > MAX_RESIDENT_PAGES && isEvictable(messages.size() - pageSizes.peekLast(), messages.size())) {
+            int size = pageSizes.removeLast();
+            int start = messages.size() - size;
+            messages.subList(start, messages.size()).clear();
+            notifyItemRangeRemoved(start, size);
+            hasNewerPages = true;
+        }
+    }
+
+    /**
+     * Append a newer page below the resident messages. If this pushes the adapter over
+     * MAX_RESIDENT_PAGES, the oldest page is evicted and must be fetched again on scroll up.
+     */
+    public void appendPage(List<Message> page) {
+        hasNewerPages = page.size() >= PAGE_SIZE;
+        if (page.isEmpty()) {
+            return;
+        }
+
+        int start = messages.size();
+        messages.addAll(page);
+        pageSizes.addLast(page.size());
+        notifyItemRangeInserted(start, page.size());
+
+        if (pageSizes.size() > MAX_RESIDENT_PAGES && isEvictable(0, pageSizes.peekFirst())) {
+            int size = pageSizes.removeFirst();
+            messages.subList(0, size).clear();
+            notifyItemRangeRemoved(0, size);
+            hasOlderPages = true;
+        }
+    }
+
+    /**
+     * A page can only be dropped if every message in it is persisted, so it can be read back
+     */
+    private boolean isEvictable(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (messages.get(i).getId() == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean hasOlderPages() {
+        return hasOlderPages;
+    }
+
+    public boolean hasNewerPages() {
+        return hasNewerPages;
+    }
+
+    /**
+     * Get the oldest resident message, used as the cursor for loading older pages
+     */
+    public Message getOldestMessage() {
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    /**
+     * Get the newest resident message, used as the cursor for loading newer pages
+     */
+    public Message getNewestMessage() {
+        return messages.isEmpty() ? null : messages.get(messages.size() - 1);
+    }
+
     public List<Message> getMessages() {
         return messages;
     }
@@ -80,12 +183,20 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
                 holder.toolConfirmationText.setText(message.getContent());
             }
 
-            // Set icon based on tool type
+            // Set icon based on tool type, the generic one when the batch mixes tools
             if (holder.toolIcon != null && message.getToolCallData() != null) {
                 try {
-                    org.json.JSONObject toolCall = (org.json.JSONObject) message.getToolCallData();
-                    org.json.JSONObject function = toolCall.getJSONObject("function");
-                    String toolName = function.getString("name");
+                    org.json.JSONArray toolCalls = (org.json.JSONArray) message.getToolCallData();
+                    String toolName = null;
+                    for (int i = 0; i < toolCalls.length(); i++) {
+                        String name = toolCalls.getJSONObject(i).getJSONObject("function").getString("name");
+                        if (toolName == null) {
+                            toolName = name;
+                        } else if (!toolName.equals(name)) {
+                            toolName = "";
+                            break;
+                        }
+                    }
 
                     switch (toolName) {
                         case "set_alarm":
@@ -131,6 +242,32 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
         }
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull MessageViewHolder holder, int position, @NonNull List<Object> payloads) {
+        boolean contentOnly = !payloads.isEmpty() && holder.messageText != null;
+        for (Object payload : payloads) {
+            contentOnly &= payload == PAYLOAD_CONTENT;
+        }
+        if (contentOnly) {
+            holder.messageText.setText(messages.get(position).getContent());
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
+    /**
+     * Rebind only the text of a message whose content changed, e.g. while a reply streams in
+     */
+    public void notifyContentChanged(Message message) {
+        // The changing message is almost always the newest one
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) == message) {
+                notifyItemChanged(i, PAYLOAD_CONTENT);
+                return;
+            }
+        }
+    }
+
     private void animateTypingDot(View dot, long delay) {
         dot.animate()
             .scaleX(1.3f)
@@ -155,6 +292,12 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
 
     public void addMessage(Message message) {
         messages.add(message);
+        // New messages always belong to the newest page
+        if (pageSizes.isEmpty()) {
+            pageSizes.addLast(1);
+        } else {
+            pageSizes.addLast(pageSizes.removeLast() + 1);
+        }
         notifyItemInserted(messages.size() - 1);
     }
 
@@ -162,6 +305,10 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
         if (!messages.isEmpty()) {
             int lastPosition = messages.size() - 1;
             messages.remove(lastPosition);
+            int lastPageSize = pageSizes.removeLast() - 1;
+            if (lastPageSize > 0) {
+                pageSizes.addLast(lastPageSize);
+            }
             notifyItemRemoved(lastPosition);
         }
     }
@@ -169,6 +316,9 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
     public void clearAll() {
         int size = messages.size();
         messages.clear();
+        pageSizes.clear();
+        hasOlderPages = false;
+        hasNewerPages = false;
         notifyItemRangeRemoved(0, size);
     }
 
@@ -0,0 +1,111 @@
+package edu.sjsu.android.cactus;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Storage codec for message bodies.
+ * Large bodies are stored as a raw deflate stream prefixed with the 4-byte
+ * big-endian length of the original UTF-8 text.
+ */
+public final class MessageCodec {
+
+    // Values of the messages.codec column
+    public static final int CODEC_PLAIN = 0;
+    public static final int CODEC_DEFLATE = 1;
+
+    // Bodies shorter than this (in UTF-8 bytes) are always stored as plain text
+    public static final int DEFAULT_THRESHOLD_BYTES = 1024;
+
+    // Only keep the compressed form if it is at most this fraction of the original
+    private static final double MIN_SAVING_RATIO = 0.9;
+
+    private static final int HEADER_LENGTH = 4;
+
+    // Private constructor to prevent accidental instantiation
+    private MessageCodec() {}
+
+    /**
+     * Compress a message body if it is large enough and compresses well
+     * @return The encoded bytes, or null if the body should be stored as plain text
+     */
+    public static byte[] encode(String content, int thresholdBytes) {
+        if (content == null || content.length() < thresholdBytes / 4) {
+            // Even four bytes per char would stay under the threshold
+            return null;
+        }
+
+        byte[] utf8 = content.getBytes(StandardCharsets.UTF_8);
+        if (utf8.length < thresholdBytes) {
+            return null;
+        }
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(utf8);
+            deflater.finish();
+
+            int limit = (int) (utf8.length * MIN_SAVING_RATIO);
+            byte[] buffer = new byte[limit];
+            buffer[0] = (byte) (utf8.length >>> 24);
+            buffer[1] = (byte) (utf8.length >>> 16);
+            buffer[2] = (byte) (utf8.length >>> 8);
+            buffer[3] = (byte) utf8.length;
+
+            int length = HEADER_LENGTH;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    // Not worth it, store as plain text
+                    return null;
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+
+            byte[] encoded = new byte[length];
+            System.arraycopy(buffer, 0, encoded, 0, length);
+            return encoded;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Size in UTF-8 bytes of the body encoded by encode(), read from the header without inflating
+     */
+    public static int decodedLength(byte[] encoded) {
+        return ((encoded[0] & 0xff) << 24) | ((encoded[1] & 0xff) << 16)
+                | ((encoded[2] & 0xff) << 8) | (encoded[3] & 0xff);
+    }
+
+    /**
+     * Decompress a body produced by encode()
+     */
+    public static String decode(byte[] encoded) {
+        int length = decodedLength(encoded);
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(encoded, HEADER_LENGTH, encoded.length - HEADER_LENGTH);
+            byte[] utf8 = new byte[length];
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                int inflated = inflater.inflate(utf8, offset, length - offset);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += inflated;
+            }
+            if (offset != length) {
+                throw new IllegalStateException("Truncated message body: " + offset + " of " + length + " bytes");
+            }
+            return new String(utf8, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt message body", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package edu.sjsu.android.cactus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind queue in front of ChatDatabaseHelper.
+ * Pending message inserts, API call records, session title updates and session deletes are
+ * merged and written in one transaction, either after a short delay or once the batch is full.
+ * A batch that keeps failing is written one row at a time, dropping the rows that still fail.
+ */
+public class MessageWriteQueue {
+
+    // How long a write may wait for other writes to join its batch
+    private static final long FLUSH_DELAY_MS = 250;
+    // Flush immediately once this many messages are pending
+    private static final int MAX_BATCH_SIZE = 32;
+    // A failed batch is retried after a delay that doubles with each failure, up to this
+    private static final long MAX_RETRY_DELAY_MS = 30_000;
+    // After this many failed attempts a batch is written row by row, most likely one row is bad
+    private static final int MAX_BATCH_FAILURES = 3;
+
+    private final ChatDatabaseHelper dbHelper;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private List<Message> pendingMessages = new ArrayList<>();
+    private List<ApiCallRecord> pendingApiCalls = new ArrayList<>();
+    private Map<Long, String> pendingTitles = new LinkedHashMap<>();
+    private Set<Long> pendingSessionDeletes = new LinkedHashSet<>();
+    private Future<?> scheduledFlush;
+    // Delay before the next retry of a failed batch, 0 while writes succeed
+    private long retryDelayMs;
+    // Failed attempts at the batch now pending
+    private int batchFailures;
+
+    // Serializes flushes so batches are committed in the order they were queued
+    private final Object flushLock = new Object();
+
+    private FlushListener flushListener;
+
+    public interface FlushListener {
+        /**
+         * Called on the queue's thread after a batch has been committed
+         */
+        void onBatchCommitted(List<Message> messages, Map<Long, String> sessionTitles, Set<Long> deletedSessionIds);
+    }
+
+    public MessageWriteQueue(ChatDatabaseHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    public void setFlushListener(FlushListener listener) {
+        this.flushListener = listener;
+    }
+
+    /**
+     * Snapshot of the messages for a session that are queued but not yet committed,
+     * so readers can show them without waiting for a flush
+     */
+    public synchronized List<Message> getPendingMessages(long sessionId) {
+        List<Message> messages = new ArrayList<>();
+        for (Message message : pendingMessages) {
+            if (message.getSessionId() == sessionId) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Queue a message for insertion. Its ID is set once the batch is committed.
+     */
+    public synchronized void enqueueMessage(Message message) {
+        pendingMessages.add(message);
+        if (pendingMessages.size() >= MAX_BATCH_SIZE) {
+            flushAsync();
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Queue API call records. Records of a message queued earlier are written after it and get its ID.
+     */
+    public synchronized void enqueueApiCalls(Collection<ApiCallRecord> apiCalls) {
+        if (apiCalls.isEmpty()) {
+            return;
+        }
+        pendingApiCalls.addAll(apiCalls);
+        scheduleFlush();
+    }
+
+    /**
+     * Queue a session title update. Later updates for the same session replace earlier ones.
+     */
+    public synchronized void enqueueTitleUpdate(long sessionId, String title) {
+        pendingTitles.put(sessionId, title);
+        scheduleFlush();
+    }
+
+    /**
+     * Queue sessions for deletion. Their messages go with them through the foreign key cascade,
+     * and any of their writes still in the queue are dropped.
+     */
+    public synchronized void enqueueSessionDeletes(Collection<Long> sessionIds) {
+        Iterator<Message> iterator = pendingMessages.iterator();
+        while (iterator.hasNext()) {
+            if (sessionIds.contains(iterator.next().getSessionId())) {
+                iterator.remove();
+            }
+        }
+        Iterator<ApiCallRecord> apiCalls = pendingApiCalls.iterator();
+        while (apiCalls.hasNext()) {
+            if (sessionIds.contains(apiCalls.next().getSessionId())) {
+                apiCalls.remove();
+            }
+        }
+        for (long sessionId : sessionIds) {
+            pendingTitles.remove(sessionId);
+        }
+        pendingSessionDeletes.addAll(sessionIds);
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (scheduledFlush == null && !scheduler.isShutdown()) {
+            scheduledFlush = scheduler.schedule(this::flush, Math.max(FLUSH_DELAY_MS, retryDelayMs),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Flush pending writes on the queue's own thread
+     */
+    public synchronized void flushAsync() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+        }
+        if (!scheduler.isShutdown()) {
+            scheduledFlush = scheduler.submit(this::flush);
+        }
+    }
+
+    /**
+     * Flush pending writes and then checkpoint the write-ahead log, on the queue's own thread
+     */
+    public synchronized void flushAndCheckpointAsync() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+        }
+        if (!scheduler.isShutdown()) {
+            scheduledFlush = scheduler.submit(() -> {
+                flush();
+                dbHelper.checkpoint();
+            });
+        }
+    }
+
+    /**
+     * Run a write that is not part of a batch on the queue's own thread, after the writes queued
+     * before it, so it never contends with a flush
+     */
+    public CompletableFuture<Void> submitWrite(Runnable write) {
+        return CompletableFuture.runAsync(() -> {
+            flush();
+            write.run();
+        }, scheduler);
+    }
+
+    /**
+     * Write all pending messages and title updates in a single transaction.
+     * Blocks the caller until they are committed. A failed batch stays queued and is retried,
+     * after MAX_BATCH_FAILURES attempts row by row.
+     */
+    public void flush() {
+        writePending(false);
+    }
+
+    /**
+     * @param lastAttempt No retry will follow, so a failed batch is written row by row right away
+     */
+    private void writePending(boolean lastAttempt) {
+        synchronized (flushLock) {
+            List<Message> messages;
+            List<ApiCallRecord> apiCalls;
+            Map<Long, String> titles;
+            Set<Long> deletes;
+            synchronized (this) {
+                scheduledFlush = null;
+                if (pendingMessages.isEmpty() && pendingApiCalls.isEmpty() && pendingTitles.isEmpty()
+                        && pendingSessionDeletes.isEmpty()) {
+                    return;
+                }
+                messages = pendingMessages;
+                apiCalls = pendingApiCalls;
+                titles = pendingTitles;
+                deletes = pendingSessionDeletes;
+                pendingMessages = new ArrayList<>();
+                pendingApiCalls = new ArrayList<>();
+                pendingTitles = new LinkedHashMap<>();
+                pendingSessionDeletes = new LinkedHashSet<>();
+            }
+
+            try {
+                dbHelper.writeBatch(messages, apiCalls, titles, deletes);
+            } catch (Exception e) {
+                android.util.Log.e("MessageWriteQueue", "Failed to write batch of " + messages.size() + " messages", e);
+                for (Message message : messages) {
+                    message.setId(-1);
+                }
+
+                boolean rowByRow;
+                synchronized (this) {
+                    rowByRow = lastAttempt || ++batchFailures >= MAX_BATCH_FAILURES;
+                }
+                if (!rowByRow) {
+                    requeue(messages, apiCalls, titles, deletes);
+                    return;
+                }
+                // Leaves only what was written in the collections
+                writeRowByRow(messages, apiCalls, titles, deletes);
+            }
+
+            // Outside the try, a committed batch must not be queued again
+            synchronized (this) {
+                retryDelayMs = 0;
+                batchFailures = 0;
+            }
+            if (flushListener != null) {
+                flushListener.onBatchCommitted(messages, titles, deletes);
+            }
+        }
+    }
+
+    /**
+     * Put a batch whose transaction was rolled back in front of the queue and retry it after a backoff
+     */
+    private synchronized void requeue(List<Message> messages, List<ApiCallRecord> apiCalls,
+                                      Map<Long, String> titles, Set<Long> deletes) {
+        pendingMessages.addAll(0, messages);
+        pendingApiCalls.addAll(0, apiCalls);
+        for (Map.Entry<Long, String> entry : titles.entrySet()) {
+            if (!pendingTitles.containsKey(entry.getKey())) {
+                pendingTitles.put(entry.getKey(), entry.getValue());
+            }
+        }
+        pendingSessionDeletes.addAll(deletes);
+        retryDelayMs = Math.min(retryDelayMs == 0 ? FLUSH_DELAY_MS : retryDelayMs * 2, MAX_RETRY_DELAY_MS);
+        scheduleFlush();
+    }
+
+    /**
+     * Write each part of a failed batch in a transaction of its own, in the batch's order.
+     * Parts that still fail are logged and removed from the collections, so they end up
+     * holding only what was written.
+     */
+    private void writeRowByRow(List<Message> messages, List<ApiCallRecord> apiCalls,
+                               Map<Long, String> titles, Set<Long> deletes) {
+        Iterator<Message> messageIterator = messages.iterator();
+        while (messageIterator.hasNext()) {
+            Message message = messageIterator.next();
+            if (!writeRow("message of session " + message.getSessionId(), Collections.singletonList(message),
+                    Collections.emptyList(), Collections.emptyMap(), Collections.emptySet())) {
+                message.setId(-1);
+                messageIterator.remove();
+            }
+        }
+        for (ApiCallRecord apiCall : apiCalls) {
+            writeRow("API call record of session " + apiCall.getSessionId(), Collections.emptyList(),
+                    Collections.singletonList(apiCall), Collections.emptyMap(), Collections.emptySet());
+        }
+        Iterator<Map.Entry<Long, String>> titleIterator = titles.entrySet().iterator();
+        while (titleIterator.hasNext()) {
+            Map.Entry<Long, String> title = titleIterator.next();
+            if (!writeRow("title of session " + title.getKey(), Collections.emptyList(), Collections.emptyList(),
+                    Collections.singletonMap(title.getKey(), title.getValue()), Collections.emptySet())) {
+                titleIterator.remove();
+            }
+        }
+        Iterator<Long> deleteIterator = deletes.iterator();
+        while (deleteIterator.hasNext()) {
+            long sessionId = deleteIterator.next();
+            if (!writeRow("delete of session " + sessionId, Collections.emptyList(), Collections.emptyList(),
+                    Collections.emptyMap(), Collections.singleton(sessionId))) {
+                deleteIterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return false if the write failed and was dropped
+     */
+    private boolean writeRow(String description, List<Message> messages, List<ApiCallRecord> apiCalls,
+                             Map<Long, String> titles, Set<Long> deletes) {
+        try {
+            dbHelper.writeBatch(messages, apiCalls, titles, deletes);
+            return true;
+        } catch (Exception e) {
+            android.util.Log.e("MessageWriteQueue", "Dropped a " + description + " that could not be written", e);
+            return false;
+        }
+    }
+
+    /**
+     * Flush everything still pending and stop accepting scheduled flushes.
+     * There is no retry after this, so a failing batch is written row by row and the rows
+     * that still fail are lost, each one logged.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            scheduler.shutdownNow();
+        }
+        writePending(true);
+    }
+}
@@ -3,18 +3,31 @@ package edu.sjsu.android.cactus;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.CancellationSignal;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Tool for opening the phone dialer to make calls
  */
-public class PhoneCallTool extends BaseTool {
+public class PhoneCallTool extends TypedTool<PhoneCallTool.Arguments> {
+
+    /**
+     * Parameters of make_call, named as the model sees them
+     */
+    static class Arguments {
+        @ToolParam(description = "The phone number to dial (e.g., '1234567890', '+1-555-123-4567'). Can include country code and formatting.",
+                minLength = 1)
+        String phone_number;
+    }
+
+    private static final long TIMEOUT_MS = 5_000;
 
     private final Context context;
 
     public PhoneCallTool(Context context) {
+        super(Arguments.class);
         this.context = context;
     }
 
@@ -29,36 +42,22 @@ public class PhoneCallTool extends BaseTool {
     }
 
     @Override
-    public JSONObject getParametersSchema() {
-        try {
-            JSONObject schema = new JSONObject();
-            schema.put("type", "object");
-
-            JSONObject properties = new JSONObject();
-
-            // phone_number parameter
-            JSONObject phoneNumber = new JSONObject();
-            phoneNumber.put("type", "string");
-            phoneNumber.put("description", "The phone number to dial (e.g., '1234567890', '+1-555-123-4567'). Can include country code and formatting.");
-            properties.put("phone_number", phoneNumber);
-
-            schema.put("properties", properties);
-
-            JSONArray required = new JSONArray();
-            required.put("phone_number");
-            schema.put("required", required);
+    public long getTimeoutMs() {
+        // Only hands the number to the dialer; the user places the call there
+        return TIMEOUT_MS;
+    }
 
-            return schema;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return new JSONObject();
-        }
+    @Override
+    protected CompletableFuture<ToolResult> runAsync(Arguments arguments, CancellationSignal signal,
+                                                     Executor executor) {
+        // Activities are started from the main thread
+        return runOnMainThread(arguments, signal);
     }
 
     @Override
-    public ToolResult execute(JSONObject arguments) {
+    protected ToolResult run(Arguments arguments) {
         try {
-            String phoneNumber = arguments.optString("phone_number", "");
+            String phoneNumber = arguments.phone_number;
 
             if (phoneNumber.isEmpty()) {
                 return new ToolResult("", "Phone number parameter is required");
@@ -0,0 +1,124 @@
+package edu.sjsu.android.cactus;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Client-side token bucket for API requests, so the app stays within its known quota
+ * instead of finding the limit through 429 responses.
+ * The bucket holds up to capacity requests and refills at requestsPerMinute. The
+ * x-ratelimit-* headers of each response tighten it further: once the server reports no
+ * requests or tokens remaining, calls wait until the reported reset.
+ */
+public class RateLimiter {
+
+    private static final long NANOS_PER_MINUTE = 60_000_000_000L;
+
+    private final int capacity;
+    private final double tokensPerNano;
+    private final long maxWaitMs;
+
+    private double tokens;
+    private long refilledAtNanos;
+    // Set from the response headers when the server quota is used up
+    private long blockedUntilNanos;
+
+    /**
+     * @param maxWaitMs Longest a call waits for a token before it fails instead
+     */
+    public RateLimiter(int capacity, int requestsPerMinute, long maxWaitMs) {
+        this.capacity = capacity;
+        this.tokensPerNano = (double) requestsPerMinute / NANOS_PER_MINUTE;
+        this.maxWaitMs = maxWaitMs;
+        this.tokens = capacity;
+        this.refilledAtNanos = System.nanoTime();
+    }
+
+    /**
+     * Take one request from the bucket, waiting for it if needed
+     * @throws IOException If the wait would exceed maxWaitMs
+     */
+    public void acquire() throws IOException {
+        long waitNanos;
+        synchronized (this) {
+            waitNanos = reserve();
+        }
+        if (waitNanos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rate limited");
+        }
+    }
+
+    /**
+     * Take one request from the bucket only if it is available right away
+     * @return Whether a request was taken
+     */
+    public synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilledAtNanos) * tokensPerNano);
+        refilledAtNanos = now;
+        if (tokens < 1 || blockedUntilNanos > now) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * Take a token now or in the future
+     * @return How long to wait for it
+     */
+    private long reserve() throws IOException {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilledAtNanos) * tokensPerNano);
+        refilledAtNanos = now;
+
+        long waitNanos = Math.max(0, blockedUntilNanos - now);
+        if (tokens < 1) {
+            waitNanos = Math.max(waitNanos, (long) Math.ceil((1 - tokens) / tokensPerNano));
+        }
+        if (waitNanos > maxWaitMs * 1_000_000) {
+            throw new IOException("Rate limit reached, try again in " + Math.max(1, waitNanos / 1_000_000_000) + " s");
+        }
+        // Tokens may go negative, so later callers queue up behind this one
+        tokens--;
+        return waitNanos;
+    }
+
+    /**
+     * Apply the quota reported in a response's x-ratelimit-* headers
+     */
+    public void onResponse(ChatTransport.Exchange response) {
+        long requestsResetMs = exhaustedResetMs(response, "requests");
+        long tokensResetMs = exhaustedResetMs(response, "tokens");
+        long resetMs = Math.max(requestsResetMs, tokensResetMs);
+        if (resetMs > 0) {
+            synchronized (this) {
+                blockedUntilNanos = Math.max(blockedUntilNanos, System.nanoTime() + resetMs * 1_000_000);
+            }
+        }
+    }
+
+    /**
+     * @return The reset delay if the given quota is used up, otherwise 0
+     */
+    private static long exhaustedResetMs(ChatTransport.Exchange response, String quota) {
+        String remaining = response.getHeader("x-ratelimit-remaining-" + quota);
+        if (remaining == null) {
+            return 0;
+        }
+        try {
+            if (Long.parseLong(remaining.trim()) > 0) {
+                return 0;
+            }
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        return Math.max(0, RetryPolicy.parseDurationMs(response.getHeader("x-ratelimit-reset-" + quota)));
+    }
+}
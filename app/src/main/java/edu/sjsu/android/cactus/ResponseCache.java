@@ -0,0 +1,321 @@
+package edu.sjsu.android.cactus;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk cache of chat completion responses, keyed by a hash of the normalized conversation,
+ * the model and the tool definitions, so a prompt that was answered before is answered
+ * again without a round trip.
+ * Entries expire after a fixed time and the least recently used ones are evicted once the
+ * cache grows past its size limit. An in-memory index of the entries means a miss costs a
+ * hash and a map lookup, never a file system access.
+ */
+public class ResponseCache {
+
+    private static final String ENTRY_SUFFIX = ".json";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long maxBytes;
+    private final long ttlMs;
+    private volatile boolean cacheToolCalls;
+
+    // Entries by key, least recently used first. Loaded from the directory on first use.
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean loaded;
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ResponseCache(File directory, long maxBytes, long ttlMs) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * Also cache responses that call tools. Off by default: replaying a tool call runs the tool
+     * again, which the user may not expect from a cached answer.
+     */
+    public void setCacheToolCalls(boolean cacheToolCalls) {
+        this.cacheToolCalls = cacheToolCalls;
+    }
+
+    /**
+     * The cache key of a request. Message text is compared with surrounding whitespace
+     * trimmed and inner runs of whitespace collapsed.
+     */
+    public static String keyFor(String model, JSONArray messages, List<BaseTool> tools) {
+        return keyFor(model, messages, new ToolsPayload(tools));
+    }
+
+    /**
+     * The cache key of a request whose tools are already serialized
+     */
+    public static String keyFor(String model, JSONArray messages, ToolsPayload tools) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        update(digest, model);
+        for (int i = 0; i < messages.length(); i++) {
+            JSONObject message = messages.optJSONObject(i);
+            if (message == null) {
+                continue;
+            }
+            update(digest, message.optString("role"));
+            Object content = message.opt("content");
+            update(digest, content instanceof String ? normalize((String) content) : String.valueOf(content));
+            // Tool exchanges are part of the conversation too
+            update(digest, message.optString("tool_call_id"));
+            update(digest, String.valueOf(message.opt("tool_calls")));
+        }
+        update(digest, tools.toString());
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return key.toString();
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        // Separator, so "ab" + "c" and "a" + "bc" hash differently
+        digest.update((byte) 0);
+    }
+
+    static String normalize(String text) {
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    normalized.append(' ');
+                    pendingSpace = false;
+                }
+                normalized.append(c);
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * @return The cached response, or null on a miss
+     */
+    public JSONObject get(String key) {
+        File file;
+        synchronized (this) {
+            ensureLoaded();
+            Entry entry = index.get(key);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if (System.currentTimeMillis() - entry.createdAt > ttlMs) {
+                remove(key);
+                misses.incrementAndGet();
+                return null;
+            }
+            file = fileFor(key);
+        }
+
+        try {
+            JSONObject response = new JSONObject(readFile(file));
+            hits.incrementAndGet();
+            return response;
+        } catch (IOException | JSONException e) {
+            // Deleted behind our back or half written, treat as a miss
+            synchronized (this) {
+                remove(key);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Store a response unless it should not be replayed: an incomplete answer or, unless
+     * enabled, one with tool calls
+     * @return Whether the response was stored
+     */
+    public boolean put(String key, JSONObject response) {
+        JSONArray choices = response.optJSONArray("choices");
+        JSONObject choice = choices == null ? null : choices.optJSONObject(0);
+        JSONObject message = choice == null ? null : choice.optJSONObject("message");
+        if (message == null) {
+            return false;
+        }
+        if (message.has("tool_calls") && !cacheToolCalls) {
+            return false;
+        }
+        String finishReason = choice.optString("finish_reason", "");
+        if (!finishReason.equals("stop") && !finishReason.equals("tool_calls")) {
+            // Cut off by the length limit or a content filter
+            return false;
+        }
+
+        byte[] bytes = response.toString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxBytes) {
+            return false;
+        }
+
+        synchronized (this) {
+            ensureLoaded();
+            File temp = new File(directory, key + TEMP_SUFFIX);
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(bytes);
+            } catch (IOException e) {
+                android.util.Log.w("CACTUS_API", "Could not write cache entry", e);
+                temp.delete();
+                return false;
+            }
+            if (!temp.renameTo(fileFor(key))) {
+                temp.delete();
+                return false;
+            }
+
+            Entry previous = index.put(key, new Entry(bytes.length, System.currentTimeMillis()));
+            if (previous != null) {
+                totalBytes -= previous.size;
+            }
+            totalBytes += bytes.length;
+            trimToSize();
+        }
+        return true;
+    }
+
+    /**
+     * Read the index from disk now rather than in the first lookup
+     */
+    public synchronized void load() {
+        ensureLoaded();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public synchronized int getEntryCount() {
+        ensureLoaded();
+        return index.size();
+    }
+
+    /**
+     * Delete every entry
+     */
+    public synchronized void clear() {
+        ensureLoaded();
+        for (String key : index.keySet()) {
+            fileFor(key).delete();
+        }
+        index.clear();
+        totalBytes = 0;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> entries = index.entrySet().iterator();
+        while (totalBytes > maxBytes && entries.hasNext()) {
+            Map.Entry<String, Entry> eldest = entries.next();
+            fileFor(eldest.getKey()).delete();
+            totalBytes -= eldest.getValue().size;
+            entries.remove();
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = index.remove(key);
+        if (entry != null) {
+            totalBytes -= entry.size;
+            fileFor(key).delete();
+        }
+    }
+
+    /**
+     * Build the index from the directory, oldest entries first. Entries were last used
+     * some time after they were written, which is close enough for eviction order.
+     */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(ENTRY_SUFFIX) || now - file.lastModified() > ttlMs) {
+                // Expired, or a temp file left by a crash
+                file.delete();
+                continue;
+            }
+            String key = name.substring(0, name.length() - ENTRY_SUFFIX.length());
+            index.put(key, new Entry(file.length(), file.lastModified()));
+            totalBytes += file.length();
+        }
+        trimToSize();
+    }
+
+    private File fileFor(String key) {
+        return new File(directory, key + ENTRY_SUFFIX);
+    }
+
+    private static String readFile(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        }
+    }
+
+    private static final class Entry {
+        final long size;
+        final long createdAt;
+
+        Entry(long size, long createdAt) {
+            this.size = size;
+            this.createdAt = createdAt;
+        }
+    }
+}
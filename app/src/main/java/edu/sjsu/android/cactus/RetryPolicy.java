@@ -0,0 +1,162 @@
+package edu.sjsu.android.cactus;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * When and after how long a failed API call is sent again.
+ * Delays grow exponentially with full jitter, so clients that failed together do not
+ * retry together; a server-sent Retry-After (or retry-after-ms) is honored instead when
+ * it asks for longer, and a call is not retried at all if the server asks for more than
+ * maxRetryAfterMs.
+ */
+public class RetryPolicy {
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 4;
+    private static final long DEFAULT_BASE_DELAY_MS = 500;
+    private static final long DEFAULT_MAX_DELAY_MS = 8_000;
+    private static final long DEFAULT_MAX_RETRY_AFTER_MS = 20_000;
+
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final long maxRetryAfterMs;
+    private final Random random = new Random();
+
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS, DEFAULT_MAX_RETRY_AFTER_MS);
+    }
+
+    /**
+     * @param maxAttempts Attempts in total, 1 disables retries
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs, long maxRetryAfterMs) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.maxRetryAfterMs = maxRetryAfterMs;
+    }
+
+    /**
+     * Statuses worth another attempt: timeouts, rate limiting and server errors
+     */
+    public boolean isRetryable(int statusCode) {
+        return statusCode == 408 || statusCode == 409 || statusCode == 429
+                || statusCode == 500 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * Delay before retrying a call that got a retryable status
+     * @param attempt Attempts made so far, starting at 1
+     * @return The delay in ms, or -1 to give up
+     */
+    public long delayAfterResponse(int attempt, ChatTransport.Exchange response) {
+        if (attempt >= maxAttempts) {
+            return -1;
+        }
+        long backoff = backoff(attempt);
+        long retryAfter = retryAfterMs(response);
+        if (retryAfter > maxRetryAfterMs) {
+            // Not worth keeping the user waiting for
+            return -1;
+        }
+        return Math.max(backoff, retryAfter);
+    }
+
+    /**
+     * Delay before retrying a call that failed without a response
+     * @return The delay in ms, or -1 to give up
+     */
+    public long delayAfterFailure(int attempt, IOException failure) {
+        if (attempt >= maxAttempts || failure instanceof UnknownHostException) {
+            // Offline, retrying right away will not help
+            return -1;
+        }
+        if (failure instanceof InterruptedIOException && !(failure instanceof SocketTimeoutException)) {
+            // Cancelled or interrupted
+            return -1;
+        }
+        return backoff(attempt);
+    }
+
+    private long backoff(int attempt) {
+        long ceiling = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt - 1, 20));
+        synchronized (random) {
+            return (long) (random.nextDouble() * ceiling);
+        }
+    }
+
+    /**
+     * The delay the server asked for, or 0 if none
+     */
+    static long retryAfterMs(ChatTransport.Exchange response) {
+        String retryAfterMs = response.getHeader("retry-after-ms");
+        if (retryAfterMs != null) {
+            try {
+                return (long) Double.parseDouble(retryAfterMs.trim());
+            } catch (NumberFormatException e) {
+                // Fall back to Retry-After
+            }
+        }
+
+        String retryAfter = response.getHeader("Retry-After");
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return (long) (Double.parseDouble(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            // An HTTP date instead of seconds
+            Date date = response.getDateHeader("Retry-After");
+            return date == null ? 0 : Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Parse a duration as sent in the x-ratelimit-reset-* headers, e.g. "20ms", "1.5s" or "6m0s"
+     * @return The duration in ms, or -1 if it cannot be parsed
+     */
+    static long parseDurationMs(String value) {
+        if (value == null || value.isEmpty()) {
+            return -1;
+        }
+        double totalMs = 0;
+        int i = 0;
+        while (i < value.length()) {
+            int start = i;
+            while (i < value.length() && (Character.isDigit(value.charAt(i)) || value.charAt(i) == '.')) {
+                i++;
+            }
+            if (start == i) {
+                return -1;
+            }
+            double amount = Double.parseDouble(value.substring(start, i));
+            int unitStart = i;
+            while (i < value.length() && Character.isLetter(value.charAt(i))) {
+                i++;
+            }
+            switch (value.substring(unitStart, i)) {
+                case "ms":
+                    totalMs += amount;
+                    break;
+                case "s":
+                case "":
+                    totalMs += amount * 1000;
+                    break;
+                case "m":
+                    totalMs += amount * 60_000;
+                    break;
+                case "h":
+                    totalMs += amount * 3_600_000;
+                    break;
+                default:
+                    return -1;
+            }
+        }
+        return (long) Math.ceil(totalMs);
+    }
+}
@@ -0,0 +1,50 @@
+package edu.sjsu.android.cactus;
+
+/**
+ * A single full-text search hit in the chat history
+ */
+public class SearchResult {
+    private long messageId;
+    private long sessionId;
+    private long timestamp;
+    private boolean isUser;
+    private String snippet; // Matched terms are wrapped in the ChatDatabaseHelper snippet markers
+    private double score;
+
+    public SearchResult(long messageId, long sessionId, long timestamp, boolean isUser, String snippet, double score) {
+        this.messageId = messageId;
+        this.sessionId = sessionId;
+        this.timestamp = timestamp;
+        this.isUser = isUser;
+        this.snippet = snippet;
+        this.score = score;
+    }
+
+    public long getMessageId() {
+        return messageId;
+    }
+
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean isUser() {
+        return isUser;
+    }
+
+    public String getSnippet() {
+        return snippet;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public void setScore(double score) {
+        this.score = score;
+    }
+}
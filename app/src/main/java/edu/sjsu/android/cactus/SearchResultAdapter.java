@@ -0,0 +1,111 @@
+package edu.sjsu.android.cactus;
+
+import android.graphics.Typeface;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+public class SearchResultAdapter extends RecyclerView.Adapter<SearchResultAdapter.SearchResultViewHolder> {
+
+    private List<SearchResult> results;
+    private OnSearchResultClickListener listener;
+
+    public interface OnSearchResultClickListener {
+        void onSearchResultClick(SearchResult result);
+    }
+
+    public SearchResultAdapter(OnSearchResultClickListener listener) {
+        this.results = new ArrayList<>();
+        this.listener = listener;
+    }
+
+    public void setResults(List<SearchResult> results) {
+        this.results = results;
+        notifyDataSetChanged();
+    }
+
+    @NonNull
+    @Override
+    public SearchResultViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_session, parent, false);
+        return new SearchResultViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull SearchResultViewHolder holder, int position) {
+        SearchResult result = results.get(position);
+        holder.titleText.setText(highlightMatches(result.getSnippet()));
+
+        // Format timestamp
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd, yyyy", Locale.getDefault());
+        String dateStr = dateFormat.format(new Date(result.getTimestamp()));
+        holder.subtitleText.setText((result.isUser() ? "You" : "Assistant") + " • " + dateStr);
+
+        holder.itemView.setBackgroundResource(R.drawable.session_background);
+        holder.itemView.setOnClickListener(v -> {
+            if (listener != null) {
+                listener.onSearchResultClick(result);
+            }
+        });
+    }
+
+    /**
+     * Replace the snippet match markers with bold spans
+     */
+    private CharSequence highlightMatches(String snippet) {
+        SpannableStringBuilder builder = new SpannableStringBuilder();
+        if (snippet == null) {
+            return builder;
+        }
+
+        int matchStart = -1;
+        for (int i = 0; i < snippet.length(); i++) {
+            char c = snippet.charAt(i);
+            if (c == ChatDatabaseHelper.SNIPPET_MATCH_START) {
+                matchStart = builder.length();
+            } else if (c == ChatDatabaseHelper.SNIPPET_MATCH_END && matchStart >= 0) {
+                builder.setSpan(new StyleSpan(Typeface.BOLD), matchStart, builder.length(),
+                        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                matchStart = -1;
+            } else if (c == '\n') {
+                builder.append(' ');
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder;
+    }
+
+    @Override
+    public int getItemCount() {
+        return results.size();
+    }
+
+    static class SearchResultViewHolder extends RecyclerView.ViewHolder {
+        TextView titleText;
+        TextView subtitleText;
+
+        public SearchResultViewHolder(@NonNull View itemView) {
+            super(itemView);
+            titleText = itemView.findViewById(R.id.sessionTitle);
+            subtitleText = itemView.findViewById(R.id.sessionSubtitle);
+            // Snippets are longer than session titles
+            titleText.setMaxLines(2);
+            titleText.setTypeface(Typeface.DEFAULT);
+        }
+    }
+}
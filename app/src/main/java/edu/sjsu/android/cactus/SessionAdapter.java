@@ -18,17 +18,26 @@ public class SessionAdapter extends RecyclerView.Adapter<SessionAdapter.SessionV
 
     private List<ChatSession> sessions;
     private OnSessionClickListener listener;
+    private OnSessionLongClickListener longClickListener;
     private long selectedSessionId = -1;
 
     public interface OnSessionClickListener {
         void onSessionClick(ChatSession session);
     }
 
+    public interface OnSessionLongClickListener {
+        void onSessionLongClick(ChatSession session);
+    }
+
     public SessionAdapter(OnSessionClickListener listener) {
         this.sessions = new ArrayList<>();
         this.listener = listener;
     }
 
+    public void setOnSessionLongClickListener(OnSessionLongClickListener longClickListener) {
+        this.longClickListener = longClickListener;
+    }
+
     public void setSessions(List<ChatSession> sessions) {
         this.sessions = sessions;
         notifyDataSetChanged();
@@ -74,6 +83,14 @@ public class SessionAdapter extends RecyclerView.Adapter<SessionAdapter.SessionV
                 listener.onSessionClick(session);
             }
         });
+
+        holder.itemView.setOnLongClickListener(v -> {
+            if (longClickListener != null) {
+                longClickListener.onSessionLongClick(session);
+                return true;
+            }
+            return false;
+        });
     }
 
     @Override
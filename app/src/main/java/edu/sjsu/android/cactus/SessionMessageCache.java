@@ -0,0 +1,104 @@
+package edu.sjsu.android.cactus;
+
+import android.content.ComponentCallbacks2;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * In-memory LRU of the newest history page of recently opened sessions, so switching
+ * back to one of them can render without a database round trip.
+ * Entries are bounded by their approximate size in bytes rather than by count.
+ */
+public class SessionMessageCache {
+
+    private final LruCache<Long, Entry> cache;
+
+    // Bumped by every invalidation, so a page read before a write is not cached after it
+    private long version;
+
+    public SessionMessageCache(int maxBytes) {
+        cache = new LruCache<Long, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(Long sessionId, Entry entry) {
+                return entry.size;
+            }
+        };
+    }
+
+    /**
+     * Get a copy of the cached page of a session, oldest first
+     * @return The messages, or null on a miss
+     */
+    public List<Message> get(long sessionId) {
+        Entry entry = cache.get(sessionId);
+        return entry == null ? null : new ArrayList<>(entry.messages);
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized void put(long sessionId, List<Message> messages) {
+        cache.put(sessionId, new Entry(messages));
+    }
+
+    /**
+     * Cache a page read from the database unless an invalidation happened since it was read
+     * @param readVersion getVersion() taken before the read started
+     */
+    public synchronized void putIfUnchanged(long sessionId, List<Message> messages, long readVersion) {
+        if (readVersion == version) {
+            put(sessionId, messages);
+        }
+    }
+
+    public synchronized void invalidate(long sessionId) {
+        version++;
+        cache.remove(sessionId);
+    }
+
+    public synchronized void invalidate(Collection<Long> sessionIds) {
+        version++;
+        for (long sessionId : sessionIds) {
+            cache.remove(sessionId);
+        }
+    }
+
+    public synchronized void clear() {
+        version++;
+        cache.evictAll();
+    }
+
+    /**
+     * Release memory in response to ComponentCallbacks2.onTrimMemory
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW && level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            cache.evictAll();
+        } else {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    /**
+     * A cached page and its size when it was cached. Messages shrink or grow as they are
+     * decompressed, but LruCache needs the same size back when the entry is removed.
+     */
+    private static final class Entry {
+        final List<Message> messages;
+        final int size;
+
+        Entry(List<Message> messages) {
+            this.messages = Collections.unmodifiableList(new ArrayList<>(messages));
+            int size = 0;
+            for (Message message : messages) {
+                size += message.getApproximateSize();
+            }
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package edu.sjsu.android.cactus;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local estimate of how many tokens the model's tokenizer (o200k_base for the gpt-4o family)
+ * produces for a text, used to budget the context sent with each turn.
+ * Text is split with the same pre-tokenization pattern the tokenizer applies before its BPE
+ * merges, so word, number, punctuation and whitespace boundaries match. Each piece is then
+ * costed by length instead of by merging against the 200k-entry vocabulary, which is not
+ * bundled with the app: common words are one token, long or rare pieces cost more.
+ */
+public final class TokenEstimator {
+
+    // Framing the API adds around every message (role and separators), and before the reply
+    public static final int MESSAGE_OVERHEAD_TOKENS = 3;
+    public static final int REPLY_PRIMING_TOKENS = 3;
+
+    // The o200k_base pre-tokenizer
+    private static final Pattern PIECES = Pattern.compile(
+            "[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]*[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]+(?i:'s|'t|'re|'ve|'m|'ll|'d)?" +
+            "|[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]+[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]*(?i:'s|'t|'re|'ve|'m|'ll|'d)?" +
+            "|\\p{N}{1,3}" +
+            "| ?[^\\s\\p{L}\\p{N}]+[\\r\\n/]*" +
+            "|\\s*[\\r\\n]+" +
+            "|\\s+(?!\\S)" +
+            "|\\s+");
+
+    // Longest ASCII word piece, leading space included, that is usually a single token
+    private static final int SINGLE_TOKEN_WORD_LENGTH = 8;
+    // Characters per token in longer ASCII words
+    private static final double CHARS_PER_TOKEN = 4.5;
+
+    // Private constructor to prevent accidental instantiation
+    private TokenEstimator() {}
+
+    /**
+     * Estimated token count of a text, without message framing
+     */
+    public static int countTokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int tokens = 0;
+        Matcher matcher = PIECES.matcher(text);
+        while (matcher.find()) {
+            tokens += pieceTokens(text, matcher.start(), matcher.end());
+        }
+        return tokens;
+    }
+
+    /**
+     * Estimated tokens of a chat message with the given content, framing included
+     */
+    public static int countMessageTokens(String content) {
+        return MESSAGE_OVERHEAD_TOKENS + countTokens(content);
+    }
+
+    private static int pieceTokens(String text, int start, int end) {
+        int length = end - start;
+        int letters = 0;
+        int ideographs = 0;
+        boolean ascii = true;
+        for (int i = start; i < end; ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (codePoint >= 0x80) {
+                ascii = false;
+                if (Character.isIdeographic(codePoint)) {
+                    ideographs++;
+                }
+            }
+            if (Character.isLetter(codePoint)) {
+                letters++;
+            }
+        }
+
+        if (ascii) {
+            if (letters == 0) {
+                // Numbers (at most three digits per piece), whitespace runs and punctuation runs
+                return Character.isWhitespace(text.charAt(start)) ? 1 : Math.max(1, (length + 1) / 3);
+            }
+            if (length <= SINGLE_TOKEN_WORD_LENGTH) {
+                return 1;
+            }
+            return (int) Math.ceil(length / CHARS_PER_TOKEN);
+        }
+
+        // Ideographs are about one token each, other scripts take a few characters per token
+        int other = Math.max(0, text.codePointCount(start, end) - ideographs);
+        return Math.max(1, ideographs + (other + 2) / 3);
+    }
+}
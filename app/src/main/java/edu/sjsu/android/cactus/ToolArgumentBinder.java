@@ -0,0 +1,202 @@
+package edu.sjsu.android.cactus;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The JSON schema of a tool's parameters and a typed binder for its arguments, both derived
+ * from the @ToolParam fields of an arguments class. The class is inspected once, when the tool
+ * is created; after that a request only writes the serialized schema and binding reads the
+ * fields from a prepared list.
+ *
+ * Supported field types are int, long, double and boolean (and their boxed forms) and String.
+ * Parameters appear in the schema sorted by name, so the tools payload is the same on every run.
+ */
+public final class ToolArgumentBinder<T> {
+
+    private final Constructor<T> constructor;
+    private final List<Parameter> parameters;
+    private final JSONObject schema;
+
+    private ToolArgumentBinder(Constructor<T> constructor, List<Parameter> parameters) throws JSONException {
+        this.constructor = constructor;
+        this.parameters = parameters;
+
+        JSONObject properties = new JSONObject();
+        JSONArray required = new JSONArray();
+        for (Parameter parameter : parameters) {
+            JSONObject property = new JSONObject();
+            property.put("type", parameter.jsonType);
+            property.put("description", parameter.annotation.description());
+            if (parameter.annotation.minimum() != Long.MIN_VALUE) {
+                property.put("minimum", parameter.annotation.minimum());
+            }
+            if (parameter.annotation.maximum() != Long.MAX_VALUE) {
+                property.put("maximum", parameter.annotation.maximum());
+            }
+            if (parameter.annotation.minLength() > 0) {
+                property.put("minLength", parameter.annotation.minLength());
+            }
+            properties.put(parameter.name, property);
+            if (parameter.annotation.required()) {
+                required.put(parameter.name);
+            }
+        }
+        schema = new JSONObject();
+        schema.put("type", "object");
+        schema.put("properties", properties);
+        schema.put("required", required);
+    }
+
+    /**
+     * Inspect an arguments class
+     * @param type Needs a no-argument constructor; its @ToolParam fields must not be static or final
+     * @throws IllegalArgumentException If the class cannot be bound
+     */
+    public static <T> ToolArgumentBinder<T> of(Class<T> type) {
+        List<Parameter> parameters = new ArrayList<>();
+        for (Field field : type.getDeclaredFields()) {
+            ToolParam annotation = field.getAnnotation(ToolParam.class);
+            if (annotation == null) {
+                continue;
+            }
+            if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())) {
+                throw new IllegalArgumentException(type.getName() + "." + field.getName() + " must not be static or final");
+            }
+            field.setAccessible(true);
+            parameters.add(new Parameter(field, jsonTypeOf(field), annotation));
+        }
+        Collections.sort(parameters, Comparator.comparing(parameter -> parameter.name));
+
+        try {
+            Constructor<T> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return new ToolArgumentBinder<>(constructor, parameters);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(type.getName() + " needs a no-argument constructor", e);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Cannot build the schema of " + type.getName(), e);
+        }
+    }
+
+    private static String jsonTypeOf(Field field) {
+        Class<?> type = field.getType();
+        if (type == int.class || type == Integer.class || type == long.class || type == Long.class) {
+            return "integer";
+        } else if (type == double.class || type == Double.class) {
+            return "number";
+        } else if (type == boolean.class || type == Boolean.class) {
+            return "boolean";
+        } else if (type == String.class) {
+            return "string";
+        }
+        throw new IllegalArgumentException("Unsupported parameter type " + type.getName() + " of " + field.getName());
+    }
+
+    /**
+     * The parameters schema. Shared, so callers must not modify it.
+     */
+    public JSONObject getSchema() {
+        return schema;
+    }
+
+    /**
+     * Create an arguments object from the model's arguments
+     * @throws IllegalArgumentException If a required parameter is missing or a value has the
+     *                                  wrong type or is out of range. The message can be passed
+     *                                  back to the model.
+     */
+    public T bind(JSONObject arguments) {
+        T bound;
+        try {
+            bound = constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+        for (Parameter parameter : parameters) {
+            if (!arguments.has(parameter.name) || arguments.isNull(parameter.name)) {
+                if (parameter.annotation.required()) {
+                    throw new IllegalArgumentException("Missing required parameter " + parameter.name);
+                }
+                continue;
+            }
+            try {
+                parameter.bind(bound, arguments);
+            } catch (JSONException e) {
+                throw new IllegalArgumentException("Parameter " + parameter.name + " must be of type " + parameter.jsonType);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * One @ToolParam field
+     */
+    private static class Parameter {
+        final Field field;
+        final String name;
+        final String jsonType;
+        final ToolParam annotation;
+
+        Parameter(Field field, String jsonType, ToolParam annotation) {
+            this.field = field;
+            this.name = field.getName();
+            this.jsonType = jsonType;
+            this.annotation = annotation;
+        }
+
+        void bind(Object target, JSONObject arguments) throws JSONException, IllegalAccessException {
+            Class<?> type = field.getType();
+            switch (jsonType) {
+                case "integer":
+                    long value = arguments.getLong(name);
+                    checkRange(value);
+                    if (type == int.class || type == Integer.class) {
+                        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                            throw new IllegalArgumentException("Parameter " + name + " is out of range");
+                        }
+                        field.set(target, (int) value);
+                    } else {
+                        field.set(target, value);
+                    }
+                    break;
+                case "number":
+                    double number = arguments.getDouble(name);
+                    checkRange(number);
+                    field.set(target, number);
+                    break;
+                case "boolean":
+                    field.set(target, arguments.getBoolean(name));
+                    break;
+                default:
+                    String text = arguments.getString(name);
+                    if (text.length() < annotation.minLength()) {
+                        throw new IllegalArgumentException("Parameter " + name + " must have at least " +
+                                annotation.minLength() + " characters");
+                    }
+                    field.set(target, text);
+                    break;
+            }
+        }
+
+        private void checkRange(double value) {
+            if (value < annotation.minimum()) {
+                throw new IllegalArgumentException("Parameter " + name + " must be at least " + annotation.minimum());
+            }
+            if (value > annotation.maximum()) {
+                throw new IllegalArgumentException("Parameter " + name + " must be at most " + annotation.maximum());
+            }
+        }
+    }
+}
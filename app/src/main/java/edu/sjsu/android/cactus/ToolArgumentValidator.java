@@ -0,0 +1,308 @@
+package edu.sjsu.android.cactus;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks a tool call's arguments against the tool's parameters schema before the user is asked
+ * to confirm it. The schema is compiled once into a flat list of property checks, so a check
+ * is a few map lookups and comparisons.
+ *
+ * Supports the subset of JSON schema the tools use: an object with "properties" of type
+ * integer, number, boolean or string, "required", "minimum", "maximum", "minLength" and "enum".
+ * Simple slips are repaired instead of rejected: a number sent as a string, an integer sent as
+ * 7.0, a string sent as a number, and whitespace around a string.
+ */
+public final class ToolArgumentValidator {
+
+    private static final int TYPE_INTEGER = 0;
+    private static final int TYPE_NUMBER = 1;
+    private static final int TYPE_BOOLEAN = 2;
+    private static final int TYPE_STRING = 3;
+
+    private final Property[] properties;
+    private final String[] required;
+
+    private ToolArgumentValidator(Property[] properties, String[] required) {
+        this.properties = properties;
+        this.required = required;
+    }
+
+    /**
+     * @throws IllegalArgumentException If the schema uses a type this validator does not support
+     */
+    public static ToolArgumentValidator compile(JSONObject schema) {
+        List<Property> properties = new ArrayList<>();
+        JSONObject propertySchemas = schema.optJSONObject("properties");
+        if (propertySchemas != null) {
+            Iterator<String> names = propertySchemas.keys();
+            while (names.hasNext()) {
+                String name = names.next();
+                properties.add(new Property(name, propertySchemas.optJSONObject(name)));
+            }
+        }
+        JSONArray requiredNames = schema.optJSONArray("required");
+        String[] required = new String[requiredNames == null ? 0 : requiredNames.length()];
+        for (int i = 0; i < required.length; i++) {
+            required[i] = requiredNames.optString(i);
+        }
+        return new ToolArgumentValidator(properties.toArray(new Property[0]), required);
+    }
+
+    /**
+     * Check a call's arguments
+     * @return The outcome; the arguments given are never modified
+     */
+    public Result validate(JSONObject arguments) {
+        List<String> errors = null;
+        JSONObject repaired = null;
+
+        for (String name : required) {
+            if (!arguments.has(name) || arguments.isNull(name)) {
+                errors = add(errors, "Missing required parameter " + name);
+            }
+        }
+        for (Property property : properties) {
+            Object value = arguments.opt(property.name);
+            if (value == null || value == JSONObject.NULL) {
+                continue;
+            }
+            Object checked = property.check(value);
+            if (checked instanceof Invalid) {
+                errors = add(errors, ((Invalid) checked).message);
+            } else if (checked != value) {
+                try {
+                    if (repaired == null) {
+                        repaired = new JSONObject(arguments.toString());
+                    }
+                    repaired.put(property.name, checked);
+                } catch (JSONException e) {
+                    errors = add(errors, "Parameter " + property.name + " cannot be read");
+                }
+            }
+        }
+
+        if (errors != null) {
+            return new Result(arguments, false, errors);
+        }
+        return repaired != null ? new Result(repaired, true, Collections.emptyList())
+                : new Result(arguments, false, Collections.emptyList());
+    }
+
+    private static List<String> add(List<String> errors, String error) {
+        if (errors == null) {
+            errors = new ArrayList<>();
+        }
+        errors.add(error);
+        return errors;
+    }
+
+    /**
+     * Outcome of a check
+     */
+    public static final class Result {
+        private final JSONObject arguments;
+        private final boolean repaired;
+        private final List<String> errors;
+
+        Result(JSONObject arguments, boolean repaired, List<String> errors) {
+            this.arguments = arguments;
+            this.repaired = repaired;
+            this.errors = errors;
+        }
+
+        public boolean isValid() {
+            return errors.isEmpty();
+        }
+
+        /**
+         * The arguments to use: a repaired copy if isRepaired(), else the ones given
+         */
+        public JSONObject getArguments() {
+            return arguments;
+        }
+
+        public boolean isRepaired() {
+            return repaired;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+    }
+
+    /**
+     * A failed property check
+     */
+    private static final class Invalid {
+        final String message;
+
+        Invalid(String message) {
+            this.message = message;
+        }
+    }
+
+    /**
+     * One compiled property schema
+     */
+    private static final class Property {
+        final String name;
+        final int type;
+        final double minimum;
+        final double maximum;
+        final int minLength;
+        final Set<String> allowed; // The enum values, null if any value is allowed
+
+        Property(String name, JSONObject schema) {
+            this.name = name;
+            String type = schema == null ? "" : schema.optString("type");
+            switch (type) {
+                case "integer":
+                    this.type = TYPE_INTEGER;
+                    break;
+                case "number":
+                    this.type = TYPE_NUMBER;
+                    break;
+                case "boolean":
+                    this.type = TYPE_BOOLEAN;
+                    break;
+                case "string":
+                    this.type = TYPE_STRING;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported type '" + type + "' of parameter " + name);
+            }
+            this.minimum = schema.optDouble("minimum", Double.NEGATIVE_INFINITY);
+            this.maximum = schema.optDouble("maximum", Double.POSITIVE_INFINITY);
+            this.minLength = schema.optInt("minLength", 0);
+            JSONArray values = schema.optJSONArray("enum");
+            if (values != null) {
+                allowed = new HashSet<>();
+                for (int i = 0; i < values.length(); i++) {
+                    allowed.add(values.optString(i));
+                }
+            } else {
+                allowed = null;
+            }
+        }
+
+        /**
+         * @return The value if it is valid, a repaired value, or an Invalid
+         */
+        Object check(Object value) {
+            switch (type) {
+                case TYPE_INTEGER:
+                    return checkInteger(value);
+                case TYPE_NUMBER:
+                    return checkNumber(value);
+                case TYPE_BOOLEAN:
+                    return checkBoolean(value);
+                default:
+                    return checkString(value);
+            }
+        }
+
+        private Object checkInteger(Object value) {
+            Object result = value;
+            long number;
+            if (value instanceof Integer || value instanceof Long) {
+                number = ((Number) value).longValue();
+            } else if (value instanceof Number && isIntegral(((Number) value).doubleValue())) {
+                // 7.0
+                number = ((Number) value).longValue();
+                result = number;
+            } else if (value instanceof String) {
+                try {
+                    number = Long.parseLong(((String) value).trim());
+                    result = number;
+                } catch (NumberFormatException e) {
+                    return new Invalid("Parameter " + name + " must be an integer");
+                }
+            } else {
+                return new Invalid("Parameter " + name + " must be an integer");
+            }
+            Invalid range = checkRange(number);
+            return range != null ? range : result;
+        }
+
+        private Object checkNumber(Object value) {
+            Object result = value;
+            double number;
+            if (value instanceof Number) {
+                number = ((Number) value).doubleValue();
+            } else if (value instanceof String) {
+                try {
+                    number = Double.parseDouble(((String) value).trim());
+                    result = number;
+                } catch (NumberFormatException e) {
+                    return new Invalid("Parameter " + name + " must be a number");
+                }
+            } else {
+                return new Invalid("Parameter " + name + " must be a number");
+            }
+            Invalid range = checkRange(number);
+            return range != null ? range : result;
+        }
+
+        private Object checkBoolean(Object value) {
+            if (value instanceof Boolean) {
+                return value;
+            }
+            if (value instanceof String) {
+                String text = ((String) value).trim();
+                if (text.equalsIgnoreCase("true") || text.equalsIgnoreCase("false")) {
+                    return Boolean.valueOf(text);
+                }
+            }
+            return new Invalid("Parameter " + name + " must be a boolean");
+        }
+
+        private Object checkString(Object value) {
+            String text;
+            if (value instanceof String) {
+                text = (String) value;
+            } else if (value instanceof Number) {
+                // A phone number sent as a number
+                text = value instanceof Double || value instanceof Float
+                        ? String.valueOf(((Number) value).doubleValue()) : String.valueOf(value);
+            } else {
+                return new Invalid("Parameter " + name + " must be a string");
+            }
+            String trimmed = text.trim();
+            if (trimmed.length() < minLength) {
+                return new Invalid(minLength == 1 ? "Parameter " + name + " must not be empty"
+                        : "Parameter " + name + " must have at least " + minLength + " characters");
+            }
+            if (allowed != null && !allowed.contains(trimmed)) {
+                return new Invalid("Parameter " + name + " must be one of " + allowed);
+            }
+            return trimmed.equals(value) ? value : trimmed;
+        }
+
+        private Invalid checkRange(double number) {
+            if (number < minimum) {
+                return new Invalid("Parameter " + name + " must be at least " + format(minimum));
+            }
+            if (number > maximum) {
+                return new Invalid("Parameter " + name + " must be at most " + format(maximum));
+            }
+            return null;
+        }
+
+        private static boolean isIntegral(double number) {
+            return number == Math.rint(number) && !Double.isInfinite(number);
+        }
+
+        private static String format(double bound) {
+            return isIntegral(bound) ? String.valueOf((long) bound) : String.valueOf(bound);
+        }
+    }
+}
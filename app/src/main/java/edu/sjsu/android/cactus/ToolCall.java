@@ -1,7 +1,12 @@
 package edu.sjsu.android.cactus;
 
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Represents a function/tool call request from the LLM
  */
@@ -16,6 +21,21 @@ public class ToolCall {
         this.arguments = arguments;
     }
 
+    /**
+     * Parse the tool_calls array of an assistant message, keeping its order
+     * @throws JSONException If a call is malformed or its arguments are not a JSON object
+     */
+    public static List<ToolCall> fromJSONArray(JSONArray toolCalls) throws JSONException {
+        List<ToolCall> calls = new ArrayList<>(toolCalls.length());
+        for (int i = 0; i < toolCalls.length(); i++) {
+            JSONObject toolCall = toolCalls.getJSONObject(i);
+            JSONObject function = toolCall.getJSONObject("function");
+            calls.add(new ToolCall(toolCall.getString("id"), function.getString("name"),
+                    new JSONObject(function.getString("arguments"))));
+        }
+        return calls;
+    }
+
     public String getId() {
         return id;
     }
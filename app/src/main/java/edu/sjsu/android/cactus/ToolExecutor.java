@@ -0,0 +1,134 @@
+package edu.sjsu.android.cactus;
+
+import android.os.CancellationSignal;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the approved tool calls of one assistant message concurrently, through each tool's
+ * executeAsync on a bounded pool. Each call gets a time budget; one that overruns is signalled
+ * to stop and reported as timed out instead of holding up the rest. Results come back in the
+ * order of the calls, as the follow-up request expects.
+ */
+public class ToolExecutor {
+
+    private final ToolRegistry tools;
+    private final ExecutorService pool;
+    private final long defaultTimeoutMs;
+    // Per-tool budgets by tool name, overriding what the tool declares
+    private final Map<String, Long> timeouts = new ConcurrentHashMap<>();
+
+    /**
+     * @param poolSize Most calls running at once, the rest wait for a thread
+     * @param defaultTimeoutMs Budget for tools that declare none, counted from when the batch starts
+     */
+    public ToolExecutor(ToolRegistry tools, int poolSize, long defaultTimeoutMs) {
+        this.tools = tools;
+        this.pool = Executors.newFixedThreadPool(poolSize);
+        this.defaultTimeoutMs = defaultTimeoutMs;
+    }
+
+    public void setTimeout(String toolName, long timeoutMs) {
+        timeouts.put(toolName, timeoutMs);
+    }
+
+    /**
+     * The budget set for the tool, else the one it declares, else the default
+     */
+    public long getTimeout(String toolName) {
+        Long timeoutMs = timeouts.get(toolName);
+        if (timeoutMs != null) {
+            return timeoutMs;
+        }
+        BaseTool tool = tools.get(toolName);
+        return tool != null && tool.getTimeoutMs() > 0 ? tool.getTimeoutMs() : defaultTimeoutMs;
+    }
+
+    /**
+     * Run the calls and wait for all of them
+     * @return One result per call, in the same order, each with its call's ID
+     * @throws InterruptedIOException If the turn is cancelled; calls still running are interrupted
+     */
+    public List<ToolResult> executeAll(List<ToolCall> calls, ChatTurn turn) throws InterruptedIOException {
+        turn.throwIfCancelled();
+        long startNanos = System.nanoTime();
+        List<CancellationSignal> signals = new ArrayList<>(calls.size());
+        List<CompletableFuture<ToolResult>> futures = new ArrayList<>(calls.size());
+        for (ToolCall call : calls) {
+            CancellationSignal signal = new CancellationSignal();
+            signals.add(signal);
+            futures.add(start(call, signal));
+        }
+
+        List<ToolResult> results = new ArrayList<>(calls.size());
+        try {
+            for (int i = 0; i < calls.size(); i++) {
+                results.add(await(calls.get(i), futures.get(i), signals.get(i), startNanos));
+            }
+        } catch (InterruptedException e) {
+            // The turn was cancelled while waiting, ask the calls still running to stop
+            for (int i = 0; i < calls.size(); i++) {
+                signals.get(i).cancel();
+                futures.get(i).cancel(true);
+            }
+            throw new InterruptedIOException("Canceled");
+        }
+        turn.throwIfCancelled();
+        return results;
+    }
+
+    private CompletableFuture<ToolResult> start(ToolCall call, CancellationSignal signal) {
+        BaseTool tool = tools.get(call.getName());
+        if (tool == null) {
+            return CompletableFuture.completedFuture(new ToolResult("", "Unknown tool: " + call.getName()));
+        }
+        try {
+            return tool.executeAsync(call.getArguments(), signal, pool);
+        } catch (RuntimeException e) {
+            CompletableFuture<ToolResult> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private ToolResult await(ToolCall call, CompletableFuture<ToolResult> future, CancellationSignal signal,
+                             long startNanos) throws InterruptedException {
+        long timeoutMs = getTimeout(call.getName());
+        long remainingNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMs) - System.nanoTime();
+        ToolResult result;
+        try {
+            result = future.get(Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Cooperative: the tool sees the signal, its late result is dropped
+            signal.cancel();
+            future.cancel(true);
+            android.util.Log.d("CACTUS_API", "Tool " + call.getName() + " timed out after " + timeoutMs + " ms");
+            result = ToolResult.timedOut("", call.getName(), timeoutMs);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            // Many exceptions have no message, the model still needs to know what went wrong
+            String reason = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+            android.util.Log.d("CACTUS_API", "Tool " + call.getName() + " failed", cause);
+            result = new ToolResult("", "Failed to run " + call.getName() + ": " + reason);
+        }
+        result.setToolCallId(call.getId());
+        return result;
+    }
+
+    /**
+     * Stop the pool, interrupting calls still running
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+}
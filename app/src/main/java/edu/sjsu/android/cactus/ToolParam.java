@@ -0,0 +1,37 @@
+package edu.sjsu.android.cactus;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field of a tool's arguments class as one of its parameters. ToolArgumentBinder turns
+ * the annotated fields into the tool's JSON schema and fills them from the model's arguments.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface ToolParam {
+
+    /**
+     * Shown to the model in the schema
+     */
+    String description();
+
+    /**
+     * An optional parameter keeps the field's initial value when the model leaves it out
+     */
+    boolean required() default true;
+
+    /**
+     * Inclusive range of an integer or number parameter. The defaults mean no bound.
+     */
+    long minimum() default Long.MIN_VALUE;
+
+    long maximum() default Long.MAX_VALUE;
+
+    /**
+     * Fewest characters of a string parameter, e.g. 1 for one that must not be empty
+     */
+    int minLength() default 0;
+}
@@ -0,0 +1,70 @@
+package edu.sjsu.android.cactus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The tools offered to the model, looked up by name in constant time, their definitions
+ * serialized once into the payload sent with every request and an argument validator compiled
+ * from each schema. Immutable once built.
+ */
+public final class ToolRegistry {
+
+    private final List<BaseTool> tools;
+    private final Map<String, BaseTool> toolsByName;
+    private final Map<String, ToolArgumentValidator> validators;
+    private final ToolsPayload payload;
+
+    /**
+     * @throws IllegalArgumentException If two tools share a name
+     */
+    public ToolRegistry(List<BaseTool> tools) {
+        Map<String, BaseTool> toolsByName = new HashMap<>();
+        Map<String, ToolArgumentValidator> validators = new HashMap<>();
+        for (BaseTool tool : tools) {
+            if (toolsByName.put(tool.getName(), tool) != null) {
+                throw new IllegalArgumentException("Duplicate tool name " + tool.getName());
+            }
+            validators.put(tool.getName(), ToolArgumentValidator.compile(tool.getParametersSchema()));
+        }
+        this.tools = Collections.unmodifiableList(new ArrayList<>(tools));
+        this.toolsByName = Collections.unmodifiableMap(toolsByName);
+        this.validators = Collections.unmodifiableMap(validators);
+        this.payload = new ToolsPayload(this.tools);
+    }
+
+    /**
+     * The tool with this name, or null if there is none
+     */
+    public BaseTool get(String name) {
+        return toolsByName.get(name);
+    }
+
+    /**
+     * The validator of the tool with this name, or null if there is none
+     */
+    public ToolArgumentValidator getValidator(String name) {
+        return validators.get(name);
+    }
+
+    /**
+     * All tools, in the order they were registered
+     */
+    public List<BaseTool> getTools() {
+        return tools;
+    }
+
+    public int size() {
+        return tools.size();
+    }
+
+    /**
+     * The serialized "tools" array of a request
+     */
+    public ToolsPayload getPayload() {
+        return payload;
+    }
+}
@@ -1,32 +1,66 @@
 package edu.sjsu.android.cactus;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
 /**
  * Represents the result of executing a tool
  */
 public class ToolResult {
+    // Kinds of failure, reported to the model with the error message
+    public static final String ERROR_FAILED = "failed";
+    public static final String ERROR_TIMEOUT = "timeout";
+    public static final String ERROR_CANCELLED = "cancelled";
+    public static final String ERROR_INVALID_ARGUMENTS = "invalid_arguments";
+
     private String toolCallId;
     private String result;
     private boolean success;
     private String error;
+    private String errorType;
 
     public ToolResult(String toolCallId, String result, boolean success) {
         this.toolCallId = toolCallId;
         this.result = result;
         this.success = success;
         this.error = null;
+        this.errorType = success ? null : ERROR_FAILED;
     }
 
     public ToolResult(String toolCallId, String error) {
+        this(toolCallId, ERROR_FAILED, error);
+    }
+
+    public ToolResult(String toolCallId, String errorType, String error) {
         this.toolCallId = toolCallId;
         this.result = null;
         this.success = false;
         this.error = error;
+        this.errorType = errorType;
+    }
+
+    /**
+     * A call that did not finish within its time limit
+     */
+    public static ToolResult timedOut(String toolCallId, String toolName, long timeoutMs) {
+        return new ToolResult(toolCallId, ERROR_TIMEOUT, toolName + " did not finish within " + timeoutMs + " ms");
+    }
+
+    /**
+     * A call stopped before it finished
+     */
+    public static ToolResult cancelled(String toolCallId) {
+        return new ToolResult(toolCallId, ERROR_CANCELLED, "The call was cancelled");
     }
 
     public String getToolCallId() {
         return toolCallId;
     }
 
+    public void setToolCallId(String toolCallId) {
+        this.toolCallId = toolCallId;
+    }
+
     public String getResult() {
         return result;
     }
@@ -39,6 +73,31 @@ public class ToolResult {
         return error;
     }
 
+    /**
+     * One of the ERROR_ constants, or null if the call succeeded
+     */
+    public String getErrorType() {
+        return errorType;
+    }
+
+    /**
+     * Content of the tool message sent back to the model: the result, or for a failure
+     * {"error": {"type", "message"}} so the model can tell a timeout from a bad argument
+     */
+    public String toToolMessageContent() {
+        if (success) {
+            return result;
+        }
+        try {
+            JSONObject details = new JSONObject();
+            details.put("type", errorType);
+            details.put("message", error);
+            return new JSONObject().put("error", details).toString();
+        } catch (JSONException e) {
+            return error;
+        }
+    }
+
     @Override
     public String toString() {
         return "ToolResult{" +
@@ -46,6 +105,7 @@ public class ToolResult {
                 ", result='" + result + '\'' +
                 ", success=" + success +
                 ", error='" + error + '\'' +
+                ", errorType='" + errorType + '\'' +
                 '}';
     }
 }
@@ -0,0 +1,64 @@
+package edu.sjsu.android.cactus;
+
+import android.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The "tools" array of a chat completions request, serialized once when the tools are set
+ * up. Tool schemas do not change while the app runs, so every request writes the same bytes
+ * instead of asking each tool to build its definition again.
+ */
+public final class ToolsPayload {
+
+    private final List<BaseTool> tools;
+    private final byte[] json;
+
+    public ToolsPayload(List<BaseTool> tools) {
+        this.tools = Collections.unmodifiableList(new ArrayList<>(tools));
+
+        StringWriter text = new StringWriter();
+        try {
+            JsonWriter writer = new JsonWriter(text);
+            writer.beginArray();
+            for (BaseTool tool : this.tools) {
+                ChatRequestWriter.writeValue(writer, tool.getFunctionDefinition());
+            }
+            writer.endArray();
+            writer.close();
+        } catch (IOException e) {
+            // A StringWriter does not throw
+            throw new IllegalStateException(e);
+        }
+        this.json = text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public List<BaseTool> getTools() {
+        return tools;
+    }
+
+    public int size() {
+        return tools.size();
+    }
+
+    /**
+     * Write the serialized array, e.g. into a request body
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(json);
+    }
+
+    /**
+     * The serialized array, e.g. for hashing
+     */
+    @Override
+    public String toString() {
+        return new String(json, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,87 @@
+package edu.sjsu.android.cactus;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Base class for tools whose parameters are declared as @ToolParam fields of an arguments
+ * class. The schema is generated from the fields and the model's arguments are bound to an
+ * instance of the class before the tool runs.
+ * @param <A> The arguments class
+ */
+public abstract class TypedTool<A> extends BaseTool {
+
+    private final ToolArgumentBinder<A> binder;
+
+    protected TypedTool(Class<A> argumentsType) {
+        this.binder = ToolArgumentBinder.of(argumentsType);
+    }
+
+    @Override
+    public JSONObject getParametersSchema() {
+        return binder.getSchema();
+    }
+
+    @Override
+    public ToolResult execute(JSONObject arguments) {
+        A bound;
+        try {
+            bound = binder.bind(arguments);
+        } catch (IllegalArgumentException e) {
+            return new ToolResult("", e.getMessage());
+        }
+        return run(bound);
+    }
+
+    @Override
+    public CompletableFuture<ToolResult> executeAsync(JSONObject arguments, CancellationSignal signal,
+                                                      Executor executor) {
+        A bound;
+        try {
+            bound = binder.bind(arguments);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(new ToolResult("", e.getMessage()));
+        }
+        return runAsync(bound, signal, executor);
+    }
+
+    /**
+     * Execute the tool with arguments that passed the schema's type and range checks
+     */
+    protected abstract ToolResult run(A arguments);
+
+    /**
+     * Start the tool with bound arguments, see BaseTool.executeAsync. The default runs run() on
+     * the executor.
+     */
+    protected CompletableFuture<ToolResult> runAsync(A arguments, CancellationSignal signal, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> signal.isCanceled()
+                ? ToolResult.cancelled("") : run(arguments), executor);
+    }
+
+    /**
+     * Run run() on the main thread, for tools that start an activity. No background thread
+     * waits for it, and it is skipped if the call is cancelled before its turn comes.
+     */
+    protected CompletableFuture<ToolResult> runOnMainThread(A arguments, CancellationSignal signal) {
+        CompletableFuture<ToolResult> result = new CompletableFuture<>();
+        new Handler(Looper.getMainLooper()).post(() -> {
+            if (signal.isCanceled()) {
+                result.complete(ToolResult.cancelled(""));
+                return;
+            }
+            try {
+                result.complete(run(arguments));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,60 @@
+package edu.sjsu.android.cactus;
+
+/**
+ * Token usage and time of a group of API calls, e.g. one session or one day
+ */
+public class UsageSummary {
+    private String label; // The session ID or the day (yyyy-MM-dd) the calls are grouped by
+    private int callCount;
+    private long promptTokens;
+    private long cachedTokens;
+    private long completionTokens;
+    private long totalMs;
+
+    public UsageSummary(String label, int callCount, long promptTokens, long cachedTokens,
+                        long completionTokens, long totalMs) {
+        this.label = label;
+        this.callCount = callCount;
+        this.promptTokens = promptTokens;
+        this.cachedTokens = cachedTokens;
+        this.completionTokens = completionTokens;
+        this.totalMs = totalMs;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public int getCallCount() {
+        return callCount;
+    }
+
+    public long getPromptTokens() {
+        return promptTokens;
+    }
+
+    public long getCachedTokens() {
+        return cachedTokens;
+    }
+
+    public long getCompletionTokens() {
+        return completionTokens;
+    }
+
+    public long getTotalMs() {
+        return totalMs;
+    }
+
+    /**
+     * Share of prompt tokens served from the provider's prompt cache
+     */
+    public double getCachedFraction() {
+        return promptTokens == 0 ? 0 : (double) cachedTokens / promptTokens;
+    }
+
+    @Override
+    public String toString() {
+        return label + ": " + callCount + " calls, " + promptTokens + " prompt tokens (" + cachedTokens +
+                " cached), " + completionTokens + " completion tokens, " + totalMs + " ms";
+    }
+}